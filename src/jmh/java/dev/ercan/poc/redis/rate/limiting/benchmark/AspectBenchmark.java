@@ -0,0 +1,60 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of going through {@code RateLimitingAspect}: {@code aspect} minus {@code direct} is the
+ * aspect and SpEL key overhead, {@code proxyOnly} is the bare proxy call without any limiter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(8)
+public class AspectBenchmark {
+
+  private static final long CAPACITY = 1_000_000_000L;
+  private static final Duration REFILL_PERIOD = Duration.ofSeconds(1);
+
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+  private AspectBenchmarkTarget target;
+
+  @Setup(Level.Trial)
+  public void setup(BenchmarkContext context) {
+    tokenBucketRateLimiter = context.getBean(TokenBucketRateLimiter.class);
+    target = context.getBean(AspectBenchmarkTarget.class);
+  }
+
+  @Benchmark
+  public boolean direct(BenchmarkKey key) {
+    return tokenBucketRateLimiter.tryConsume("AspectBenchmark", key.key, CAPACITY, CAPACITY,
+        REFILL_PERIOD);
+  }
+
+  @Benchmark
+  public int aspect(BenchmarkKey key) {
+    return target.limited(key.key);
+  }
+
+  @Benchmark
+  public int proxyOnly(BenchmarkKey key) {
+    return target.unlimited(key.key);
+  }
+
+}
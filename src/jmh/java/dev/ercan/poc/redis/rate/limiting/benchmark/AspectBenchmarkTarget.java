@@ -0,0 +1,24 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import dev.ercan.poc.redis.rate.limiting.annotation.FixedWindowRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.TokenBucketRateLimit;
+import org.springframework.stereotype.Component;
+
+@Component
+public class AspectBenchmarkTarget {
+
+  @TokenBucketRateLimit(id = "AspectBenchmark", key = "#key", capacity = 1_000_000_000L, refillRate = 1_000_000_000L, refillPeriod = "1s")
+  public int limited(String key) {
+    return 1;
+  }
+
+  @FixedWindowRateLimit(id = "RejectionBenchmark", key = "#key", limit = 1, windowDuration = "1h")
+  public int rejected(String key) {
+    return 1;
+  }
+
+  public int unlimited(String key) {
+    return 1;
+  }
+
+}
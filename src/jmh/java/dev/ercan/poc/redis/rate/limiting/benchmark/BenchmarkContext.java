@@ -0,0 +1,40 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import dev.ercan.poc.redis.rate.limiting.RedisRateLimitingApplication;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Application context shared by all benchmark threads. The {@code test} profile starts an embedded
+ * Redis through {@code RedisTestConfig}, exactly like the JUnit tests.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkContext {
+
+  private ConfigurableApplicationContext context;
+
+  @Setup(Level.Trial)
+  public void start() {
+    context = new SpringApplicationBuilder(RedisRateLimitingApplication.class)
+        .profiles("test")
+        .web(WebApplicationType.NONE)
+        .logStartupInfo(false)
+        .run();
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() {
+    context.close();
+  }
+
+  public <T> T getBean(Class<T> type) {
+    return context.getBean(type);
+  }
+
+}
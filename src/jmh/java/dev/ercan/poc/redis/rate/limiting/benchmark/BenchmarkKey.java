@@ -0,0 +1,31 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Limiter key used by a benchmark thread: either one key shared by all threads, so that every call
+ * contends on the same Redis key, or a distinct key per thread.
+ */
+@State(Scope.Thread)
+public class BenchmarkKey {
+
+  private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+  @Param({"contended", "distinct"})
+  public String keyMode;
+
+  public String key;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    key = "contended".equals(keyMode)
+        ? "benchmark"
+        : "benchmark-" + THREAD_COUNTER.incrementAndGet();
+  }
+
+}
@@ -0,0 +1,95 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import dev.ercan.poc.redis.rate.limiting.RedisRateLimitingApplication;
+import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compares the time-based algorithms with the timestamp sent by the JVM ({@code client}) against
+ * the scripts reading the Redis {@code TIME} ({@code server}). Each clock gets its own application
+ * context, as the clock is fixed at startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(8)
+public class ClockBenchmark {
+
+  private static final String ID = "ClockBenchmark";
+  private static final long LIMIT = 1_000_000_000L;
+  private static final Duration PERIOD = Duration.ofSeconds(1);
+  private static final Duration WINDOW = Duration.ofSeconds(10);
+
+  @Param({"client", "server"})
+  public String clock;
+
+  private ConfigurableApplicationContext context;
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+  private LeakyBucketRateLimiter leakyBucketRateLimiter;
+  private SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+  private SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new SpringApplicationBuilder(RedisRateLimitingApplication.class)
+        .profiles("test")
+        .properties("rate-limiter.clock=" + clock)
+        .web(WebApplicationType.NONE)
+        .logStartupInfo(false)
+        .run();
+    tokenBucketRateLimiter = context.getBean(TokenBucketRateLimiter.class);
+    leakyBucketRateLimiter = context.getBean(LeakyBucketRateLimiter.class);
+    slidingWindowLogRateLimiter = context.getBean(SlidingWindowLogRateLimiter.class);
+    slidingWindowCounterRateLimiter = context.getBean(SlidingWindowCounterRateLimiter.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() {
+    context.close();
+  }
+
+  @Benchmark
+  public boolean tokenBucket(BenchmarkKey key) {
+    return tokenBucketRateLimiter.tryConsume(ID, key.key, LIMIT, LIMIT, PERIOD);
+  }
+
+  @Benchmark
+  public boolean leakyBucket(BenchmarkKey key) {
+    return leakyBucketRateLimiter.tryConsume(ID, key.key, LIMIT, LIMIT, PERIOD);
+  }
+
+  @Benchmark
+  public boolean slidingWindowLog(BenchmarkKey key) {
+    return slidingWindowLogRateLimiter.tryConsume(ID, key.key, LIMIT, PERIOD);
+  }
+
+  @Benchmark
+  public boolean slidingWindowCounter(BenchmarkKey key) {
+    return slidingWindowCounterRateLimiter.tryConsume(ID, key.key, LIMIT, WINDOW, PERIOD);
+  }
+
+}
@@ -0,0 +1,87 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency percentiles (SampleTime reports p50/p90/p99) of each limiter algorithm
+ * against an embedded Redis. Limits are set high enough that calls are accepted, so every call
+ * runs the full script.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(8)
+public class LimiterBenchmark {
+
+  private static final String ID = "LimiterBenchmark";
+  private static final long LIMIT = 1_000_000_000L;
+  private static final Duration PERIOD = Duration.ofSeconds(1);
+  private static final Duration WINDOW = Duration.ofSeconds(10);
+
+  private FixedWindowRateLimiter fixedWindowRateLimiter;
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+  private LeakyBucketRateLimiter leakyBucketRateLimiter;
+  private SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+  private SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
+
+  @Setup(Level.Trial)
+  public void setup(BenchmarkContext context) {
+    fixedWindowRateLimiter = context.getBean(FixedWindowRateLimiter.class);
+    tokenBucketRateLimiter = context.getBean(TokenBucketRateLimiter.class);
+    leakyBucketRateLimiter = context.getBean(LeakyBucketRateLimiter.class);
+    slidingWindowLogRateLimiter = context.getBean(SlidingWindowLogRateLimiter.class);
+    slidingWindowCounterRateLimiter = context.getBean(SlidingWindowCounterRateLimiter.class);
+  }
+
+  @Benchmark
+  public boolean fixedWindow(BenchmarkKey key) {
+    return fixedWindowRateLimiter.tryConsume(ID, key.key, LIMIT, PERIOD);
+  }
+
+  @Benchmark
+  public boolean tokenBucket(BenchmarkKey key) {
+    return tokenBucketRateLimiter.tryConsume(ID, key.key, LIMIT, LIMIT, PERIOD);
+  }
+
+  @Benchmark
+  public boolean tokenBucketLeased(BenchmarkKey key) {
+    return tokenBucketRateLimiter.tryConsumeLeased(ID, key.key, LIMIT, LIMIT, PERIOD, 100);
+  }
+
+  @Benchmark
+  public boolean leakyBucket(BenchmarkKey key) {
+    return leakyBucketRateLimiter.tryConsume(ID, key.key, LIMIT, LIMIT, PERIOD);
+  }
+
+  @Benchmark
+  public boolean slidingWindowLog(BenchmarkKey key) {
+    return slidingWindowLogRateLimiter.tryConsume(ID, key.key, LIMIT, PERIOD);
+  }
+
+  @Benchmark
+  public boolean slidingWindowCounter(BenchmarkKey key) {
+    return slidingWindowCounterRateLimiter.tryConsume(ID, key.key, LIMIT, WINDOW, PERIOD);
+  }
+
+}
@@ -0,0 +1,75 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import dev.ercan.poc.redis.rate.limiting.RedisRateLimitingApplication;
+import dev.ercan.poc.redis.rate.limiting.exception.RateLimitExceedException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Cost of a rejection through {@code RateLimitingAspect} against the cost of an admission. After
+ * the first call of each key, {@code rejected} is answered by the deny cache, so it measures the
+ * aspect and the exception alone; {@code accepted} includes the Redis round trip. With
+ * {@code headers=false} rejections throw the preallocated exception.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(8)
+public class RejectionBenchmark {
+
+  @Param({"true", "false"})
+  public String headers;
+
+  private ConfigurableApplicationContext context;
+  private AspectBenchmarkTarget target;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new SpringApplicationBuilder(RedisRateLimitingApplication.class)
+        .profiles("test")
+        .properties("rate-limiter.headers.enabled=" + headers)
+        .web(WebApplicationType.NONE)
+        .logStartupInfo(false)
+        .run();
+    target = context.getBean(AspectBenchmarkTarget.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() {
+    context.close();
+  }
+
+  @Benchmark
+  public int accepted(BenchmarkKey key) {
+    return target.limited(key.key);
+  }
+
+  @Benchmark
+  public Object rejected(BenchmarkKey key) {
+    try {
+      return target.rejected(key.key);
+    } catch (RateLimitExceedException ex) {
+      return ex;
+    }
+  }
+
+}
@@ -0,0 +1,71 @@
+package dev.ercan.poc.redis.rate.limiting.benchmark;
+
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of building the keys and arguments of a token bucket call, the way the services did with
+ * {@code String.format} and {@code Long.toString(...).getBytes()} against {@link ScriptArgs}. No
+ * Redis is involved; run with {@code -prof gc} to compare the bytes allocated per call
+ * ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ScriptArgsBenchmark {
+
+  private static final byte[] KEY_PREFIX = ScriptArgs.encode("token_bucket:");
+
+  private final String id = "ScriptArgsBenchmark";
+  private final String key = "192.168.100.200";
+  private final long capacity = 100;
+  private final long refillRate = 10;
+  private final Duration refillPeriod = Duration.ofSeconds(1);
+
+  @Benchmark
+  public void formatted(Blackhole blackhole) {
+    blackhole.consume(new byte[][] {
+        String.format("token_bucket:%s:%s", id, key).getBytes()
+    });
+    blackhole.consume(new byte[][] {
+        Long.toString(System.currentTimeMillis()).getBytes(),
+        Long.toString(capacity).getBytes(),
+        Long.toString(refillRate).getBytes(),
+        Long.toString(refillPeriod.toMillis()).getBytes(),
+        Long.toString(refillPeriod.multipliedBy(capacity / refillRate).toMillis()).getBytes(),
+        Long.toString(1).getBytes(),
+        "0".getBytes()
+    });
+  }
+
+  @Benchmark
+  public void encoded(Blackhole blackhole) {
+    blackhole.consume(new byte[][] {
+        ScriptArgs.key(KEY_PREFIX, id, key)
+    });
+    blackhole.consume(new byte[][] {
+        ScriptArgs.decimal(System.currentTimeMillis()),
+        ScriptArgs.constant(capacity),
+        ScriptArgs.constant(refillRate),
+        ScriptArgs.constant(refillPeriod.toMillis()),
+        ScriptArgs.constant(refillPeriod.toMillis() * (capacity / refillRate)),
+        ScriptArgs.decimal(1),
+        ScriptArgs.flag(false)
+    });
+  }
+
+}
@@ -0,0 +1,31 @@
+package dev.ercan.poc.redis.rate.limiting.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * Guards a method with several limits that are evaluated together in a single Redis call. The
+ * method proceeds only if every limit admits the request, and only then is it counted against
+ * them. Leased token buckets are not supported here, {@code leaseSize} is ignored.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CompositeRateLimit {
+
+  /**
+   * Id under which the combined decisions are reported; each limit keeps its own id and key.
+   */
+  String id();
+
+  /**
+   * Permits consumed from every limit by a call: a number, or a SpEL expression over the method
+   * arguments. The costs of the nested annotations are ignored.
+   */
+  String cost() default "1";
+
+  FixedWindowRateLimit[] fixedWindow() default {};
+  TokenBucketRateLimit[] tokenBucket() default {};
+  LeakyBucketRateLimit[] leakyBucket() default {};
+  SlidingWindowCounterRateLimit[] slidingWindowCounter() default {};
+  SlidingWindowLogRateLimit[] slidingWindowLog() default {};
+
+}
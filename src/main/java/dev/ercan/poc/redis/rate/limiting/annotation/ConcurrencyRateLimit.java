@@ -0,0 +1,23 @@
+package dev.ercan.poc.redis.rate.limiting.annotation;
+
+import java.lang.annotation.*;
+
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConcurrencyRateLimit {
+
+  String id();
+  String key();
+
+  /**
+   * Calls allowed in flight at once.
+   */
+  long limit();
+
+  /**
+   * How long a permit is held at most when it is not released, for example because the node
+   * holding it stopped; well above the longest call.
+   */
+  String leaseDuration() default "30s";
+
+}
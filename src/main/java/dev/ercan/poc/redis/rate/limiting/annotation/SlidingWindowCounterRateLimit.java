@@ -12,4 +12,17 @@ public @interface SlidingWindowCounterRateLimit {
   String windowDuration();
   String subWindowDuration();
 
+  /**
+   * Permits consumed by a call: a number, or a SpEL expression over the method arguments such as
+   * {@code "#items.size()"}.
+   */
+  String cost() default "1";
+
+  /**
+   * Sends concurrent requests for the same key on this node to Redis as one call asking for
+   * several permits, instead of one call per request. Only calls costing one permit are
+   * coalesced.
+   */
+  boolean coalesce() default false;
+
 }
@@ -12,4 +12,23 @@ public @interface TokenBucketRateLimit {
   long refillRate();
   String refillPeriod();
 
+  /**
+   * Tokens leased from Redis at once and served locally; {@code 0} takes every token from Redis.
+   * Calls costing more than one token always take their tokens from Redis.
+   */
+  long leaseSize() default 0;
+
+  /**
+   * Permits consumed by a call: a number, or a SpEL expression over the method arguments such as
+   * {@code "#items.size()"}.
+   */
+  String cost() default "1";
+
+  /**
+   * Sends concurrent requests for the same key on this node to Redis as one call asking for
+   * several permits, instead of one call per request. Only calls costing one permit are
+   * coalesced, and not when {@link #leaseSize()} is set.
+   */
+  boolean coalesce() default false;
+
 }
@@ -0,0 +1,197 @@
+package dev.ercan.poc.redis.rate.limiting.aspect;
+
+import dev.ercan.poc.redis.rate.limiting.annotation.CompositeRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.ConcurrencyRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.FixedWindowRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.LeakyBucketRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.SlidingWindowCounterRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.SlidingWindowLogRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.TokenBucketRateLimit;
+import dev.ercan.poc.redis.rate.limiting.policy.LimitPolicy;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+/**
+ * Annotation values resolved once per annotated method, so that the per-request work in
+ * {@link RateLimitingAspect} is limited to evaluating the key expression.
+ */
+final class RateLimitMetadata {
+
+  /**
+   * MIXED mode compiles the expression after it has been interpreted a few times and falls back to
+   * interpretation if the compiled form fails, e.g. when a different argument type is passed.
+   */
+  private static final ExpressionParser EXPRESSION_PARSER = new SpelExpressionParser(
+      new SpelParserConfiguration(SpelCompilerMode.MIXED,
+          RateLimitMetadata.class.getClassLoader()));
+
+  private static final ParameterNameDiscoverer PARAMETER_NAME_DISCOVERER =
+      new DefaultParameterNameDiscoverer();
+
+  private RateLimitMetadata() {
+  }
+
+  /**
+   * SpEL expression evaluated against the arguments of the annotated method.
+   */
+  record MethodExpression(Expression expression, String[] parameterNames) {
+
+    static MethodExpression of(Method method, String spel) {
+      String[] parameterNames = PARAMETER_NAME_DISCOVERER.getParameterNames(method);
+      return new MethodExpression(EXPRESSION_PARSER.parseExpression(spel),
+          parameterNames != null ? parameterNames : new String[0]);
+    }
+
+  }
+
+  /**
+   * Permits consumed per call. Numeric costs, including the default of one, are parsed once and
+   * need no evaluation; otherwise {@code expression} is evaluated on each call.
+   */
+  record Cost(long permits, MethodExpression expression) {
+
+    static Cost of(Method method, String cost) {
+      long permits;
+      try {
+        permits = Long.parseLong(cost.trim());
+      } catch (NumberFormatException ex) {
+        return new Cost(0, MethodExpression.of(method, cost));
+      }
+      if (permits < 1) {
+        throw new IllegalArgumentException("Rate limit cost of " + method + " must be at least 1");
+      }
+      return new Cost(permits, null);
+    }
+
+  }
+
+  record FixedWindow(String id, MethodExpression key, long limit, Duration windowDuration,
+                     Cost cost, boolean coalesce) {
+
+    static FixedWindow of(Method method, FixedWindowRateLimit annotation) {
+      return new FixedWindow(annotation.id(), MethodExpression.of(method, annotation.key()),
+          annotation.limit(), DurationStyle.detectAndParse(annotation.windowDuration()),
+          Cost.of(method, annotation.cost()), annotation.coalesce());
+    }
+
+  }
+
+  record TokenBucket(String id, MethodExpression key, long capacity, long refillRate,
+                     Duration refillPeriod, long leaseSize, Cost cost, boolean coalesce) {
+
+    static TokenBucket of(Method method, TokenBucketRateLimit annotation) {
+      return new TokenBucket(annotation.id(), MethodExpression.of(method, annotation.key()),
+          annotation.capacity(), annotation.refillRate(),
+          DurationStyle.detectAndParse(annotation.refillPeriod()), annotation.leaseSize(),
+          Cost.of(method, annotation.cost()), annotation.coalesce());
+    }
+
+  }
+
+  record LeakyBucket(String id, MethodExpression key, long capacity, long leakRate,
+                     Duration leakPeriod, Cost cost, boolean coalesce) {
+
+    static LeakyBucket of(Method method, LeakyBucketRateLimit annotation) {
+      return new LeakyBucket(annotation.id(), MethodExpression.of(method, annotation.key()),
+          annotation.capacity(), annotation.leakRate(),
+          DurationStyle.detectAndParse(annotation.leakPeriod()), Cost.of(method, annotation.cost()),
+          annotation.coalesce());
+    }
+
+  }
+
+  record SlidingWindowCounter(String id, MethodExpression key, long limit, Duration windowDuration,
+                              Duration subWindowDuration, Cost cost, boolean coalesce) {
+
+    static SlidingWindowCounter of(Method method, SlidingWindowCounterRateLimit annotation) {
+      return new SlidingWindowCounter(annotation.id(), MethodExpression.of(method, annotation.key()),
+          annotation.limit(), DurationStyle.detectAndParse(annotation.windowDuration()),
+          DurationStyle.detectAndParse(annotation.subWindowDuration()),
+          Cost.of(method, annotation.cost()), annotation.coalesce());
+    }
+
+  }
+
+  record SlidingWindowLog(String id, MethodExpression key, long limit, Duration windowDuration,
+                          Cost cost, boolean coalesce) {
+
+    static SlidingWindowLog of(Method method, SlidingWindowLogRateLimit annotation) {
+      return new SlidingWindowLog(annotation.id(), MethodExpression.of(method, annotation.key()),
+          annotation.limit(), DurationStyle.detectAndParse(annotation.windowDuration()),
+          Cost.of(method, annotation.cost()), annotation.coalesce());
+    }
+
+  }
+
+  record Concurrency(String id, MethodExpression key, long limit, Duration leaseDuration) {
+
+    static Concurrency of(Method method, ConcurrencyRateLimit annotation) {
+      return new Concurrency(annotation.id(), MethodExpression.of(method, annotation.key()),
+          annotation.limit(), DurationStyle.detectAndParse(annotation.leaseDuration()));
+    }
+
+  }
+
+  record Composite(String id, List<Entry> limits, Cost cost) {
+
+    /**
+     * A limit of the composite, completed with the evaluated key and the current policy of its id
+     * on each request.
+     */
+    record Entry(String id, MethodExpression key,
+                 BiFunction<String, LimitPolicy, CompositeLimit> limit) {
+
+    }
+
+    static Composite of(Method method, CompositeRateLimit annotation) {
+      List<Entry> limits = new ArrayList<>();
+      for (FixedWindowRateLimit limit : annotation.fixedWindow()) {
+        FixedWindow metadata = FixedWindow.of(method, limit);
+        limits.add(new Entry(metadata.id(), metadata.key(), (key, policy) ->
+            new CompositeLimit.FixedWindow(metadata.id(), key, policy.limit(metadata.limit()),
+                policy.windowDuration(metadata.windowDuration()))));
+      }
+      for (TokenBucketRateLimit limit : annotation.tokenBucket()) {
+        TokenBucket metadata = TokenBucket.of(method, limit);
+        limits.add(new Entry(metadata.id(), metadata.key(), (key, policy) ->
+            new CompositeLimit.TokenBucket(metadata.id(), key, policy.limit(metadata.capacity()),
+                policy.rate(metadata.refillRate()), policy.period(metadata.refillPeriod()))));
+      }
+      for (LeakyBucketRateLimit limit : annotation.leakyBucket()) {
+        LeakyBucket metadata = LeakyBucket.of(method, limit);
+        limits.add(new Entry(metadata.id(), metadata.key(), (key, policy) ->
+            new CompositeLimit.LeakyBucket(metadata.id(), key, policy.limit(metadata.capacity()),
+                policy.rate(metadata.leakRate()), policy.period(metadata.leakPeriod()))));
+      }
+      for (SlidingWindowCounterRateLimit limit : annotation.slidingWindowCounter()) {
+        SlidingWindowCounter metadata = SlidingWindowCounter.of(method, limit);
+        limits.add(new Entry(metadata.id(), metadata.key(), (key, policy) ->
+            new CompositeLimit.SlidingWindowCounter(metadata.id(), key,
+                policy.limit(metadata.limit()), policy.windowDuration(metadata.windowDuration()),
+                policy.subWindowDuration(metadata.subWindowDuration()))));
+      }
+      for (SlidingWindowLogRateLimit limit : annotation.slidingWindowLog()) {
+        SlidingWindowLog metadata = SlidingWindowLog.of(method, limit);
+        limits.add(new Entry(metadata.id(), metadata.key(), (key, policy) ->
+            new CompositeLimit.SlidingWindowLog(metadata.id(), key,
+                policy.limit(metadata.limit()), policy.windowDuration(metadata.windowDuration()))));
+      }
+      return new Composite(annotation.id(), List.copyOf(limits),
+          Cost.of(method, annotation.cost()));
+    }
+
+  }
+
+}
@@ -1,123 +1,487 @@
 package dev.ercan.poc.redis.rate.limiting.aspect;
 
+import dev.ercan.poc.redis.rate.limiting.annotation.CompositeRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.ConcurrencyRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.FixedWindowRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.LeakyBucketRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.SlidingWindowCounterRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.SlidingWindowLogRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.TokenBucketRateLimit;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.Composite;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.Concurrency;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.Cost;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.FixedWindow;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.MethodExpression;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.LeakyBucket;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.SlidingWindowCounter;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.SlidingWindowLog;
+import dev.ercan.poc.redis.rate.limiting.aspect.RateLimitMetadata.TokenBucket;
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
 import dev.ercan.poc.redis.rate.limiting.exception.RateLimitExceedException;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.policy.LimitPolicy;
+import dev.ercan.poc.redis.rate.limiting.policy.PolicyRegistry;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.ConcurrencyRateLimiter;
 import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
 import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.RateLimitDecision;
 import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
 import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
 import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.web.RateLimitHeaders;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
-import org.springframework.boot.convert.DurationStyle;
 import org.springframework.expression.EvaluationContext;
-import org.springframework.expression.ExpressionParser;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Aspect
 @Component
 @RequiredArgsConstructor
 public class RateLimitingAspect {
 
+  private static final Runnable NO_RELEASE = () -> {
+  };
+
+  /**
+   * Where admitted non-blocking calls proceed when the decision completed on a Redis I/O thread,
+   * which must never run the advised method: a blocking or synchronous Redis call there would
+   * stall every connection served by that event loop.
+   */
+  private static final Scheduler HANDOFF_SCHEDULER = Schedulers.boundedElastic();
+  private static final Executor HANDOFF_EXECUTOR = task -> HANDOFF_SCHEDULER.schedule(task);
+
   private final FixedWindowRateLimiter fixedWindowRateLimiter;
   private final TokenBucketRateLimiter tokenBucketRateLimiter;
   private final LeakyBucketRateLimiter leakyBucketRateLimiter;
   private final SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
   private final SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+  private final CompositeRateLimiter compositeRateLimiter;
+  private final ConcurrencyRateLimiter concurrencyRateLimiter;
+  private final LimiterMetrics limiterMetrics;
+  private final RateLimiterProperties properties;
+  private final PolicyRegistry policyRegistry;
+
+  private final Map<Method, FixedWindow> fixedWindowMetadata = new ConcurrentHashMap<>();
+  private final Map<Method, TokenBucket> tokenBucketMetadata = new ConcurrentHashMap<>();
+  private final Map<Method, LeakyBucket> leakyBucketMetadata = new ConcurrentHashMap<>();
+  private final Map<Method, SlidingWindowCounter> slidingWindowCounterMetadata = new ConcurrentHashMap<>();
+  private final Map<Method, SlidingWindowLog> slidingWindowLogMetadata = new ConcurrentHashMap<>();
+  private final Map<Method, Composite> compositeMetadata = new ConcurrentHashMap<>();
+  private final Map<Method, Concurrency> concurrencyMetadata = new ConcurrentHashMap<>();
 
   @Around("@annotation(fixedWindowRateLimit)")
   public Object fixedWindowRateLimit(ProceedingJoinPoint pjp,
       FixedWindowRateLimit fixedWindowRateLimit) throws Throwable {
-    String key = getSpELKeyValue(pjp, fixedWindowRateLimit.key());
-    Duration windowDuration = DurationStyle.detectAndParse(fixedWindowRateLimit.windowDuration());
+    FixedWindow metadata = getMetadata(fixedWindowMetadata, pjp,
+        method -> FixedWindow.of(method, fixedWindowRateLimit));
+    String key = getSpELKeyValue(pjp, metadata.key());
+    LimitPolicy policy = policyRegistry.policy(metadata.id());
+    long limit = policy.limit(metadata.limit());
+    Duration windowDuration = policy.windowDuration(metadata.windowDuration());
+    long permits = getCost(pjp, metadata.cost());
 
-    if (fixedWindowRateLimiter.tryConsume(fixedWindowRateLimit.id(), key,
-        fixedWindowRateLimit.limit(), windowDuration)) {
-      return pjp.proceed();
+    if (metadata.coalesce() && permits == 1) {
+      return enforceCoalesced(pjp, FixedWindowRateLimiter.LIMITER, limit,
+          () -> fixedWindowRateLimiter.tryConsumeCoalesced(metadata.id(), key,
+              limit, windowDuration));
     }
 
-    throw new RateLimitExceedException();
+    return enforce(pjp, FixedWindowRateLimiter.LIMITER,
+        () -> fixedWindowRateLimiter.decide(metadata.id(), key,
+            limit, windowDuration, permits),
+        () -> fixedWindowRateLimiter.decideAsync(metadata.id(), key,
+            limit, windowDuration, permits),
+        () -> fixedWindowRateLimiter.decideReactive(metadata.id(), key,
+            limit, windowDuration, permits));
   }
 
   @Around("@annotation(tokenBucketRateLimit)")
   public Object tokenBucketLimit(ProceedingJoinPoint pjp, TokenBucketRateLimit tokenBucketRateLimit)
       throws Throwable {
-    String key = getSpELKeyValue(pjp, tokenBucketRateLimit.key());
-    Duration refillPeriod = DurationStyle.detectAndParse(tokenBucketRateLimit.refillPeriod());
+    TokenBucket metadata = getMetadata(tokenBucketMetadata, pjp,
+        method -> TokenBucket.of(method, tokenBucketRateLimit));
+    String key = getSpELKeyValue(pjp, metadata.key());
+    LimitPolicy policy = policyRegistry.policy(metadata.id());
+    long capacity = policy.limit(metadata.capacity());
+    long refillRate = policy.rate(metadata.refillRate());
+    Duration refillPeriod = policy.period(metadata.refillPeriod());
+    long permits = getCost(pjp, metadata.cost());
+
+    if (metadata.leaseSize() > 0 && permits == 1) {
+      return enforce(pjp, TokenBucketRateLimiter.LIMITER,
+          () -> RateLimitDecision.of(tokenBucketRateLimiter.tryConsumeLeased(metadata.id(), key,
+              capacity, refillRate, refillPeriod, metadata.leaseSize()), capacity),
+          () -> tokenBucketRateLimiter.tryConsumeLeasedAsync(metadata.id(), key, capacity,
+                  refillRate, refillPeriod, metadata.leaseSize())
+              .thenApply(allowed -> RateLimitDecision.of(allowed, capacity)),
+          () -> tokenBucketRateLimiter.tryConsumeLeasedReactive(metadata.id(), key, capacity,
+                  refillRate, refillPeriod, metadata.leaseSize())
+              .map(allowed -> RateLimitDecision.of(allowed, capacity)));
+    }
 
-    if (tokenBucketRateLimiter.tryConsume(tokenBucketRateLimit.id(), key,
-        tokenBucketRateLimit.capacity(), tokenBucketRateLimit.refillRate(), refillPeriod)) {
-      return pjp.proceed();
+    if (metadata.coalesce() && permits == 1) {
+      return enforceCoalesced(pjp, TokenBucketRateLimiter.LIMITER, capacity,
+          () -> tokenBucketRateLimiter.tryConsumeCoalesced(metadata.id(), key,
+              capacity, refillRate, refillPeriod));
     }
 
-    throw new RateLimitExceedException();
+    return enforce(pjp, TokenBucketRateLimiter.LIMITER,
+        () -> tokenBucketRateLimiter.decide(metadata.id(), key,
+            capacity, refillRate, refillPeriod, permits),
+        () -> tokenBucketRateLimiter.decideAsync(metadata.id(), key,
+            capacity, refillRate, refillPeriod, permits),
+        () -> tokenBucketRateLimiter.decideReactive(metadata.id(), key,
+            capacity, refillRate, refillPeriod, permits));
   }
 
   @Around("@annotation(leakyBucketRateLimit)")
   public Object leakyBucketRateLimit(ProceedingJoinPoint pjp, LeakyBucketRateLimit leakyBucketRateLimit)
       throws Throwable {
-    String key = getSpELKeyValue(pjp, leakyBucketRateLimit.key());
-    Duration leakPeriod = DurationStyle.detectAndParse(leakyBucketRateLimit.leakPeriod());
+    LeakyBucket metadata = getMetadata(leakyBucketMetadata, pjp,
+        method -> LeakyBucket.of(method, leakyBucketRateLimit));
+    String key = getSpELKeyValue(pjp, metadata.key());
+    LimitPolicy policy = policyRegistry.policy(metadata.id());
+    long capacity = policy.limit(metadata.capacity());
+    long leakRate = policy.rate(metadata.leakRate());
+    Duration leakPeriod = policy.period(metadata.leakPeriod());
+    long permits = getCost(pjp, metadata.cost());
 
-    if (leakyBucketRateLimiter.tryConsume(leakyBucketRateLimit.id(), key,
-        leakyBucketRateLimit.capacity(), leakyBucketRateLimit.leakRate(), leakPeriod)) {
-      return pjp.proceed();
+    if (metadata.coalesce() && permits == 1) {
+      return enforceCoalesced(pjp, LeakyBucketRateLimiter.LIMITER, capacity,
+          () -> leakyBucketRateLimiter.tryConsumeCoalesced(metadata.id(), key,
+              capacity, leakRate, leakPeriod));
     }
 
-    throw new RateLimitExceedException();
+    return enforce(pjp, LeakyBucketRateLimiter.LIMITER,
+        () -> leakyBucketRateLimiter.decide(metadata.id(), key,
+            capacity, leakRate, leakPeriod, permits),
+        () -> leakyBucketRateLimiter.decideAsync(metadata.id(), key,
+            capacity, leakRate, leakPeriod, permits),
+        () -> leakyBucketRateLimiter.decideReactive(metadata.id(), key,
+            capacity, leakRate, leakPeriod, permits));
   }
 
   @Around("@annotation(slidingWindowCounterRateLimit)")
   public Object slidingWindowCounterRateLimit(ProceedingJoinPoint pjp, SlidingWindowCounterRateLimit slidingWindowCounterRateLimit)
       throws Throwable {
-    String key = getSpELKeyValue(pjp, slidingWindowCounterRateLimit.key());
-    Duration windowDuration = DurationStyle.detectAndParse(slidingWindowCounterRateLimit.windowDuration());
-    Duration subWindowDuration = DurationStyle.detectAndParse(slidingWindowCounterRateLimit.subWindowDuration());
+    SlidingWindowCounter metadata = getMetadata(slidingWindowCounterMetadata, pjp,
+        method -> SlidingWindowCounter.of(method, slidingWindowCounterRateLimit));
+    String key = getSpELKeyValue(pjp, metadata.key());
+    LimitPolicy policy = policyRegistry.policy(metadata.id());
+    long limit = policy.limit(metadata.limit());
+    Duration windowDuration = policy.windowDuration(metadata.windowDuration());
+    Duration subWindowDuration = policy.subWindowDuration(metadata.subWindowDuration());
+    long permits = getCost(pjp, metadata.cost());
 
-    if (slidingWindowCounterRateLimiter.tryConsume(slidingWindowCounterRateLimit.id(), key,
-        slidingWindowCounterRateLimit.limit(), windowDuration, subWindowDuration)) {
-      return pjp.proceed();
+    if (metadata.coalesce() && permits == 1) {
+      return enforceCoalesced(pjp, SlidingWindowCounterRateLimiter.LIMITER, limit,
+          () -> slidingWindowCounterRateLimiter.tryConsumeCoalesced(metadata.id(), key,
+              limit, windowDuration, subWindowDuration));
     }
 
-    throw new RateLimitExceedException();
+    return enforce(pjp, SlidingWindowCounterRateLimiter.LIMITER,
+        () -> slidingWindowCounterRateLimiter.decide(metadata.id(), key,
+            limit, windowDuration, subWindowDuration, permits),
+        () -> slidingWindowCounterRateLimiter.decideAsync(metadata.id(), key,
+            limit, windowDuration, subWindowDuration, permits),
+        () -> slidingWindowCounterRateLimiter.decideReactive(metadata.id(), key,
+            limit, windowDuration, subWindowDuration, permits));
   }
 
   @Around("@annotation(slidingWindowLogRateLimit)")
   public Object slidingWindowLogRateLimit(ProceedingJoinPoint pjp, SlidingWindowLogRateLimit slidingWindowLogRateLimit)
       throws Throwable {
-    String key = getSpELKeyValue(pjp, slidingWindowLogRateLimit.key());
-    Duration windowDuration = DurationStyle.detectAndParse(slidingWindowLogRateLimit.windowDuration());
+    SlidingWindowLog metadata = getMetadata(slidingWindowLogMetadata, pjp,
+        method -> SlidingWindowLog.of(method, slidingWindowLogRateLimit));
+    String key = getSpELKeyValue(pjp, metadata.key());
+    LimitPolicy policy = policyRegistry.policy(metadata.id());
+    long limit = policy.limit(metadata.limit());
+    Duration windowDuration = policy.windowDuration(metadata.windowDuration());
+    long permits = getCost(pjp, metadata.cost());
+
+    if (metadata.coalesce() && permits == 1) {
+      return enforceCoalesced(pjp, SlidingWindowLogRateLimiter.LIMITER, limit,
+          () -> slidingWindowLogRateLimiter.tryConsumeCoalesced(metadata.id(), key,
+              limit, windowDuration));
+    }
+
+    return enforce(pjp, SlidingWindowLogRateLimiter.LIMITER,
+        () -> slidingWindowLogRateLimiter.decide(metadata.id(), key,
+            limit, windowDuration, permits),
+        () -> slidingWindowLogRateLimiter.decideAsync(metadata.id(), key,
+            limit, windowDuration, permits),
+        () -> slidingWindowLogRateLimiter.decideReactive(metadata.id(), key,
+            limit, windowDuration, permits));
+  }
+
+  @Around("@annotation(compositeRateLimit)")
+  public Object compositeRateLimit(ProceedingJoinPoint pjp, CompositeRateLimit compositeRateLimit)
+      throws Throwable {
+    Composite metadata = getMetadata(compositeMetadata, pjp,
+        method -> Composite.of(method, compositeRateLimit));
+    long permits = getCost(pjp, metadata.cost());
+    List<CompositeLimit> limits = new ArrayList<>(metadata.limits().size());
+    for (Composite.Entry entry : metadata.limits()) {
+      limits.add(entry.limit().apply(getSpELKeyValue(pjp, entry.key()),
+          policyRegistry.policy(entry.id())));
+    }
+
+    return enforce(pjp, CompositeRateLimiter.LIMITER,
+        () -> compositeRateLimiter.decide(metadata.id(), limits, permits),
+        () -> compositeRateLimiter.decideAsync(metadata.id(), limits, permits),
+        () -> compositeRateLimiter.decideReactive(metadata.id(), limits, permits));
+  }
+
+  /**
+   * Holds a permit of the concurrency limiter while the call runs: until it returns, or for
+   * {@link Mono}, {@link Flux} and {@link CompletionStage} results until they complete, fail or are
+   * cancelled.
+   */
+  @Around("@annotation(concurrencyRateLimit)")
+  public Object concurrencyRateLimit(ProceedingJoinPoint pjp,
+      ConcurrencyRateLimit concurrencyRateLimit) throws Throwable {
+    Concurrency metadata = getMetadata(concurrencyMetadata, pjp,
+        method -> Concurrency.of(method, concurrencyRateLimit));
+    String key = getSpELKeyValue(pjp, metadata.key());
+    long limit = policyRegistry.policy(metadata.id()).limit(metadata.limit());
+    String leaseId = concurrencyRateLimiter.newLeaseId();
+
+    return enforce(pjp, ConcurrencyRateLimiter.LIMITER,
+        () -> concurrencyRateLimiter.acquire(metadata.id(), key,
+            limit, metadata.leaseDuration(), leaseId),
+        () -> concurrencyRateLimiter.acquireAsync(metadata.id(), key,
+            limit, metadata.leaseDuration(), leaseId),
+        () -> concurrencyRateLimiter.acquireReactive(metadata.id(), key,
+            limit, metadata.leaseDuration(), leaseId),
+        () -> concurrencyRateLimiter.release(metadata.id(), key, leaseId));
+  }
+
+  private Object enforce(ProceedingJoinPoint pjp, String algorithm,
+      Supplier<RateLimitDecision> blocking, Supplier<CompletionStage<RateLimitDecision>> async,
+      Supplier<Mono<RateLimitDecision>> reactive) throws Throwable {
+    return enforce(pjp, algorithm, blocking, async, reactive, NO_RELEASE);
+  }
+
+  /**
+   * Chooses the limiter call matching the return type of the intercepted method, so that methods
+   * returning {@link Mono}, {@link Flux} or {@link CompletionStage} never block the calling thread
+   * on Redis. The time until the decision is known is recorded per algorithm.
+   * <p>
+   * The rate limit headers of an admitted call are set on the current response while it is not
+   * committed yet; a rejected call carries its decision in the {@link RateLimitExceedException}.
+   * With the headers disabled neither is needed and rejections throw a preallocated exception.
+   * <p>
+   * {@code release} runs once an admitted call has finished.
+   * <p>
+   * Non-blocking decisions complete on the Redis I/O thread, so admitted calls proceed on
+   * {@link #HANDOFF_SCHEDULER} instead; decisions that were already made on the calling thread,
+   * such as those of the in-memory backend, proceed there.
+   */
+  private Object enforce(ProceedingJoinPoint pjp, String algorithm,
+      Supplier<RateLimitDecision> blocking, Supplier<CompletionStage<RateLimitDecision>> async,
+      Supplier<Mono<RateLimitDecision>> reactive, Runnable release) throws Throwable {
+    Class<?> returnType = ((MethodSignature) pjp.getSignature()).getReturnType();
+    Timer timer = limiterMetrics.aspectTimer(algorithm);
+    HttpServletResponse response = currentResponse();
+
+    if (Mono.class.isAssignableFrom(returnType)) {
+      return timed(reactive, timer).flatMap(decision -> admit(decision, response)
+          ? releasing(Mono.defer(() -> (Mono<?>) proceed(pjp)).subscribeOn(HANDOFF_SCHEDULER),
+              release)
+          : Mono.error(rejection(decision)));
+    }
+
+    if (Flux.class.isAssignableFrom(returnType)) {
+      return timed(reactive, timer).flatMapMany(decision -> admit(decision, response)
+          ? releasing(Flux.defer(() -> (Flux<?>) proceed(pjp)).subscribeOn(HANDOFF_SCHEDULER),
+              release)
+          : Flux.error(rejection(decision)));
+    }
+
+    if (CompletionStage.class.isAssignableFrom(returnType)) {
+      long start = System.nanoTime();
+      CompletableFuture<RateLimitDecision> decided = async.get()
+          .whenComplete((decision, ex) -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+          .toCompletableFuture();
+      Function<RateLimitDecision, CompletionStage<Object>> next = decision -> admit(decision, response)
+          ? proceedAsync(pjp, release)
+          : CompletableFuture.failedFuture(rejection(decision));
+      return decided.isDone()
+          ? decided.thenCompose(next)
+          : decided.thenComposeAsync(next, HANDOFF_EXECUTOR);
+    }
+
+    long start = System.nanoTime();
+    RateLimitDecision decision = blocking.get();
+    timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    if (admit(decision, response)) {
+      try {
+        return pjp.proceed();
+      } finally {
+        release.run();
+      }
+    }
+
+    throw rejection(decision);
+  }
+
+  /**
+   * Coalesced limiter calls are asynchronous only; blocking methods wait for the batch they joined.
+   * They only tell whether the call was admitted, so only the limit is reported.
+   */
+  private Object enforceCoalesced(ProceedingJoinPoint pjp, String algorithm, long limit,
+      Supplier<CompletionStage<Boolean>> coalesced) throws Throwable {
+    Supplier<CompletionStage<RateLimitDecision>> decision = () -> coalesced.get()
+        .thenApply(allowed -> RateLimitDecision.of(allowed, limit));
+    return enforce(pjp, algorithm,
+        () -> join(decision.get()),
+        decision,
+        () -> Mono.fromCompletionStage(decision));
+  }
+
+  private RateLimitDecision join(CompletionStage<RateLimitDecision> stage) {
+    try {
+      return stage.toCompletableFuture().join();
+    } catch (CompletionException ex) {
+      throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+    }
+  }
+
+  private Mono<RateLimitDecision> timed(Supplier<Mono<RateLimitDecision>> reactive, Timer timer) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      return reactive.get()
+          .doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    });
+  }
+
+  private boolean admit(RateLimitDecision decision, HttpServletResponse response) {
+    if (decision.allowed() && response != null && !response.isCommitted()) {
+      RateLimitHeaders.of(decision).forEach((name, values) -> response.setHeader(name, values.get(0)));
+    }
+    return decision.allowed();
+  }
+
+  private RateLimitExceedException rejection(RateLimitDecision decision) {
+    return properties.getHeaders().isEnabled()
+        ? new RateLimitExceedException(decision)
+        : RateLimitExceedException.REJECTED;
+  }
 
-    if (slidingWindowLogRateLimiter.tryConsume(slidingWindowLogRateLimit.id(), key,
-        slidingWindowLogRateLimit.limit(), windowDuration)) {
-      return pjp.proceed();
+  /**
+   * The response of the request being handled, looked up on the calling thread since limiter
+   * decisions may complete on another one. {@code null} outside of a servlet request or with the
+   * headers disabled.
+   */
+  private HttpServletResponse currentResponse() {
+    if (!properties.getHeaders().isEnabled()) {
+      return null;
     }
+    return RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+        ? attributes.getResponse()
+        : null;
+  }
 
-    throw new RateLimitExceedException();
+  @SneakyThrows
+  private Object proceed(ProceedingJoinPoint pjp) {
+    return pjp.proceed();
   }
 
-  private String getSpELKeyValue(ProceedingJoinPoint pjp, String spelKey) {
-    MethodSignature signature = (MethodSignature) pjp.getSignature();
+  @SneakyThrows
+  @SuppressWarnings("unchecked")
+  private CompletionStage<Object> proceedAsync(ProceedingJoinPoint pjp, Runnable release) {
+    if (release == NO_RELEASE) {
+      return (CompletionStage<Object>) pjp.proceed();
+    }
+
+    CompletionStage<Object> stage;
+    try {
+      stage = (CompletionStage<Object>) pjp.proceed();
+    } catch (Throwable ex) {
+      release.run();
+      throw ex;
+    }
+    return stage.whenComplete((result, ex) -> release.run());
+  }
 
+  private static Mono<?> releasing(Mono<?> mono, Runnable release) {
+    return release == NO_RELEASE ? mono : mono.doFinally(signal -> release.run());
+  }
+
+  private static Flux<?> releasing(Flux<?> flux, Runnable release) {
+    return release == NO_RELEASE ? flux : flux.doFinally(signal -> release.run());
+  }
+
+  private <T> T getMetadata(Map<Method, T> cache, ProceedingJoinPoint pjp,
+      Function<Method, T> factory) {
+    Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+    T metadata = cache.get(method);
+    return metadata != null ? metadata : cache.computeIfAbsent(method, factory);
+  }
+
+  private String getSpELKeyValue(ProceedingJoinPoint pjp, MethodExpression methodExpression) {
+    return methodExpression.expression()
+        .getValue(evaluationContext(pjp, methodExpression), String.class);
+  }
+
+  /**
+   * Permits the call costs. An expression evaluating to less than one permit is a mistake in the
+   * annotation or the arguments, and is rejected rather than letting the call through for free.
+   */
+  private long getCost(ProceedingJoinPoint pjp, Cost cost) {
+    if (cost.expression() == null) {
+      return cost.permits();
+    }
+
+    Long permits = cost.expression().expression()
+        .getValue(evaluationContext(pjp, cost.expression()), Long.class);
+    if (permits == null) {
+      return 1;
+    }
+    if (permits < 1) {
+      throw new IllegalArgumentException("Rate limit cost of " + pjp.getSignature().toShortString()
+          + " must be at least 1, was " + permits);
+    }
+    return permits;
+  }
+
+  private EvaluationContext evaluationContext(ProceedingJoinPoint pjp,
+      MethodExpression methodExpression) {
     EvaluationContext context = new StandardEvaluationContext();
     Object[] args = pjp.getArgs();
-    String[] paramNames = signature.getParameterNames();
-    for (int i = 0; i < args.length; i++) {
+    String[] paramNames = methodExpression.parameterNames();
+    for (int i = 0; i < args.length && i < paramNames.length; i++) {
       context.setVariable(paramNames[i], args[i]);
     }
-
-    ExpressionParser parser = new SpelExpressionParser();
-    return parser.parseExpression(spelKey).getValue(context, String.class);
+    return context;
   }
 
 }
@@ -0,0 +1,94 @@
+package dev.ercan.poc.redis.rate.limiting.cache;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.script.RedisKey;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process cache of limiter keys that Redis has already rejected, together with the time at
+ * which the rejection expires (end of the fixed window, next token bucket refill).
+ * <p>
+ * While an entry is live, limiters reject the key without a Redis round trip. The cache is bounded:
+ * once full, expired entries are purged (at most once per purge interval) and new rejections are
+ * not cached until there is room again, which only costs the Redis call it would have saved.
+ */
+@Component
+public class DenyCache {
+
+  private static final long PURGE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final boolean enabled;
+  private final int maxSize;
+  private final Map<RedisKey, Long> deniedUntil = new ConcurrentHashMap<>();
+  private final AtomicLong nextPurge = new AtomicLong();
+
+  public DenyCache(RateLimiterProperties properties) {
+    this.enabled = properties.getDenyCache().isEnabled();
+    this.maxSize = properties.getDenyCache().getMaxSize();
+  }
+
+  public boolean isDenied(RedisKey key) {
+    return deniedMillis(key) > 0;
+  }
+
+  /**
+   * Time in millis, rounded up, for which {@code key} is still rejected, or 0 when it is not.
+   */
+  public long deniedMillis(RedisKey key) {
+    if (!enabled) {
+      return 0;
+    }
+
+    Long until = deniedUntil.get(key);
+    if (until == null) {
+      return 0;
+    }
+    long left = until - System.nanoTime();
+    if (left > 0) {
+      return Math.ceilDiv(left, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    deniedUntil.remove(key, until);
+    return 0;
+  }
+
+  public void deny(RedisKey key, long millis) {
+    if (!enabled || millis <= 0) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    if (deniedUntil.size() >= maxSize && !purgeExpired(now)) {
+      return;
+    }
+    deniedUntil.put(key, now + TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  public void clear() {
+    deniedUntil.clear();
+  }
+
+  /**
+   * Forgets the rejections of the limits with these ids, so that a changed limit is asked again
+   * rather than rejected until the old expiry.
+   */
+  public void invalidate(Set<String> ids) {
+    if (!ids.isEmpty()) {
+      deniedUntil.keySet().removeIf(key -> key.hasIdIn(ids));
+    }
+  }
+
+  private boolean purgeExpired(long now) {
+    long purgeAt = nextPurge.get();
+    if (now - purgeAt >= 0 && nextPurge.compareAndSet(purgeAt, now + PURGE_INTERVAL_NANOS)) {
+      deniedUntil.values().removeIf(until -> now - until >= 0);
+    }
+    return deniedUntil.size() < maxSize;
+  }
+
+}
@@ -0,0 +1,17 @@
+package dev.ercan.poc.redis.rate.limiting.clock;
+
+public enum ClockSource {
+
+  /**
+   * Each node sends its own time with every script call. Nodes whose clocks drift apart disagree
+   * on refills, leaks and window boundaries of the keys they share.
+   */
+  CLIENT,
+
+  /**
+   * No time is sent; the scripts read it from Redis with {@code TIME}, so all nodes share one clock.
+   * Needs script effects replication, which is the default since Redis 5.
+   */
+  SERVER
+
+}
@@ -0,0 +1,45 @@
+package dev.ercan.poc.redis.rate.limiting.clock;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import org.springframework.stereotype.Component;
+
+/**
+ * Time argument of the limiter scripts. With the {@link ClockSource#SERVER server} clock it is
+ * empty, which makes the scripts read the time from Redis instead.
+ */
+@Component
+public class LimiterClock {
+
+  private static final byte[] SERVER_TIME = new byte[0];
+
+  private final boolean serverTime;
+
+  public LimiterClock(RateLimiterProperties properties) {
+    this.serverTime = properties.getClock() == ClockSource.SERVER;
+  }
+
+  public byte[] now() {
+    return at(millis());
+  }
+
+  /**
+   * The time argument for a time this node read with {@link #millis()}.
+   */
+  public byte[] at(long millis) {
+    return serverTime ? SERVER_TIME : ScriptArgs.decimal(millis);
+  }
+
+  /**
+   * This node's time. With the server clock the scripts use the Redis time instead, which may be
+   * somewhat off.
+   */
+  public long millis() {
+    return System.currentTimeMillis();
+  }
+
+  public boolean isServerTime() {
+    return serverTime;
+  }
+
+}
@@ -0,0 +1,305 @@
+package dev.ercan.poc.redis.rate.limiting.config;
+
+import dev.ercan.poc.redis.rate.limiting.clock.ClockSource;
+import dev.ercan.poc.redis.rate.limiting.connection.ConnectionStrategy;
+import dev.ercan.poc.redis.rate.limiting.policy.LimitPolicy;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptBackend;
+import dev.ercan.poc.redis.rate.limiting.web.RouteAlgorithm;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "rate-limiter")
+public class RateLimiterProperties {
+
+  /**
+   * Where the limiters keep their state.
+   */
+  private LimiterBackend backend = LimiterBackend.REDIS;
+
+  /**
+   * Whose clock the scripts use for refills, leaks and windows.
+   */
+  private ClockSource clock = ClockSource.CLIENT;
+
+  /**
+   * How the scripts are loaded into and called on Redis.
+   */
+  private ScriptBackend scriptBackend = ScriptBackend.EVAL;
+
+  private Connection connection = new Connection();
+
+  private DenyCache denyCache = new DenyCache();
+
+  private TokenBucket tokenBucket = new TokenBucket();
+
+  private Metrics metrics = new Metrics();
+
+  private Coalescing coalescing = new Coalescing();
+
+  private Sharding sharding = new Sharding();
+
+  private Memory memory = new Memory();
+
+  private LocalTier localTier = new LocalTier();
+
+  private Headers headers = new Headers();
+
+  /**
+   * Limits enforced by a servlet filter on requests matching path patterns, before they reach the
+   * controllers.
+   */
+  private List<Route> routes = new ArrayList<>();
+
+  /**
+   * Parameters overriding those of the limits, annotated or routes, with the given id.
+   */
+  private Map<String, LimitPolicy> policies = new HashMap<>();
+
+  private RedisPolicies redisPolicies = new RedisPolicies();
+
+  @Getter
+  @Setter
+  public static class Connection {
+
+    /**
+     * How limiter services obtain their Redis connection.
+     */
+    private ConnectionStrategy strategy = ConnectionStrategy.SHARED;
+
+    /**
+     * Interval of the PING health check for shared and dedicated connections, and of the idle
+     * connection validation for the pool. A zero or negative value disables the health check.
+     */
+    private Duration healthCheckInterval = Duration.ofSeconds(10);
+
+    /**
+     * Consecutive failed health checks after which a connection is closed and re-established.
+     */
+    private int healthCheckFailureThreshold = 3;
+
+    private Pool pool = new Pool();
+
+  }
+
+  @Getter
+  @Setter
+  public static class DenyCache {
+
+    /**
+     * Whether fixed window and token bucket limiters remember rejected keys locally until their
+     * window resets or their bucket refills.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of rejected keys remembered per node.
+     */
+    private int maxSize = 100_000;
+
+  }
+
+  @Getter
+  @Setter
+  public static class TokenBucket {
+
+    /**
+     * How long tokens leased from Redis may be served locally before unused ones are returned. Together
+     * with the lease size this bounds how far a leased bucket can deviate from the exact one.
+     */
+    private Duration leaseTtl = Duration.ofMillis(500);
+
+    /**
+     * Keys that may hold a lease at once; further keys are decided per request until expired
+     * leases are swept.
+     */
+    private int maxLeases = 10_000;
+
+  }
+
+  @Getter
+  @Setter
+  public static class Metrics {
+
+    /**
+     * Maximum number of distinct limiter ids used as a meter tag. Further ids are reported as
+     * "other", so ids built from user input cannot grow the number of time series unbounded.
+     */
+    private int maxIds = 100;
+
+  }
+
+  @Getter
+  @Setter
+  public static class Coalescing {
+
+    /**
+     * How long the first request for an idle key waits for others to join its batch. With the
+     * default of zero only requests arriving while a call for the key is in flight are batched.
+     */
+    private Duration window = Duration.ZERO;
+
+    /**
+     * Maximum number of requests, and so permits, sent in one script call.
+     */
+    private int maxBatchSize = 1000;
+
+  }
+
+  @Getter
+  @Setter
+  public static class Sharding {
+
+    /**
+     * Redis URIs of independent nodes to shard the limiter keys over, for example
+     * {@code redis://:secret@redis-1:6379}. When empty, the limiters use the Redis configured under
+     * {@code spring.data.redis}.
+     */
+    private List<String> nodes = new ArrayList<>();
+
+    /**
+     * Positions of each node on the hash ring; more even out the share of keys per node.
+     */
+    private int virtualNodes = 160;
+
+  }
+
+  @Getter
+  @Setter
+  public static class Memory {
+
+    /**
+     * How often entries of idle keys are evicted from the in-memory backend. Expired entries are
+     * never used, this only bounds how long they occupy memory.
+     */
+    private Duration evictionInterval = Duration.ofSeconds(1);
+
+  }
+
+  @Getter
+  @Setter
+  public static class LocalTier {
+
+    /**
+     * Whether each node first checks requests against an in-memory limiter holding its share of
+     * the limit, so only requests admitted locally are sent to Redis, which keeps the exact limit.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Factor applied to the share of a node, {@code limit / node count}, so unevenly spread
+     * traffic is not rejected locally while the global limit still has room.
+     */
+    private double headroom = 1.2;
+
+    /**
+     * Number of nodes sharing the limits, used until the heartbeat has counted them, or always
+     * when it is disabled.
+     */
+    private int nodeCount = 1;
+
+    /**
+     * How often each node announces itself in Redis and counts the nodes that did within the last
+     * three intervals. A zero or negative value disables the heartbeat.
+     */
+    private Duration heartbeatInterval = Duration.ofSeconds(5);
+
+  }
+
+  @Getter
+  @Setter
+  public static class Headers {
+
+    /**
+     * Whether limited responses carry {@code RateLimit-*} and {@code Retry-After} headers. Without
+     * them every rejection throws the same preallocated exception, with nothing to allocate.
+     */
+    private boolean enabled = true;
+
+  }
+
+  @Getter
+  @Setter
+  public static class Route {
+
+    /**
+     * Path patterns of the requests to limit, in {@code PathPattern} syntax, for example
+     * {@code /api/**} or {@code /orders/{id}}.
+     */
+    private List<String> patterns = new ArrayList<>();
+
+    /**
+     * HTTP methods to limit; all of them when empty.
+     */
+    private Set<String> methods = new HashSet<>();
+
+    /**
+     * Limiter id, the first pattern when not set.
+     */
+    private String id;
+
+    /**
+     * Request header holding the key, for example an API key. Requests without it, or all of them
+     * when not set, are keyed by the client address.
+     */
+    private String keyHeader;
+
+    private RouteAlgorithm algorithm = RouteAlgorithm.FIXED_WINDOW;
+
+    /**
+     * Limit of the window algorithms, or capacity of the token and leaky bucket.
+     */
+    private long limit;
+
+    private Duration windowDuration;
+
+    private Duration subWindowDuration;
+
+    /**
+     * Tokens refilled, or requests leaked, per period by the token and leaky bucket.
+     */
+    private long rate;
+
+    private Duration period;
+
+  }
+
+  @Getter
+  @Setter
+  public static class RedisPolicies {
+
+    /**
+     * Whether limit policies are also loaded from a Redis hash, and reloaded on every message
+     * published on the channel of the same name, overriding the configured ones.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Name of the hash and of the channel.
+     */
+    private String key = "rate_limiter:policies";
+
+  }
+
+  @Getter
+  @Setter
+  public static class Pool {
+
+    private int maxTotal = 16;
+    private int maxIdle = 16;
+    private int minIdle = 2;
+    private Duration maxWait = Duration.ofMillis(500);
+
+  }
+
+}
@@ -1,16 +1,57 @@
 package dev.ercan.poc.redis.rate.limiting.config;
 
+import dev.ercan.poc.redis.rate.limiting.connection.LimiterConnections;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.RedisCommands;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 
 @Configuration
+@EnableConfigurationProperties(RateLimiterProperties.class)
 public class RedisConfig {
 
-  @Bean
-  public RedisCommands redisCommands(RedisConnectionFactory connectionFactory) {
-    return connectionFactory.getConnection().commands();
+  /**
+   * Limiter services talk to Redis through native Lettuce connections created from the client that
+   * Spring Boot configured, so host, credentials and client options are shared. With
+   * {@code spring.data.redis.cluster.nodes} set this is a cluster client, including its topology
+   * refresh settings.
+   * <p>
+   * With {@code rate-limiter.sharding.nodes} set, the limiters instead get a client per listed
+   * node, sharing the client resources, options and command timeout of the Spring Boot client. The
+   * timeout also bounds how long calls to a node that went down wait before it is taken off the
+   * ring.
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis",
+      matchIfMissing = true)
+  public LimiterConnections limiterConnections(LettuceConnectionFactory connectionFactory,
+      RateLimiterProperties properties, LimiterMetrics limiterMetrics) {
+    AbstractRedisClient redisClient = connectionFactory.getRequiredNativeClient();
+    RateLimiterProperties.Sharding sharding = properties.getSharding();
+    if (sharding.getNodes().isEmpty()) {
+      return new LimiterConnections(redisClient, properties.getConnection(), limiterMetrics);
+    }
+
+    Map<String, RedisClient> shards = new LinkedHashMap<>();
+    for (String node : sharding.getNodes()) {
+      RedisURI uri = RedisURI.create(node);
+      uri.setTimeout(connectionFactory.getClientConfiguration().getCommandTimeout());
+      RedisClient shard = RedisClient.create(redisClient.getResources(), uri);
+      connectionFactory.getClientConfiguration().getClientOptions()
+          .filter(options -> !(options instanceof ClusterClientOptions))
+          .ifPresent(shard::setOptions);
+      shards.put(uri.getHost() + ':' + uri.getPort(), shard);
+    }
+    return LimiterConnections.sharded(shards, properties.getConnection(),
+        sharding.getVirtualNodes(), limiterMetrics);
   }
 
 }
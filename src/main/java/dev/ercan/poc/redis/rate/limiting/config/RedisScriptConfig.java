@@ -1,5 +1,6 @@
 package dev.ercan.poc.redis.rate.limiting.config;
 
+import java.util.List;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -12,58 +13,106 @@ import org.springframework.scripting.support.ResourceScriptSource;
 public class RedisScriptConfig {
 
   @Bean
-  public RedisScript<Long> tokenBucketRateLimiterScript() {
+  public RedisScript<List> tokenBucketRateLimiterScript() {
     ScriptSource scriptSource = new ResourceScriptSource(
         new ClassPathResource("scripts/token_bucket.lua"));
 
-    DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
     redisScript.setScriptSource(scriptSource);
-    redisScript.setResultType(Long.class);
+    redisScript.setResultType(List.class);
+
+    return redisScript;
+  }
+
+  @Bean
+  public RedisScript<List> tokenBucketLeaseRateLimiterScript() {
+    ScriptSource scriptSource = new ResourceScriptSource(
+        new ClassPathResource("scripts/token_bucket_lease.lua"));
+
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+    redisScript.setScriptSource(scriptSource);
+    redisScript.setResultType(List.class);
 
     return redisScript;
   }
 
   @Bean
-  public RedisScript<Long> leakyBucketRateLimiterScript() {
+  public RedisScript<List> leakyBucketRateLimiterScript() {
     ScriptSource scriptSource = new ResourceScriptSource(
         new ClassPathResource("scripts/leaky_bucket.lua"));
 
-    DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
     redisScript.setScriptSource(scriptSource);
-    redisScript.setResultType(Long.class);
+    redisScript.setResultType(List.class);
 
     return redisScript;
   }
 
   @Bean
-  public RedisScript<Long> fixedWindowRateLimiterScript() {
+  public RedisScript<List> fixedWindowRateLimiterScript() {
     ScriptSource scriptSource = new ResourceScriptSource(
         new ClassPathResource("scripts/fixed_window.lua"));
 
-    DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
     redisScript.setScriptSource(scriptSource);
-    redisScript.setResultType(Long.class);
+    redisScript.setResultType(List.class);
 
     return redisScript;
   }
 
   @Bean
-  public RedisScript<Long> slidingWindowLogRateLimiterScript() {
+  public RedisScript<List> slidingWindowLogRateLimiterScript() {
     ScriptSource scriptSource = new ResourceScriptSource(
         new ClassPathResource("scripts/sliding_window_log.lua"));
 
-    DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
     redisScript.setScriptSource(scriptSource);
-    redisScript.setResultType(Long.class);
+    redisScript.setResultType(List.class);
 
     return redisScript;
   }
 
   @Bean
-  public RedisScript<Long> slidingWindowCounterRateLimiterScript() {
+  public RedisScript<List> slidingWindowCounterRateLimiterScript() {
     ScriptSource scriptSource = new ResourceScriptSource(
         new ClassPathResource("scripts/sliding_window_counter.lua"));
 
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+    redisScript.setScriptSource(scriptSource);
+    redisScript.setResultType(List.class);
+
+    return redisScript;
+  }
+
+  @Bean
+  public RedisScript<List> compositeRateLimiterScript() {
+    ScriptSource scriptSource = new ResourceScriptSource(
+        new ClassPathResource("scripts/composite.lua"));
+
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+    redisScript.setScriptSource(scriptSource);
+    redisScript.setResultType(List.class);
+
+    return redisScript;
+  }
+
+  @Bean
+  public RedisScript<List> concurrencyAcquireRateLimiterScript() {
+    ScriptSource scriptSource = new ResourceScriptSource(
+        new ClassPathResource("scripts/concurrency_acquire.lua"));
+
+    DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+    redisScript.setScriptSource(scriptSource);
+    redisScript.setResultType(List.class);
+
+    return redisScript;
+  }
+
+  @Bean
+  public RedisScript<Long> concurrencyReleaseRateLimiterScript() {
+    ScriptSource scriptSource = new ResourceScriptSource(
+        new ClassPathResource("scripts/concurrency_release.lua"));
+
     DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
     redisScript.setScriptSource(scriptSource);
     redisScript.setResultType(Long.class);
@@ -0,0 +1,21 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+public enum ConnectionStrategy {
+
+  /**
+   * One native, multiplexed Lettuce connection shared by all limiter services. Lettuce pipelines
+   * commands from concurrent callers over the same socket, so this is the default.
+   */
+  SHARED,
+
+  /**
+   * A pool of native connections; each call borrows a connection for the duration of the command.
+   */
+  POOLED,
+
+  /**
+   * One multiplexed connection per limiter service, isolating the algorithms from each other.
+   */
+  DEDICATED
+
+}
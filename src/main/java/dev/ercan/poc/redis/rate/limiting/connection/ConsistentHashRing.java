@@ -0,0 +1,102 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable consistent-hash ring placing every node at a number of virtual positions. A key belongs
+ * to the first position at or after its hash, so removing a node only moves the keys it owned, and
+ * they spread over the remaining nodes instead of all landing on one neighbour.
+ * <p>
+ * Like Redis Cluster, only the hash tag of a key is hashed when it has one, the part between the
+ * first {@code '{'} and the next {@code '}'}, so all keys of one limited client stay on one node.
+ */
+public final class ConsistentHashRing<T> {
+
+  private final long[] positions;
+  private final Object[] owners;
+
+  public ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("A hash ring needs at least one node");
+    }
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("Virtual nodes must be at least 1: " + virtualNodes);
+    }
+
+    int size = nodes.size() * virtualNodes;
+    long[] hashes = new long[size];
+    Object[] nodeByHash = new Object[size];
+    int index = 0;
+    for (Map.Entry<String, T> node : nodes.entrySet()) {
+      for (int i = 0; i < virtualNodes; i++) {
+        byte[] name = (node.getKey() + '#' + i).getBytes(StandardCharsets.UTF_8);
+        hashes[index] = hash(name, 0, name.length);
+        nodeByHash[index] = node.getValue();
+        index++;
+      }
+    }
+
+    // sort the positions and carry their owners along
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (left, right) -> Long.compare(hashes[left], hashes[right]));
+    this.positions = new long[size];
+    this.owners = new Object[size];
+    for (int i = 0; i < size; i++) {
+      positions[i] = hashes[order[i]];
+      owners[i] = nodeByHash[order[i]];
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public T nodeFor(byte[] key) {
+    int index = Arrays.binarySearch(positions, hashKey(key));
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return (T) owners[index == positions.length ? 0 : index];
+  }
+
+  static long hashKey(byte[] key) {
+    int open = indexOf(key, (byte) '{', 0);
+    if (open >= 0) {
+      int close = indexOf(key, (byte) '}', open + 1);
+      if (close > open + 1) {
+        return hash(key, open + 1, close);
+      }
+    }
+    return hash(key, 0, key.length);
+  }
+
+  /**
+   * 64-bit FNV-1a with the MurmurHash3 finalizer, which spreads the similar names of virtual nodes
+   * and keys evenly around the ring.
+   */
+  private static long hash(byte[] bytes, int from, int to) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = from; i < to; i++) {
+      hash ^= bytes[i] & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static int indexOf(byte[] bytes, byte value, int from) {
+    for (int i = from; i < bytes.length; i++) {
+      if (bytes[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,28 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs limiter commands on a Redis connection. The command interfaces are the ones shared by
+ * standalone and cluster connections, so callers work with both.
+ */
+public interface LimiterConnectionProvider extends AutoCloseable {
+
+  <T> T execute(Function<RedisClusterCommands<byte[], byte[]>, T> action);
+
+  <T> CompletionStage<T> executeAsync(
+      Function<RedisClusterAsyncCommands<byte[], byte[]>, CompletionStage<T>> action);
+
+  <T> Mono<T> executeReactive(Function<RedisClusterReactiveCommands<byte[], byte[]>, Mono<T>> action);
+
+  void healthCheck();
+
+  @Override
+  void close();
+
+}
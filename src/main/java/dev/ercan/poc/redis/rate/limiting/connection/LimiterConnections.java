@@ -0,0 +1,316 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.metrics.MeteredLimiterConnectionProvider;
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.event.EventBus;
+import io.lettuce.core.event.connection.ConnectionActivatedEvent;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+/**
+ * Hands out the connection provider of each limiter service according to the configured
+ * {@link ConnectionStrategy} and runs the periodic health checks.
+ * <p>
+ * Limiters normally share one Redis, standalone or cluster. When sharded over several independent
+ * Redis nodes, each call is routed by the hash tag of its first key on a {@link ConsistentHashRing}.
+ * A node failing its health checks is taken off the ring until it answers again, so only its own
+ * keys move to the other nodes meanwhile.
+ */
+@Slf4j
+public class LimiterConnections implements AutoCloseable {
+
+  private static final String HEALTH_CHECK = "health_check";
+
+  private final RateLimiterProperties.Connection properties;
+  private final LimiterMetrics limiterMetrics;
+  private final List<Node> nodes = new ArrayList<>();
+  private final int virtualNodes;
+  private final boolean ownsClients;
+  private final ScheduledExecutorService healthCheckExecutor;
+
+  private volatile ConsistentHashRing<Node> ring;
+
+  public LimiterConnections(AbstractRedisClient redisClient, RateLimiterProperties.Connection properties) {
+    this(redisClient, properties, null);
+  }
+
+  /**
+   * When {@code limiterMetrics} is given, the providers handed out are wrapped so every Redis call
+   * is timed per limiter.
+   */
+  public LimiterConnections(AbstractRedisClient redisClient, RateLimiterProperties.Connection properties,
+      LimiterMetrics limiterMetrics) {
+    this(Map.of("default", redisClient), properties, 1, limiterMetrics, false);
+  }
+
+  private LimiterConnections(Map<String, ? extends AbstractRedisClient> redisClients,
+      RateLimiterProperties.Connection properties, int virtualNodes, LimiterMetrics limiterMetrics,
+      boolean ownsClients) {
+    this.properties = properties;
+    this.limiterMetrics = limiterMetrics;
+    this.virtualNodes = virtualNodes;
+    this.ownsClients = ownsClients;
+    redisClients.forEach((name, redisClient) -> nodes.add(new Node(name, redisClient)));
+    this.ring = nodes.size() > 1 ? buildRing(nodes) : null;
+    this.healthCheckExecutor = startHealthCheck(properties.getHealthCheckInterval());
+  }
+
+  /**
+   * Limiter connections sharded over independent Redis nodes, keyed by a node name that fixes their
+   * position on the ring. The clients are shut down when the connections are closed.
+   */
+  public static LimiterConnections sharded(Map<String, ? extends AbstractRedisClient> redisClients,
+      RateLimiterProperties.Connection properties, int virtualNodes, LimiterMetrics limiterMetrics) {
+    return new LimiterConnections(new LinkedHashMap<>(redisClients), properties, virtualNodes,
+        limiterMetrics, true);
+  }
+
+  /**
+   * Provider of the first Redis node, for calls that are not tied to a key.
+   */
+  public LimiterConnectionProvider forLimiter(String limiter) {
+    return nodes.get(0).forLimiter(limiter);
+  }
+
+  /**
+   * Provider of the Redis node owning the first of {@code keys}.
+   */
+  public LimiterConnectionProvider forKeys(String limiter, byte[][] keys) {
+    ConsistentHashRing<Node> current = ring;
+    if (current == null || keys.length == 0) {
+      return forLimiter(limiter);
+    }
+    return current.nodeFor(keys[0]).forLimiter(limiter);
+  }
+
+  /**
+   * One provider per Redis node, including nodes currently off the ring, for work every node needs
+   * like loading scripts.
+   */
+  public List<LimiterConnectionProvider> forEachNode(String limiter) {
+    return nodes.stream()
+        .map(node -> node.forLimiter(limiter))
+        .toList();
+  }
+
+  /**
+   * Whether the limiters talk to a Redis Cluster, where all keys of a script call must hash to the
+   * same slot.
+   */
+  public boolean isCluster() {
+    return nodes.size() == 1 && nodes.get(0).redisClient instanceof RedisClusterClient;
+  }
+
+  public boolean isSharded() {
+    return nodes.size() > 1;
+  }
+
+  /**
+   * Whether a script call with these keys runs on one node: on a cluster they must share a slot,
+   * when sharded they must map to the same node.
+   */
+  public boolean isColocated(List<byte[]> keys) {
+    if (keys.size() < 2) {
+      return true;
+    }
+    if (isCluster()) {
+      int slot = SlotHash.getSlot(keys.get(0));
+      return keys.stream().allMatch(key -> SlotHash.getSlot(key) == slot);
+    }
+    ConsistentHashRing<Node> current = ring;
+    if (current == null) {
+      return true;
+    }
+    Node node = current.nodeFor(keys.get(0));
+    return keys.stream().allMatch(key -> current.nodeFor(key) == node);
+  }
+
+  /**
+   * New pub/sub connection to the first Redis node, the one calls not tied to a key go to. It is
+   * resubscribed on reconnect and must be closed by the caller.
+   */
+  public StatefulRedisPubSubConnection<byte[], byte[]> connectPubSub() {
+    AbstractRedisClient redisClient = nodes.get(0).redisClient;
+    return redisClient instanceof RedisClusterClient clusterClient
+        ? clusterClient.connectPubSub(ByteArrayCodec.INSTANCE)
+        : ((RedisClient) redisClient).connectPubSub(ByteArrayCodec.INSTANCE);
+  }
+
+  /**
+   * Calls {@code listener} whenever a connection of a Redis client is established or
+   * re-established, for example after Redis restarted or failed over.
+   */
+  public Disposable onConnect(Runnable listener) {
+    Set<EventBus> eventBuses = Collections.newSetFromMap(new IdentityHashMap<>());
+    nodes.forEach(node -> eventBuses.add(node.redisClient.getResources().eventBus()));
+    return Disposables.composite(eventBuses.stream()
+        .map(eventBus -> eventBus.get()
+            .filter(ConnectionActivatedEvent.class::isInstance)
+            .subscribe(event -> listener.run()))
+        .toList());
+  }
+
+  private ConsistentHashRing<Node> buildRing(List<Node> members) {
+    Map<String, Node> byName = new LinkedHashMap<>();
+    members.forEach(node -> byName.put(node.name, node));
+    return new ConsistentHashRing<>(byName, virtualNodes);
+  }
+
+  private ScheduledExecutorService startHealthCheck(Duration interval) {
+    if (interval == null || interval.isZero() || interval.isNegative()) {
+      return null;
+    }
+
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "limiter-redis-health-check");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::healthCheck, interval.toMillis(), interval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    return executor;
+  }
+
+  private void healthCheck() {
+    boolean membershipChanged = false;
+    for (Node node : nodes) {
+      try {
+        node.healthCheck();
+      } catch (RuntimeException ex) {
+        log.warn("Limiter connection health check failed", ex);
+      }
+      if (isSharded()) {
+        membershipChanged |= node.checkMembership();
+      }
+    }
+    if (membershipChanged) {
+      List<Node> live = nodes.stream().filter(node -> !node.ejected).toList();
+      // with every node down there is nothing to fail over to, keep routing as usual
+      ring = buildRing(live.isEmpty() ? nodes : live);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (healthCheckExecutor != null) {
+      healthCheckExecutor.shutdownNow();
+    }
+    nodes.forEach(Node::close);
+  }
+
+  /**
+   * Providers of one Redis node.
+   */
+  private final class Node {
+
+    private final String name;
+    private final AbstractRedisClient redisClient;
+    private final LimiterConnectionProvider sharedProvider;
+    private final Map<String, LimiterConnectionProvider> dedicatedProviders = new ConcurrentHashMap<>();
+    private final Map<String, LimiterConnectionProvider> meteredProviders = new ConcurrentHashMap<>();
+
+    private int membershipFailures;
+    private volatile boolean ejected;
+
+    private Node(String name, AbstractRedisClient redisClient) {
+      this.name = name;
+      this.redisClient = redisClient;
+      this.sharedProvider = switch (properties.getStrategy()) {
+        case SHARED -> new SharedLimiterConnectionProvider(redisClient,
+            properties.getHealthCheckFailureThreshold());
+        case POOLED -> new PooledLimiterConnectionProvider(redisClient, properties.getPool(),
+            properties.getHealthCheckInterval(), properties.getHealthCheckFailureThreshold());
+        case DEDICATED -> null;
+      };
+    }
+
+    private LimiterConnectionProvider forLimiter(String limiter) {
+      if (limiterMetrics == null) {
+        return provider(limiter);
+      }
+      LimiterConnectionProvider provider = meteredProviders.get(limiter);
+      return provider != null ? provider : meteredProviders.computeIfAbsent(limiter,
+          limiterName -> new MeteredLimiterConnectionProvider(limiterName, provider(limiterName),
+              limiterMetrics));
+    }
+
+    private LimiterConnectionProvider provider(String limiter) {
+      if (sharedProvider != null) {
+        return sharedProvider;
+      }
+      return dedicatedProviders.computeIfAbsent(limiter,
+          limiterName -> new SharedLimiterConnectionProvider(redisClient,
+              properties.getHealthCheckFailureThreshold()));
+    }
+
+    private void healthCheck() {
+      if (sharedProvider != null) {
+        sharedProvider.healthCheck();
+      }
+      dedicatedProviders.values().forEach(LimiterConnectionProvider::healthCheck);
+    }
+
+    /**
+     * Pings the node and takes it off or puts it back on the ring, returning whether it moved.
+     */
+    private boolean checkMembership() {
+      boolean healthy;
+      try {
+        healthy = "PONG".equals(provider(HEALTH_CHECK).execute(RedisClusterCommands::ping));
+      } catch (RuntimeException ex) {
+        healthy = false;
+      }
+
+      if (healthy) {
+        membershipFailures = 0;
+        if (ejected) {
+          log.info("Limiter Redis node {} is healthy again, putting it back on the ring", name);
+          ejected = false;
+          return true;
+        }
+        return false;
+      }
+
+      if (++membershipFailures >= properties.getHealthCheckFailureThreshold() && !ejected) {
+        log.warn("Limiter Redis node {} failed {} health checks, taking it off the ring", name,
+            membershipFailures);
+        ejected = true;
+        return true;
+      }
+      return false;
+    }
+
+    private void close() {
+      if (sharedProvider != null) {
+        sharedProvider.close();
+      }
+      dedicatedProviders.values().forEach(LimiterConnectionProvider::close);
+      if (ownsClients) {
+        redisClient.shutdown();
+      }
+    }
+
+  }
+
+}
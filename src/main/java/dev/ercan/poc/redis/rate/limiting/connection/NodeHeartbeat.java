@@ -0,0 +1,102 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import io.lettuce.core.Range;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the nodes sharing the limits. Every node periodically adds itself to a sorted set in
+ * Redis, scored with the time of its latest heartbeat, drops members that missed three heartbeats
+ * and reads the number of members left.
+ * <p>
+ * Until the first heartbeat succeeds, or when Redis cannot be reached, the configured node count
+ * or the last counted one is used.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis",
+    matchIfMissing = true)
+@ConditionalOnProperty(prefix = "rate-limiter.local-tier", name = "enabled", havingValue = "true")
+public class NodeHeartbeat {
+
+  static final byte[] KEY = "local_tier:nodes".getBytes(StandardCharsets.US_ASCII);
+  private static final String LIMITER = "heartbeat";
+  private static final int MISSED_HEARTBEATS = 3;
+
+  private final LimiterConnections limiterConnections;
+  private final byte[] nodeId = UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII);
+  private final long expireMillis;
+  private final ScheduledExecutorService executor;
+
+  private volatile int nodeCount;
+
+  public NodeHeartbeat(LimiterConnections limiterConnections, RateLimiterProperties properties) {
+    this.limiterConnections = limiterConnections;
+    this.nodeCount = Math.max(1, properties.getLocalTier().getNodeCount());
+
+    Duration interval = properties.getLocalTier().getHeartbeatInterval();
+    if (interval == null || interval.isZero() || interval.isNegative()) {
+      this.expireMillis = 0;
+      this.executor = null;
+      return;
+    }
+
+    this.expireMillis = interval.toMillis() * MISSED_HEARTBEATS;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "limiter-node-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::beat, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  public int nodeCount() {
+    return nodeCount;
+  }
+
+  void beat() {
+    long now = System.currentTimeMillis();
+    try {
+      long members = limiterConnections.forLimiter(LIMITER).execute(commands -> {
+        commands.zadd(KEY, now, nodeId);
+        commands.zremrangebyscore(KEY, Range.create(0, now - expireMillis));
+        commands.pexpire(KEY, expireMillis);
+        return commands.zcard(KEY);
+      });
+      nodeCount = (int) Math.max(1, members);
+    } catch (RuntimeException ex) {
+      log.warn("Limiter node heartbeat failed, keeping the node count of {}", nodeCount, ex);
+    }
+  }
+
+  /**
+   * Stops on context close, before the Redis connection factory is stopped, so the heartbeat does
+   * not try to reconnect a client that is shutting down.
+   */
+  @EventListener(ContextClosedEvent.class)
+  public void stop() {
+    if (executor == null) {
+      return;
+    }
+
+    executor.shutdownNow();
+    // not awaited, Redis may be gone already; the member then expires on its own
+    limiterConnections.forLimiter(LIMITER)
+        .executeAsync(commands -> commands.zrem(KEY, nodeId))
+        .exceptionally(ex -> {
+          log.debug("Could not remove this node from the heartbeat set", ex);
+          return null;
+        });
+  }
+
+}
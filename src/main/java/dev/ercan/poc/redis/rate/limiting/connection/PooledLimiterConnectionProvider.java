@@ -0,0 +1,88 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import io.lettuce.core.support.ConnectionPoolSupport;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import reactor.core.publisher.Mono;
+
+/**
+ * Borrows a connection per blocking call. Connections are validated on borrow and while idle;
+ * broken ones are evicted by the pool and replaced on demand.
+ * <p>
+ * Asynchronous and reactive calls do not hold a connection while waiting for the reply, so they
+ * are multiplexed over a single connection instead of blocking on the pool.
+ */
+public class PooledLimiterConnectionProvider implements LimiterConnectionProvider {
+
+  private final GenericObjectPool<StatefulConnection<byte[], byte[]>> pool;
+  private final SharedLimiterConnectionProvider multiplexedProvider;
+
+  public PooledLimiterConnectionProvider(AbstractRedisClient redisClient, RateLimiterProperties.Pool poolProperties,
+      Duration healthCheckInterval, int healthCheckFailureThreshold) {
+    GenericObjectPoolConfig<StatefulConnection<byte[], byte[]>> config = new GenericObjectPoolConfig<>();
+    config.setMaxTotal(poolProperties.getMaxTotal());
+    config.setMaxIdle(poolProperties.getMaxIdle());
+    config.setMinIdle(poolProperties.getMinIdle());
+    config.setMaxWait(poolProperties.getMaxWait());
+    config.setTestOnBorrow(true);
+    config.setTestWhileIdle(true);
+    config.setTimeBetweenEvictionRuns(healthCheckInterval);
+    config.setJmxEnabled(false);
+
+    this.pool = ConnectionPoolSupport.createGenericObjectPool(
+        () -> RedisConnections.connect(redisClient), config);
+    this.multiplexedProvider = new SharedLimiterConnectionProvider(redisClient,
+        healthCheckFailureThreshold);
+  }
+
+  @Override
+  public <T> T execute(Function<RedisClusterCommands<byte[], byte[]>, T> action) {
+    StatefulConnection<byte[], byte[]> connection;
+    try {
+      connection = pool.borrowObject();
+    } catch (RedisException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new RedisException("Could not borrow a limiter connection from the pool", ex);
+    }
+
+    try (connection) {
+      return action.apply(RedisConnections.sync(connection));
+    }
+  }
+
+  @Override
+  public <T> CompletionStage<T> executeAsync(
+      Function<RedisClusterAsyncCommands<byte[], byte[]>, CompletionStage<T>> action) {
+    return multiplexedProvider.executeAsync(action);
+  }
+
+  @Override
+  public <T> Mono<T> executeReactive(
+      Function<RedisClusterReactiveCommands<byte[], byte[]>, Mono<T>> action) {
+    return multiplexedProvider.executeReactive(action);
+  }
+
+  @Override
+  public void healthCheck() {
+    // idle pooled connections are validated by the pool evictor
+    multiplexedProvider.healthCheck();
+  }
+
+  @Override
+  public void close() {
+    pool.close();
+    multiplexedProvider.close();
+  }
+
+}
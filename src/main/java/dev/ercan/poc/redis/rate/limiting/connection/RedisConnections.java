@@ -0,0 +1,54 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+
+/**
+ * Opens limiter connections on a standalone or a cluster client and exposes their commands
+ * through the interfaces both kinds of connection share. Cluster connections route each command to
+ * the node owning the slot of its first key.
+ */
+final class RedisConnections {
+
+  private RedisConnections() {
+  }
+
+  static StatefulConnection<byte[], byte[]> connect(AbstractRedisClient client) {
+    if (client instanceof RedisClusterClient clusterClient) {
+      return clusterClient.connect(ByteArrayCodec.INSTANCE);
+    }
+    return ((RedisClient) client).connect(ByteArrayCodec.INSTANCE);
+  }
+
+  static RedisClusterCommands<byte[], byte[]> sync(StatefulConnection<byte[], byte[]> connection) {
+    if (connection instanceof StatefulRedisClusterConnection<byte[], byte[]> cluster) {
+      return cluster.sync();
+    }
+    return ((StatefulRedisConnection<byte[], byte[]>) connection).sync();
+  }
+
+  static RedisClusterAsyncCommands<byte[], byte[]> async(
+      StatefulConnection<byte[], byte[]> connection) {
+    if (connection instanceof StatefulRedisClusterConnection<byte[], byte[]> cluster) {
+      return cluster.async();
+    }
+    return ((StatefulRedisConnection<byte[], byte[]>) connection).async();
+  }
+
+  static RedisClusterReactiveCommands<byte[], byte[]> reactive(
+      StatefulConnection<byte[], byte[]> connection) {
+    if (connection instanceof StatefulRedisClusterConnection<byte[], byte[]> cluster) {
+      return cluster.reactive();
+    }
+    return ((StatefulRedisConnection<byte[], byte[]>) connection).reactive();
+  }
+
+}
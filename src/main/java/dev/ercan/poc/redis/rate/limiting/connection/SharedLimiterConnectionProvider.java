@@ -0,0 +1,124 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Holds a single multiplexed connection. Lettuce reconnects transparently after network errors;
+ * the health check additionally replaces a connection that was closed or stopped answering PING.
+ * <p>
+ * The connection is opened on first use rather than on construction, so an unreachable Redis does
+ * not keep the application from starting. Until it can be reached calls fail fast, connecting again
+ * at most once per {@link #CONNECT_BACKOFF}, and the health check keeps trying in the background.
+ */
+@Slf4j
+public class SharedLimiterConnectionProvider implements LimiterConnectionProvider {
+
+  private static final long CONNECT_BACKOFF = Duration.ofSeconds(1).toNanos();
+
+  private final AbstractRedisClient redisClient;
+  private final int healthCheckFailureThreshold;
+
+  private volatile StatefulConnection<byte[], byte[]> connection;
+  private int healthCheckFailures;
+  private long nextConnectAttempt = System.nanoTime();
+
+  public SharedLimiterConnectionProvider(AbstractRedisClient redisClient, int healthCheckFailureThreshold) {
+    this.redisClient = redisClient;
+    this.healthCheckFailureThreshold = healthCheckFailureThreshold;
+  }
+
+  @Override
+  public <T> T execute(Function<RedisClusterCommands<byte[], byte[]>, T> action) {
+    return action.apply(RedisConnections.sync(connection()));
+  }
+
+  @Override
+  public <T> CompletionStage<T> executeAsync(
+      Function<RedisClusterAsyncCommands<byte[], byte[]>, CompletionStage<T>> action) {
+    StatefulConnection<byte[], byte[]> current;
+    try {
+      current = connection();
+    } catch (RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    return action.apply(RedisConnections.async(current));
+  }
+
+  @Override
+  public <T> Mono<T> executeReactive(
+      Function<RedisClusterReactiveCommands<byte[], byte[]>, Mono<T>> action) {
+    return Mono.defer(() -> action.apply(RedisConnections.reactive(connection())));
+  }
+
+  private StatefulConnection<byte[], byte[]> connection() {
+    StatefulConnection<byte[], byte[]> current = connection;
+    return current != null && current.isOpen() ? current : reconnect(current);
+  }
+
+  @Override
+  public synchronized void healthCheck() {
+    StatefulConnection<byte[], byte[]> current = connection;
+    try {
+      if (current == null) {
+        // never connected yet, the backoff does not apply to the health check
+        nextConnectAttempt = System.nanoTime();
+        current = reconnect(null);
+      }
+      RedisConnections.sync(current).ping();
+      healthCheckFailures = 0;
+    } catch (RuntimeException ex) {
+      healthCheckFailures++;
+      log.warn("Redis health check failed ({}/{})", healthCheckFailures,
+          healthCheckFailureThreshold, ex);
+      if (healthCheckFailures >= healthCheckFailureThreshold && current != null) {
+        reconnect(current);
+      }
+    }
+  }
+
+  private synchronized StatefulConnection<byte[], byte[]> reconnect(
+      StatefulConnection<byte[], byte[]> stale) {
+    if (connection != stale) {
+      return connection;
+    }
+    if (System.nanoTime() - nextConnectAttempt < 0) {
+      throw new RedisConnectionException("Limiter Redis is unreachable, not retrying yet");
+    }
+
+    if (stale != null) {
+      log.info("Re-establishing limiter Redis connection");
+    }
+    StatefulConnection<byte[], byte[]> fresh;
+    try {
+      fresh = RedisConnections.connect(redisClient);
+    } catch (RuntimeException ex) {
+      nextConnectAttempt = System.nanoTime() + CONNECT_BACKOFF;
+      throw ex;
+    }
+    connection = fresh;
+    healthCheckFailures = 0;
+    if (stale != null) {
+      stale.closeAsync();
+    }
+    return fresh;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (connection != null) {
+      connection.close();
+    }
+  }
+
+}
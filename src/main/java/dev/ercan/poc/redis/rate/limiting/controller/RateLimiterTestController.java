@@ -1,17 +1,23 @@
 package dev.ercan.poc.redis.rate.limiting.controller;
 
+import dev.ercan.poc.redis.rate.limiting.annotation.CompositeRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.ConcurrencyRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.FixedWindowRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.LeakyBucketRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.SlidingWindowCounterRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.SlidingWindowLogRateLimit;
 import dev.ercan.poc.redis.rate.limiting.annotation.TokenBucketRateLimit;
 import jakarta.servlet.http.HttpServletRequest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
 
 @RestController
 @RequestMapping("/rate-limiter")
@@ -24,6 +30,18 @@ public class RateLimiterTestController {
     return ResponseEntity.status(HttpStatus.ACCEPTED).build();
   }
 
+  @GetMapping("/token-bucket-reactive")
+  @TokenBucketRateLimit(id = "testControllerReactive", key = "#request.remoteAddr", capacity = 3, refillRate = 1, refillPeriod = "5s")
+  public Mono<ResponseEntity<?>> testTokenBucketLimiterReactive(HttpServletRequest request) {
+    return Mono.just(ResponseEntity.status(HttpStatus.ACCEPTED).build());
+  }
+
+  @GetMapping("/token-bucket-async")
+  @TokenBucketRateLimit(id = "testControllerAsync", key = "#request.remoteAddr", capacity = 3, refillRate = 1, refillPeriod = "5s")
+  public CompletableFuture<ResponseEntity<?>> testTokenBucketLimiterAsync(HttpServletRequest request) {
+    return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.ACCEPTED).build());
+  }
+
   @GetMapping("/leaky-bucket")
   @LeakyBucketRateLimit(id = "testController", key = "#request.remoteAddr", capacity = 3, leakRate = 1, leakPeriod = "5s")
   public ResponseEntity<?> testLeakyBucketLimiter(HttpServletRequest request) {
@@ -48,4 +66,37 @@ public class RateLimiterTestController {
     return ResponseEntity.status(HttpStatus.ACCEPTED).build();
   }
 
+  @GetMapping("/fixed-window-weighted")
+  @FixedWindowRateLimit(id = "testControllerWeighted", key = "#request.remoteAddr", limit = 5, windowDuration = "60s", cost = "#cost")
+  public ResponseEntity<?> testWeightedFixedWindowLimiter(HttpServletRequest request, @RequestParam int cost) {
+    return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+  }
+
+  @GetMapping("/composite")
+  @CompositeRateLimit(id = "testController",
+      fixedWindow = @FixedWindowRateLimit(id = "testControllerComposite", key = "#request.remoteAddr", limit = 5, windowDuration = "60s"),
+      tokenBucket = @TokenBucketRateLimit(id = "testControllerComposite", key = "'global'", capacity = 3, refillRate = 1, refillPeriod = "5s"))
+  public ResponseEntity<?> testCompositeLimiter(HttpServletRequest request) {
+    return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+  }
+
+  /**
+   * Holds its permit for {@code holdMillis} before it completes.
+   */
+  @GetMapping("/concurrency")
+  @ConcurrencyRateLimit(id = "testController", key = "#request.remoteAddr", limit = 1, leaseDuration = "10s")
+  public CompletableFuture<ResponseEntity<?>> testConcurrencyLimiter(HttpServletRequest request,
+      @RequestParam(defaultValue = "0") long holdMillis) {
+    return CompletableFuture.supplyAsync(() -> ResponseEntity.status(HttpStatus.ACCEPTED).build(),
+        CompletableFuture.delayedExecutor(holdMillis, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Limited by the {@code rate-limiter.routes} entry for its path, before the request reaches it.
+   */
+  @GetMapping("/route")
+  public ResponseEntity<?> testRouteLimiter() {
+    return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+  }
+
 }
@@ -1,5 +1,6 @@
 package dev.ercan.poc.redis.rate.limiting.exception;
 
+import dev.ercan.poc.redis.rate.limiting.web.RateLimitHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -10,7 +11,9 @@ public class ApiExceptionHandler {
 
   @ExceptionHandler(value = RateLimitExceedException.class)
   public ResponseEntity<?> rateLimitExceedException(RateLimitExceedException exception) {
-    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .headers(RateLimitHeaders.of(exception.getDecision()))
+        .build();
   }
 
-}
\ No newline at end of file
+}
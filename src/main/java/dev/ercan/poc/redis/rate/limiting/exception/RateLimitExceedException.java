@@ -1,5 +1,28 @@
 package dev.ercan.poc.redis.rate.limiting.exception;
 
+import dev.ercan.poc.redis.rate.limiting.service.RateLimitDecision;
+import lombok.Getter;
+
+/**
+ * Thrown for a rejected request. Under attack rejections are most of the traffic, so the exception
+ * is stackless; its stack trace would only lead through the proxy and MVC layers anyway.
+ */
+@Getter
 public class RateLimitExceedException extends RuntimeException {
 
+  /**
+   * Shared instance for rejections whose decision is not reported to the client. It has no stack
+   * trace nor suppressed exceptions, so it can be thrown from any number of threads.
+   */
+  public static final RateLimitExceedException REJECTED = new RateLimitExceedException(
+      new RateLimitDecision(false, RateLimitDecision.UNKNOWN, RateLimitDecision.UNKNOWN,
+          RateLimitDecision.UNKNOWN, 0));
+
+  private final RateLimitDecision decision;
+
+  public RateLimitExceedException(RateLimitDecision decision) {
+    super("Rate limit exceeded", null, false, false);
+    this.decision = decision;
+  }
+
 }
@@ -0,0 +1,563 @@
+package dev.ercan.poc.redis.rate.limiting.memory;
+
+import dev.ercan.poc.redis.rate.limiting.memory.LimiterStore.Entries;
+import dev.ercan.poc.redis.rate.limiting.memory.LimiterStore.Entry;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The limiter scripts in Java, on the state of a {@link LimiterStore}. Each method takes the
+ * arguments and returns the result of the script with the same name, so services cannot tell the
+ * backends apart; the state layout is free, since nothing else reads it.
+ * <p>
+ * {@code nowMillis} is the time the algorithms compute with, expiry always follows the wall clock
+ * of the store.
+ */
+final class InMemoryAlgorithms {
+
+  private final LimiterStore store;
+
+  InMemoryAlgorithms(LimiterStore store) {
+    this.store = store;
+  }
+
+  List<Long> fixedWindow(String key, long windowDurationMillis, long limit, long permits,
+      boolean partial) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      Counter counter = entries.get(key);
+      long count = counter == null ? 0 : counter.count;
+      long granted = grant(permits, limit - count, partial);
+
+      if (granted > 0) {
+        if (counter == null) {
+          counter = new Counter();
+          entries.put(key, counter, windowDurationMillis);
+        }
+        counter.count += granted;
+      }
+
+      long ttl = entries.ttl(key);
+      long reset = ttl < 0 ? windowDurationMillis : ttl;
+      return List.of(granted, Math.max(0, limit - count - granted), reset,
+          granted < permits ? reset : 0L);
+    });
+  }
+
+  List<Long> tokenBucket(String key, long nowMillis, long capacity, long refillRate,
+      long refillPeriodMillis, long expireInMillis, long permits, boolean partial) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      Bucket bucket = refill(entries.get(key), nowMillis, capacity, refillRate, refillPeriodMillis);
+      long granted = grant(permits, (long) bucket.level, partial);
+      bucket.level -= granted;
+      save(entries, key, bucket, expireInMillis);
+
+      double sinceRefill = nowMillis - bucket.last;
+      long reset = waitFor(capacity - bucket.level, refillRate, refillPeriodMillis, sinceRefill);
+      long retryAfter = 0;
+      if (granted < permits) {
+        long needed = partial ? 1 : permits;
+        retryAfter = needed > capacity ? reset
+            : waitFor(needed - bucket.level, refillRate, refillPeriodMillis, sinceRefill);
+      }
+      return List.of(granted, (long) Math.floor(bucket.level), reset, retryAfter);
+    });
+  }
+
+  List<Long> tokenBucketLease(String key, long nowMillis, long capacity, long refillRate,
+      long refillPeriodMillis, long expireInMillis, long returnedTokens, long requestedTokens) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      Bucket bucket = refill(entries.get(key), nowMillis, capacity, refillRate, refillPeriodMillis);
+      bucket.level = Math.min(capacity, bucket.level + returnedTokens);
+      long granted = (long) Math.min(bucket.level, requestedTokens);
+      bucket.level -= granted;
+      save(entries, key, bucket, expireInMillis);
+
+      if (granted > 0 || requestedTokens == 0) {
+        return List.of(granted, 0L);
+      }
+      return List.of(0L, (long) bucket.last + refillPeriodMillis - nowMillis);
+    });
+  }
+
+  List<Long> leakyBucket(String key, long nowMillis, long capacity, long leakRate,
+      long leakPeriodMillis, long expireInMillis, long permits, boolean partial) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      Bucket bucket = leak(entries.get(key), nowMillis, leakRate, leakPeriodMillis);
+      long granted = grant(permits, (long) (capacity - bucket.level), partial);
+      bucket.level += granted;
+      save(entries, key, bucket, expireInMillis);
+
+      double sinceLeak = nowMillis - bucket.last;
+      long reset = waitFor(bucket.level, leakRate, leakPeriodMillis, sinceLeak);
+      long retryAfter = 0;
+      if (granted < permits) {
+        long needed = partial ? 1 : permits;
+        retryAfter = needed > capacity ? reset
+            : waitFor(bucket.level + needed - capacity, leakRate, leakPeriodMillis, sinceLeak);
+      }
+      return List.of(granted, (long) Math.floor(capacity - bucket.level), reset, retryAfter);
+    });
+  }
+
+  List<Long> slidingWindowCounter(String key, long nowMillis, long windowDurationMillis,
+      long subWindowDurationMillis, long limit, long permits, boolean partial) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      SubWindows subWindows = entries.get(key);
+      long subWindow = Math.floorDiv(nowMillis, subWindowDurationMillis);
+      long elapsed = Math.floorMod(nowMillis, subWindowDurationMillis);
+      double weight = (double) (subWindowDurationMillis - elapsed) / subWindowDurationMillis;
+      long currentCount = subWindows == null ? 0 : subWindows.count(subWindow, entries.wallMillis());
+      long previousCount = subWindows == null ? 0
+          : subWindows.count(subWindow - 1, entries.wallMillis());
+      long granted = grant(permits,
+          (long) Math.ceil(limit - (currentCount + previousCount * weight)), partial);
+
+      if (granted > 0) {
+        count(entries, key, subWindows, subWindow, granted, windowDurationMillis);
+      }
+
+      long current = currentCount + granted;
+      long untilNext = subWindowDurationMillis - elapsed;
+      long reset = current > 0 ? untilNext + subWindowDurationMillis
+          : previousCount > 0 ? untilNext : 0;
+      long retryAfter = 0;
+      if (granted < permits) {
+        long needed = partial ? 1 : permits;
+        if (needed > limit) {
+          retryAfter = reset;
+        } else if (current + needed <= limit) {
+          retryAfter = Math.max(0, decayedAt(previousCount, limit - needed - current,
+              subWindowDurationMillis) - elapsed);
+        } else {
+          retryAfter = untilNext + decayedAt(current, limit - needed, subWindowDurationMillis);
+        }
+      }
+      return List.of(granted,
+          Math.max(0, (long) Math.ceil(limit - current - previousCount * weight)), reset,
+          retryAfter);
+    });
+  }
+
+  List<Long> slidingWindowLog(String key, long nowMillis, long windowDurationMillis, long limit,
+      long permits, boolean partial) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      Log log = entries.get(key);
+      long count = log == null ? 0 : log.removeUpTo(nowMillis - windowDurationMillis);
+      long granted = grant(permits, limit - count, partial);
+
+      if (granted > 0) {
+        if (log == null) {
+          log = new Log();
+        }
+        log.add(nowMillis, granted);
+        entries.put(key, log, windowDurationMillis);
+      }
+
+      long size = count + granted;
+      long reset = size > 0 ? Math.max(0, log.newest() + windowDurationMillis - nowMillis) : 0;
+      long retryAfter = 0;
+      if (granted < permits) {
+        long needed = partial ? 1 : permits;
+        retryAfter = needed > limit ? reset : Math.max(0,
+            log.timestampOf(size + needed - limit - 1) + windowDurationMillis - nowMillis);
+      }
+      return List.of(granted, Math.max(0, limit - size), reset, retryAfter);
+    });
+  }
+
+  List<Long> concurrencyAcquire(String key, long leaseDurationMillis, long limit, String leaseId) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      long nowMillis = entries.wallMillis();
+      Leases leases = entries.get(key);
+      if (leases == null) {
+        leases = new Leases();
+      }
+      leases.expiries.values().removeIf(expiresAt -> expiresAt <= nowMillis);
+
+      long count = leases.expiries.size();
+      if (count >= limit) {
+        return List.of(0L, 0L, -1L, 0L);
+      }
+
+      leases.expiries.put(leaseId, nowMillis + leaseDurationMillis);
+      if (entries.ttl(key) < leaseDurationMillis) {
+        entries.put(key, leases, leaseDurationMillis);
+      }
+      return List.of(1L, limit - count - 1, -1L, 0L);
+    });
+  }
+
+  long concurrencyRelease(String key, String leaseId) {
+    return store.withKey(key, System.currentTimeMillis(), entries -> {
+      Leases leases = entries.get(key);
+      return leases != null && leases.expiries.remove(leaseId) != null ? 1L : 0L;
+    });
+  }
+
+  /**
+   * Like {@code composite.lua}: {@code args} are the time, the permits and then each limit as its
+   * algorithm name followed by its arguments, {@code keys} the keys of the limits in the same
+   * order. Either every limit admits all permits and they are recorded against all of them, or
+   * nothing is recorded.
+   */
+  List<Long> composite(List<String> keys, long nowMillis, long permits, List<Object> args) {
+    return store.withKeys(keys, System.currentTimeMillis(), entries -> {
+      Runnable[] records = new Runnable[keys.size()];
+      int argIndex = 0;
+      for (int position = 0; position < keys.size(); position++) {
+        String key = keys.get(position);
+        String algorithm = (String) args.get(argIndex);
+        long[] limit = (long[]) args.get(argIndex + 1);
+        argIndex += 2;
+
+        long retryAfter = switch (algorithm) {
+          case "fixed_window" -> checkFixedWindow(entries, key, limit, permits, records, position);
+          case "token_bucket" -> checkTokenBucket(entries, key, nowMillis, limit, permits, records,
+              position);
+          case "leaky_bucket" -> checkLeakyBucket(entries, key, nowMillis, limit, permits, records,
+              position);
+          case "sliding_window_counter" -> checkSlidingWindowCounter(entries, key, nowMillis, limit,
+              permits, records, position);
+          case "sliding_window_log" -> checkSlidingWindowLog(entries, key, nowMillis, limit,
+              permits, records, position);
+          default -> throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        };
+        if (records[position] == null) {
+          return List.of(0L, position + 1L, retryAfter);
+        }
+      }
+
+      Arrays.stream(records).forEach(Runnable::run);
+      return List.of(1L, 0L, 0L);
+    });
+  }
+
+  private long checkFixedWindow(Entries entries, String key, long[] args, long permits,
+      Runnable[] records, int position) {
+    long windowDurationMillis = args[0];
+    long limit = args[1];
+
+    Counter counter = entries.get(key);
+    long count = counter == null ? 0 : counter.count;
+    if (count + permits > limit) {
+      return count < limit ? 0 : Math.max(0, entries.ttl(key));
+    }
+
+    // state is read again when recording, in case an earlier limit of the call has the same key
+    records[position] = () -> {
+      Counter current = entries.get(key);
+      if (current == null) {
+        current = new Counter();
+        entries.put(key, current, windowDurationMillis);
+      }
+      current.count += permits;
+    };
+    return 0;
+  }
+
+  private long checkTokenBucket(Entries entries, String key, long nowMillis, long[] args,
+      long permits, Runnable[] records, int position) {
+    long refillPeriodMillis = args[2];
+    Bucket bucket = refill(entries.get(key), nowMillis, args[0], args[1], refillPeriodMillis);
+    if (bucket.level < permits) {
+      return bucket.level > 0 ? 0 : (long) bucket.last + refillPeriodMillis - nowMillis;
+    }
+
+    records[position] = () -> {
+      bucket.level -= permits;
+      store(entries, key, bucket, args[3]);
+    };
+    return 0;
+  }
+
+  private long checkLeakyBucket(Entries entries, String key, long nowMillis, long[] args,
+      long permits, Runnable[] records, int position) {
+    Bucket bucket = leak(entries.get(key), nowMillis, args[1], args[2]);
+    if (bucket.level + permits > args[0]) {
+      return 0;
+    }
+
+    records[position] = () -> {
+      bucket.level += permits;
+      store(entries, key, bucket, args[3]);
+    };
+    return 0;
+  }
+
+  private long checkSlidingWindowCounter(Entries entries, String key, long nowMillis, long[] args,
+      long permits, Runnable[] records, int position) {
+    long windowDurationMillis = args[0];
+    long subWindowDurationMillis = args[1];
+    long limit = args[2];
+
+    SubWindows subWindows = entries.get(key);
+    long subWindow = Math.floorDiv(nowMillis, subWindowDurationMillis);
+    double weighted = weightedCount(subWindows, entries, nowMillis, subWindow,
+        subWindowDurationMillis);
+    if (Math.ceil(limit - weighted) < permits) {
+      return 0;
+    }
+
+    records[position] = () -> count(entries, key, entries.get(key), subWindow, permits,
+        windowDurationMillis);
+    return 0;
+  }
+
+  private long checkSlidingWindowLog(Entries entries, String key, long nowMillis, long[] args,
+      long permits, Runnable[] records, int position) {
+    long windowDurationMillis = args[0];
+    long limit = args[1];
+
+    Log log = entries.get(key);
+    long count = log == null ? 0 : log.removeUpTo(nowMillis - windowDurationMillis);
+    if (count + permits > limit) {
+      return 0;
+    }
+
+    records[position] = () -> {
+      Log stored = entries.get(key);
+      Log current = stored == null ? new Log() : stored;
+      current.add(nowMillis, permits);
+      entries.put(key, current, windowDurationMillis);
+    };
+    return 0;
+  }
+
+  /**
+   * All requested permits, or when partial grants are allowed as many as are available.
+   */
+  private static long grant(long permits, long available, boolean partial) {
+    long granted = Math.max(0, Math.min(permits, available));
+    return granted < permits && !partial ? 0 : granted;
+  }
+
+  private static Bucket refill(Bucket stored, long nowMillis, long capacity, long refillRate,
+      long refillPeriodMillis) {
+    Bucket bucket = stored != null ? stored : new Bucket(capacity, nowMillis);
+    long intervals = (long) Math.floor((nowMillis - bucket.last) / refillPeriodMillis);
+    if (intervals > 0) {
+      bucket.level = Math.min(capacity, bucket.level + intervals * refillRate);
+      bucket.last += intervals * refillPeriodMillis;
+    }
+    return bucket;
+  }
+
+  /**
+   * Time until enough refills or leaks of {@code rate} per period have made up {@code missing}.
+   */
+  private static long waitFor(double missing, long rate, long periodMillis, double sinceLast) {
+    return missing <= 0 ? 0 : (long) (Math.ceil(missing / rate) * periodMillis - sinceLast);
+  }
+
+  /**
+   * Time into a sub-window after which {@code count}, weighted like the previous sub-window, is at
+   * most {@code budget}.
+   */
+  private static long decayedAt(long count, long budget, long subWindowDurationMillis) {
+    return count <= budget ? 0
+        : (long) Math.ceil(subWindowDurationMillis - (double) budget * subWindowDurationMillis / count);
+  }
+
+  private static Bucket leak(Bucket stored, long nowMillis, long leakRate, long leakPeriodMillis) {
+    Bucket bucket = stored != null ? stored : new Bucket(0, nowMillis);
+    long intervals = (long) Math.floor((nowMillis - bucket.last) / leakPeriodMillis);
+    if (intervals > 0) {
+      bucket.level = Math.max(0, bucket.level - intervals * leakRate);
+      bucket.last += intervals * leakPeriodMillis;
+    }
+    return bucket;
+  }
+
+  /**
+   * Stores a bucket only when it changed, like the scripts, so a rejection leaves its expiry alone.
+   */
+  private static void save(Entries entries, String key, Bucket bucket, long expireInMillis) {
+    if (bucket.level != bucket.storedLevel || bucket.last != bucket.storedLast) {
+      store(entries, key, bucket, expireInMillis);
+    }
+  }
+
+  private static void store(Entries entries, String key, Bucket bucket, long expireInMillis) {
+    bucket.storedLevel = bucket.level;
+    bucket.storedLast = bucket.last;
+    entries.put(key, bucket, expireInMillis);
+  }
+
+  private static double weightedCount(SubWindows subWindows, Entries entries, long nowMillis,
+      long subWindow, long subWindowDurationMillis) {
+    if (subWindows == null) {
+      return 0;
+    }
+    long elapsedInCurrentWindow = Math.floorMod(nowMillis, subWindowDurationMillis);
+    double weight = (double) (subWindowDurationMillis - elapsedInCurrentWindow)
+        / subWindowDurationMillis;
+    return subWindows.count(subWindow, entries.wallMillis())
+        + subWindows.count(subWindow - 1, entries.wallMillis()) * weight;
+  }
+
+  private static void count(Entries entries, String key, SubWindows stored, long subWindow,
+      long permits, long windowDurationMillis) {
+    SubWindows subWindows = stored != null ? stored : new SubWindows();
+    long wallMillis = entries.wallMillis();
+    subWindows.add(subWindow, permits, wallMillis, windowDurationMillis);
+    entries.put(key, subWindows, subWindows.expiresIn(wallMillis));
+  }
+
+  private static final class Counter extends Entry {
+
+    private long count;
+
+  }
+
+  /**
+   * Token or leaky bucket: the token or water level and the time of the last refill or leak.
+   */
+  private static final class Bucket extends Entry {
+
+    private double level;
+    private double last;
+    private double storedLevel;
+    private double storedLast;
+
+    private Bucket(double level, double last) {
+      this.level = level;
+      this.last = last;
+      this.storedLevel = level;
+      this.storedLast = last;
+    }
+
+  }
+
+  /**
+   * Counts of the two most recent sub-windows a sliding window counter wrote to, each expiring a
+   * window after its first count like the sub-window keys in Redis.
+   */
+  private static final class SubWindows extends Entry {
+
+    private final long[] numbers = {Long.MIN_VALUE, Long.MIN_VALUE};
+    private final long[] counts = new long[2];
+    private final long[] expiresAt = new long[2];
+
+    private long count(long subWindow, long wallMillis) {
+      for (int i = 0; i < 2; i++) {
+        if (numbers[i] == subWindow && expiresAt[i] > wallMillis) {
+          return counts[i];
+        }
+      }
+      return 0;
+    }
+
+    private void add(long subWindow, long permits, long wallMillis, long windowDurationMillis) {
+      for (int i = 0; i < 2; i++) {
+        if (numbers[i] == subWindow && expiresAt[i] > wallMillis) {
+          counts[i] += permits;
+          return;
+        }
+      }
+      int oldest = numbers[0] <= numbers[1] ? 0 : 1;
+      numbers[oldest] = subWindow;
+      counts[oldest] = permits;
+      expiresAt[oldest] = wallMillis + windowDurationMillis;
+    }
+
+    private long expiresIn(long wallMillis) {
+      return Math.max(expiresAt[0], expiresAt[1]) - wallMillis;
+    }
+
+  }
+
+  /**
+   * Expiry of each lease of a concurrency limiter, by lease id.
+   */
+  private static final class Leases extends Entry {
+
+    private final Map<String, Long> expiries = new HashMap<>();
+
+  }
+
+  /**
+   * Timestamps of a sliding window log with the number of permits logged at each, in ascending
+   * order.
+   */
+  private static final class Log extends Entry {
+
+    private long[] timestamps = new long[8];
+    private long[] permits = new long[8];
+    private int head;
+    private int size;
+    private long total;
+
+    /**
+     * Removes the entries at or before {@code maxMillis} and returns the permits still logged.
+     */
+    private long removeUpTo(long maxMillis) {
+      while (size > 0 && timestamps[head] <= maxMillis) {
+        total -= permits[head];
+        head = (head + 1) % timestamps.length;
+        size--;
+      }
+      return total;
+    }
+
+    private long newest() {
+      return timestamps[(head + size - 1) % timestamps.length];
+    }
+
+    /**
+     * Timestamp of the permit at {@code rank}, counting the permits of all entries from the oldest.
+     */
+    private long timestampOf(long rank) {
+      long counted = 0;
+      for (int i = 0; i < size; i++) {
+        int index = (head + i) % timestamps.length;
+        counted += permits[index];
+        if (counted > rank) {
+          return timestamps[index];
+        }
+      }
+      return newest();
+    }
+
+    private void add(long timestamp, long count) {
+      total += count;
+      int last = (head + size - 1) % timestamps.length;
+      if (size > 0 && timestamps[last] == timestamp) {
+        permits[last] += count;
+        return;
+      }
+      if (size == timestamps.length) {
+        grow();
+      }
+
+      // entries from callers whose clock is behind are moved into place
+      int position = size;
+      while (position > 0 && timestamps[(head + position - 1) % timestamps.length] > timestamp) {
+        int from = (head + position - 1) % timestamps.length;
+        int to = (head + position) % timestamps.length;
+        timestamps[to] = timestamps[from];
+        permits[to] = permits[from];
+        position--;
+      }
+      int index = (head + position) % timestamps.length;
+      timestamps[index] = timestamp;
+      permits[index] = count;
+      size++;
+    }
+
+    private void grow() {
+      long[] grownTimestamps = new long[timestamps.length * 2];
+      long[] grownPermits = new long[permits.length * 2];
+      for (int i = 0; i < size; i++) {
+        grownTimestamps[i] = timestamps[(head + i) % timestamps.length];
+        grownPermits[i] = permits[(head + i) % permits.length];
+      }
+      timestamps = grownTimestamps;
+      permits = grownPermits;
+      head = 0;
+    }
+
+  }
+
+}
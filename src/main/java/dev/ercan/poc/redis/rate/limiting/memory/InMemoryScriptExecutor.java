@@ -0,0 +1,232 @@
+package dev.ercan.poc.redis.rate.limiting.memory;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import io.lettuce.core.ScriptOutputType;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongUnaryOperator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the limiter scripts against the memory of this instance instead of Redis, selected with
+ * {@code rate-limiter.backend=memory}. Decisions take no network round trip but are not shared
+ * with other instances, so it suits single-instance deployments and tests without Redis.
+ * <p>
+ * The async and reactive variants decide on the calling thread, there is nothing to wait for.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "memory")
+public class InMemoryScriptExecutor implements ScriptExecutor {
+
+  private static final int NO_PARTIAL = -1;
+
+  /**
+   * The scripts with an in-memory implementation. A {@link RedisScript} is matched to one by the
+   * SHA1 of its source, so it does not matter under which bean name it was registered.
+   */
+  private enum Script {
+    FIXED_WINDOW("fixed_window", 3),
+    TOKEN_BUCKET("token_bucket", 6),
+    TOKEN_BUCKET_LEASE("token_bucket_lease", NO_PARTIAL),
+    LEAKY_BUCKET("leaky_bucket", 6),
+    SLIDING_WINDOW_COUNTER("sliding_window_counter", 5),
+    SLIDING_WINDOW_LOG("sliding_window_log", 4),
+    COMPOSITE("composite", NO_PARTIAL),
+    CONCURRENCY_ACQUIRE("concurrency_acquire", NO_PARTIAL),
+    CONCURRENCY_RELEASE("concurrency_release", NO_PARTIAL);
+
+    private final String resource;
+    /**
+     * Index of the argument asking for a partial grant, {@link #NO_PARTIAL} when there is none.
+     */
+    private final int partialArg;
+
+    Script(String name, int partialArg) {
+      this.resource = "scripts/" + name + ".lua";
+      this.partialArg = partialArg;
+    }
+
+    boolean isPartial(byte[][] args) {
+      return partialArg != NO_PARTIAL && flag(args[partialArg]);
+    }
+  }
+
+  private final Map<String, Script> scriptsBySha1 = new HashMap<>();
+  private final Map<RedisScript<?>, Script> scripts = new ConcurrentHashMap<>();
+  private final LimiterStore store;
+  private final InMemoryAlgorithms algorithms;
+
+  @Autowired
+  public InMemoryScriptExecutor(RateLimiterProperties properties) {
+    this(properties.getMemory().getEvictionInterval());
+  }
+
+  public InMemoryScriptExecutor(Duration evictionInterval) {
+    for (Script script : Script.values()) {
+      scriptsBySha1.put(RedisScript.of(new ClassPathResource(script.resource)).getSha1(), script);
+    }
+    this.store = new LimiterStore(evictionInterval);
+    this.algorithms = new InMemoryAlgorithms(store);
+  }
+
+  @PreDestroy
+  public void stop() {
+    store.close();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T execute(String limiter, RedisScript<?> script, ScriptOutputType type, byte[][] keys,
+      byte[][] args) {
+    return (T) evaluate(script(limiter, script), keys, args, LongUnaryOperator.identity());
+  }
+
+  /**
+   * Decides a call locally with {@code scale} applied to its limits, capacities and rates. Returns
+   * the result of the script when it rejects the call, or {@code null} when the permits were
+   * granted or the call asks for a partial grant or a lease, which are not decided locally.
+   * <p>
+   * Concurrency leases are never decided locally either: a local permit would have to be released
+   * along with the one in Redis, and in-flight calls are few enough for Redis to decide them all.
+   */
+  Object prefilter(String limiter, RedisScript<?> script, byte[][] keys, byte[][] args,
+      LongUnaryOperator scale) {
+    Script local = script(limiter, script);
+    if (local == Script.TOKEN_BUCKET_LEASE || local == Script.CONCURRENCY_ACQUIRE
+        || local == Script.CONCURRENCY_RELEASE || local.isPartial(args)) {
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Long> result = (List<Long>) evaluate(local, keys, args, scale);
+    return result.get(0) == 0 ? result : null;
+  }
+
+  @Override
+  public <T> CompletionStage<T> executeAsync(String limiter, RedisScript<?> script,
+      ScriptOutputType type, byte[][] keys, byte[][] args) {
+    try {
+      return CompletableFuture.completedFuture(execute(limiter, script, type, keys, args));
+    } catch (RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+  }
+
+  @Override
+  public <T> Mono<T> executeReactive(String limiter, RedisScript<?> script, ScriptOutputType type,
+      byte[][] keys, byte[][] args) {
+    return Mono.fromSupplier(() -> execute(limiter, script, type, keys, args));
+  }
+
+  LimiterStore store() {
+    return store;
+  }
+
+  /**
+   * Matches each script instance once, hashing the source on every call would read it again.
+   */
+  private Script script(String limiter, RedisScript<?> script) {
+    Script local = scripts.computeIfAbsent(script,
+        redisScript -> scriptsBySha1.get(redisScript.getSha1()));
+    if (local == null) {
+      throw new IllegalArgumentException("No in-memory implementation of the script of " + limiter);
+    }
+    return local;
+  }
+
+  private Object evaluate(Script script, byte[][] keys, byte[][] args, LongUnaryOperator scale) {
+    return switch (script) {
+      case FIXED_WINDOW -> algorithms.fixedWindow(key(keys[0]),
+          decimal(args[0]), scaled(args[1], scale), decimal(args[2]), script.isPartial(args));
+      case TOKEN_BUCKET -> algorithms.tokenBucket(key(keys[0]), now(args[0]),
+          scaled(args[1], scale), scaled(args[2], scale), decimal(args[3]), decimal(args[4]),
+          decimal(args[5]), script.isPartial(args));
+      case TOKEN_BUCKET_LEASE -> algorithms.tokenBucketLease(key(keys[0]),
+          now(args[0]), scaled(args[1], scale), scaled(args[2], scale), decimal(args[3]),
+          decimal(args[4]), decimal(args[5]), decimal(args[6]));
+      case LEAKY_BUCKET -> algorithms.leakyBucket(key(keys[0]), now(args[0]),
+          scaled(args[1], scale), scaled(args[2], scale), decimal(args[3]), decimal(args[4]),
+          decimal(args[5]), script.isPartial(args));
+      case SLIDING_WINDOW_COUNTER -> algorithms.slidingWindowCounter(
+          key(keys[0]), now(args[0]), decimal(args[1]), decimal(args[2]), scaled(args[3], scale),
+          decimal(args[4]), script.isPartial(args));
+      case SLIDING_WINDOW_LOG -> algorithms.slidingWindowLog(key(keys[0]),
+          now(args[0]), decimal(args[1]), scaled(args[2], scale), decimal(args[3]),
+          script.isPartial(args));
+      case COMPOSITE -> composite(keys, args, scale);
+      case CONCURRENCY_ACQUIRE -> algorithms.concurrencyAcquire(key(keys[0]), decimal(args[0]),
+          scaled(args[1], scale), key(args[2]));
+      case CONCURRENCY_RELEASE -> algorithms.concurrencyRelease(key(keys[0]), key(args[0]));
+    };
+  }
+
+  private List<Long> composite(byte[][] keys, byte[][] args, LongUnaryOperator scale) {
+    List<String> keyNames = new ArrayList<>(keys.length);
+    List<Object> limits = new ArrayList<>();
+    int keyIndex = 0;
+    int index = 2;
+    while (index < args.length) {
+      String algorithm = new String(args[index], StandardCharsets.US_ASCII);
+      CompositeLimit.Layout layout = CompositeLimit.Layout.of(algorithm);
+      long[] limitArgs = new long[layout.count()];
+      for (int i = 0; i < layout.count(); i++) {
+        byte[] arg = args[index + 1 + i];
+        limitArgs[i] = layout.isScaled(i) ? scaled(arg, scale) : decimal(arg);
+      }
+      limits.add(algorithm);
+      limits.add(limitArgs);
+      // sub-window keys follow the key of a sliding window counter, the limit's key is enough here
+      keyNames.add(key(keys[keyIndex]));
+      keyIndex += layout.keyCount(limitArgs);
+      index += 1 + layout.count();
+    }
+    return algorithms.composite(keyNames, now(args[0]), decimal(args[1]), limits);
+  }
+
+  /**
+   * Keys are only compared, so each byte maps to one char without decoding UTF-8.
+   */
+  private static String key(byte[] key) {
+    return new String(key, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * The time argument; empty with the server clock, which here is the clock of this instance.
+   */
+  private static long now(byte[] value) {
+    return value.length == 0 ? System.currentTimeMillis() : decimal(value);
+  }
+
+  private static long scaled(byte[] value, LongUnaryOperator scale) {
+    return scale.applyAsLong(decimal(value));
+  }
+
+  private static boolean flag(byte[] value) {
+    return value.length == 1 && value[0] == '1';
+  }
+
+  private static long decimal(byte[] value) {
+    boolean negative = value.length > 0 && value[0] == '-';
+    long result = 0;
+    for (int i = negative ? 1 : 0; i < value.length; i++) {
+      result = result * 10 + (value[i] - '0');
+    }
+    return negative ? -result : result;
+  }
+
+}
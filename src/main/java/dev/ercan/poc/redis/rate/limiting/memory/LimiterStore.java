@@ -0,0 +1,238 @@
+package dev.ercan.poc.redis.rate.limiting.memory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Limiter state of this instance, split into stripes that each guard a plain map with their own
+ * lock, so decisions on different keys rarely contend and a decision holds no lock beyond its
+ * stripes.
+ * <p>
+ * Entries expire like Redis keys: an expired entry reads as missing, and a hashed time wheel
+ * removes the entries of keys that went idle. Each entry is on the wheel once, at the tick of its
+ * expiry when it was scheduled; if it was extended meanwhile, the sweep puts it back at its new
+ * expiry instead of removing it.
+ */
+final class LimiterStore implements AutoCloseable {
+
+  private static final int STRIPES = 256;
+  private static final int WHEEL_SLOTS = 512;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final AtomicReferenceArray<Queue<String>> wheel = new AtomicReferenceArray<>(WHEEL_SLOTS);
+  private final long tickMillis;
+  private final ScheduledExecutorService sweeper;
+
+  private long sweptTick;
+
+  LimiterStore(Duration evictionInterval) {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+    for (int i = 0; i < WHEEL_SLOTS; i++) {
+      wheel.set(i, new ConcurrentLinkedQueue<>());
+    }
+    this.tickMillis = Math.max(1, evictionInterval.toMillis());
+    this.sweptTick = System.currentTimeMillis() / tickMillis;
+    this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "limiter-memory-eviction");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sweeper.scheduleWithFixedDelay(() -> sweep(System.currentTimeMillis()), tickMillis, tickMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs {@code action} with exclusive access to the entries of {@code key}.
+   */
+  <R> R withKey(String key, long nowMillis, Function<Entries, R> action) {
+    Stripe stripe = stripe(key);
+    stripe.lock.lock();
+    try {
+      return action.apply(new Entries(nowMillis));
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Runs {@code action} with exclusive access to the entries of all {@code keys}, taking their
+   * stripe locks in index order so concurrent calls cannot deadlock.
+   */
+  <R> R withKeys(List<String> keys, long nowMillis, Function<Entries, R> action) {
+    boolean[] locked = new boolean[STRIPES];
+    for (String key : keys) {
+      locked[index(key)] = true;
+    }
+    for (int i = 0; i < STRIPES; i++) {
+      if (locked[i]) {
+        stripes[i].lock.lock();
+      }
+    }
+    try {
+      return action.apply(new Entries(nowMillis));
+    } finally {
+      for (int i = STRIPES - 1; i >= 0; i--) {
+        if (locked[i]) {
+          stripes[i].lock.unlock();
+        }
+      }
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        size += stripe.entries.size();
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  void clear() {
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        stripe.entries.clear();
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Removes the expired entries of every tick since the last sweep.
+   */
+  void sweep(long nowMillis) {
+    long currentTick = nowMillis / tickMillis;
+    long fromTick = Math.max(sweptTick, currentTick - WHEEL_SLOTS + 1);
+    for (long tick = fromTick; tick <= currentTick; tick++) {
+      Queue<String> due = wheel.getAndSet(slot(tick), new ConcurrentLinkedQueue<>());
+      for (String key = due.poll(); key != null; key = due.poll()) {
+        evict(key, nowMillis, currentTick);
+      }
+    }
+    sweptTick = currentTick + 1;
+  }
+
+  private void evict(String key, long nowMillis, long currentTick) {
+    Stripe stripe = stripe(key);
+    stripe.lock.lock();
+    try {
+      Entry entry = stripe.entries.get(key);
+      if (entry == null) {
+        return;
+      }
+      if (entry.expiresAt <= nowMillis) {
+        stripe.entries.remove(key);
+      } else if (entry.scheduledTick <= currentTick) {
+        schedule(key, entry, nowMillis);
+      } else {
+        // a later tick sharing this slot, or an entry that replaced the one scheduled here
+        wheel.get(slot(entry.scheduledTick)).add(key);
+      }
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  private void schedule(String key, Entry entry, long nowMillis) {
+    // never the current tick, whose slot may already have been swept
+    entry.scheduledTick = Math.max(Math.ceilDiv(entry.expiresAt, tickMillis),
+        nowMillis / tickMillis + 1);
+    wheel.get(slot(entry.scheduledTick)).add(key);
+  }
+
+  private int slot(long tick) {
+    return (int) (tick & (WHEEL_SLOTS - 1));
+  }
+
+  private Stripe stripe(String key) {
+    return stripes[index(key)];
+  }
+
+  private static int index(String key) {
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+  }
+
+  @Override
+  public void close() {
+    sweeper.shutdownNow();
+  }
+
+  /**
+   * The entries visible to an action, valid only while it runs.
+   */
+  final class Entries {
+
+    private final long nowMillis;
+
+    private Entries(long nowMillis) {
+      this.nowMillis = nowMillis;
+    }
+
+    /**
+     * The entry of {@code key}, or {@code null} when it does not exist or expired.
+     */
+    @SuppressWarnings("unchecked")
+    <E extends Entry> E get(String key) {
+      Entry entry = stripe(key).entries.get(key);
+      return entry == null || entry.expiresAt <= nowMillis ? null : (E) entry;
+    }
+
+    /**
+     * Stores {@code entry} under {@code key} until {@code expireInMillis} from now.
+     */
+    void put(String key, Entry entry, long expireInMillis) {
+      entry.expiresAt = nowMillis + expireInMillis;
+      Map<String, Entry> entries = stripe(key).entries;
+      if (entries.put(key, entry) != entry || entry.scheduledTick < 0) {
+        schedule(key, entry, nowMillis);
+      }
+    }
+
+    long wallMillis() {
+      return nowMillis;
+    }
+
+    long ttl(String key) {
+      Entry entry = get(key);
+      return entry == null ? -2 : entry.expiresAt - nowMillis;
+    }
+
+  }
+
+  /**
+   * State of one key.
+   */
+  abstract static class Entry {
+
+    private long expiresAt;
+    private long scheduledTick = -1;
+
+  }
+
+  private static final class Stripe {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+  }
+
+}
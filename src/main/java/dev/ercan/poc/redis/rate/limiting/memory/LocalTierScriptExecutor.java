@@ -0,0 +1,116 @@
+package dev.ercan.poc.redis.rate.limiting.memory;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.connection.NodeHeartbeat;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.RedisScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Puts a local tier in front of Redis: every call is first decided by the in-memory algorithms
+ * with the limits scaled to this node's share, {@code limit * headroom / node count}. Calls the
+ * local tier rejects are answered with its result and never reach Redis; the ones it admits are
+ * decided by Redis as usual, so the global limit stays exact while excess traffic, for example
+ * during an attack, is mostly rejected without a network round trip.
+ * <p>
+ * The local share can only make a node stricter than the global limit, when its traffic is well
+ * above its share while other nodes are idle; the headroom trades that off against Redis load.
+ */
+@Primary
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis",
+    matchIfMissing = true)
+@ConditionalOnProperty(prefix = "rate-limiter.local-tier", name = "enabled", havingValue = "true")
+public class LocalTierScriptExecutor implements ScriptExecutor {
+
+  private final RedisScriptExecutor redisScriptExecutor;
+  private final InMemoryScriptExecutor localTier;
+  private final NodeHeartbeat nodeHeartbeat;
+  private final LimiterMetrics limiterMetrics;
+  private final double headroom;
+
+  public LocalTierScriptExecutor(RedisScriptExecutor redisScriptExecutor,
+      NodeHeartbeat nodeHeartbeat,
+      LimiterMetrics limiterMetrics, RateLimiterProperties properties) {
+    this.redisScriptExecutor = redisScriptExecutor;
+    this.localTier = new InMemoryScriptExecutor(properties.getMemory().getEvictionInterval());
+    this.nodeHeartbeat = nodeHeartbeat;
+    this.limiterMetrics = limiterMetrics;
+    this.headroom = properties.getLocalTier().getHeadroom();
+  }
+
+  @PreDestroy
+  public void stop() {
+    localTier.stop();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T execute(String limiter, RedisScript<?> script, ScriptOutputType type, byte[][] keys,
+      byte[][] args) {
+    Object rejection = prefilter(limiter, script, keys, args);
+    if (rejection != null) {
+      return (T) rejection;
+    }
+    return redisScriptExecutor.execute(limiter, script, type, keys, args);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> CompletionStage<T> executeAsync(String limiter, RedisScript<?> script,
+      ScriptOutputType type, byte[][] keys, byte[][] args) {
+    Object rejection;
+    try {
+      rejection = prefilter(limiter, script, keys, args);
+    } catch (RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    if (rejection != null) {
+      return CompletableFuture.completedFuture((T) rejection);
+    }
+    return redisScriptExecutor.executeAsync(limiter, script, type, keys, args);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> Mono<T> executeReactive(String limiter, RedisScript<?> script, ScriptOutputType type,
+      byte[][] keys, byte[][] args) {
+    return Mono.defer(() -> {
+      Object rejection = prefilter(limiter, script, keys, args);
+      if (rejection != null) {
+        return Mono.just((T) rejection);
+      }
+      return redisScriptExecutor.executeReactive(limiter, script, type, keys, args);
+    });
+  }
+
+  @Override
+  public boolean isColocated(List<byte[]> keys) {
+    return redisScriptExecutor.isColocated(keys);
+  }
+
+  InMemoryScriptExecutor localTier() {
+    return localTier;
+  }
+
+  private Object prefilter(String limiter, RedisScript<?> script, byte[][] keys, byte[][] args) {
+    int nodeCount = nodeHeartbeat.nodeCount();
+    Object rejection = localTier.prefilter(limiter, script, keys, args,
+        limit -> Math.max(1, (long) Math.ceil(limit * headroom / nodeCount)));
+    if (rejection != null) {
+      limiterMetrics.localTierRejection(limiter);
+    }
+    return rejection;
+  }
+
+}
@@ -0,0 +1,168 @@
+package dev.ercan.poc.redis.rate.limiting.metrics;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.service.RateLimitDecision;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters of the limiter services and the aspect. Tags are limited to the algorithm and the limiter
+ * id of the annotation; limiter keys (per user, per IP) are never used as tags. Ids beyond
+ * {@code rate-limiter.metrics.max-ids} are reported as {@value #OTHER_ID}.
+ */
+@Component
+public class LimiterMetrics {
+
+  static final String OTHER_ID = "other";
+
+  private final MeterRegistry meterRegistry;
+  private final int maxIds;
+
+  private final Set<String> knownIds = ConcurrentHashMap.newKeySet();
+  private final Map<String, Timer> redisTimers = new ConcurrentHashMap<>();
+  private final Map<String, Timer> aspectTimers = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, Counter> scriptReloads = new ConcurrentHashMap<>();
+  private final Map<String, Counter> scriptLoads = new ConcurrentHashMap<>();
+  private final Map<String, Counter> decisions = new ConcurrentHashMap<>();
+  private final Map<String, Counter> localTierRejections = new ConcurrentHashMap<>();
+
+  public LimiterMetrics(MeterRegistry meterRegistry, RateLimiterProperties properties) {
+    this.meterRegistry = meterRegistry;
+    this.maxIds = properties.getMetrics().getMaxIds();
+  }
+
+  /**
+   * Timer of the Redis call made for a limiter decision.
+   */
+  public Timer redisTimer(String algorithm) {
+    return redisTimers.computeIfAbsent(algorithm, name -> Timer.builder("rate.limiter.redis")
+        .description("Duration of the Redis call behind a limiter decision")
+        .tag("algorithm", name)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofMillis(1))
+        .maximumExpectedValue(Duration.ofSeconds(1))
+        .register(meterRegistry));
+  }
+
+  /**
+   * Timer of the limiter decision awaited by the aspect before the annotated method proceeds.
+   */
+  public Timer aspectTimer(String algorithm) {
+    return aspectTimers.computeIfAbsent(algorithm, name -> Timer.builder("rate.limiter.aspect")
+        .description("Duration of the rate limit check performed around an annotated method")
+        .tag("algorithm", name)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofMillis(1))
+        .maximumExpectedValue(Duration.ofSeconds(1))
+        .register(meterRegistry));
+  }
+
+  /**
+   * Number of Redis calls currently in flight for the algorithm.
+   */
+  public AtomicInteger inFlight(String algorithm) {
+    return inFlight.computeIfAbsent(algorithm, name -> {
+      AtomicInteger gauge = new AtomicInteger();
+      Gauge.builder("rate.limiter.inflight", gauge, AtomicInteger::get)
+          .description("Limiter Redis calls currently in flight")
+          .tag("algorithm", name)
+          .register(meterRegistry);
+      return gauge;
+    });
+  }
+
+  /**
+   * Counts an EVALSHA that Redis answered with NOSCRIPT.
+   */
+  public void scriptReload(String algorithm) {
+    scriptReloads.computeIfAbsent(algorithm, name -> Counter.builder("rate.limiter.script.reload")
+        .description("NOSCRIPT replies to EVALSHA")
+        .tag("algorithm", name)
+        .register(meterRegistry)).increment();
+  }
+
+  /**
+   * Counts a SCRIPT LOAD of all limiter scripts, by what triggered it (startup, reconnect,
+   * noscript).
+   */
+  public void scriptLoad(String reason, boolean success) {
+    String outcome = success ? "success" : "failure";
+    scriptLoads.computeIfAbsent(reason + ':' + outcome, name -> Counter.builder("rate.limiter.script.load")
+        .description("Loads of the limiter scripts into Redis")
+        .tag("reason", reason)
+        .tag("outcome", outcome)
+        .register(meterRegistry)).increment();
+  }
+
+  /**
+   * Counts a call the local tier rejected before it was sent to Redis.
+   */
+  public void localTierRejection(String algorithm) {
+    localTierRejections.computeIfAbsent(algorithm, name -> Counter.builder("rate.limiter.local.tier.rejections")
+        .description("Limiter calls rejected by the local tier without a Redis call")
+        .tag("algorithm", name)
+        .register(meterRegistry)).increment();
+  }
+
+  /**
+   * Counts a decision made by Redis and passes it through.
+   */
+  public boolean decision(String algorithm, String id, boolean allowed) {
+    return count(algorithm, id, allowed, "redis");
+  }
+
+  /**
+   * Counts a decision made locally, without Redis (deny cache, leased tokens), and passes it
+   * through.
+   */
+  public boolean localDecision(String algorithm, String id, boolean allowed) {
+    return count(algorithm, id, allowed, "local");
+  }
+
+  public RateLimitDecision decision(String algorithm, String id, RateLimitDecision decision) {
+    count(algorithm, id, decision.allowed(), "redis");
+    return decision;
+  }
+
+  public RateLimitDecision localDecision(String algorithm, String id, RateLimitDecision decision) {
+    count(algorithm, id, decision.allowed(), "local");
+    return decision;
+  }
+
+  private boolean count(String algorithm, String id, boolean allowed, String source) {
+    String outcome = allowed ? "allowed" : "rejected";
+    String tagId = tagId(id);
+    decisions.computeIfAbsent(algorithm + ':' + tagId + ':' + outcome + ':' + source,
+        name -> Counter.builder("rate.limiter.decisions")
+            .description("Limiter decisions by outcome and source")
+            .tag("algorithm", algorithm)
+            .tag("id", tagId)
+            .tag("outcome", outcome)
+            .tag("source", source)
+            .register(meterRegistry)).increment();
+    return allowed;
+  }
+
+  private String tagId(String id) {
+    if (knownIds.contains(id)) {
+      return id;
+    }
+    synchronized (knownIds) {
+      if (knownIds.size() < maxIds) {
+        knownIds.add(id);
+        return id;
+      }
+    }
+    return knownIds.contains(id) ? id : OTHER_ID;
+  }
+
+}
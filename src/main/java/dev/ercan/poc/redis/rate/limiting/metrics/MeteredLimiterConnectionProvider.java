@@ -0,0 +1,76 @@
+package dev.ercan.poc.redis.rate.limiting.metrics;
+
+import dev.ercan.poc.redis.rate.limiting.connection.LimiterConnectionProvider;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import reactor.core.publisher.Mono;
+
+/**
+ * Times every call of a limiter service and tracks the calls in flight.
+ */
+public class MeteredLimiterConnectionProvider implements LimiterConnectionProvider {
+
+  private final LimiterConnectionProvider delegate;
+  private final Timer timer;
+  private final AtomicInteger inFlight;
+
+  public MeteredLimiterConnectionProvider(String algorithm, LimiterConnectionProvider delegate,
+      LimiterMetrics limiterMetrics) {
+    this.delegate = delegate;
+    this.timer = limiterMetrics.redisTimer(algorithm);
+    this.inFlight = limiterMetrics.inFlight(algorithm);
+  }
+
+  @Override
+  public <T> T execute(Function<RedisClusterCommands<byte[], byte[]>, T> action) {
+    long start = System.nanoTime();
+    inFlight.incrementAndGet();
+    try {
+      return delegate.execute(action);
+    } finally {
+      inFlight.decrementAndGet();
+      timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public <T> CompletionStage<T> executeAsync(
+      Function<RedisClusterAsyncCommands<byte[], byte[]>, CompletionStage<T>> action) {
+    long start = System.nanoTime();
+    inFlight.incrementAndGet();
+    return delegate.executeAsync(action).whenComplete((result, ex) -> {
+      inFlight.decrementAndGet();
+      timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    });
+  }
+
+  @Override
+  public <T> Mono<T> executeReactive(
+      Function<RedisClusterReactiveCommands<byte[], byte[]>, Mono<T>> action) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      inFlight.incrementAndGet();
+      return delegate.executeReactive(action).doFinally(signal -> {
+        inFlight.decrementAndGet();
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      });
+    });
+  }
+
+  @Override
+  public void healthCheck() {
+    delegate.healthCheck();
+  }
+
+  @Override
+  public void close() {
+    // the underlying provider is owned and closed by LimiterConnections
+  }
+
+}
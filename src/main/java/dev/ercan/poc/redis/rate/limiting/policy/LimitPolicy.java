@@ -0,0 +1,103 @@
+package dev.ercan.poc.redis.rate.limiting.policy;
+
+import java.time.Duration;
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * Parameters overriding the ones of the limits with the same id, whether set by an annotation or a
+ * route. Parameters left {@code null} keep their configured value, the others must be positive.
+ *
+ * @param limit limit of the window algorithms, or capacity of the token and leaky bucket
+ * @param rate tokens refilled, or requests leaked, per period by the token and leaky bucket
+ */
+public record LimitPolicy(Long limit, Duration windowDuration, Duration subWindowDuration,
+                          Long rate, Duration period) {
+
+  public static final LimitPolicy NONE = new LimitPolicy(null, null, null, null, null);
+
+  public LimitPolicy {
+    requirePositive("limit", limit);
+    requirePositive("window-duration", windowDuration);
+    requirePositive("sub-window-duration", subWindowDuration);
+    requirePositive("rate", rate);
+    requirePositive("period", period);
+  }
+
+  public long limit(long configured) {
+    return limit != null ? limit : configured;
+  }
+
+  public Duration windowDuration(Duration configured) {
+    return windowDuration != null ? windowDuration : configured;
+  }
+
+  public Duration subWindowDuration(Duration configured) {
+    return subWindowDuration != null ? subWindowDuration : configured;
+  }
+
+  public long rate(long configured) {
+    return rate != null ? rate : configured;
+  }
+
+  public Duration period(Duration configured) {
+    return period != null ? period : configured;
+  }
+
+  /**
+   * This policy with the parameters set by {@code other} replaced.
+   */
+  LimitPolicy overriddenBy(LimitPolicy other) {
+    return new LimitPolicy(
+        other.limit != null ? other.limit : limit,
+        other.windowDuration != null ? other.windowDuration : windowDuration,
+        other.subWindowDuration != null ? other.subWindowDuration : subWindowDuration,
+        other.rate != null ? other.rate : rate,
+        other.period != null ? other.period : period);
+  }
+
+  /**
+   * Parses comma separated parameters named like the properties, for example
+   * {@code limit=100, window-duration=30s}.
+   */
+  static LimitPolicy parse(String value) {
+    Long limit = null;
+    Duration windowDuration = null;
+    Duration subWindowDuration = null;
+    Long rate = null;
+    Duration period = null;
+
+    for (String parameter : value.split(",")) {
+      if (parameter.isBlank()) {
+        continue;
+      }
+      int separator = parameter.indexOf('=');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Limit policy parameter without value: " + parameter);
+      }
+      String name = parameter.substring(0, separator).trim();
+      String parameterValue = parameter.substring(separator + 1).trim();
+      switch (name) {
+        case "limit" -> limit = Long.parseLong(parameterValue);
+        case "window-duration" -> windowDuration = DurationStyle.detectAndParse(parameterValue);
+        case "sub-window-duration" -> subWindowDuration = DurationStyle.detectAndParse(parameterValue);
+        case "rate" -> rate = Long.parseLong(parameterValue);
+        case "period" -> period = DurationStyle.detectAndParse(parameterValue);
+        default -> throw new IllegalArgumentException("Unknown limit policy parameter: " + name);
+      }
+    }
+    return new LimitPolicy(limit, windowDuration, subWindowDuration, rate, period);
+  }
+
+  private static void requirePositive(String name, Long value) {
+    if (value != null && value < 1) {
+      throw new IllegalArgumentException("Limit policy " + name + " must be positive: " + value);
+    }
+  }
+
+  private static void requirePositive(String name, Duration value) {
+    if (value != null && (value.isZero() || value.isNegative())) {
+      throw new IllegalArgumentException("Limit policy " + name + " must be positive: " + value);
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+package dev.ercan.poc.redis.rate.limiting.policy;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limit policies by limit id: the ones configured under {@code rate-limiter.policies}, overridden
+ * by the ones last loaded from Redis. Policies are held in an immutable snapshot that updates
+ * replace as a whole, so lookups on the request path take no lock and never see a partial update.
+ * <p>
+ * State cached on this node under the old parameters of a changed policy, rejections in the
+ * {@link DenyCache} and token leases, is dropped on update, so the new parameters apply at once.
+ */
+@Component
+public class PolicyRegistry {
+
+  private final Map<String, LimitPolicy> configured;
+  private final DenyCache denyCache;
+  private final TokenBucketRateLimiter tokenBucketRateLimiter;
+
+  private volatile Map<String, LimitPolicy> policies;
+
+  public PolicyRegistry(RateLimiterProperties properties, DenyCache denyCache,
+      TokenBucketRateLimiter tokenBucketRateLimiter) {
+    this.configured = Map.copyOf(properties.getPolicies());
+    this.denyCache = denyCache;
+    this.tokenBucketRateLimiter = tokenBucketRateLimiter;
+    this.policies = configured;
+  }
+
+  /**
+   * Policy of the limits with this id, {@link LimitPolicy#NONE} when they keep their parameters.
+   */
+  public LimitPolicy policy(String id) {
+    return policies.getOrDefault(id, LimitPolicy.NONE);
+  }
+
+  /**
+   * Replaces the policies overriding the configured ones.
+   */
+  public synchronized void update(Map<String, LimitPolicy> overrides) {
+    Map<String, LimitPolicy> merged = new HashMap<>(configured);
+    overrides.forEach((id, policy) -> merged.merge(id, policy, LimitPolicy::overriddenBy));
+    Map<String, LimitPolicy> previous = policies;
+    policies = Map.copyOf(merged);
+
+    Set<String> changed = new HashSet<>(previous.keySet());
+    changed.addAll(merged.keySet());
+    changed.removeIf(id -> Objects.equals(previous.get(id), merged.get(id)));
+    denyCache.invalidate(changed);
+    tokenBucketRateLimiter.invalidateLeases(changed);
+  }
+
+}
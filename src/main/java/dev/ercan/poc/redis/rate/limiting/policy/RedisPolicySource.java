@@ -0,0 +1,158 @@
+package dev.ercan.poc.redis.rate.limiting.policy;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.connection.LimiterConnections;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+/**
+ * Loads limit policies from a Redis hash, one field per limit id holding parameters such as
+ * {@code limit=100, window-duration=30s}, into the {@link PolicyRegistry}. The hash is loaded at
+ * startup, on every message published on the channel of the same name, and on reconnect, when
+ * messages may have been missed. Changing a policy on all nodes takes two commands:
+ * <pre>
+ * HSET rate_limiter:policies api "limit=100"
+ * PUBLISH rate_limiter:policies api
+ * </pre>
+ * Invalid fields are skipped and logged.
+ * <p>
+ * The channel is subscribed in the background, so an unreachable Redis does not keep the
+ * application from starting. Failed attempts are retried with a backoff doubling from
+ * {@link #INITIAL_BACKOFF} up to {@link #MAX_BACKOFF}, and the hash is loaded again once
+ * subscribed.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis",
+    matchIfMissing = true)
+@ConditionalOnProperty(prefix = "rate-limiter.redis-policies", name = "enabled", havingValue = "true")
+public class RedisPolicySource {
+
+  private static final String LIMITER = "policies";
+  private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+  private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+  private final LimiterConnections limiterConnections;
+  private final PolicyRegistry policyRegistry;
+  private final byte[] key;
+  private final ScheduledExecutorService subscriber;
+  private final Disposable reconnectSubscription;
+
+  private StatefulRedisPubSubConnection<byte[], byte[]> pubSubConnection;
+  private boolean stopped;
+
+  public RedisPolicySource(LimiterConnections limiterConnections, PolicyRegistry policyRegistry,
+      RateLimiterProperties properties) {
+    this.limiterConnections = limiterConnections;
+    this.policyRegistry = policyRegistry;
+    this.key = properties.getRedisPolicies().getKey().getBytes(StandardCharsets.UTF_8);
+
+    try {
+      load().toCompletableFuture().join();
+    } catch (CompletionException ex) {
+      log.warn("Could not load the limit policies at startup, keeping the configured ones", ex);
+    }
+
+    this.subscriber = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "limit-policy-subscriber");
+      thread.setDaemon(true);
+      return thread;
+    });
+    subscriber.execute(() -> subscribe(INITIAL_BACKOFF));
+    this.reconnectSubscription = limiterConnections.onConnect(this::load);
+  }
+
+  /**
+   * Subscribes to the channel, or schedules another attempt after {@code backoff}. Lettuce
+   * resubscribes an established subscription by itself after reconnecting.
+   */
+  private void subscribe(Duration backoff) {
+    StatefulRedisPubSubConnection<byte[], byte[]> connection = null;
+    try {
+      connection = limiterConnections.connectPubSub();
+      connection.addListener(new RedisPubSubAdapter<>() {
+        @Override
+        public void message(byte[] channel, byte[] message) {
+          load();
+        }
+      });
+      connection.sync().subscribe(key);
+    } catch (RuntimeException ex) {
+      if (connection != null) {
+        connection.closeAsync();
+      }
+      Duration doubled = backoff.multipliedBy(2);
+      Duration next = doubled.compareTo(MAX_BACKOFF) < 0 ? doubled : MAX_BACKOFF;
+      log.warn("Could not subscribe to limit policy changes, retrying in {}", backoff, ex);
+      subscriber.schedule(() -> subscribe(next), backoff.toMillis(), TimeUnit.MILLISECONDS);
+      return;
+    }
+
+    synchronized (this) {
+      if (stopped) {
+        connection.closeAsync();
+        return;
+      }
+      pubSubConnection = connection;
+    }
+    // changes published before the subscription were missed
+    load();
+  }
+
+  /**
+   * Loads the hash without blocking, as it is called from Redis client threads.
+   */
+  CompletionStage<Void> load() {
+    return limiterConnections.forLimiter(LIMITER)
+        .executeAsync(commands -> commands.hgetall(key))
+        .thenAccept(hash -> policyRegistry.update(parse(hash)))
+        .whenComplete((ignored, ex) -> {
+          if (ex != null) {
+            log.warn("Could not load the limit policies", ex);
+          }
+        });
+  }
+
+  /**
+   * Stops on context close, before the Redis connection factory is stopped, like the other
+   * background Redis users.
+   */
+  @EventListener(ContextClosedEvent.class)
+  public synchronized void stop() {
+    stopped = true;
+    subscriber.shutdownNow();
+    reconnectSubscription.dispose();
+    if (pubSubConnection != null) {
+      pubSubConnection.closeAsync();
+    }
+  }
+
+  private Map<String, LimitPolicy> parse(Map<byte[], byte[]> hash) {
+    Map<String, LimitPolicy> policies = new HashMap<>();
+    hash.forEach((field, value) -> {
+      String id = new String(field, StandardCharsets.UTF_8);
+      try {
+        policies.put(id, LimitPolicy.parse(new String(value, StandardCharsets.UTF_8)));
+      } catch (IllegalArgumentException ex) {
+        log.warn("Skipping the invalid limit policy of {}", id, ex);
+      }
+    });
+    return policies;
+  }
+
+}
@@ -0,0 +1,83 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.Getter;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * The limiter scripts as one Redis function library. Each script becomes a function named after
+ * its bean, {@code tokenBucketRateLimiterScript} becoming {@code token_bucket}, taking the same
+ * keys and arguments.
+ * <p>
+ * The library also registers {@value #VERSION_FUNCTION}, which returns a hash of the library, so
+ * a node only replaces the library when its scripts differ from the ones loaded.
+ */
+public final class FunctionLibrary {
+
+  public static final String NAME = "rate_limiter";
+  public static final String VERSION_FUNCTION = NAME + "_version";
+
+  private static final String BEAN_SUFFIX = "RateLimiterScript";
+
+  private final Map<RedisScript<?>, String> functionNames = new IdentityHashMap<>();
+  @Getter
+  private final String source;
+  @Getter
+  private final String version;
+
+  public FunctionLibrary(Map<String, RedisScript<?>> scripts) {
+    StringBuilder functions = new StringBuilder();
+    new TreeMap<>(scripts).forEach((beanName, script) -> {
+      String functionName = functionName(beanName);
+      functionNames.put(script, functionName);
+      functions.append("\nredis.register_function('").append(functionName)
+          .append("', function(KEYS, ARGV)\n")
+          .append(functionBody(script.getScriptAsString()))
+          .append("\nend)\n");
+    });
+
+    this.version = sha1(functions.toString());
+    this.source = "#!lua name=" + NAME + "\n"
+        + "\nredis.register_function{ function_name = '" + VERSION_FUNCTION + "',"
+        + " callback = function() return '" + version + "' end, flags = { 'no-writes' } }\n"
+        + functions;
+  }
+
+  public String functionName(RedisScript<?> script) {
+    String functionName = functionNames.get(script);
+    if (functionName == null) {
+      throw new IllegalArgumentException("Script is not part of the function library");
+    }
+    return functionName;
+  }
+
+  static String functionName(String beanName) {
+    String name = beanName.endsWith(BEAN_SUFFIX)
+        ? beanName.substring(0, beanName.length() - BEAN_SUFFIX.length())
+        : beanName;
+    return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase();
+  }
+
+  /**
+   * Functions always replicate their effects, and may not call {@code redis.replicate_commands()}.
+   */
+  private static String functionBody(String script) {
+    return script.replace("redis.replicate_commands()", "");
+  }
+
+  private static String sha1(String value) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+}
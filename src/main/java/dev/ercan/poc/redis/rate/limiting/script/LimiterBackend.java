@@ -0,0 +1,15 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+public enum LimiterBackend {
+
+  /**
+   * Redis, shared by every instance of the application.
+   */
+  REDIS,
+
+  /**
+   * The memory of this instance, for single-instance deployments and tests without Redis.
+   */
+  MEMORY
+
+}
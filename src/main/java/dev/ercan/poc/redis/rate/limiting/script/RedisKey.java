@@ -0,0 +1,68 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A Redis key as sent to the scripts, compared by its bytes so that it can also key in-process
+ * maps such as the deny cache. The key is encoded once per request and the hash computed once.
+ */
+public final class RedisKey {
+
+  private final byte[] bytes;
+  private final int hash;
+
+  public RedisKey(byte[] bytes) {
+    this.bytes = bytes;
+    this.hash = Arrays.hashCode(bytes);
+  }
+
+  /**
+   * {@link ScriptArgs#key} wrapped.
+   */
+  public static RedisKey of(byte[] prefix, String id, String key) {
+    return new RedisKey(ScriptArgs.key(prefix, id, key));
+  }
+
+  /**
+   * The encoded key; shared, not to be modified.
+   */
+  public byte[] bytes() {
+    return bytes;
+  }
+
+  /**
+   * Whether this key belongs to a limit of one of these ids, by its {@code {id:key}} hash tag.
+   */
+  public boolean hasIdIn(Set<String> ids) {
+    String text = toString();
+    int open = text.indexOf('{');
+    if (open < 0) {
+      return false;
+    }
+    for (String id : ids) {
+      if (text.startsWith(id + ':', open + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return this == other
+        || other instanceof RedisKey that && hash == that.hash && Arrays.equals(bytes, that.bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,337 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.connection.LimiterConnectionProvider;
+import dev.ercan.poc.redis.rate.limiting.connection.LimiterConnections;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the limiter scripts, with EVALSHA or, with the {@link ScriptBackend#FUNCTION} backend, as
+ * functions of a {@link FunctionLibrary} with FCALL. The scripts are loaded at startup and
+ * whenever a connection is re-established, so the calls normally find them.
+ * <p>
+ * If Redis still answers NOSCRIPT, or that the function does not exist, for example after a
+ * failover to a replica that never saw the scripts, one load is started and every call that missed
+ * in the meantime waits for it and retries. Calls that were sent before the latest load completed
+ * just retry. Only if the script is still missing after that does a call ship the script source
+ * with EVAL.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis",
+    matchIfMissing = true)
+public class RedisScriptExecutor implements ScriptExecutor {
+
+  /**
+   * Name under which script loads obtain their connection and are timed.
+   */
+  static final String LOADER = "script_load";
+
+  private static final byte[][] NO_KEYS = new byte[0][];
+
+  private final LimiterConnections limiterConnections;
+  private final Map<String, RedisScript<?>> scripts;
+  private final FunctionLibrary functionLibrary;
+  private final LimiterMetrics limiterMetrics;
+
+  private final AtomicReference<CompletableFuture<Void>> loading = new AtomicReference<>();
+  private volatile long loadGeneration;
+  private volatile boolean functions;
+  private Disposable reconnectSubscription;
+
+  public RedisScriptExecutor(LimiterConnections limiterConnections,
+      Map<String, RedisScript<?>> scripts, LimiterMetrics limiterMetrics,
+      RateLimiterProperties properties) {
+    this.limiterConnections = limiterConnections;
+    this.scripts = scripts;
+    this.functionLibrary = new FunctionLibrary(scripts);
+    this.limiterMetrics = limiterMetrics;
+    this.functions = properties.getScriptBackend() == ScriptBackend.FUNCTION;
+  }
+
+  @PostConstruct
+  public void start() {
+    try {
+      load("startup").join();
+    } catch (CompletionException ex) {
+      log.warn("Could not load the limiter scripts at startup, they will be loaded on demand", ex);
+    }
+    reconnectSubscription = limiterConnections.onConnect(() -> load("reconnect"));
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (reconnectSubscription != null) {
+      reconnectSubscription.dispose();
+    }
+  }
+
+  @Override
+  public boolean isColocated(List<byte[]> keys) {
+    return limiterConnections.isColocated(keys);
+  }
+
+  /**
+   * Whether scripts are called as functions, false when the function backend is not configured or
+   * Redis does not support it.
+   */
+  public boolean usesFunctions() {
+    return functions;
+  }
+
+  @Override
+  public <T> T execute(String limiter, RedisScript<?> script, ScriptOutputType type, byte[][] keys,
+      byte[][] args) {
+    LimiterConnectionProvider provider = limiterConnections.forKeys(limiter, keys);
+    long generation = loadGeneration;
+    try {
+      return provider.execute(commands -> call(commands, script, type, keys, args));
+    } catch (RedisCommandExecutionException ex) {
+      if (!isMissing(ex)) {
+        throw ex;
+      }
+      limiterMetrics.scriptReload(limiter);
+      awaitLoad(generation);
+      return provider.execute(commands -> {
+        try {
+          return call(commands, script, type, keys, args);
+        } catch (RedisCommandExecutionException retryEx) {
+          if (!isMissing(retryEx)) {
+            throw retryEx;
+          }
+          return commands.eval(source(script), type, keys, args);
+        }
+      });
+    }
+  }
+
+  @Override
+  public <T> CompletionStage<T> executeAsync(String limiter, RedisScript<?> script,
+      ScriptOutputType type, byte[][] keys, byte[][] args) {
+    LimiterConnectionProvider provider = limiterConnections.forKeys(limiter, keys);
+    long generation = loadGeneration;
+    return provider.<T>executeAsync(commands -> call(commands, script, type, keys, args))
+        .exceptionallyCompose(ex -> {
+          if (!isMissing(ex)) {
+            return CompletableFuture.failedFuture(ex);
+          }
+          limiterMetrics.scriptReload(limiter);
+          return loadIfStale(generation)
+              .handle((loaded, loadEx) -> null)
+              .thenCompose(loaded -> provider.<T>executeAsync(commands ->
+                  this.<T>call(commands, script, type, keys, args)
+                      .exceptionallyCompose(retryEx -> isMissing(retryEx)
+                          ? commands.eval(source(script), type, keys, args)
+                          : CompletableFuture.failedFuture(retryEx))));
+        });
+  }
+
+  @Override
+  public <T> Mono<T> executeReactive(String limiter, RedisScript<?> script, ScriptOutputType type,
+      byte[][] keys, byte[][] args) {
+    LimiterConnectionProvider provider = limiterConnections.forKeys(limiter, keys);
+    return Mono.defer(() -> {
+      long generation = loadGeneration;
+      return provider.<T>executeReactive(commands -> call(commands, script, type, keys, args))
+          .onErrorResume(RedisScriptExecutor::isMissing, ex -> {
+            limiterMetrics.scriptReload(limiter);
+            return Mono.fromCompletionStage(loadIfStale(generation))
+                .onErrorResume(loadEx -> Mono.empty())
+                .then(provider.<T>executeReactive(commands ->
+                    this.<T>call(commands, script, type, keys, args)
+                        .onErrorResume(RedisScriptExecutor::isMissing, retryEx ->
+                            commands.<T>eval(source(script), type, keys, args).next())));
+          });
+    });
+  }
+
+  private <T> T call(RedisClusterCommands<byte[], byte[]> commands, RedisScript<?> script,
+      ScriptOutputType type, byte[][] keys, byte[][] args) {
+    return functions
+        ? commands.fcall(functionLibrary.functionName(script), type, keys, args)
+        : commands.evalsha(script.getSha1(), type, keys, args);
+  }
+
+  private <T> RedisFuture<T> call(RedisClusterAsyncCommands<byte[], byte[]> commands,
+      RedisScript<?> script, ScriptOutputType type, byte[][] keys, byte[][] args) {
+    return functions
+        ? commands.fcall(functionLibrary.functionName(script), type, keys, args)
+        : commands.evalsha(script.getSha1(), type, keys, args);
+  }
+
+  private <T> Mono<T> call(RedisClusterReactiveCommands<byte[], byte[]> commands,
+      RedisScript<?> script, ScriptOutputType type, byte[][] keys, byte[][] args) {
+    return functions
+        ? commands.<T>fcall(functionLibrary.functionName(script), type, keys, args).next()
+        : commands.<T>evalsha(script.getSha1(), type, keys, args).next();
+  }
+
+  /**
+   * Loads all scripts, joining a load that is already in flight.
+   */
+  CompletableFuture<Void> load(String reason) {
+    while (true) {
+      CompletableFuture<Void> current = loading.get();
+      if (current != null) {
+        return current;
+      }
+
+      CompletableFuture<Void> load = new CompletableFuture<>();
+      if (loading.compareAndSet(null, load)) {
+        loadScripts().whenComplete((loaded, ex) -> {
+          limiterMetrics.scriptLoad(reason, ex == null);
+          if (ex == null) {
+            loadGeneration++;
+          } else {
+            log.warn("Loading the limiter scripts failed ({})", reason, ex);
+          }
+          loading.compareAndSet(load, null);
+          if (ex == null) {
+            load.complete(null);
+          } else {
+            load.completeExceptionally(ex);
+          }
+        });
+        return load;
+      }
+    }
+  }
+
+  /**
+   * Loads the scripts on every Redis node the limiters are sharded over, or the only one.
+   */
+  private CompletionStage<Void> loadScripts() {
+    try {
+      return CompletableFuture.allOf(limiterConnections.forEachNode(LOADER).stream()
+          .map(provider -> provider.<Void>executeAsync(commands -> functions
+              ? loadFunctionLibrary(commands)
+              : loadEvalScripts(commands)).toCompletableFuture())
+          .toArray(CompletableFuture[]::new));
+    } catch (RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+  }
+
+  /**
+   * SCRIPT LOAD on a cluster connection is sent to every node.
+   */
+  private CompletionStage<Void> loadEvalScripts(RedisClusterAsyncCommands<byte[], byte[]> commands) {
+    return CompletableFuture.allOf(scripts.values().stream()
+        .map(script -> commands.scriptLoad(source(script)).toCompletableFuture())
+        .toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * Replaces the function library unless the loaded one has the same version. Redis versions
+   * without functions switch this executor to EVALSHA for good.
+   */
+  private CompletionStage<Void> loadFunctionLibrary(
+      RedisClusterAsyncCommands<byte[], byte[]> commands) {
+    return isCurrentFunctionLibrary(commands)
+        .thenCompose(current -> current
+            ? CompletableFuture.<Void>completedFuture(null)
+            : replaceFunctionLibrary(commands).thenAccept(loaded ->
+                log.info("Loaded function library {} version {}", FunctionLibrary.NAME,
+                    functionLibrary.getVersion())))
+        .exceptionallyCompose(ex -> {
+          if (!isUnknownCommand(ex)) {
+            return CompletableFuture.failedFuture(ex);
+          }
+          log.warn("Redis does not support functions, falling back to EVALSHA");
+          functions = false;
+          return loadEvalScripts(commands);
+        });
+  }
+
+  /**
+   * A keyless FCALL goes to an arbitrary cluster node, so on a cluster the library is always
+   * replaced rather than trusting one node's version.
+   */
+  private CompletionStage<Boolean> isCurrentFunctionLibrary(
+      RedisClusterAsyncCommands<byte[], byte[]> commands) {
+    if (limiterConnections.isCluster()) {
+      return CompletableFuture.completedFuture(false);
+    }
+    return commands.<byte[]>fcall(FunctionLibrary.VERSION_FUNCTION, ScriptOutputType.VALUE, NO_KEYS)
+        .handle((version, ex) -> ex == null
+            && functionLibrary.getVersion().equals(new String(version)));
+  }
+
+  /**
+   * FUNCTION LOAD on a cluster connection is not broadcast, so it is sent to each primary.
+   */
+  private CompletionStage<?> replaceFunctionLibrary(
+      RedisClusterAsyncCommands<byte[], byte[]> commands) {
+    if (commands instanceof RedisAdvancedClusterAsyncCommands<byte[], byte[]> cluster) {
+      return cluster.upstream().commands().functionLoad(functionLibrary.getSource(), true);
+    }
+    return commands.functionLoad(functionLibrary.getSource(), true);
+  }
+
+  /**
+   * Loads the scripts after they were found missing, unless a load completed since the call was
+   * sent.
+   */
+  private CompletionStage<Void> loadIfStale(long generation) {
+    return generation == loadGeneration
+        ? load("noscript")
+        : CompletableFuture.completedFuture(null);
+  }
+
+  private void awaitLoad(long generation) {
+    try {
+      loadIfStale(generation).toCompletableFuture().join();
+    } catch (CompletionException ex) {
+      // fall through to the retry, which still has EVAL as the last resort
+    }
+  }
+
+  private static byte[] source(RedisScript<?> script) {
+    return ScriptArgs.encode(script.getScriptAsString());
+  }
+
+  /**
+   * NOSCRIPT replies to EVALSHA and missing function replies to FCALL.
+   */
+  private static boolean isMissing(Throwable ex) {
+    Throwable cause = ex instanceof CompletionException && ex.getCause() != null
+        ? ex.getCause()
+        : ex;
+    return cause instanceof RedisNoScriptException
+        || cause instanceof RedisCommandExecutionException
+        && cause.getMessage() != null
+        && cause.getMessage().startsWith("ERR Function not found");
+  }
+
+  private static boolean isUnknownCommand(Throwable ex) {
+    Throwable cause = ex instanceof CompletionException && ex.getCause() != null
+        ? ex.getCause()
+        : ex;
+    return cause instanceof RedisCommandExecutionException
+        && cause.getMessage() != null
+        && cause.getMessage().startsWith("ERR unknown command");
+  }
+
+}
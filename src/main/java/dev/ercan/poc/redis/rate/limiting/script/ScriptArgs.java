@@ -0,0 +1,138 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes keys and arguments of the limiter scripts straight into the byte arrays passed to
+ * Lettuce, without going through {@code String.format} or intermediate Strings.
+ * <p>
+ * Lettuce only writes the arrays to the socket after the call has returned, possibly on another
+ * thread, so they cannot come from reusable buffers. Instead each value is written once into an
+ * array of its exact size, and values that repeat, like small numbers and the limits and durations
+ * of the annotations, are served from caches of immutable arrays. Callers must not modify the
+ * arrays they get.
+ */
+public final class ScriptArgs {
+
+  public static final byte[] TRUE = {'1'};
+  public static final byte[] FALSE = {'0'};
+
+  private static final int SMALL_VALUES = 1024;
+  private static final byte[][] SMALL = new byte[SMALL_VALUES][];
+
+  // Direct-mapped, racy cache; entries are immutable, so a stale or overwritten read only misses
+  private static final int CONSTANTS_MASK = 1023;
+  private static final Constant[] CONSTANTS = new Constant[CONSTANTS_MASK + 1];
+
+  static {
+    for (int i = 0; i < SMALL_VALUES; i++) {
+      SMALL[i] = encodeDecimal(i);
+    }
+  }
+
+  private ScriptArgs() {
+  }
+
+  public static byte[] flag(boolean value) {
+    return value ? TRUE : FALSE;
+  }
+
+  /**
+   * Decimal encoding of a value that changes from call to call, like a timestamp.
+   */
+  public static byte[] decimal(long value) {
+    if (value >= 0 && value < SMALL_VALUES) {
+      return SMALL[(int) value];
+    }
+    return encodeDecimal(value);
+  }
+
+  /**
+   * Decimal encoding of a value that is expected to repeat, like a limit or a window duration.
+   */
+  public static byte[] constant(long value) {
+    if (value >= 0 && value < SMALL_VALUES) {
+      return SMALL[(int) value];
+    }
+
+    int slot = (int) ((value ^ (value >>> 32)) * 0x9E3779B9L) & CONSTANTS_MASK;
+    Constant constant = CONSTANTS[slot];
+    if (constant != null && constant.value == value) {
+      return constant.bytes;
+    }
+
+    byte[] bytes = encodeDecimal(value);
+    CONSTANTS[slot] = new Constant(value, bytes);
+    return bytes;
+  }
+
+  /**
+   * UTF-8 encoding of {@code prefix + '{' + id + ':' + key + '}'}, where {@code prefix} is already
+   * encoded. The braces are a Redis Cluster hash tag, so all keys of one id and key land in the
+   * same slot whatever the prefix.
+   */
+  public static byte[] key(byte[] prefix, String id, String key) {
+    if (!isAscii(id) || !isAscii(key)) {
+      return (new String(prefix, StandardCharsets.UTF_8) + hashTag(id, key))
+          .getBytes(StandardCharsets.UTF_8);
+    }
+
+    byte[] bytes = new byte[prefix.length + id.length() + key.length() + 3];
+    System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+    int position = prefix.length;
+    bytes[position++] = '{';
+    position = writeAscii(id, bytes, position);
+    bytes[position++] = ':';
+    position = writeAscii(key, bytes, position);
+    bytes[position] = '}';
+    return bytes;
+  }
+
+  /**
+   * The {@code {id:key}} hash tag that every limiter key ends with.
+   */
+  public static String hashTag(String id, String key) {
+    return "{" + id + ':' + key + '}';
+  }
+
+  public static byte[] encode(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] encodeDecimal(long value) {
+    if (value < 0) {
+      return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    int digits = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    byte[] bytes = new byte[digits];
+    for (int i = digits - 1; i >= 0; i--) {
+      bytes[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    return bytes;
+  }
+
+  private static boolean isAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int writeAscii(String value, byte[] bytes, int position) {
+    for (int i = 0; i < value.length(); i++) {
+      bytes[position++] = (byte) value.charAt(i);
+    }
+    return position;
+  }
+
+  private record Constant(long value, byte[] bytes) {
+  }
+
+}
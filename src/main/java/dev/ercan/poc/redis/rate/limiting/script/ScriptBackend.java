@@ -0,0 +1,17 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+public enum ScriptBackend {
+
+  /**
+   * Scripts are cached with {@code SCRIPT LOAD} and run with {@code EVALSHA}. The script cache is
+   * lost on restart and not replicated, so it is reloaded on reconnect and on {@code NOSCRIPT}.
+   */
+  EVAL,
+
+  /**
+   * All scripts are registered as one function library and run with {@code FCALL}. Functions are
+   * persisted and replicated by Redis. Needs Redis 7; older servers fall back to {@link #EVAL}.
+   */
+  FUNCTION
+
+}
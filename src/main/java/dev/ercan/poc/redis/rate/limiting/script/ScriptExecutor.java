@@ -0,0 +1,33 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import io.lettuce.core.ScriptOutputType;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs a limiter script with encoded keys and arguments and returns its result in the shape the
+ * script returns it, a {@code Long} or a {@code List<Long>}. Which backend runs it is chosen with
+ * {@link LimiterBackend}.
+ */
+public interface ScriptExecutor {
+
+  <T> T execute(String limiter, RedisScript<?> script, ScriptOutputType type, byte[][] keys,
+      byte[][] args);
+
+  <T> CompletionStage<T> executeAsync(String limiter, RedisScript<?> script,
+      ScriptOutputType type, byte[][] keys, byte[][] args);
+
+  <T> Mono<T> executeReactive(String limiter, RedisScript<?> script, ScriptOutputType type,
+      byte[][] keys, byte[][] args);
+
+  /**
+   * Whether these keys can be passed to one script call, always the case unless the keys are
+   * spread over the slots of a cluster or over shards.
+   */
+  default boolean isColocated(List<byte[]> keys) {
+    return true;
+  }
+
+}
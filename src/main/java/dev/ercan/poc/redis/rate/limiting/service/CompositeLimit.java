@@ -0,0 +1,181 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import dev.ercan.poc.redis.rate.limiting.script.RedisKey;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One of the limits evaluated together by {@link CompositeRateLimiter}. It uses the same Redis keys
+ * as its standalone limiter, so the two share their state.
+ */
+public sealed interface CompositeLimit {
+
+  String id();
+
+  String key();
+
+  /**
+   * Limit, or bucket capacity, reported when this limit rejects a request.
+   */
+  long limit();
+
+  /**
+   * Appends the keys and the arguments of this limit, led by its algorithm name, in the order
+   * expected by {@code composite.lua}. The time is the one sent to the script, keys that depend on
+   * it are derived from it.
+   */
+  void appendTo(long nowMillis, boolean serverTime, List<byte[]> keys, List<byte[]> args);
+
+  /**
+   * Key under which a rejection is cached locally, or {@code null} when the algorithm cannot tell
+   * how long the rejection lasts.
+   */
+  default RedisKey denyKey() {
+    return null;
+  }
+
+  /**
+   * Arguments of a limit in a {@code composite.lua} call, after its algorithm name: how many there
+   * are, the range {@code [scaledFrom, scaledTo)} of those holding limits, capacities or rates, and
+   * the one holding the number of keys following the limit's own key, -1 when it has none.
+   */
+  record Layout(int count, int scaledFrom, int scaledTo, int extraKeysArg) {
+
+    private static final Map<String, Layout> BY_ALGORITHM = Map.of(
+        FixedWindowRateLimiter.LIMITER, new Layout(2, 1, 2, -1),
+        TokenBucketRateLimiter.LIMITER, new Layout(4, 0, 2, -1),
+        LeakyBucketRateLimiter.LIMITER, new Layout(4, 0, 2, -1),
+        SlidingWindowCounterRateLimiter.LIMITER, new Layout(5, 2, 3, 4),
+        SlidingWindowLogRateLimiter.LIMITER, new Layout(2, 1, 2, -1));
+
+    public static Layout of(String algorithm) {
+      Layout layout = BY_ALGORITHM.get(algorithm);
+      if (layout == null) {
+        throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+      }
+      return layout;
+    }
+
+    /**
+     * Whether the argument at {@code index} holds a limit, capacity or rate.
+     */
+    public boolean isScaled(int index) {
+      return index >= scaledFrom && index < scaledTo;
+    }
+
+    /**
+     * Keys of the limit, given its arguments.
+     */
+    public int keyCount(long[] args) {
+      return extraKeysArg < 0 ? 1 : 1 + (int) args[extraKeysArg];
+    }
+
+  }
+
+  record FixedWindow(String id, String key, long limit, Duration windowDuration)
+      implements CompositeLimit {
+
+    private static final byte[] ALGORITHM = ScriptArgs.encode(FixedWindowRateLimiter.LIMITER);
+
+    @Override
+    public void appendTo(long nowMillis, boolean serverTime, List<byte[]> keys, List<byte[]> args) {
+      keys.add(denyKey().bytes());
+      args.add(ALGORITHM);
+      args.add(ScriptArgs.constant(windowDuration.toMillis()));
+      args.add(ScriptArgs.constant(limit));
+    }
+
+    @Override
+    public RedisKey denyKey() {
+      return FixedWindowRateLimiter.windowKey(id, key);
+    }
+
+  }
+
+  record TokenBucket(String id, String key, long capacity, long refillRate, Duration refillPeriod)
+      implements CompositeLimit {
+
+    private static final byte[] ALGORITHM = ScriptArgs.encode(TokenBucketRateLimiter.LIMITER);
+
+    @Override
+    public long limit() {
+      return capacity;
+    }
+
+    @Override
+    public void appendTo(long nowMillis, boolean serverTime, List<byte[]> keys, List<byte[]> args) {
+      keys.add(denyKey().bytes());
+      args.add(ALGORITHM);
+      args.add(ScriptArgs.constant(capacity));
+      args.add(ScriptArgs.constant(refillRate));
+      args.add(ScriptArgs.constant(refillPeriod.toMillis()));
+      args.add(ScriptArgs.constant(TokenBucketRateLimiter.expireIn(capacity, refillRate, refillPeriod)));
+    }
+
+    @Override
+    public RedisKey denyKey() {
+      return TokenBucketRateLimiter.bucketKey(id, key);
+    }
+
+  }
+
+  record LeakyBucket(String id, String key, long capacity, long leakRate, Duration leakPeriod)
+      implements CompositeLimit {
+
+    private static final byte[] ALGORITHM = ScriptArgs.encode(LeakyBucketRateLimiter.LIMITER);
+
+    @Override
+    public long limit() {
+      return capacity;
+    }
+
+    @Override
+    public void appendTo(long nowMillis, boolean serverTime, List<byte[]> keys, List<byte[]> args) {
+      keys.add(LeakyBucketRateLimiter.bucketKey(id, key));
+      args.add(ALGORITHM);
+      args.add(ScriptArgs.constant(capacity));
+      args.add(ScriptArgs.constant(leakRate));
+      args.add(ScriptArgs.constant(leakPeriod.toMillis()));
+      args.add(ScriptArgs.constant(LeakyBucketRateLimiter.expireIn(capacity, leakRate, leakPeriod)));
+    }
+
+  }
+
+  record SlidingWindowCounter(String id, String key, long limit, Duration windowDuration,
+                              Duration subWindowDuration) implements CompositeLimit {
+
+    private static final byte[] ALGORITHM = ScriptArgs.encode(SlidingWindowCounterRateLimiter.LIMITER);
+
+    @Override
+    public void appendTo(long nowMillis, boolean serverTime, List<byte[]> keys, List<byte[]> args) {
+      SlidingWindowCounterRateLimiter.appendKeys(SlidingWindowCounterRateLimiter.windowKey(id, key),
+          nowMillis, subWindowDuration, serverTime, keys);
+      args.add(ALGORITHM);
+      args.add(ScriptArgs.constant(windowDuration.toMillis()));
+      args.add(ScriptArgs.constant(subWindowDuration.toMillis()));
+      args.add(ScriptArgs.constant(limit));
+      args.add(ScriptArgs.decimal(
+          SlidingWindowCounterRateLimiter.firstSubWindow(nowMillis, subWindowDuration, serverTime)));
+      args.add(ScriptArgs.constant(SlidingWindowCounterRateLimiter.subWindowKeyCount(serverTime)));
+    }
+
+  }
+
+  record SlidingWindowLog(String id, String key, long limit, Duration windowDuration)
+      implements CompositeLimit {
+
+    private static final byte[] ALGORITHM = ScriptArgs.encode(SlidingWindowLogRateLimiter.LIMITER);
+
+    @Override
+    public void appendTo(long nowMillis, boolean serverTime, List<byte[]> keys, List<byte[]> args) {
+      keys.add(SlidingWindowLogRateLimiter.windowKey(id, key));
+      args.add(ALGORITHM);
+      args.add(ScriptArgs.constant(windowDuration.toMillis()));
+      args.add(ScriptArgs.constant(limit));
+    }
+
+  }
+
+}
@@ -0,0 +1,224 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.clock.LimiterClock;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.RedisKey;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Evaluates several limits, of any algorithm, in a single script call. A request is admitted only
+ * if every limit has all of its permits, and only then are they counted against each of them.
+ * <p>
+ * The limits use the keys of their standalone limiters. On a Redis Cluster a script can only touch
+ * keys of one slot, and on sharded Redis keys of one node, which limits with the same id and key
+ * always satisfy thanks to their shared {@code {id:key}} hash tag. Limits whose keys live
+ * elsewhere, such as a per-IP and a global limit, are split into one call per slot or node, made in
+ * order until one rejects. Each call is all-or-nothing on its own, but permits taken by an earlier
+ * call are kept when a later one rejects.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CompositeRateLimiter {
+
+  public static final String LIMITER = "composite";
+
+  private final ScriptExecutor scriptExecutor;
+  private final RedisScript<List> compositeRateLimiterScript;
+  private final DenyCache denyCache;
+  private final LimiterMetrics limiterMetrics;
+  private final LimiterClock limiterClock;
+
+  public boolean tryConsume(String id, List<CompositeLimit> limits) {
+    return tryConsume(id, limits, 1);
+  }
+
+  public boolean tryConsume(String id, List<CompositeLimit> limits, long permits) {
+    return decide(id, limits, permits).allowed();
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, List<CompositeLimit> limits) {
+    return tryConsumeAsync(id, limits, 1);
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, List<CompositeLimit> limits, long permits) {
+    return decideAsync(id, limits, permits).thenApply(RateLimitDecision::allowed);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, List<CompositeLimit> limits) {
+    return tryConsumeReactive(id, limits, 1);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, List<CompositeLimit> limits, long permits) {
+    return decideReactive(id, limits, permits).map(RateLimitDecision::allowed);
+  }
+
+  /**
+   * Decides on all limits at once. Only a rejection names a limit, so only then are the limit and
+   * the time after which to retry known; the remaining quota is never reported.
+   */
+  public RateLimitDecision decide(String id, List<CompositeLimit> limits, long permits) {
+    if (permits < 0) {
+      return RateLimitDecision.rejected(RateLimitDecision.UNKNOWN, 0);
+    }
+    if (limits.isEmpty()) {
+      return RateLimitDecision.allowed(RateLimitDecision.UNKNOWN);
+    }
+    RateLimitDecision denied = denied(limits);
+    if (denied != null) {
+      return limiterMetrics.localDecision(LIMITER, id, denied);
+    }
+
+    for (Call call : calls(limits, permits)) {
+      List<Long> result = scriptExecutor.execute(LIMITER, compositeRateLimiterScript,
+          ScriptOutputType.MULTI, call.keys(), call.args());
+      RateLimitDecision decision = decision(call.limits(), result);
+      if (!decision.allowed()) {
+        return limiterMetrics.decision(LIMITER, id, decision);
+      }
+    }
+    return limiterMetrics.decision(LIMITER, id, RateLimitDecision.allowed(RateLimitDecision.UNKNOWN));
+  }
+
+  public CompletionStage<RateLimitDecision> decideAsync(String id, List<CompositeLimit> limits,
+      long permits) {
+    if (permits < 0) {
+      return CompletableFuture.completedFuture(RateLimitDecision.rejected(RateLimitDecision.UNKNOWN, 0));
+    }
+    if (limits.isEmpty()) {
+      return CompletableFuture.completedFuture(RateLimitDecision.allowed(RateLimitDecision.UNKNOWN));
+    }
+    RateLimitDecision denied = denied(limits);
+    if (denied != null) {
+      return CompletableFuture.completedFuture(limiterMetrics.localDecision(LIMITER, id, denied));
+    }
+
+    return decideAsync(calls(limits, permits), 0)
+        .thenApply(decision -> limiterMetrics.decision(LIMITER, id, decision));
+  }
+
+  private CompletionStage<RateLimitDecision> decideAsync(List<Call> calls, int index) {
+    Call call = calls.get(index);
+    return scriptExecutor.<List<Long>>executeAsync(LIMITER, compositeRateLimiterScript,
+            ScriptOutputType.MULTI, call.keys(), call.args())
+        .thenCompose(result -> {
+          RateLimitDecision decision = decision(call.limits(), result);
+          return !decision.allowed() || index + 1 == calls.size()
+              ? CompletableFuture.completedFuture(decision)
+              : decideAsync(calls, index + 1);
+        });
+  }
+
+  public Mono<RateLimitDecision> decideReactive(String id, List<CompositeLimit> limits,
+      long permits) {
+    if (permits < 0) {
+      return Mono.just(RateLimitDecision.rejected(RateLimitDecision.UNKNOWN, 0));
+    }
+    if (limits.isEmpty()) {
+      return Mono.just(RateLimitDecision.allowed(RateLimitDecision.UNKNOWN));
+    }
+    RateLimitDecision denied = denied(limits);
+    if (denied != null) {
+      return Mono.just(limiterMetrics.localDecision(LIMITER, id, denied));
+    }
+
+    return Flux.defer(() -> Flux.fromIterable(calls(limits, permits)))
+        .concatMap(call -> scriptExecutor.<List<Long>>executeReactive(LIMITER,
+                compositeRateLimiterScript, ScriptOutputType.MULTI, call.keys(), call.args())
+            .map(result -> decision(call.limits(), result)))
+        .filter(decision -> !decision.allowed())
+        .next()
+        .defaultIfEmpty(RateLimitDecision.allowed(RateLimitDecision.UNKNOWN))
+        .map(decision -> limiterMetrics.decision(LIMITER, id, decision));
+  }
+
+  private RateLimitDecision denied(List<CompositeLimit> limits) {
+    for (CompositeLimit limit : limits) {
+      RedisKey denyKey = limit.denyKey();
+      long deniedMillis = denyKey != null ? denyCache.deniedMillis(denyKey) : 0;
+      if (deniedMillis > 0) {
+        return RateLimitDecision.rejected(limit.limit(), deniedMillis);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The script returns whether the request was admitted and, on rejection, the 1-based position of
+   * the rejecting limit and how long it keeps rejecting, during which its key is rejected locally.
+   */
+  private RateLimitDecision decision(List<CompositeLimit> limits, List<Long> result) {
+    if (result.get(0) == 1) {
+      return RateLimitDecision.allowed(RateLimitDecision.UNKNOWN);
+    }
+
+    CompositeLimit limit = limits.get(result.get(1).intValue() - 1);
+    RedisKey denyKey = limit.denyKey();
+    if (denyKey != null) {
+      denyCache.deny(denyKey, result.get(2));
+    }
+    return RateLimitDecision.rejected(limit.limit(), result.get(2));
+  }
+
+  /**
+   * The script calls for these limits: a single one unless their keys are spread over slots or
+   * nodes, then one per slot or node, each holding the limits in their given order.
+   */
+  private List<Call> calls(List<CompositeLimit> limits, long permits) {
+    long now = limiterClock.millis();
+    boolean serverTime = limiterClock.isServerTime();
+    List<CallBuilder> builders = new ArrayList<>();
+    for (CompositeLimit limit : limits) {
+      List<byte[]> keys = new ArrayList<>();
+      List<byte[]> args = new ArrayList<>();
+      limit.appendTo(now, serverTime, keys, args);
+
+      CallBuilder builder = null;
+      for (CallBuilder candidate : builders) {
+        if (scriptExecutor.isColocated(List.of(candidate.keys.get(0), keys.get(0)))) {
+          builder = candidate;
+          break;
+        }
+      }
+      if (builder == null) {
+        builder = new CallBuilder();
+        builder.args.add(limiterClock.at(now));
+        builder.args.add(ScriptArgs.decimal(permits));
+        builders.add(builder);
+      }
+      builder.limits.add(limit);
+      builder.keys.addAll(keys);
+      builder.args.addAll(args);
+    }
+    return builders.stream()
+        .map(builder -> new Call(builder.limits, builder.keys.toArray(byte[][]::new),
+            builder.args.toArray(byte[][]::new)))
+        .toList();
+  }
+
+  private record Call(List<CompositeLimit> limits, byte[][] keys, byte[][] args) {
+
+  }
+
+  private static final class CallBuilder {
+
+    private final List<CompositeLimit> limits = new ArrayList<>();
+    private final List<byte[]> keys = new ArrayList<>();
+    private final List<byte[]> args = new ArrayList<>();
+
+  }
+
+}
@@ -0,0 +1,125 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * Caps the requests in flight rather than the requests per window: a distributed semaphore. Each
+ * admitted request holds a lease, a member of a sorted set scored with its expiry, until it is
+ * released; a lease that is never released, because its node died mid-request, expires after the
+ * lease duration and frees its permit.
+ * <p>
+ * The lease duration should be well above the longest request, a lease expiring early lets more
+ * requests in than the limit. Leases are timed by the Redis clock whatever the configured
+ * {@code LimiterClock}, so a node with a clock running ahead cannot expire the leases of others.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConcurrencyRateLimiter {
+
+  public static final String LIMITER = "concurrency";
+  private static final byte[] KEY_PREFIX = ScriptArgs.encode(LIMITER + ':');
+  private static final String NODE_ID = UUID.randomUUID().toString();
+
+  private final ScriptExecutor scriptExecutor;
+  private final RedisScript<List> concurrencyAcquireRateLimiterScript;
+  private final RedisScript<Long> concurrencyReleaseRateLimiterScript;
+  private final LimiterMetrics limiterMetrics;
+
+  private final AtomicLong leaseCounter = new AtomicLong();
+
+  /**
+   * A lease id unique across nodes, to acquire and later release a permit with.
+   */
+  public String newLeaseId() {
+    return NODE_ID + ':' + Long.toHexString(leaseCounter.incrementAndGet());
+  }
+
+  public RateLimitDecision acquire(String id, String key, long limit, Duration leaseDuration,
+      String leaseId) {
+    if (limit < 1) {
+      return RateLimitDecision.rejected(limit, 0);
+    }
+
+    List<Long> result = scriptExecutor.execute(LIMITER, concurrencyAcquireRateLimiterScript,
+        ScriptOutputType.MULTI, keys(id, key), args(limit, leaseDuration, leaseId));
+
+    return limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, 1, result));
+  }
+
+  public CompletionStage<RateLimitDecision> acquireAsync(String id, String key, long limit,
+      Duration leaseDuration, String leaseId) {
+    if (limit < 1) {
+      return CompletableFuture.completedFuture(RateLimitDecision.rejected(limit, 0));
+    }
+
+    return scriptExecutor.<List<Long>>executeAsync(LIMITER, concurrencyAcquireRateLimiterScript,
+            ScriptOutputType.MULTI, keys(id, key), args(limit, leaseDuration, leaseId))
+        .thenApply(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, 1, result)));
+  }
+
+  public Mono<RateLimitDecision> acquireReactive(String id, String key, long limit,
+      Duration leaseDuration, String leaseId) {
+    if (limit < 1) {
+      return Mono.just(RateLimitDecision.rejected(limit, 0));
+    }
+
+    return Mono.defer(() -> scriptExecutor.<List<Long>>executeReactive(LIMITER,
+            concurrencyAcquireRateLimiterScript, ScriptOutputType.MULTI, keys(id, key),
+            args(limit, leaseDuration, leaseId))
+        .map(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, 1, result))));
+  }
+
+  /**
+   * Returns the permit of a lease without waiting for Redis. When the release fails the lease is
+   * left to expire, holding its permit until then.
+   */
+  public void release(String id, String key, String leaseId) {
+    CompletionStage<Long> released;
+    try {
+      released = scriptExecutor.executeAsync(LIMITER, concurrencyReleaseRateLimiterScript,
+          ScriptOutputType.INTEGER, keys(id, key), new byte[][] {ScriptArgs.encode(leaseId)});
+    } catch (RuntimeException ex) {
+      released = CompletableFuture.failedFuture(ex);
+    }
+    released.whenComplete((removed, ex) -> {
+      if (ex != null) {
+        log.warn("Could not release concurrency lease {} of {}, it expires on its own", leaseId,
+            id, ex);
+      }
+    });
+  }
+
+  static byte[] leaseKey(String id, String key) {
+    return ScriptArgs.key(KEY_PREFIX, id, key);
+  }
+
+  private byte[][] keys(String id, String key) {
+    return new byte[][] {
+        leaseKey(id, key)
+    };
+  }
+
+  private byte[][] args(long limit, Duration leaseDuration, String leaseId) {
+    return new byte[][] {
+        ScriptArgs.constant(leaseDuration.toMillis()),
+        ScriptArgs.constant(limit),
+        ScriptArgs.encode(leaseId)
+    };
+  }
+
+}
@@ -1,46 +1,172 @@
 package dev.ercan.poc.redis.rate.limiting.service;
 
-import io.lettuce.core.RedisNoScriptException;
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.RedisKey;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.RedisSystemException;
-import org.springframework.data.redis.connection.RedisCommands;
-import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class FixedWindowRateLimiter {
 
-  private static final String WINDOW_KEY = "fixed_window:%s:%s";
+  public static final String LIMITER = "fixed_window";
+  private static final byte[] KEY_PREFIX = ScriptArgs.encode(LIMITER + ':');
 
-  private final RedisCommands redisCommands;
-  private final RedisScript<Long> fixedWindowRateLimiterScript;
+  private final ScriptExecutor scriptExecutor;
+  private final RedisScript<List> fixedWindowRateLimiterScript;
+  private final DenyCache denyCache;
+  private final LimiterMetrics limiterMetrics;
+  private final RequestCoalescer requestCoalescer;
 
   public boolean tryConsume(String id, String key, long limit, Duration windowDuration) {
-    byte[][] keysAndArgs = {
-        String.format(WINDOW_KEY, id, key).getBytes(),
-        Long.toString(windowDuration.toMillis()).getBytes()
-    };
+    return tryConsume(id, key, limit, windowDuration, 1);
+  }
+
+  public boolean tryConsume(String id, String key, long limit, Duration windowDuration,
+      long permits) {
+    return decide(id, key, limit, windowDuration, permits).allowed();
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long limit,
+      Duration windowDuration) {
+    return tryConsumeAsync(id, key, limit, windowDuration, 1);
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long limit,
+      Duration windowDuration, long permits) {
+    return decideAsync(id, key, limit, windowDuration, permits).thenApply(RateLimitDecision::allowed);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long limit,
+      Duration windowDuration) {
+    return tryConsumeReactive(id, key, limit, windowDuration, 1);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long limit,
+      Duration windowDuration, long permits) {
+    return decideReactive(id, key, limit, windowDuration, permits).map(RateLimitDecision::allowed);
+  }
 
-    Long count;
-
-    try {
-      String scriptSha1 = fixedWindowRateLimiterScript.getSha1();
-      count = redisCommands.evalSha(scriptSha1, ReturnType.INTEGER, 1, keysAndArgs);
-    } catch (RedisSystemException ex) {
-      if (ex.getCause() instanceof RedisNoScriptException) {
-        byte[] scriptSource = fixedWindowRateLimiterScript.getScriptAsString().getBytes();
-        count = redisCommands.eval(scriptSource, ReturnType.INTEGER, 1, keysAndArgs);
-      } else {
-        throw ex;
-      }
+  public RateLimitDecision decide(String id, String key, long limit, Duration windowDuration,
+      long permits) {
+    RedisKey windowKey = windowKey(id, key);
+    long deniedMillis = denyCache.deniedMillis(windowKey);
+    if (deniedMillis > 0) {
+      return limiterMetrics.localDecision(LIMITER, id, RateLimitDecision.rejected(limit, deniedMillis));
     }
 
-    return count <= limit;
+    byte[][] keys = keys(windowKey);
+    byte[][] args = args(limit, windowDuration, permits, false);
+
+    List<Long> result = scriptExecutor.execute(LIMITER, fixedWindowRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+
+    return limiterMetrics.decision(LIMITER, id, decision(windowKey, limit, permits, result));
+  }
+
+  public CompletionStage<RateLimitDecision> decideAsync(String id, String key, long limit,
+      Duration windowDuration, long permits) {
+    RedisKey windowKey = windowKey(id, key);
+    long deniedMillis = denyCache.deniedMillis(windowKey);
+    if (deniedMillis > 0) {
+      return CompletableFuture.completedFuture(
+          limiterMetrics.localDecision(LIMITER, id, RateLimitDecision.rejected(limit, deniedMillis)));
+    }
+
+    byte[][] keys = keys(windowKey);
+    byte[][] args = args(limit, windowDuration, permits, false);
+
+    return evalAsync(keys, args)
+        .thenApply(result -> limiterMetrics.decision(LIMITER, id, decision(windowKey, limit, permits, result)));
+  }
+
+  public Mono<RateLimitDecision> decideReactive(String id, String key, long limit,
+      Duration windowDuration, long permits) {
+    RedisKey windowKey = windowKey(id, key);
+    long deniedMillis = denyCache.deniedMillis(windowKey);
+    if (deniedMillis > 0) {
+      return Mono.just(
+          limiterMetrics.localDecision(LIMITER, id, RateLimitDecision.rejected(limit, deniedMillis)));
+    }
+
+    byte[][] keys = keys(windowKey);
+    byte[][] args = args(limit, windowDuration, permits, false);
+
+    return scriptExecutor.<List<Long>>executeReactive(LIMITER, fixedWindowRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args)
+        .map(result -> limiterMetrics.decision(LIMITER, id, decision(windowKey, limit, permits, result)));
+  }
+
+  /**
+   * Like {@link #tryConsumeAsync}, but concurrent requests for the same key on this node are sent
+   * to Redis together, as one call asking for a permit per request. See {@link RequestCoalescer}.
+   */
+  public CompletionStage<Boolean> tryConsumeCoalesced(String id, String key, long limit,
+      Duration windowDuration) {
+    RedisKey windowKey = windowKey(id, key);
+    if (denyCache.isDenied(windowKey)) {
+      return CompletableFuture.completedFuture(limiterMetrics.localDecision(LIMITER, id, false));
+    }
+
+    return requestCoalescer.acquire(LIMITER + ':' + id + ':' + key, permits ->
+        evalAsync(keys(windowKey), args(limit, windowDuration, permits, true))
+            .thenApply(result -> granted(windowKey, permits, result))
+    ).thenApply(allowed -> limiterMetrics.decision(LIMITER, id, allowed));
+  }
+
+  /**
+   * The script returns the permits granted and left, the time until the window resets and, on
+   * rejection, the time after which to retry. A window that is used up is rejected locally until
+   * it resets.
+   */
+  private long granted(RedisKey windowKey, long permits, List<Long> result) {
+    long granted = result.get(0);
+    if (granted < permits && result.get(1) == 0) {
+      denyCache.deny(windowKey, result.get(2));
+    }
+    return granted;
+  }
+
+  private RateLimitDecision decision(RedisKey windowKey, long limit, long permits,
+      List<Long> result) {
+    granted(windowKey, permits, result);
+    return RateLimitDecision.of(limit, permits, result);
+  }
+
+  private CompletionStage<List<Long>> evalAsync(byte[][] keys, byte[][] args) {
+    return scriptExecutor.<List<Long>>executeAsync(LIMITER, fixedWindowRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+  }
+
+  static RedisKey windowKey(String id, String key) {
+    return RedisKey.of(KEY_PREFIX, id, key);
+  }
+
+  private byte[][] keys(RedisKey windowKey) {
+    return new byte[][] {
+        windowKey.bytes()
+    };
+  }
+
+  private byte[][] args(long limit, Duration windowDuration, long permits, boolean partial) {
+    return new byte[][] {
+        ScriptArgs.constant(windowDuration.toMillis()),
+        ScriptArgs.constant(limit),
+        ScriptArgs.decimal(permits),
+        ScriptArgs.flag(partial)
+    };
   }
 
 }
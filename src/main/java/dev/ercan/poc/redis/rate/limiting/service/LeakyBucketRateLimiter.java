@@ -1,53 +1,139 @@
 package dev.ercan.poc.redis.rate.limiting.service;
 
-import io.lettuce.core.RedisNoScriptException;
+import dev.ercan.poc.redis.rate.limiting.clock.LimiterClock;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.RedisSystemException;
-import org.springframework.data.redis.connection.RedisCommands;
-import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class LeakyBucketRateLimiter {
 
-  private static final String BUCKET_KEY = "leaky_bucket:%s:%s";
+  public static final String LIMITER = "leaky_bucket";
+  private static final byte[] KEY_PREFIX = ScriptArgs.encode(LIMITER + ':');
 
-  private final RedisCommands redisCommands;
-  private final RedisScript<Long> leakyBucketRateLimiterScript;
+  private final ScriptExecutor scriptExecutor;
+  private final RedisScript<List> leakyBucketRateLimiterScript;
+  private final LimiterMetrics limiterMetrics;
+  private final RequestCoalescer requestCoalescer;
+  private final LimiterClock limiterClock;
 
   public boolean tryConsume(String id, String key, long capacity, long leakRate, Duration leakPeriod) {
-    long expireIn = leakPeriod.multipliedBy(capacity / leakRate).toMillis();
-
-    byte[][] keysAndArgs = {
-        String.format(BUCKET_KEY, id, key).getBytes(),
-        Long.toString(Instant.now().toEpochMilli()).getBytes(),
-        Long.toString(capacity).getBytes(),
-        Long.toString(leakRate).getBytes(),
-        Long.toString(leakPeriod.toMillis()).getBytes(),
-        Long.toString(expireIn).getBytes()
+    return tryConsume(id, key, capacity, leakRate, leakPeriod, 1);
+  }
+
+  public boolean tryConsume(String id, String key, long capacity, long leakRate, Duration leakPeriod,
+      long permits) {
+    return decide(id, key, capacity, leakRate, leakPeriod, permits).allowed();
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long capacity, long leakRate, Duration leakPeriod) {
+    return tryConsumeAsync(id, key, capacity, leakRate, leakPeriod, 1);
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long capacity, long leakRate, Duration leakPeriod,
+      long permits) {
+    return decideAsync(id, key, capacity, leakRate, leakPeriod, permits).thenApply(RateLimitDecision::allowed);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long capacity, long leakRate, Duration leakPeriod) {
+    return tryConsumeReactive(id, key, capacity, leakRate, leakPeriod, 1);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long capacity, long leakRate, Duration leakPeriod,
+      long permits) {
+    return decideReactive(id, key, capacity, leakRate, leakPeriod, permits).map(RateLimitDecision::allowed);
+  }
+
+  public RateLimitDecision decide(String id, String key, long capacity, long leakRate, Duration leakPeriod,
+      long permits) {
+    byte[][] keys = keys(id, key);
+    byte[][] args = args(capacity, leakRate, leakPeriod, permits, false);
+
+    List<Long> result = scriptExecutor.execute(LIMITER, leakyBucketRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+
+    return limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(capacity, permits, result));
+  }
+
+  public CompletionStage<RateLimitDecision> decideAsync(String id, String key, long capacity, long leakRate, Duration leakPeriod,
+      long permits) {
+    byte[][] keys = keys(id, key);
+    byte[][] args = args(capacity, leakRate, leakPeriod, permits, false);
+
+    return evalAsync(keys, args)
+        .thenApply(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(capacity, permits, result)));
+  }
+
+  public Mono<RateLimitDecision> decideReactive(String id, String key, long capacity, long leakRate, Duration leakPeriod,
+      long permits) {
+    return Mono.defer(() -> {
+      byte[][] keys = keys(id, key);
+      byte[][] args = args(capacity, leakRate, leakPeriod, permits, false);
+
+      return scriptExecutor.<List<Long>>executeReactive(LIMITER, leakyBucketRateLimiterScript,
+          ScriptOutputType.MULTI, keys, args)
+          .map(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(capacity, permits, result)));
+    });
+  }
+
+  /**
+   * Like {@link #tryConsumeAsync}, but concurrent requests for the same key on this node are sent
+   * to Redis together, as one call asking for a permit per request. See {@link RequestCoalescer}.
+   */
+  public CompletionStage<Boolean> tryConsumeCoalesced(String id, String key, long capacity,
+      long leakRate, Duration leakPeriod) {
+    return requestCoalescer.acquire(LIMITER + ':' + id + ':' + key, permits ->
+        evalAsync(keys(id, key), args(capacity, leakRate, leakPeriod, permits, true))
+            .thenApply(result -> result.get(0))
+    ).thenApply(allowed -> limiterMetrics.decision(LIMITER, id, allowed));
+  }
+
+  private CompletionStage<List<Long>> evalAsync(byte[][] keys, byte[][] args) {
+    return scriptExecutor.<List<Long>>executeAsync(LIMITER, leakyBucketRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+  }
+
+  static byte[] bucketKey(String id, String key) {
+    return ScriptArgs.key(KEY_PREFIX, id, key);
+  }
+
+  private byte[][] keys(String id, String key) {
+    return new byte[][] {
+        bucketKey(id, key)
     };
+  }
+
+  /**
+   * Time after which a full, untouched bucket is empty again, and its key can expire: at least one
+   * period, as a rate above the capacity still leaks only once per period.
+   */
+  static long expireIn(long capacity, long leakRate, Duration leakPeriod) {
+    return leakPeriod.toMillis() * Math.max(1, Math.ceilDiv(capacity, leakRate));
+  }
 
-    Long result;
-
-    try {
-      String scriptSha1 = leakyBucketRateLimiterScript.getSha1();
-      result = redisCommands.evalSha(scriptSha1, ReturnType.INTEGER, 1, keysAndArgs);
-    } catch (RedisSystemException ex) {
-      if (ex.getCause() instanceof RedisNoScriptException) {
-        byte[] scriptSource = leakyBucketRateLimiterScript.getScriptAsString().getBytes();
-        result = redisCommands.eval(scriptSource, ReturnType.INTEGER, 1, keysAndArgs);
-      } else {
-        throw ex;
-      }
-    }
-
-    return result == 1;
+  private byte[][] args(long capacity, long leakRate, Duration leakPeriod, long permits,
+      boolean partial) {
+    return new byte[][] {
+        limiterClock.now(),
+        ScriptArgs.constant(capacity),
+        ScriptArgs.constant(leakRate),
+        ScriptArgs.constant(leakPeriod.toMillis()),
+        ScriptArgs.constant(expireIn(capacity, leakRate, leakPeriod)),
+        ScriptArgs.decimal(permits),
+        ScriptArgs.flag(partial)
+    };
   }
 
 }
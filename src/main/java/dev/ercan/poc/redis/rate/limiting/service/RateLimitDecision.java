@@ -0,0 +1,45 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import java.util.List;
+
+/**
+ * Outcome of a limiter call together with what a client needs to pace itself: the quota left and
+ * when asking again can succeed. Times are in milliseconds from the decision.
+ *
+ * @param allowed whether all requested permits were granted
+ * @param limit limit, or bucket capacity, of the limiter that decided, or {@link #UNKNOWN}
+ * @param remaining permits left after this call, or {@link #UNKNOWN}
+ * @param resetMillis time until the full quota is available again, or {@link #UNKNOWN}
+ * @param retryAfterMillis on rejection, time until the same request can be admitted, assuming no
+ *     other traffic; 0 when allowed or not known
+ */
+public record RateLimitDecision(boolean allowed, long limit, long remaining, long resetMillis,
+    long retryAfterMillis) {
+
+  public static final long UNKNOWN = -1;
+
+  public static RateLimitDecision allowed(long limit) {
+    return new RateLimitDecision(true, limit, UNKNOWN, UNKNOWN, 0);
+  }
+
+  public static RateLimitDecision rejected(long limit, long retryAfterMillis) {
+    return new RateLimitDecision(false, limit, 0, UNKNOWN, retryAfterMillis);
+  }
+
+  /**
+   * Decision of a call that only tells whether it was admitted, such as a coalesced or leased one.
+   */
+  public static RateLimitDecision of(boolean allowed, long limit) {
+    return allowed ? allowed(limit) : rejected(limit, 0);
+  }
+
+  /**
+   * Decision of a single key script, which returns the permits granted, the permits left, the time
+   * until the reset and the time after which to retry.
+   */
+  static RateLimitDecision of(long limit, long permits, List<Long> result) {
+    return new RateLimitDecision(result.get(0) == permits, limit, result.get(1), result.get(2),
+        result.get(3));
+  }
+
+}
@@ -0,0 +1,128 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coalesces concurrent requests for the same limiter key into a single script call that asks for
+ * one permit per request. While a call for a key is in flight, further requests for it queue up and
+ * are sent together as soon as the call returns; the permits granted are handed out to the queued
+ * requests in arrival order.
+ */
+@Component
+public class RequestCoalescer {
+
+  private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+  private final int maxBatchSize;
+  private final Executor batchDelay;
+
+  public RequestCoalescer(RateLimiterProperties properties) {
+    RateLimiterProperties.Coalescing coalescing = properties.getCoalescing();
+    this.maxBatchSize = coalescing.getMaxBatchSize();
+    long window = coalescing.getWindow().toNanos();
+    this.batchDelay = window > 0
+        ? CompletableFuture.delayedExecutor(window, TimeUnit.NANOSECONDS)
+        : null;
+  }
+
+  /**
+   * Requests one permit for {@code key}. {@code consume} is called with the number of permits
+   * wanted by the batch and completes with the number of permits granted.
+   */
+  public CompletionStage<Boolean> acquire(String key, LongFunction<CompletionStage<Long>> consume) {
+    CompletableFuture<Boolean> request = new CompletableFuture<>();
+
+    while (true) {
+      Batch batch = batches.computeIfAbsent(key, k -> new Batch());
+
+      boolean dispatch;
+      synchronized (batch) {
+        if (batch.closed) {
+          // removed by its last dispatch after we looked it up, queue on a fresh one
+          continue;
+        }
+        batch.waiting.add(request);
+        dispatch = !batch.inFlight;
+        batch.inFlight = true;
+      }
+
+      if (dispatch) {
+        if (batchDelay != null) {
+          batchDelay.execute(() -> dispatch(key, batch, consume));
+        } else {
+          dispatch(key, batch, consume);
+        }
+      }
+      return request;
+    }
+  }
+
+  /**
+   * Sends the queued requests of a batch until none are left. Calls that complete at once are
+   * handled in this loop rather than in a callback, so a run of them cannot grow the stack.
+   */
+  private void dispatch(String key, Batch batch, LongFunction<CompletionStage<Long>> consume) {
+    while (true) {
+      List<CompletableFuture<Boolean>> requests;
+      synchronized (batch) {
+        if (batch.waiting.isEmpty()) {
+          batch.inFlight = false;
+          batch.closed = true;
+          batches.remove(key, batch);
+          return;
+        }
+        requests = new ArrayList<>(Math.min(batch.waiting.size(), maxBatchSize));
+        while (!batch.waiting.isEmpty() && requests.size() < maxBatchSize) {
+          requests.add(batch.waiting.poll());
+        }
+      }
+
+      CompletableFuture<Long> granted;
+      try {
+        granted = consume.apply(requests.size()).toCompletableFuture();
+      } catch (RuntimeException ex) {
+        granted = CompletableFuture.failedFuture(ex);
+      }
+
+      if (!granted.isDone()) {
+        granted.whenComplete((permits, ex) -> {
+          complete(requests, permits, ex);
+          dispatch(key, batch, consume);
+        });
+        return;
+      }
+      granted.whenComplete((permits, ex) -> complete(requests, permits, ex));
+    }
+  }
+
+  private static void complete(List<CompletableFuture<Boolean>> requests, Long permits,
+      Throwable ex) {
+    for (int i = 0; i < requests.size(); i++) {
+      if (ex != null) {
+        requests.get(i).completeExceptionally(ex);
+      } else {
+        requests.get(i).complete(i < permits);
+      }
+    }
+  }
+
+  private static final class Batch {
+
+    private final Queue<CompletableFuture<Boolean>> waiting = new ArrayDeque<>();
+    private boolean inFlight;
+    private boolean closed;
+
+  }
+
+}
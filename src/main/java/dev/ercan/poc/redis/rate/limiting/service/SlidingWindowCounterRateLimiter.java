@@ -1,55 +1,176 @@
 package dev.ercan.poc.redis.rate.limiting.service;
 
-import io.lettuce.core.RedisNoScriptException;
+import dev.ercan.poc.redis.rate.limiting.clock.LimiterClock;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.RedisSystemException;
-import org.springframework.data.redis.connection.RedisCommands;
-import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class SlidingWindowCounterRateLimiter {
 
-  private static final String WINDOW_KEY = "sliding_window_counter:%s:%s:%s";
+  public static final String LIMITER = "sliding_window_counter";
+  private static final byte[] KEY_PREFIX = ScriptArgs.encode(LIMITER + ':');
 
-  private final RedisCommands redisCommands;
-  private final RedisScript<Long> slidingWindowCounterRateLimiterScript;
+  private final ScriptExecutor scriptExecutor;
+  private final RedisScript<List> slidingWindowCounterRateLimiterScript;
+  private final LimiterMetrics limiterMetrics;
+  private final RequestCoalescer requestCoalescer;
+  private final LimiterClock limiterClock;
 
-  public boolean tryConsume(String id, String key, long limit, Duration windowDuration, Duration subWindowDuration) {
-    long now = Instant.now().toEpochMilli();
-    long currentSubWindowNumber = now / subWindowDuration.toMillis();
-    long previousSubWindowNumber = currentSubWindowNumber - 1;
+  public boolean tryConsume(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration) {
+    return tryConsume(id, key, limit, windowDuration, subWindowDuration, 1);
+  }
 
-    byte[][] keysAndArgs = {
-        String.format(WINDOW_KEY, id, key, currentSubWindowNumber).getBytes(),
-        String.format(WINDOW_KEY, id, key, previousSubWindowNumber).getBytes(),
-        Long.toString(now).getBytes(),
-        Long.toString(windowDuration.toMillis()).getBytes(),
-        Long.toString(subWindowDuration.toMillis()).getBytes(),
-        Long.toString(limit).getBytes()
-    };
+  public boolean tryConsume(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration, long permits) {
+    return decide(id, key, limit, windowDuration, subWindowDuration, permits).allowed();
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration) {
+    return tryConsumeAsync(id, key, limit, windowDuration, subWindowDuration, 1);
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration, long permits) {
+    return decideAsync(id, key, limit, windowDuration, subWindowDuration, permits).thenApply(RateLimitDecision::allowed);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration) {
+    return tryConsumeReactive(id, key, limit, windowDuration, subWindowDuration, 1);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration, long permits) {
+    return decideReactive(id, key, limit, windowDuration, subWindowDuration, permits).map(RateLimitDecision::allowed);
+  }
+
+  public RateLimitDecision decide(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration, long permits) {
+    long now = limiterClock.millis();
+    byte[][] keys = keys(id, key, now, subWindowDuration);
+    byte[][] args = args(now, limit, windowDuration, subWindowDuration, permits, false);
+
+    List<Long> result = scriptExecutor.execute(LIMITER, slidingWindowCounterRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+
+    return limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, permits, result));
+  }
+
+  public CompletionStage<RateLimitDecision> decideAsync(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration, long permits) {
+    long now = limiterClock.millis();
+    byte[][] keys = keys(id, key, now, subWindowDuration);
+    byte[][] args = args(now, limit, windowDuration, subWindowDuration, permits, false);
+
+    return evalAsync(keys, args)
+        .thenApply(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, permits, result)));
+  }
+
+  public Mono<RateLimitDecision> decideReactive(String id, String key, long limit, Duration windowDuration,
+      Duration subWindowDuration, long permits) {
+    return Mono.defer(() -> {
+      long now = limiterClock.millis();
+      byte[][] keys = keys(id, key, now, subWindowDuration);
+      byte[][] args = args(now, limit, windowDuration, subWindowDuration, permits, false);
 
-    Long result;
-
-    try {
-      String scriptSha1 = slidingWindowCounterRateLimiterScript.getSha1();
-      result = redisCommands.evalSha(scriptSha1, ReturnType.INTEGER, 2, keysAndArgs);
-    } catch (RedisSystemException ex) {
-      if (ex.getCause() instanceof RedisNoScriptException) {
-        byte[] scriptSource = slidingWindowCounterRateLimiterScript.getScriptAsString().getBytes();
-        result = redisCommands.eval(scriptSource, ReturnType.INTEGER, 2, keysAndArgs);
-      } else {
-        throw ex;
-      }
+      return scriptExecutor.<List<Long>>executeReactive(LIMITER, slidingWindowCounterRateLimiterScript,
+          ScriptOutputType.MULTI, keys, args)
+          .map(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, permits, result)));
+    });
+  }
+
+  /**
+   * Like {@link #tryConsumeAsync}, but concurrent requests for the same key on this node are sent
+   * to Redis together, as one call asking for a permit per request. See {@link RequestCoalescer}.
+   */
+  public CompletionStage<Boolean> tryConsumeCoalesced(String id, String key, long limit,
+      Duration windowDuration, Duration subWindowDuration) {
+    return requestCoalescer.acquire(LIMITER + ':' + id + ':' + key, permits -> {
+      long now = limiterClock.millis();
+      return evalAsync(keys(id, key, now, subWindowDuration),
+          args(now, limit, windowDuration, subWindowDuration, permits, true))
+          .thenApply(result -> result.get(0));
+    }).thenApply(allowed -> limiterMetrics.decision(LIMITER, id, allowed));
+  }
+
+  private CompletionStage<List<Long>> evalAsync(byte[][] keys, byte[][] args) {
+    return scriptExecutor.<List<Long>>executeAsync(LIMITER, slidingWindowCounterRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+  }
+
+  static byte[] windowKey(String id, String key) {
+    return ScriptArgs.key(KEY_PREFIX, id, key);
+  }
+
+  /**
+   * The limit's key followed by the keys of the sub-windows the script may count. The script picks
+   * the current and previous one by the clock it uses.
+   */
+  private byte[][] keys(String id, String key, long nowMillis, Duration subWindowDuration) {
+    List<byte[]> keys = new ArrayList<>(5);
+    appendKeys(windowKey(id, key), nowMillis, subWindowDuration, limiterClock.isServerTime(), keys);
+    return keys.toArray(byte[][]::new);
+  }
+
+  static void appendKeys(byte[] windowKey, long nowMillis, Duration subWindowDuration,
+      boolean serverTime, List<byte[]> keys) {
+    long first = firstSubWindow(nowMillis, subWindowDuration, serverTime);
+    keys.add(windowKey);
+    for (int i = 0; i < subWindowKeyCount(serverTime); i++) {
+      keys.add(subWindowKey(windowKey, first + i));
     }
+  }
 
-    return result == 1;
+  /**
+   * The previous sub-window at this node's time. With the server clock the script's time is only
+   * known to Redis, so the keys sent start one sub-window earlier and span one sub-window either
+   * way of this node's.
+   */
+  static long firstSubWindow(long nowMillis, Duration subWindowDuration, boolean serverTime) {
+    long current = Math.floorDiv(nowMillis, subWindowDuration.toMillis());
+    return serverTime ? current - 2 : current - 1;
+  }
+
+  static int subWindowKeyCount(boolean serverTime) {
+    return serverTime ? 4 : 2;
+  }
+
+  private static byte[] subWindowKey(byte[] windowKey, long subWindow) {
+    byte[] number = ScriptArgs.decimal(subWindow);
+    byte[] subWindowKey = Arrays.copyOf(windowKey, windowKey.length + 1 + number.length);
+    subWindowKey[windowKey.length] = ':';
+    System.arraycopy(number, 0, subWindowKey, windowKey.length + 1, number.length);
+    return subWindowKey;
+  }
+
+  private byte[][] args(long nowMillis, long limit, Duration windowDuration,
+      Duration subWindowDuration, long permits, boolean partial) {
+    return new byte[][] {
+        limiterClock.at(nowMillis),
+        ScriptArgs.constant(windowDuration.toMillis()),
+        ScriptArgs.constant(subWindowDuration.toMillis()),
+        ScriptArgs.constant(limit),
+        ScriptArgs.decimal(permits),
+        ScriptArgs.flag(partial),
+        ScriptArgs.decimal(firstSubWindow(nowMillis, subWindowDuration, limiterClock.isServerTime()))
+    };
   }
 
 }
@@ -1,55 +1,144 @@
 package dev.ercan.poc.redis.rate.limiting.service;
 
-import io.lettuce.core.RedisNoScriptException;
+import dev.ercan.poc.redis.rate.limiting.clock.LimiterClock;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.UUID;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.RedisSystemException;
-import org.springframework.data.redis.connection.RedisCommands;
-import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class SlidingWindowLogRateLimiter {
 
-  private static final String WINDOW_KEY = "sliding_window_log:%s:%s";
+  public static final String LIMITER = "sliding_window_log";
+  private static final byte[] KEY_PREFIX = ScriptArgs.encode(LIMITER + ':');
 
-  private final RedisCommands redisCommands;
-  private final RedisScript<Long> slidingWindowLogRateLimiterScript;
+  private final ScriptExecutor scriptExecutor;
+  private final RedisScript<List> slidingWindowLogRateLimiterScript;
+  private final LimiterMetrics limiterMetrics;
+  private final RequestCoalescer requestCoalescer;
+  private final LimiterClock limiterClock;
 
   public boolean tryConsume(String id, String key, long limit, Duration windowDuration) {
+    return tryConsume(id, key, limit, windowDuration, 1);
+  }
+
+  public boolean tryConsume(String id, String key, long limit, Duration windowDuration,
+      long permits) {
+    return decide(id, key, limit, windowDuration, permits).allowed();
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long limit, Duration windowDuration) {
+    return tryConsumeAsync(id, key, limit, windowDuration, 1);
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long limit, Duration windowDuration,
+      long permits) {
+    return decideAsync(id, key, limit, windowDuration, permits).thenApply(RateLimitDecision::allowed);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long limit, Duration windowDuration) {
+    return tryConsumeReactive(id, key, limit, windowDuration, 1);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long limit, Duration windowDuration,
+      long permits) {
+    return decideReactive(id, key, limit, windowDuration, permits).map(RateLimitDecision::allowed);
+  }
+
+  public RateLimitDecision decide(String id, String key, long limit, Duration windowDuration,
+      long permits) {
     if (limit < 1) {
-      return false;
+      return RateLimitDecision.rejected(limit, 0);
     }
 
-    byte[][] keysAndArgs = {
-        String.format(WINDOW_KEY, id, key).getBytes(),
-        Long.toString(Instant.now().toEpochMilli()).getBytes(),
-        Long.toString(windowDuration.toMillis()).getBytes(),
-        Long.toString(limit).getBytes(),
-        UUID.randomUUID().toString().getBytes()
-    };
+    byte[][] keys = keys(id, key);
+    byte[][] args = args(limit, windowDuration, permits, false);
+
+    List<Long> result = scriptExecutor.execute(LIMITER, slidingWindowLogRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+
+    return limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, permits, result));
+  }
 
-    Long result;
-
-    try {
-      String scriptSha1 = slidingWindowLogRateLimiterScript.getSha1();
-      result = redisCommands.evalSha(scriptSha1, ReturnType.INTEGER, 1, keysAndArgs);
-    } catch (RedisSystemException ex) {
-      if (ex.getCause() instanceof RedisNoScriptException) {
-        byte[] scriptSource = slidingWindowLogRateLimiterScript.getScriptAsString().getBytes();
-        result = redisCommands.eval(scriptSource, ReturnType.INTEGER, 1, keysAndArgs);
-      } else {
-        throw ex;
-      }
+  public CompletionStage<RateLimitDecision> decideAsync(String id, String key, long limit, Duration windowDuration,
+      long permits) {
+    if (limit < 1) {
+      return CompletableFuture.completedFuture(RateLimitDecision.rejected(limit, 0));
     }
 
-    return result == 1;
+    byte[][] keys = keys(id, key);
+    byte[][] args = args(limit, windowDuration, permits, false);
+
+    return evalAsync(keys, args)
+        .thenApply(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, permits, result)));
+  }
+
+  public Mono<RateLimitDecision> decideReactive(String id, String key, long limit, Duration windowDuration,
+      long permits) {
+    if (limit < 1) {
+      return Mono.just(RateLimitDecision.rejected(limit, 0));
+    }
+
+    return Mono.defer(() -> {
+      byte[][] keys = keys(id, key);
+      byte[][] args = args(limit, windowDuration, permits, false);
+
+      return scriptExecutor.<List<Long>>executeReactive(LIMITER, slidingWindowLogRateLimiterScript,
+          ScriptOutputType.MULTI, keys, args)
+          .map(result -> limiterMetrics.decision(LIMITER, id, RateLimitDecision.of(limit, permits, result)));
+    });
+  }
+
+  /**
+   * Like {@link #tryConsumeAsync}, but concurrent requests for the same key on this node are sent
+   * to Redis together, as one call asking for a permit per request. See {@link RequestCoalescer}.
+   */
+  public CompletionStage<Boolean> tryConsumeCoalesced(String id, String key, long limit,
+      Duration windowDuration) {
+    if (limit < 1) {
+      return CompletableFuture.completedFuture(false);
+    }
+
+    return requestCoalescer.acquire(LIMITER + ':' + id + ':' + key, permits ->
+        evalAsync(keys(id, key), args(limit, windowDuration, permits, true))
+            .thenApply(result -> result.get(0))
+    ).thenApply(allowed -> limiterMetrics.decision(LIMITER, id, allowed));
+  }
+
+  private CompletionStage<List<Long>> evalAsync(byte[][] keys, byte[][] args) {
+    return scriptExecutor.<List<Long>>executeAsync(LIMITER, slidingWindowLogRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+  }
+
+  static byte[] windowKey(String id, String key) {
+    return ScriptArgs.key(KEY_PREFIX, id, key);
+  }
+
+  private byte[][] keys(String id, String key) {
+    return new byte[][] {
+        windowKey(id, key)
+    };
+  }
+
+  private byte[][] args(long limit, Duration windowDuration, long permits, boolean partial) {
+    return new byte[][] {
+        limiterClock.now(),
+        ScriptArgs.constant(windowDuration.toMillis()),
+        ScriptArgs.constant(limit),
+        ScriptArgs.decimal(permits),
+        ScriptArgs.flag(partial)
+    };
   }
 
 }
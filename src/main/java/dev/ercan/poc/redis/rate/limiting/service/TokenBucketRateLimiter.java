@@ -1,59 +1,458 @@
 package dev.ercan.poc.redis.rate.limiting.service;
 
-import io.lettuce.core.RedisNoScriptException;
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.clock.LimiterClock;
+import dev.ercan.poc.redis.rate.limiting.metrics.LimiterMetrics;
+import dev.ercan.poc.redis.rate.limiting.script.RedisKey;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.RedisSystemException;
-import org.springframework.data.redis.connection.RedisCommands;
-import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TokenBucketRateLimiter {
 
-  private static final String BUCKET_KEY = "token_bucket:%s:%s";
+  public static final String LIMITER = "token_bucket";
+  private static final byte[] KEY_PREFIX = ScriptArgs.encode(LIMITER + ':');
 
-  private final RedisCommands redisCommands;
-  private final RedisScript<Long> tokenBucketRateLimiterScript;
+  private final ScriptExecutor scriptExecutor;
+  private final RedisScript<List> tokenBucketRateLimiterScript;
+  private final RedisScript<List> tokenBucketLeaseRateLimiterScript;
+  private final DenyCache denyCache;
+  private final RateLimiterProperties properties;
+  private final LimiterMetrics limiterMetrics;
+  private final RequestCoalescer requestCoalescer;
+  private final LimiterClock limiterClock;
+
+  private final Map<RedisKey, TokenLease> leases = new ConcurrentHashMap<>();
+  private ScheduledExecutorService leaseSweeper;
+
+  /**
+   * Sweeps expired leases once per lease TTL, so the leases of keys that stop getting traffic are
+   * dropped and their unused tokens given back.
+   */
+  @PostConstruct
+  public void start() {
+    long leaseTtl = properties.getTokenBucket().getLeaseTtl().toNanos();
+    leaseSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "token-lease-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    leaseSweeper.scheduleWithFixedDelay(() -> sweepExpiredLeases(System.nanoTime()), leaseTtl,
+        leaseTtl, TimeUnit.NANOSECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (leaseSweeper != null) {
+      leaseSweeper.shutdownNow();
+    }
+  }
 
   public boolean tryConsume(String id, String key, long capacity, long refillRate,
       Duration refillPeriod) {
+    return tryConsume(id, key, capacity, refillRate, refillPeriod, 1);
+  }
+
+  public boolean tryConsume(String id, String key, long capacity, long refillRate,
+      Duration refillPeriod, long permits) {
+    return decide(id, key, capacity, refillRate, refillPeriod, permits).allowed();
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long capacity, long refillRate,
+      Duration refillPeriod) {
+    return tryConsumeAsync(id, key, capacity, refillRate, refillPeriod, 1);
+  }
+
+  public CompletionStage<Boolean> tryConsumeAsync(String id, String key, long capacity, long refillRate,
+      Duration refillPeriod, long permits) {
+    return decideAsync(id, key, capacity, refillRate, refillPeriod, permits)
+        .thenApply(RateLimitDecision::allowed);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long capacity, long refillRate,
+      Duration refillPeriod) {
+    return tryConsumeReactive(id, key, capacity, refillRate, refillPeriod, 1);
+  }
+
+  public Mono<Boolean> tryConsumeReactive(String id, String key, long capacity, long refillRate,
+      Duration refillPeriod, long permits) {
+    return decideReactive(id, key, capacity, refillRate, refillPeriod, permits)
+        .map(RateLimitDecision::allowed);
+  }
+
+  public RateLimitDecision decide(String id, String key, long capacity, long refillRate,
+      Duration refillPeriod, long permits) {
+    if (capacity < 1) {
+      return RateLimitDecision.rejected(capacity, 0);
+    }
+
+    RedisKey bucketKey = bucketKey(id, key);
+    long deniedMillis = denyCache.deniedMillis(bucketKey);
+    if (deniedMillis > 0) {
+      return limiterMetrics.localDecision(LIMITER, id, RateLimitDecision.rejected(capacity, deniedMillis));
+    }
+
+    byte[][] keys = keys(bucketKey);
+    byte[][] args = args(capacity, refillRate, refillPeriod, permits, false);
+
+    List<Long> result = scriptExecutor.execute(LIMITER, tokenBucketRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+
+    return limiterMetrics.decision(LIMITER, id,
+        decision(bucketKey, capacity, refillRate, refillPeriod, permits, result));
+  }
+
+  public CompletionStage<RateLimitDecision> decideAsync(String id, String key, long capacity,
+      long refillRate, Duration refillPeriod, long permits) {
+    if (capacity < 1) {
+      return CompletableFuture.completedFuture(RateLimitDecision.rejected(capacity, 0));
+    }
+
+    RedisKey bucketKey = bucketKey(id, key);
+    long deniedMillis = denyCache.deniedMillis(bucketKey);
+    if (deniedMillis > 0) {
+      return CompletableFuture.completedFuture(
+          limiterMetrics.localDecision(LIMITER, id, RateLimitDecision.rejected(capacity, deniedMillis)));
+    }
+
+    byte[][] keys = keys(bucketKey);
+    byte[][] args = args(capacity, refillRate, refillPeriod, permits, false);
+
+    return evalAsync(keys, args)
+        .thenApply(result -> limiterMetrics.decision(LIMITER, id,
+            decision(bucketKey, capacity, refillRate, refillPeriod, permits, result)));
+  }
+
+  public Mono<RateLimitDecision> decideReactive(String id, String key, long capacity,
+      long refillRate, Duration refillPeriod, long permits) {
+    if (capacity < 1) {
+      return Mono.just(RateLimitDecision.rejected(capacity, 0));
+    }
+
+    RedisKey bucketKey = bucketKey(id, key);
+    long deniedMillis = denyCache.deniedMillis(bucketKey);
+    if (deniedMillis > 0) {
+      return Mono.just(
+          limiterMetrics.localDecision(LIMITER, id, RateLimitDecision.rejected(capacity, deniedMillis)));
+    }
+
+    return Mono.defer(() -> {
+      byte[][] keys = keys(bucketKey);
+      byte[][] args = args(capacity, refillRate, refillPeriod, permits, false);
+
+      return scriptExecutor.<List<Long>>executeReactive(LIMITER, tokenBucketRateLimiterScript,
+          ScriptOutputType.MULTI, keys, args)
+          .map(result -> limiterMetrics.decision(LIMITER, id,
+              decision(bucketKey, capacity, refillRate, refillPeriod, permits, result)));
+    });
+  }
 
+  /**
+   * Like {@link #tryConsumeAsync}, but concurrent requests for the same key on this node are sent
+   * to Redis together, as one call asking for a permit per request. See {@link RequestCoalescer}.
+   */
+  public CompletionStage<Boolean> tryConsumeCoalesced(String id, String key, long capacity,
+      long refillRate, Duration refillPeriod) {
+    if (capacity < 1) {
+      return CompletableFuture.completedFuture(false);
+    }
+
+    RedisKey bucketKey = bucketKey(id, key);
+    if (denyCache.isDenied(bucketKey)) {
+      return CompletableFuture.completedFuture(limiterMetrics.localDecision(LIMITER, id, false));
+    }
+
+    return requestCoalescer.acquire(LIMITER + ':' + id + ':' + key, permits ->
+        evalAsync(keys(bucketKey), args(capacity, refillRate, refillPeriod, permits, true))
+            .thenApply(result -> granted(bucketKey, permits, 1, refillRate, refillPeriod, result))
+    ).thenApply(allowed -> limiterMetrics.decision(LIMITER, id, allowed));
+  }
+
+  /**
+   * Leased mode: serves up to {@code leaseSize} tokens per node from a local lease and only calls
+   * Redis when the lease is used up or expired. Unused tokens are given back to the bucket when the
+   * lease is renewed or swept after expiry, so a node is at most {@code leaseSize} tokens ahead of
+   * the bucket for at most the configured lease TTL.
+   * <p>
+   * Callers arriving while the lease is renewed wait for the renewal rather than calling Redis
+   * themselves. Once {@code rate-limiter.token-bucket.max-leases} keys hold a lease, further keys
+   * are decided per request.
+   */
+  public boolean tryConsumeLeased(String id, String key, long capacity, long refillRate,
+      Duration refillPeriod, long leaseSize) {
     if (capacity < 1) {
       return false;
     }
 
-    long expireIn = refillPeriod.multipliedBy(capacity / refillRate).toMillis();
+    RedisKey bucketKey = bucketKey(id, key);
+    while (true) {
+      long now = System.nanoTime();
+      TokenLease lease = lease(bucketKey, capacity, refillRate, refillPeriod);
+      if (lease == null) {
+        return tryConsume(id, key, capacity, refillRate, refillPeriod);
+      }
+      if (lease.tryTake(now)) {
+        return limiterMetrics.localDecision(LIMITER, id, true);
+      }
+      if (denyCache.isDenied(bucketKey)) {
+        return limiterMetrics.localDecision(LIMITER, id, false);
+      }
+      if (!lease.startRenewal()) {
+        lease.renewal().join();
+        continue;
+      }
 
-    byte[][] keysAndArgs = {
-        String.format(BUCKET_KEY, id, key).getBytes(),
-        Long.toString(Instant.now().toEpochMilli()).getBytes(),
-        Long.toString(capacity).getBytes(),
-        Long.toString(refillRate).getBytes(),
-        Long.toString(refillPeriod.toMillis()).getBytes(),
-        Long.toString(expireIn).getBytes()
-    };
+      try {
+        byte[][] keys = keys(bucketKey);
+        byte[][] args = leaseArgs(capacity, refillRate, refillPeriod, lease.drain(), leaseSize);
 
-    Long result;
+        List<Long> result = scriptExecutor.execute(LIMITER, tokenBucketLeaseRateLimiterScript,
+            ScriptOutputType.MULTI, keys, args);
 
+        return limiterMetrics.decision(LIMITER, id, renewLease(bucketKey, lease, now, result));
+      } finally {
+        lease.finishRenewal();
+      }
+    }
+  }
+
+  public CompletionStage<Boolean> tryConsumeLeasedAsync(String id, String key, long capacity,
+      long refillRate, Duration refillPeriod, long leaseSize) {
+    if (capacity < 1) {
+      return CompletableFuture.completedFuture(false);
+    }
+
+    return consumeLeasedAsync(id, key, bucketKey(id, key), capacity, refillRate, refillPeriod,
+        leaseSize);
+  }
+
+  public Mono<Boolean> tryConsumeLeasedReactive(String id, String key, long capacity,
+      long refillRate, Duration refillPeriod, long leaseSize) {
+    return Mono.defer(() -> Mono.fromCompletionStage(
+        tryConsumeLeasedAsync(id, key, capacity, refillRate, refillPeriod, leaseSize)));
+  }
+
+  int leaseCount() {
+    return leases.size();
+  }
+
+  private CompletionStage<Boolean> consumeLeasedAsync(String id, String key, RedisKey bucketKey,
+      long capacity, long refillRate, Duration refillPeriod, long leaseSize) {
+    long now = System.nanoTime();
+    TokenLease lease = lease(bucketKey, capacity, refillRate, refillPeriod);
+    if (lease == null) {
+      return tryConsumeAsync(id, key, capacity, refillRate, refillPeriod);
+    }
+    if (lease.tryTake(now)) {
+      return CompletableFuture.completedFuture(limiterMetrics.localDecision(LIMITER, id, true));
+    }
+    if (denyCache.isDenied(bucketKey)) {
+      return CompletableFuture.completedFuture(limiterMetrics.localDecision(LIMITER, id, false));
+    }
+    if (!lease.startRenewal()) {
+      return lease.renewal().thenCompose(renewed -> consumeLeasedAsync(id, key, bucketKey,
+          capacity, refillRate, refillPeriod, leaseSize));
+    }
+
+    byte[][] keys = keys(bucketKey);
+    byte[][] args = leaseArgs(capacity, refillRate, refillPeriod, lease.drain(), leaseSize);
+
+    CompletionStage<List<Long>> result;
     try {
-      String scriptSha1 = tokenBucketRateLimiterScript.getSha1();
-      result = redisCommands.evalSha(scriptSha1, ReturnType.INTEGER, 1, keysAndArgs);
-    } catch (RedisSystemException ex) {
-      if (ex.getCause() instanceof RedisNoScriptException) {
-        byte[] scriptSource = tokenBucketRateLimiterScript.getScriptAsString().getBytes();
-        result = redisCommands.eval(scriptSource, ReturnType.INTEGER, 1, keysAndArgs);
-      } else {
-        throw ex;
+      result = scriptExecutor.executeAsync(LIMITER, tokenBucketLeaseRateLimiterScript,
+          ScriptOutputType.MULTI, keys, args);
+    } catch (RuntimeException ex) {
+      lease.finishRenewal();
+      return CompletableFuture.failedFuture(ex);
+    }
+    return result
+        .thenApply(granted -> limiterMetrics.decision(LIMITER, id, renewLease(bucketKey, lease, now, granted)))
+        .whenComplete((allowed, ex) -> lease.finishRenewal());
+  }
+
+  /**
+   * The lease of a key, {@code null} when the key has none and no more leases may be created. A
+   * retired lease is returned until the sweeper removes it, its callers wait for that and retry.
+   */
+  private TokenLease lease(RedisKey bucketKey, long capacity, long refillRate,
+      Duration refillPeriod) {
+    TokenLease lease = leases.get(bucketKey);
+    if (lease != null) {
+      return lease;
+    }
+    if (leases.size() >= properties.getTokenBucket().getMaxLeases()) {
+      return null;
+    }
+    return leases.computeIfAbsent(bucketKey, k -> new TokenLease(capacity, refillRate, refillPeriod));
+  }
+
+  /**
+   * Keeps the granted tokens, minus the one taken by the current request, in the lease. When
+   * nothing could be leased the bucket is empty and the key is rejected locally until the next
+   * refill.
+   */
+  private boolean renewLease(RedisKey bucketKey, TokenLease lease, long now, List<Long> result) {
+    long granted = result.get(0);
+    if (granted == 0) {
+      denyCache.deny(bucketKey, result.get(1));
+      return false;
+    }
+
+    lease.renew(granted - 1, now + properties.getTokenBucket().getLeaseTtl().toNanos());
+    return true;
+  }
+
+  /**
+   * Drops leases that expired without being renewed and gives their unused tokens back to the
+   * bucket. A lease is retired before it is removed, so a caller still holding it can neither take
+   * its tokens nor renew it. It is removed only once its tokens are back, so the next lease of the
+   * key cannot miss them.
+   */
+  void sweepExpiredLeases(long now) {
+    leases.forEach((bucketKey, lease) -> retire(bucketKey, lease, now));
+  }
+
+  /**
+   * Ends the leases of the limits with these ids and gives their unused tokens back, so the next
+   * request leases under the limit's current parameters. A lease being renewed at that moment is
+   * left to its renewal.
+   */
+  public void invalidateLeases(Set<String> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    long now = System.nanoTime();
+    leases.forEach((bucketKey, lease) -> {
+      if (bucketKey.hasIdIn(ids)) {
+        lease.expire(now);
+        retire(bucketKey, lease, now);
       }
+    });
+  }
+
+  private void retire(RedisKey bucketKey, TokenLease lease, long now) {
+    long unused = lease.retire(now);
+    if (unused < 0) {
+      return;
     }
+    CompletionStage<?> returned = unused > 0
+        ? returnTokens(bucketKey, lease, unused)
+        : CompletableFuture.completedFuture(null);
+    returned.whenComplete((result, ex) -> {
+      leases.remove(bucketKey, lease);
+      lease.finishRetirement();
+    });
+  }
+
+  private CompletionStage<List<Long>> returnTokens(RedisKey bucketKey, TokenLease lease,
+      long tokens) {
+    byte[][] keys = keys(bucketKey);
+    byte[][] args = leaseArgs(lease.getCapacity(), lease.getRefillRate(), lease.getRefillPeriod(),
+        tokens, 0);
 
-    return result == 1;
+    CompletionStage<List<Long>> returned;
+    try {
+      returned = scriptExecutor.executeAsync(LIMITER, tokenBucketLeaseRateLimiterScript,
+          ScriptOutputType.MULTI, keys, args);
+    } catch (RuntimeException ex) {
+      returned = CompletableFuture.failedFuture(ex);
+    }
+    return returned.whenComplete((result, ex) -> {
+      if (ex != null) {
+        log.debug("Could not return {} leased tokens to {}", tokens, bucketKey, ex);
+      }
+    });
+  }
+
+  /**
+   * Time after which an untouched bucket is full again, and its key can expire: at least one
+   * period, as a rate above the capacity still refills only once per period.
+   */
+  static long expireIn(long capacity, long refillRate, Duration refillPeriod) {
+    return refillPeriod.toMillis() * Math.max(1, Math.ceilDiv(capacity, refillRate));
+  }
+
+  /**
+   * The script returns the tokens taken and left, the time until the bucket is full and, on
+   * rejection, the time until the {@code needed} tokens are back. An empty bucket is rejected
+   * locally until its next refill, which is that time less the further refills they need.
+   */
+  private long granted(RedisKey bucketKey, long permits, long needed, long refillRate,
+      Duration refillPeriod, List<Long> result) {
+    long granted = result.get(0);
+    if (granted < permits && result.get(1) == 0) {
+      long furtherRefills = Math.ceilDiv(needed, refillRate) - 1;
+      denyCache.deny(bucketKey, result.get(3) - furtherRefills * refillPeriod.toMillis());
+    }
+    return granted;
+  }
+
+  private RateLimitDecision decision(RedisKey bucketKey, long capacity, long refillRate,
+      Duration refillPeriod, long permits, List<Long> result) {
+    granted(bucketKey, permits, permits, refillRate, refillPeriod, result);
+    return RateLimitDecision.of(capacity, permits, result);
+  }
+
+  private CompletionStage<List<Long>> evalAsync(byte[][] keys, byte[][] args) {
+    return scriptExecutor.<List<Long>>executeAsync(LIMITER, tokenBucketRateLimiterScript,
+        ScriptOutputType.MULTI, keys, args);
+  }
+
+  static RedisKey bucketKey(String id, String key) {
+    return RedisKey.of(KEY_PREFIX, id, key);
+  }
+
+  private byte[][] keys(RedisKey bucketKey) {
+    return new byte[][] {
+        bucketKey.bytes()
+    };
+  }
+
+  private byte[][] args(long capacity, long refillRate, Duration refillPeriod, long permits,
+      boolean partial) {
+    return new byte[][] {
+        limiterClock.now(),
+        ScriptArgs.constant(capacity),
+        ScriptArgs.constant(refillRate),
+        ScriptArgs.constant(refillPeriod.toMillis()),
+        ScriptArgs.constant(expireIn(capacity, refillRate, refillPeriod)),
+        ScriptArgs.decimal(permits),
+        ScriptArgs.flag(partial)
+    };
+  }
+
+  private byte[][] leaseArgs(long capacity, long refillRate, Duration refillPeriod,
+      long returnedTokens, long requestedTokens) {
+    return new byte[][] {
+        limiterClock.now(),
+        ScriptArgs.constant(capacity),
+        ScriptArgs.constant(refillRate),
+        ScriptArgs.constant(refillPeriod.toMillis()),
+        ScriptArgs.constant(expireIn(capacity, refillRate, refillPeriod)),
+        ScriptArgs.decimal(returnedTokens),
+        ScriptArgs.decimal(requestedTokens)
+    };
   }
 
 }
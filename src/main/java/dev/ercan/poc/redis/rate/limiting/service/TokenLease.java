@@ -0,0 +1,116 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Tokens leased by this node from a Redis token bucket. Tokens are taken with a CAS loop; only one
+ * caller at a time renews the lease, the others wait for that renewal and then take from it.
+ * <p>
+ * An expired lease nobody is renewing can be retired: it then holds the renewal slot for good, so
+ * it can neither be renewed nor serve tokens again, and its unused tokens are handed back once.
+ * Callers still holding it wait for {@link #finishRetirement()}, called once those tokens are back
+ * in the bucket, and then lease anew.
+ */
+@RequiredArgsConstructor
+class TokenLease {
+
+  private static final CompletableFuture<Void> IDLE = CompletableFuture.completedFuture(null);
+
+  @Getter
+  private final long capacity;
+  @Getter
+  private final long refillRate;
+  @Getter
+  private final Duration refillPeriod;
+
+  private final AtomicLong tokens = new AtomicLong();
+  private final AtomicReference<CompletableFuture<Void>> renewal = new AtomicReference<>();
+  private volatile long expiresAt = System.nanoTime();
+
+  boolean tryTake(long now) {
+    if (isExpired(now)) {
+      return false;
+    }
+
+    long available;
+    do {
+      available = tokens.get();
+      if (available <= 0) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(available, available - 1));
+    return true;
+  }
+
+  boolean isExpired(long now) {
+    return now - expiresAt >= 0;
+  }
+
+  /**
+   * Ends the lease early, its tokens are no longer served.
+   */
+  void expire(long now) {
+    if (!isExpired(now)) {
+      expiresAt = now;
+    }
+  }
+
+  /**
+   * Makes the caller the renewer of this lease, or returns {@code false} when it is being renewed
+   * or was retired; {@link #renewal()} then tells when to try again.
+   */
+  boolean startRenewal() {
+    return renewal.compareAndSet(null, new CompletableFuture<>());
+  }
+
+  /**
+   * Completes when the renewal or retirement in progress has finished, at once when there is none.
+   */
+  CompletableFuture<Void> renewal() {
+    CompletableFuture<Void> current = renewal.get();
+    return current != null ? current : IDLE;
+  }
+
+  void finishRenewal() {
+    CompletableFuture<Void> finished = renewal.getAndSet(null);
+    if (finished != null) {
+      finished.complete(null);
+    }
+  }
+
+  /**
+   * Retires the lease when it expired and is not being renewed. Returns the unused tokens to give
+   * back to the bucket, or -1 when the lease is still in use.
+   */
+  long retire(long now) {
+    if (!isExpired(now) || !renewal.compareAndSet(null, new CompletableFuture<>())) {
+      return -1;
+    }
+    return drain();
+  }
+
+  /**
+   * Releases the callers waiting on a retired lease. The lease stays retired.
+   */
+  void finishRetirement() {
+    renewal.get().complete(null);
+  }
+
+  /**
+   * Takes all tokens left in the lease so that they can be returned to the bucket.
+   */
+  long drain() {
+    return tokens.getAndSet(0);
+  }
+
+  void renew(long tokens, long expiresAt) {
+    this.expiresAt = expiresAt;
+    this.tokens.set(tokens);
+  }
+
+}
@@ -0,0 +1,42 @@
+package dev.ercan.poc.redis.rate.limiting.web;
+
+import dev.ercan.poc.redis.rate.limiting.service.RateLimitDecision;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Rate limit headers of a decision, following the IETF {@code RateLimit} header fields draft:
+ * {@code RateLimit-Limit}, {@code RateLimit-Remaining} and {@code RateLimit-Reset}, the latter in
+ * seconds, plus {@code Retry-After} on rejection. Values the decision does not know are left out,
+ * and times are rounded up so a client waiting them out is not rejected again.
+ */
+public final class RateLimitHeaders {
+
+  public static final String LIMIT = "RateLimit-Limit";
+  public static final String REMAINING = "RateLimit-Remaining";
+  public static final String RESET = "RateLimit-Reset";
+
+  private RateLimitHeaders() {
+  }
+
+  public static HttpHeaders of(RateLimitDecision decision) {
+    HttpHeaders headers = new HttpHeaders();
+    if (decision.limit() != RateLimitDecision.UNKNOWN) {
+      headers.set(LIMIT, Long.toString(decision.limit()));
+    }
+    if (decision.remaining() != RateLimitDecision.UNKNOWN) {
+      headers.set(REMAINING, Long.toString(decision.remaining()));
+    }
+    if (decision.resetMillis() != RateLimitDecision.UNKNOWN) {
+      headers.set(RESET, Long.toString(seconds(decision.resetMillis())));
+    }
+    if (!decision.allowed() && decision.retryAfterMillis() > 0) {
+      headers.set(HttpHeaders.RETRY_AFTER, Long.toString(seconds(decision.retryAfterMillis())));
+    }
+    return headers;
+  }
+
+  private static long seconds(long millis) {
+    return Math.ceilDiv(millis, 1000);
+  }
+
+}
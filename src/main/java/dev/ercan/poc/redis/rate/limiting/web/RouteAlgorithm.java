@@ -0,0 +1,18 @@
+package dev.ercan.poc.redis.rate.limiting.web;
+
+/**
+ * Algorithm enforcing a route configured under {@code rate-limiter.routes}.
+ */
+public enum RouteAlgorithm {
+
+  FIXED_WINDOW,
+
+  TOKEN_BUCKET,
+
+  LEAKY_BUCKET,
+
+  SLIDING_WINDOW_COUNTER,
+
+  SLIDING_WINDOW_LOG
+
+}
@@ -0,0 +1,89 @@
+package dev.ercan.poc.redis.rate.limiting.web;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties.Route;
+import dev.ercan.poc.redis.rate.limiting.policy.LimitPolicy;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+/**
+ * A configured route with its patterns parsed and its settings checked once, at startup.
+ */
+record RouteLimit(List<PathPattern> patterns, Set<String> methods, String id, String keyHeader,
+                  RouteAlgorithm algorithm, long limit, Duration windowDuration,
+                  Duration subWindowDuration, long rate, Duration period) {
+
+  static RouteLimit of(Route route) {
+    if (route.getPatterns().isEmpty()) {
+      throw new IllegalArgumentException("Rate limited route without patterns");
+    }
+    String id = route.getId() != null ? route.getId() : route.getPatterns().getFirst();
+
+    switch (route.getAlgorithm()) {
+      case FIXED_WINDOW, SLIDING_WINDOW_LOG -> require(id, "window-duration", route.getWindowDuration());
+      case SLIDING_WINDOW_COUNTER -> {
+        require(id, "window-duration", route.getWindowDuration());
+        require(id, "sub-window-duration", route.getSubWindowDuration());
+      }
+      case TOKEN_BUCKET, LEAKY_BUCKET -> {
+        require(id, "period", route.getPeriod());
+        if (route.getRate() < 1) {
+          throw new IllegalArgumentException("Rate limited route " + id + " needs a rate");
+        }
+      }
+    }
+
+    return new RouteLimit(
+        route.getPatterns().stream().map(PathPatternParser.defaultInstance::parse).toList(),
+        route.getMethods().stream().map(method -> method.toUpperCase(Locale.ROOT))
+            .collect(Collectors.toUnmodifiableSet()),
+        id, route.getKeyHeader(), route.getAlgorithm(), route.getLimit(),
+        route.getWindowDuration(), route.getSubWindowDuration(), route.getRate(),
+        route.getPeriod());
+  }
+
+  boolean matches(PathContainer path) {
+    for (PathPattern pattern : patterns) {
+      if (pattern.matches(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean appliesTo(String method) {
+    return methods.isEmpty() || methods.contains(method);
+  }
+
+  /**
+   * This route as a limit of a composite call, with the current policy of its id applied.
+   */
+  CompositeLimit compositeLimit(String key, LimitPolicy policy) {
+    long currentLimit = policy.limit(limit);
+    return switch (algorithm) {
+      case FIXED_WINDOW -> new CompositeLimit.FixedWindow(id, key, currentLimit,
+          policy.windowDuration(windowDuration));
+      case TOKEN_BUCKET -> new CompositeLimit.TokenBucket(id, key, currentLimit, policy.rate(rate),
+          policy.period(period));
+      case LEAKY_BUCKET -> new CompositeLimit.LeakyBucket(id, key, currentLimit, policy.rate(rate),
+          policy.period(period));
+      case SLIDING_WINDOW_COUNTER -> new CompositeLimit.SlidingWindowCounter(id, key, currentLimit,
+          policy.windowDuration(windowDuration), policy.subWindowDuration(subWindowDuration));
+      case SLIDING_WINDOW_LOG -> new CompositeLimit.SlidingWindowLog(id, key, currentLimit,
+          policy.windowDuration(windowDuration));
+    };
+  }
+
+  private static void require(String id, String property, Duration value) {
+    if (value == null || value.isZero() || value.isNegative()) {
+      throw new IllegalArgumentException("Rate limited route " + id + " needs a " + property);
+    }
+  }
+
+}
@@ -0,0 +1,172 @@
+package dev.ercan.poc.redis.rate.limiting.web;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.policy.LimitPolicy;
+import dev.ercan.poc.redis.rate.limiting.policy.PolicyRegistry;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.RateLimitDecision;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Enforces the limits configured under {@code rate-limiter.routes} ahead of every other filter, so
+ * rejected requests never reach the dispatcher, argument resolution or the aspect. A rejection is
+ * answered with a 429 right away.
+ * <p>
+ * A request matching a single route is decided by that route's limiter and carries its headers.
+ * When several routes match the path and method, they are decided together by the
+ * {@link CompositeRateLimiter}, in one call and on the routes' own keys: a route rejecting the
+ * request keeps the others from taking a permit. Only a rejection is reported then, so admitted
+ * requests carry no headers.
+ * <p>
+ * Route patterns are parsed once at startup, and the routes matching a path are cached, so a path
+ * seen before is not matched again. The cache is bounded: once full, further paths are matched on
+ * every request.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RouteRateLimitFilter extends OncePerRequestFilter {
+
+  private static final int MAX_CACHED_PATHS = 10_000;
+  private static final String COMPOSITE_ID = "routes";
+
+  private final FixedWindowRateLimiter fixedWindowRateLimiter;
+  private final TokenBucketRateLimiter tokenBucketRateLimiter;
+  private final LeakyBucketRateLimiter leakyBucketRateLimiter;
+  private final SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
+  private final SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+  private final CompositeRateLimiter compositeRateLimiter;
+  private final PolicyRegistry policyRegistry;
+  private final List<RouteLimit> routes;
+  private final boolean headers;
+  private final Map<String, List<RouteLimit>> routesByPath = new ConcurrentHashMap<>();
+
+  public RouteRateLimitFilter(FixedWindowRateLimiter fixedWindowRateLimiter,
+      TokenBucketRateLimiter tokenBucketRateLimiter,
+      LeakyBucketRateLimiter leakyBucketRateLimiter,
+      SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter,
+      SlidingWindowLogRateLimiter slidingWindowLogRateLimiter,
+      CompositeRateLimiter compositeRateLimiter, PolicyRegistry policyRegistry,
+      RateLimiterProperties properties) {
+    this.fixedWindowRateLimiter = fixedWindowRateLimiter;
+    this.tokenBucketRateLimiter = tokenBucketRateLimiter;
+    this.leakyBucketRateLimiter = leakyBucketRateLimiter;
+    this.slidingWindowCounterRateLimiter = slidingWindowCounterRateLimiter;
+    this.slidingWindowLogRateLimiter = slidingWindowLogRateLimiter;
+    this.compositeRateLimiter = compositeRateLimiter;
+    this.policyRegistry = policyRegistry;
+    this.routes = properties.getRoutes().stream().map(RouteLimit::of).toList();
+    this.headers = properties.getHeaders().isEnabled();
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return routes.isEmpty();
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    List<RouteLimit> applicable = new ArrayList<>();
+    for (RouteLimit route : routesFor(request)) {
+      if (route.appliesTo(request.getMethod())) {
+        applicable.add(route);
+      }
+    }
+
+    if (!applicable.isEmpty()) {
+      RateLimitDecision decision = applicable.size() == 1
+          ? decide(applicable.get(0), key(applicable.get(0), request))
+          : decide(applicable, request);
+      writeHeaders(decision, response);
+      if (!decision.allowed()) {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        return;
+      }
+    }
+    filterChain.doFilter(request, response);
+  }
+
+  private List<RouteLimit> routesFor(HttpServletRequest request) {
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    List<RouteLimit> matching = routesByPath.get(path);
+    if (matching != null) {
+      return matching;
+    }
+
+    PathContainer pathContainer = PathContainer.parsePath(path);
+    matching = new ArrayList<>();
+    for (RouteLimit route : routes) {
+      if (route.matches(pathContainer)) {
+        matching.add(route);
+      }
+    }
+    matching = List.copyOf(matching);
+    if (routesByPath.size() < MAX_CACHED_PATHS) {
+      routesByPath.put(path, matching);
+    }
+    return matching;
+  }
+
+  private String key(RouteLimit route, HttpServletRequest request) {
+    if (route.keyHeader() != null) {
+      String key = request.getHeader(route.keyHeader());
+      if (key != null && !key.isEmpty()) {
+        return key;
+      }
+    }
+    return request.getRemoteAddr();
+  }
+
+  private RateLimitDecision decide(RouteLimit route, String key) {
+    LimitPolicy policy = policyRegistry.policy(route.id());
+    long limit = policy.limit(route.limit());
+    return switch (route.algorithm()) {
+      case FIXED_WINDOW -> fixedWindowRateLimiter.decide(route.id(), key, limit,
+          policy.windowDuration(route.windowDuration()), 1);
+      case TOKEN_BUCKET -> tokenBucketRateLimiter.decide(route.id(), key, limit,
+          policy.rate(route.rate()), policy.period(route.period()), 1);
+      case LEAKY_BUCKET -> leakyBucketRateLimiter.decide(route.id(), key, limit,
+          policy.rate(route.rate()), policy.period(route.period()), 1);
+      case SLIDING_WINDOW_COUNTER -> slidingWindowCounterRateLimiter.decide(route.id(), key, limit,
+          policy.windowDuration(route.windowDuration()),
+          policy.subWindowDuration(route.subWindowDuration()), 1);
+      case SLIDING_WINDOW_LOG -> slidingWindowLogRateLimiter.decide(route.id(), key, limit,
+          policy.windowDuration(route.windowDuration()), 1);
+    };
+  }
+
+  private RateLimitDecision decide(List<RouteLimit> routes, HttpServletRequest request) {
+    List<CompositeLimit> limits = new ArrayList<>(routes.size());
+    for (RouteLimit route : routes) {
+      limits.add(route.compositeLimit(key(route, request), policyRegistry.policy(route.id())));
+    }
+    return compositeRateLimiter.decide(COMPOSITE_ID, limits, 1);
+  }
+
+  private void writeHeaders(RateLimitDecision decision, HttpServletResponse response) {
+    if (headers) {
+      RateLimitHeaders.of(decision).forEach((name, values) -> response.setHeader(name, values.get(0)));
+    }
+  }
+
+}
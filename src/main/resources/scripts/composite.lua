@@ -0,0 +1,191 @@
+local nowMillis = tonumber(ARGV[1])
+if not nowMillis then
+  -- No time was sent, use the Redis clock; TIME needs effects replication before Redis 5
+  redis.replicate_commands()
+  local time = redis.call('TIME')
+  nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+local permits = tonumber(ARGV[2])
+
+-- Bucket state is packed as a version byte followed by two doubles, keys written before hold the
+-- two numbers as a 'first:second' string.
+local function readState(key)
+  local value = redis.call('GET', key)
+  if not value then
+    return nil
+  end
+  if string.byte(value, 1) == 1 then
+    local _, first, second = struct.unpack('>Bdd', value)
+    return first, second
+  end
+  local firstStr, secondStr = string.match(value, '([^:]+):([^:]+)')
+  return tonumber(firstStr), tonumber(secondStr)
+end
+
+local function writeState(key, first, second, expireInMillis)
+  redis.call('SET', key, struct.pack('>Bdd', 1, first, second), 'PX', expireInMillis)
+end
+
+-- Each limit is passed as its algorithm name followed by its arguments, its keys are taken from
+-- KEYS in the same order. A check returns true and a function recording the request's permits, or
+-- false and the time in millis after which the limit may admit again (0 when unknown or when the
+-- limit still has permits, just fewer than requested).
+local algorithms = {}
+
+algorithms.fixed_window = { keys = 1, args = 2, check = function(keys, args)
+  local windowDurationMillis = tonumber(args[1])
+  local limit = tonumber(args[2])
+
+  local count = tonumber(redis.call('GET', keys[1]) or '0')
+  if count + permits > limit then
+    if count < limit then
+      return false, 0
+    end
+    return false, math.max(0, redis.call('PTTL', keys[1]))
+  end
+
+  return true, function()
+    if redis.call('INCRBY', keys[1], permits) == permits then
+      redis.call('PEXPIRE', keys[1], windowDurationMillis)
+    end
+  end
+end }
+
+algorithms.token_bucket = { keys = 1, args = 4, check = function(keys, args)
+  local capacity = tonumber(args[1])
+  local refillRate = tonumber(args[2])
+  local refillPeriodMillis = tonumber(args[3])
+  local expireInMillis = tonumber(args[4])
+
+  local tokens, lastRefill = readState(keys[1])
+  tokens, lastRefill = tokens or capacity, lastRefill or nowMillis
+
+  local intervals = math.floor((nowMillis - lastRefill) / refillPeriodMillis)
+  if intervals > 0 then
+    tokens = math.min(capacity, tokens + (intervals * refillRate))
+    lastRefill = lastRefill + (intervals * refillPeriodMillis)
+  end
+
+  if tokens < permits then
+    if tokens > 0 then
+      return false, 0
+    end
+    return false, lastRefill + refillPeriodMillis - nowMillis
+  end
+
+  return true, function()
+    writeState(keys[1], tokens - permits, lastRefill, expireInMillis)
+  end
+end }
+
+algorithms.leaky_bucket = { keys = 1, args = 4, check = function(keys, args)
+  local capacity = tonumber(args[1])
+  local leakRate = tonumber(args[2])
+  local leakPeriodMillis = tonumber(args[3])
+  local expireInMillis = tonumber(args[4])
+
+  local water, lastLeak = readState(keys[1])
+  water, lastLeak = water or 0, lastLeak or nowMillis
+
+  local intervals = math.floor((nowMillis - lastLeak) / leakPeriodMillis)
+  if intervals > 0 then
+    water = math.max(0, water - (intervals * leakRate))
+    lastLeak = lastLeak + (intervals * leakPeriodMillis)
+  end
+
+  if water + permits > capacity then
+    return false, 0
+  end
+
+  return true, function()
+    writeState(keys[1], water + permits, lastLeak, expireInMillis)
+  end
+end }
+
+-- The limit's key is followed by the keys of consecutive sub-windows, as in sliding_window_counter.lua
+algorithms.sliding_window_counter = { keys = function(args)
+  return 1 + tonumber(args[5])
+end, args = 5, check = function(keys, args)
+  local windowDurationMillis = tonumber(args[1])
+  local subWindowDurationMillis = tonumber(args[2])
+  local limit = tonumber(args[3])
+  local firstSubWindowNumber = tonumber(args[4])
+
+  local currentSubWindowNumber = math.floor(nowMillis / subWindowDurationMillis)
+  local currentIndex = currentSubWindowNumber - firstSubWindowNumber + 2
+  if currentIndex < 3 or currentIndex > #keys then
+    error({ err = string.format('Sub-window %d of %s was not sent, the clocks are more than a sub-window apart',
+      currentSubWindowNumber, keys[1]) })
+  end
+  local currentWindowKey = keys[currentIndex]
+  local previousWindowKey = keys[currentIndex - 1]
+  local currentCount = tonumber(redis.call('GET', currentWindowKey) or '0')
+  local prevCount = tonumber(redis.call('GET', previousWindowKey) or '0')
+  local elapsedInCurrentWindow = nowMillis % subWindowDurationMillis
+  local weight = (subWindowDurationMillis - elapsedInCurrentWindow) / subWindowDurationMillis
+
+  if math.ceil(limit - currentCount - (prevCount * weight)) < permits then
+    return false, 0
+  end
+
+  return true, function()
+    if redis.call('INCRBY', currentWindowKey, permits) == permits then
+      redis.call('PEXPIRE', currentWindowKey, windowDurationMillis)
+    end
+  end
+end }
+
+algorithms.sliding_window_log = { keys = 1, args = 2, check = function(keys, args)
+  local windowDurationMillis = tonumber(args[1])
+  local limit = tonumber(args[2])
+
+  redis.call('ZREMRANGEBYSCORE', keys[1], 0, nowMillis - windowDurationMillis)
+  if redis.call('ZCARD', keys[1]) + permits > limit then
+    return false, 0
+  end
+
+  return true, function()
+    -- Members are named like in sliding_window_log.lua
+    local slot = string.format('%x:', nowMillis)
+    local logged = redis.call('ZCOUNT', keys[1], nowMillis, nowMillis)
+    local entries = {}
+    for i = 1, permits do
+      table.insert(entries, nowMillis)
+      table.insert(entries, slot .. string.format('%x', logged + i))
+      if #entries == 1000 or i == permits then
+        redis.call('ZADD', keys[1], unpack(entries))
+        entries = {}
+      end
+    end
+    redis.call('PEXPIRE', keys[1], windowDurationMillis)
+  end
+end }
+
+-- Check every limit first and record the request only if all of them admit it
+local records = {}
+local keyIndex, argIndex, position = 1, 3, 0
+while argIndex <= #ARGV do
+  position = position + 1
+  local algorithm = algorithms[ARGV[argIndex]]
+  local args = { unpack(ARGV, argIndex + 1, argIndex + algorithm.args) }
+  local keyCount = algorithm.keys
+  if type(keyCount) == 'function' then
+    keyCount = keyCount(args)
+  end
+  local keys = { unpack(KEYS, keyIndex, keyIndex + keyCount - 1) }
+  keyIndex = keyIndex + keyCount
+  argIndex = argIndex + 1 + algorithm.args
+
+  local allowed, result = algorithm.check(keys, args)
+  if not allowed then
+    -- Return the rejecting limit and its retry time so callers can cache the decision
+    return { 0, position, result }
+  end
+  records[position] = result
+end
+
+for _, record in ipairs(records) do
+  record()
+end
+
+return { 1, 0, 0 }
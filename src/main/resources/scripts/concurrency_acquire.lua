@@ -0,0 +1,29 @@
+local key = KEYS[1]
+local leaseDurationMillis = tonumber(ARGV[1])
+local limit = tonumber(ARGV[2])
+local leaseId = ARGV[3]
+
+-- Leases are always timed by the Redis clock: expiring them by a node's clock would let a node
+-- running ahead drop the live leases of all others. TIME needs effects replication before Redis 5
+redis.replicate_commands()
+local time = redis.call('TIME')
+local nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- Drop the leases of holders that never released them, for example because their node died
+redis.call('ZREMRANGEBYSCORE', key, 0, nowMillis)
+
+-- Count the requests in flight
+local count = redis.call('ZCARD', key)
+if count >= limit then
+    -- A permit frees up whenever a holder finishes, so when to retry is not known
+    return {0, 0, -1, 0}
+end
+
+-- Lease a permit, scored with its expiry; the key lives as long as its longest lease, so a
+-- shorter one never cuts the expiry of the others
+redis.call('ZADD', key, nowMillis + leaseDurationMillis, leaseId)
+if redis.call('PTTL', key) < leaseDurationMillis then
+    redis.call('PEXPIRE', key, leaseDurationMillis)
+end
+
+return {1, limit - count - 1, -1, 0}
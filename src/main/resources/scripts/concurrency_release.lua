@@ -0,0 +1,2 @@
+-- Return the permit of a lease; a lease that expired in the meantime is simply gone
+return redis.call('ZREM', KEYS[1], ARGV[1])
@@ -1,12 +1,33 @@
 local key = KEYS[1]
 local windowDurationMillis = tonumber(ARGV[1])
+local limit = tonumber(ARGV[2])
+local permits = tonumber(ARGV[3])
+local partial = ARGV[4] == '1'
 
--- Increase key value and get current
-local count = redis.call('INCR', key)
+-- Grant all requested permits, or when partial grants are allowed as many as the window still has
+local count = tonumber(redis.call('GET', key) or '0')
+local granted = math.max(0, math.min(permits, limit - count))
+if granted < permits and not partial then
+  granted = 0
+end
+
+if granted > 0 then
+  -- Set ttl value if first increment operation
+  if redis.call('INCRBY', key, granted) == granted then
+    redis.call('PEXPIRE', key, windowDurationMillis)
+  end
+end
 
--- Set ttl value if first increment operation
-if count == 1 then
-  redis.call('PEXPIRE', key, windowDurationMillis)
+-- Return the permits left, the time until the window resets and, on rejection, the time until the
+-- permits asked for are available, which is the reset as well; a window that has not started yet
+-- resets a full window after its first request
+local reset = redis.call('PTTL', key)
+if reset < 0 then
+  reset = windowDurationMillis
+end
+local retryAfter = 0
+if granted < permits then
+  retryAfter = reset
 end
 
-return count
\ No newline at end of file
+return {granted, math.max(0, limit - count - granted), reset, retryAfter}
@@ -1,37 +1,73 @@
 local key = KEYS[1]
 local nowMillis = tonumber(ARGV[1])
+if not nowMillis then
+  -- No time was sent, use the Redis clock; TIME needs effects replication before Redis 5
+  redis.replicate_commands()
+  local time = redis.call('TIME')
+  nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
 local capacity = tonumber(ARGV[2])
 local leakRate = tonumber(ARGV[3])
 local leakPeriodMillis = tonumber(ARGV[4])
 local expireInMillis = tonumber(ARGV[5])
+local permits = tonumber(ARGV[6])
+local partial = ARGV[7] == '1'
 
-local water, lastLeak
-
--- get current water level and last leak time
+-- state is packed as a version byte followed by two doubles, keys written before hold 'water:lastLeak'
 local value = redis.call('GET', key)
+local storedWater, storedLastLeak
+if value then
+  if string.byte(value, 1) == 1 then
+    local _
+    _, storedWater, storedLastLeak = struct.unpack('>Bdd', value)
+  else
+    local waterStr, lastLeakStr = string.match(value, '([^:]+):([^:]+)')
+    storedWater, storedLastLeak = tonumber(waterStr), tonumber(lastLeakStr)
+  end
+end
+
+-- if not exists start with an empty bucket
+local water, lastLeak = storedWater or 0, storedLastLeak or nowMillis
+
+-- calculate leak interval count
+local intervals = math.floor((nowMillis - lastLeak) / leakPeriodMillis)
+if intervals > 0 then
+  -- calculate new water level and last leak time
+  water = math.max(0, water - (intervals * leakRate))
+  lastLeak = lastLeak + (intervals * leakPeriodMillis)
+end
+
+-- pour in all requested permits, or when partial grants are allowed as many as the bucket can hold
+local granted = math.max(0, math.min(permits, capacity - water))
+if granted < permits and not partial then
+  granted = 0
+end
+water = water + granted
+
+-- only write when the state changed, a rejection leaves the key and its expiry untouched
+if water ~= (storedWater or 0) or lastLeak ~= (storedLastLeak or nowMillis) then
+  redis.call('SET', key, struct.pack('>Bdd', 1, water, lastLeak), 'PX', expireInMillis)
+end
+
+-- time until leaks have drained the excess water
+local function leakTime(excess)
+  if excess <= 0 then
+    return 0
+  end
+  return math.ceil(excess / leakRate) * leakPeriodMillis - (nowMillis - lastLeak)
+end
 
--- if not exists set initial water level and last leak time
-if not value then
-  water = 0; lastLeak = nowMillis
-else
-  local parts = {} for part in string.gmatch(value, '[^:]+') do table.insert(parts, part) end
-  water = tonumber(parts[1])
-  lastLeak = tonumber(parts[2])
-
-  -- calculate leak interval count
-  local intervals = math.floor((nowMillis - lastLeak) / leakPeriodMillis)
-  if intervals > 0 then
-    -- calculate new water level and last leak time
-    water = math.max(0, water - (intervals * leakRate))
-    lastLeak = lastLeak + (intervals * leakPeriodMillis)
+-- Return the room left, the time until the bucket is empty and, on rejection, the time until there
+-- is room for the permits asked for, one per request when partial grants are allowed
+local reset = leakTime(water)
+local retryAfter = 0
+if granted < permits then
+  local needed = partial and 1 or permits
+  if needed > capacity then
+    retryAfter = reset
+  else
+    retryAfter = leakTime(water + needed - capacity)
   end
 end
 
-if water < capacity then
-  water = water + 1
-  redis.call('SET', key, water .. ':' .. lastLeak, 'PX', expireInMillis)
-  return 1
-else
-  redis.call('SET', key, water .. ':' .. lastLeak, 'PX', expireInMillis)
-  return 0
-end
\ No newline at end of file
+return {granted, math.floor(capacity - water), reset, retryAfter}
@@ -1,9 +1,28 @@
-local currentWindowKey = KEYS[1]
-local previousWindowKey = KEYS[2]
+local key = KEYS[1]
 local nowMillis = tonumber(ARGV[1])
+if not nowMillis then
+    -- No time was sent, use the Redis clock; TIME needs effects replication before Redis 5
+    redis.replicate_commands()
+    local time = redis.call('TIME')
+    nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
 local windowDurationMillis = tonumber(ARGV[2])
 local subWindowDurationMillis = tonumber(ARGV[3])
 local limit = tonumber(ARGV[4])
+local permits = tonumber(ARGV[5])
+local partial = ARGV[6] == '1'
+local firstSubWindowNumber = tonumber(ARGV[7])
+
+-- KEYS[1] names the limit, the keys of consecutive sub-windows from firstSubWindowNumber on follow
+-- it. The current and previous ones are picked by the clock used for the weight.
+local currentSubWindowNumber = math.floor(nowMillis / subWindowDurationMillis)
+local currentIndex = currentSubWindowNumber - firstSubWindowNumber + 2
+if currentIndex < 3 or currentIndex > #KEYS then
+    return redis.error_reply(string.format('Sub-window %d of %s was not sent, the clocks are more than a sub-window apart',
+        currentSubWindowNumber, key))
+end
+local currentWindowKey = KEYS[currentIndex]
+local previousWindowKey = KEYS[currentIndex - 1]
 
 -- get current window count
 local currentCountStr = redis.call('GET', currentWindowKey)
@@ -26,15 +45,53 @@ local weight = (subWindowDurationMillis - elapsedInCurrentWindow) / subWindowDur
 -- calculate total count by using weight
 local total = currentCount + (prevCount * weight)
 
-if total < limit then
+-- a permit is granted while the weighted total is below the limit; grant all requested permits,
+-- or when partial grants are allowed as many as fit
+local granted = math.max(0, math.min(permits, math.ceil(limit - total)))
+if granted < permits and not partial then
+    granted = 0
+end
+
+if granted > 0 then
     -- Increase current window value and get current
-    local count = redis.call('INCR', currentWindowKey)
+    local count = redis.call('INCRBY', currentWindowKey, granted)
 
     -- Set ttl value if first increment operation for current window
-    if count == 1 then
+    if count == granted then
         redis.call('PEXPIRE', currentWindowKey, windowDurationMillis)
     end
-    return 1
 end
 
-return 0
\ No newline at end of file
+-- time into a sub-window after which a count of the previous sub-window weighs at most budget
+local function decayedAt(count, budget)
+    if count <= budget then
+        return 0
+    end
+    return math.ceil(subWindowDurationMillis - budget * subWindowDurationMillis / count)
+end
+
+-- Return the permits left, the time until both counted sub-windows have passed and, on rejection,
+-- the time until the weighted total leaves room for the permits asked for, one per request when
+-- partial grants are allowed
+local current = currentCount + granted
+local untilNext = subWindowDurationMillis - elapsedInCurrentWindow
+local reset = 0
+if current > 0 then
+    reset = untilNext + subWindowDurationMillis
+elseif prevCount > 0 then
+    reset = untilNext
+end
+
+local retryAfter = 0
+if granted < permits then
+    local needed = partial and 1 or permits
+    if needed > limit then
+        retryAfter = reset
+    elseif current + needed <= limit then
+        retryAfter = math.max(0, decayedAt(prevCount, limit - needed - current) - elapsedInCurrentWindow)
+    else
+        retryAfter = untilNext + decayedAt(current, limit - needed)
+    end
+end
+
+return {granted, math.max(0, math.ceil(limit - current - prevCount * weight)), reset, retryAfter}
@@ -1,19 +1,70 @@
 local key = KEYS[1]
 local nowMillis = tonumber(ARGV[1])
+if not nowMillis then
+    -- No time was sent, use the Redis clock; TIME needs effects replication before Redis 5
+    redis.replicate_commands()
+    local time = redis.call('TIME')
+    nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
 local windowDurationMillis = tonumber(ARGV[2])
 local limit = tonumber(ARGV[3])
-local requestId = ARGV[4]
+local permits = tonumber(ARGV[4])
+local partial = ARGV[5] == '1'
 
 -- Remove expired entries
 redis.call('ZREMRANGEBYSCORE', key, 0, nowMillis - windowDurationMillis)
 
--- Count current requests
-local count = redis.call('ZCOUNT', key, nowMillis - windowDurationMillis + 1, nowMillis)
+-- Count current requests, entries logged with a later timestamp by other callers count as well
+local count = redis.call('ZCARD', key)
+
+-- Log one entry per granted permit; all requested permits unless partial grants are allowed
+local granted = math.max(0, math.min(permits, limit - count))
+if granted < permits and not partial then
+    granted = 0
+end
 
-if count < limit then
-    redis.call('ZADD', key, nowMillis, requestId)
+if granted > 0 then
+    -- Entries logged at the same millisecond are numbered. The full millisecond is part of the
+    -- member: callers with skewed clocks may log times that are equal modulo the window, and
+    -- must not overwrite each other's entries
+    local slot = string.format('%x:', nowMillis)
+    local logged = redis.call('ZCOUNT', key, nowMillis, nowMillis)
+    local entries = {}
+    for i = 1, granted do
+        table.insert(entries, nowMillis)
+        table.insert(entries, slot .. string.format('%x', logged + i))
+        -- ZADD in chunks to stay below Lua's unpack limit
+        if #entries == 1000 or i == granted then
+            redis.call('ZADD', key, unpack(entries))
+            entries = {}
+        end
+    end
     redis.call('PEXPIRE', key, windowDurationMillis)
-    return 1
 end
 
-return 0
\ No newline at end of file
+-- time until the entry at the given rank leaves the window
+local function expiresIn(rank)
+    local entry = redis.call('ZRANGE', key, rank, rank, 'WITHSCORES')
+    return math.max(0, tonumber(entry[2]) + windowDurationMillis - nowMillis)
+end
+
+-- Return the permits left, the time until the log is empty and, on rejection, the time until
+-- enough entries have left the window for the permits asked for, one per request when partial
+-- grants are allowed
+local size = count + granted
+local reset = 0
+if size > 0 then
+    reset = expiresIn(-1)
+end
+
+local retryAfter = 0
+if granted < permits then
+    local needed = partial and 1 or permits
+    if needed > limit then
+        retryAfter = reset
+    else
+        retryAfter = expiresIn(size + needed - limit - 1)
+    end
+end
+
+return {granted, math.max(0, limit - size), reset, retryAfter}
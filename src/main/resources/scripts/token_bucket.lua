@@ -1,37 +1,73 @@
 local key = KEYS[1]
 local nowMillis = tonumber(ARGV[1])
+if not nowMillis then
+  -- No time was sent, use the Redis clock; TIME needs effects replication before Redis 5
+  redis.replicate_commands()
+  local time = redis.call('TIME')
+  nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
 local capacity = tonumber(ARGV[2])
 local refillRate = tonumber(ARGV[3])
 local refillPeriodMillis = tonumber(ARGV[4])
 local expireInMillis = tonumber(ARGV[5])
+local permits = tonumber(ARGV[6])
+local partial = ARGV[7] == '1'
+
+-- state is packed as a version byte followed by two doubles, keys written before hold 'tokens:lastRefill'
+local value = redis.call('GET', key)
+local storedTokens, storedLastRefill
+if value then
+  if string.byte(value, 1) == 1 then
+    local _
+    _, storedTokens, storedLastRefill = struct.unpack('>Bdd', value)
+  else
+    local tokensStr, lastRefillStr = string.match(value, '([^:]+):([^:]+)')
+    storedTokens, storedLastRefill = tonumber(tokensStr), tonumber(lastRefillStr)
+  end
+end
+
+-- if not exists start with a full bucket
+local tokens, lastRefill = storedTokens or capacity, storedLastRefill or nowMillis
+
+-- calculate refill interval count
+local intervals = math.floor((nowMillis - lastRefill) / refillPeriodMillis)
+if intervals > 0 then
+  -- calculate token count and last refill time
+  tokens = math.min(capacity, tokens + (intervals * refillRate))
+  lastRefill = lastRefill + (intervals * refillPeriodMillis)
+end
+
+-- take all requested permits, or when partial grants are allowed as many as there are tokens
+local granted = math.max(0, math.min(tokens, permits))
+if granted < permits and not partial then
+  granted = 0
+end
+tokens = tokens - granted
+
+-- only write when the state changed, a rejection leaves the key and its expiry untouched
+if tokens ~= (storedTokens or capacity) or lastRefill ~= (storedLastRefill or nowMillis) then
+  redis.call('SET', key, struct.pack('>Bdd', 1, tokens, lastRefill), 'PX', expireInMillis)
+end
+
+-- time until refills have added the missing tokens
+local function refillTime(missing)
+  if missing <= 0 then
+    return 0
+  end
+  return math.ceil(missing / refillRate) * refillPeriodMillis - (nowMillis - lastRefill)
+end
 
-local tokens, lastRefill
-
--- get current token count and last refill time
-local value = redis.call('GET', KEYS[1])
-
--- if not exists set initial token count and last refill time
-if not value then
-  tokens = capacity; lastRefill = nowMillis
-else
-  local parts = {} for part in string.gmatch(value, '[^:]+') do table.insert(parts, part) end
-  tokens = tonumber(parts[1])
-  lastRefill = tonumber(parts[2])
-
-  -- calculate refill interval count
-  local intervals = math.floor((nowMillis - lastRefill) / refillPeriodMillis)
-  if intervals > 0 then
-    -- calculate token count and last refill time
-    tokens = math.min(capacity, tokens + (intervals * refillRate))
-    lastRefill = lastRefill + (intervals * refillPeriodMillis)
+-- Return the tokens left, the time until the bucket is full and, on rejection, the time until the
+-- tokens asked for are available, one per request when partial grants are allowed
+local reset = refillTime(capacity - tokens)
+local retryAfter = 0
+if granted < permits then
+  local needed = partial and 1 or permits
+  if needed > capacity then
+    retryAfter = reset
+  else
+    retryAfter = refillTime(needed - tokens)
   end
 end
 
-if tokens > 0 then
-  tokens = tokens - 1
-  redis.call('SET', KEYS[1], tokens .. ':' .. lastRefill, 'PX', expireInMillis)
-  return 1
-else
-  redis.call('SET', KEYS[1], tokens .. ':' .. lastRefill, 'PX', expireInMillis)
-  return 0
-end
\ No newline at end of file
+return {granted, math.floor(tokens), reset, retryAfter}
@@ -0,0 +1,55 @@
+local key = KEYS[1]
+local nowMillis = tonumber(ARGV[1])
+if not nowMillis then
+  -- No time was sent, use the Redis clock; TIME needs effects replication before Redis 5
+  redis.replicate_commands()
+  local time = redis.call('TIME')
+  nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+local capacity = tonumber(ARGV[2])
+local refillRate = tonumber(ARGV[3])
+local refillPeriodMillis = tonumber(ARGV[4])
+local expireInMillis = tonumber(ARGV[5])
+local returnedTokens = tonumber(ARGV[6])
+local requestedTokens = tonumber(ARGV[7])
+
+-- state is packed as a version byte followed by two doubles, keys written before hold 'tokens:lastRefill'
+local value = redis.call('GET', key)
+local storedTokens, storedLastRefill
+if value then
+  if string.byte(value, 1) == 1 then
+    local _
+    _, storedTokens, storedLastRefill = struct.unpack('>Bdd', value)
+  else
+    local tokensStr, lastRefillStr = string.match(value, '([^:]+):([^:]+)')
+    storedTokens, storedLastRefill = tonumber(tokensStr), tonumber(lastRefillStr)
+  end
+end
+
+-- if not exists start with a full bucket
+local tokens, lastRefill = storedTokens or capacity, storedLastRefill or nowMillis
+
+-- calculate refill interval count
+local intervals = math.floor((nowMillis - lastRefill) / refillPeriodMillis)
+if intervals > 0 then
+  -- calculate token count and last refill time
+  tokens = math.min(capacity, tokens + (intervals * refillRate))
+  lastRefill = lastRefill + (intervals * refillPeriodMillis)
+end
+
+-- give back tokens of an expired lease, then lease as many of the requested tokens as available
+tokens = math.min(capacity, tokens + returnedTokens)
+local granted = math.min(tokens, requestedTokens)
+tokens = tokens - granted
+
+-- only write when the state changed, a rejection leaves the key and its expiry untouched
+if tokens ~= (storedTokens or capacity) or lastRefill ~= (storedLastRefill or nowMillis) then
+  redis.call('SET', key, struct.pack('>Bdd', 1, tokens, lastRefill), 'PX', expireInMillis)
+end
+
+if granted > 0 or requestedTokens == 0 then
+  return {granted, 0}
+end
+
+-- Return time until next refill so callers can cache the decision
+return {0, lastRefill + refillPeriodMillis - nowMillis}
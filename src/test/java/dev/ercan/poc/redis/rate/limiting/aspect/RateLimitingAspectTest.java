@@ -0,0 +1,116 @@
+package dev.ercan.poc.redis.rate.limiting.aspect;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import dev.ercan.poc.redis.rate.limiting.annotation.FixedWindowRateLimit;
+import dev.ercan.poc.redis.rate.limiting.annotation.TokenBucketRateLimit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class RateLimitingAspectTest {
+
+  private static final String ID = "RateLimitingAspectTest";
+
+  @Autowired
+  private Target target;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    redisCommands.del(("fixed_window:{" + ID + ":key}").getBytes(),
+        ("token_bucket:{" + ID + ":key}").getBytes());
+  }
+
+  @Test
+  void shouldNotProceedOnRedisIoThreadForCompletionStages() {
+    for (int i = 0; i < 5; i++) {
+      assertNotOnRedisIoThread(target.async().toCompletableFuture().join());
+      assertNotOnRedisIoThread(target.tokenBucketAsync().toCompletableFuture().join());
+    }
+  }
+
+  @Test
+  void shouldNotProceedOnRedisIoThreadForPublishers() {
+    for (int i = 0; i < 5; i++) {
+      assertNotOnRedisIoThread(target.reactive().block());
+      assertNotOnRedisIoThread(target.flux().blockFirst());
+    }
+  }
+
+  @Test
+  void shouldRejectCostsBelowOnePermit() {
+    assertThrows(IllegalArgumentException.class, () -> target.weighted(0));
+    assertThrows(IllegalArgumentException.class, () -> target.weighted(-3));
+    assertNull(redisCommands.get(("fixed_window:{" + ID + ":key}").getBytes()),
+        "Calls with an invalid cost should not reach the limiter.");
+    assertEquals("2", target.weighted(2));
+  }
+
+  private static void assertNotOnRedisIoThread(String thread) {
+    assertFalse(thread.startsWith("lettuce-"),
+        "The advised method must not run on a Redis I/O thread, it ran on " + thread);
+  }
+
+  /**
+   * Returns the name of the thread each method body runs on.
+   */
+  static class Target {
+
+    @FixedWindowRateLimit(id = ID, key = "'key'", limit = 1000, windowDuration = "1m")
+    public CompletionStage<String> async() {
+      return CompletableFuture.completedFuture(Thread.currentThread().getName());
+    }
+
+    @TokenBucketRateLimit(id = ID, key = "'key'", capacity = 1000, refillRate = 1, refillPeriod = "1m")
+    public CompletionStage<String> tokenBucketAsync() {
+      return CompletableFuture.completedFuture(Thread.currentThread().getName());
+    }
+
+    @FixedWindowRateLimit(id = ID, key = "'key'", limit = 1000, windowDuration = "1m")
+    public Mono<String> reactive() {
+      return Mono.just(Thread.currentThread().getName());
+    }
+
+    @FixedWindowRateLimit(id = ID, key = "'key'", limit = 1000, windowDuration = "1m",
+        cost = "#permits")
+    public String weighted(long permits) {
+      return Long.toString(permits);
+    }
+
+    @FixedWindowRateLimit(id = ID, key = "'key'", limit = 1000, windowDuration = "1m")
+    public Flux<String> flux() {
+      return Flux.just(Thread.currentThread().getName());
+    }
+
+  }
+
+  @TestConfiguration
+  static class TargetConfig {
+
+    @Bean
+    Target rateLimitingAspectTestTarget() {
+      return new Target();
+    }
+
+  }
+
+}
@@ -0,0 +1,65 @@
+package dev.ercan.poc.redis.rate.limiting.cache;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import dev.ercan.poc.redis.rate.limiting.script.RedisKey;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import org.junit.jupiter.api.Test;
+
+class DenyCacheTest {
+
+  @Test
+  void shouldDenyKeyUntilExpiry() throws InterruptedException {
+    DenyCache denyCache = create(true, 10);
+    denyCache.deny(key("key"), 200);
+    assertTrue(denyCache.isDenied(key("key")), "Key should be denied while the entry is live.");
+    assertFalse(denyCache.isDenied(key("anotherKey")), "Other keys should not be affected.");
+
+    Thread.sleep(300);
+    assertFalse(denyCache.isDenied(key("key")), "Key should be released once the entry expires.");
+  }
+
+  @Test
+  void shouldIgnoreNonPositiveDurations() {
+    DenyCache denyCache = create(true, 10);
+    denyCache.deny(key("key"), 0);
+    denyCache.deny(key("anotherKey"), -1);
+    assertFalse(denyCache.isDenied(key("key")));
+    assertFalse(denyCache.isDenied(key("anotherKey")));
+  }
+
+  @Test
+  void shouldNotGrowBeyondMaxSize() {
+    DenyCache denyCache = create(true, 2);
+    denyCache.deny(key("key1"), 10_000);
+    denyCache.deny(key("key2"), 10_000);
+    denyCache.deny(key("key3"), 10_000);
+    assertTrue(denyCache.isDenied(key("key1")));
+    assertTrue(denyCache.isDenied(key("key2")));
+    assertFalse(denyCache.isDenied(key("key3")), "Rejections should not be cached when the cache is full.");
+  }
+
+  @Test
+  void shouldNotDenyWhenDisabled() {
+    DenyCache denyCache = create(false, 10);
+    denyCache.deny(key("key"), 10_000);
+    assertFalse(denyCache.isDenied(key("key")));
+  }
+
+  private DenyCache create(boolean enabled, int maxSize) {
+    RateLimiterProperties properties = new RateLimiterProperties();
+    properties.getDenyCache().setEnabled(enabled);
+    properties.getDenyCache().setMaxSize(maxSize);
+    return new DenyCache(properties);
+  }
+
+  /**
+   * A fresh instance each time, so keys are matched by their bytes.
+   */
+  private static RedisKey key(String key) {
+    return new RedisKey(ScriptArgs.encode(key));
+  }
+
+}
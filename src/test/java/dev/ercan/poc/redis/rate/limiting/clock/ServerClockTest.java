@@ -0,0 +1,128 @@
+package dev.ercan.poc.redis.rate.limiting.clock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(properties = "rate-limiter.clock=server")
+@ActiveProfiles("test")
+class ServerClockTest {
+
+  @Autowired
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+
+  @Autowired
+  private LeakyBucketRateLimiter leakyBucketRateLimiter;
+
+  @Autowired
+  private SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+
+  @Autowired
+  private SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
+
+  @Autowired
+  private CompositeRateLimiter compositeRateLimiter;
+
+  @Autowired
+  private LimiterClock limiterClock;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  private final String id = "ServerClockTest";
+  private final String key = "127.0.0.1";
+  private final long limit = 3;
+  private final Duration period = Duration.ofSeconds(10);
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    denyCache.clear();
+    Set<byte[]> keys = redisCommands.keys(("*{" + id + ":*").getBytes());
+    if (keys != null && !keys.isEmpty()) {
+      redisCommands.del(keys.toArray(byte[][]::new));
+    }
+  }
+
+  @Test
+  void shouldNotSendATimestamp() {
+    assertEquals(0, limiterClock.now().length);
+  }
+
+  @Test
+  void tokenBucketShouldUseTheRedisClock() {
+    for (int i = 0; i < limit; i++) {
+      assertTrue(tokenBucketRateLimiter.tryConsume(id, key, limit, 1, period));
+    }
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, limit, 1, period));
+  }
+
+  @Test
+  void leakyBucketShouldUseTheRedisClock() {
+    for (int i = 0; i < limit; i++) {
+      assertTrue(leakyBucketRateLimiter.tryConsume(id, key, limit, 1, period));
+    }
+    assertFalse(leakyBucketRateLimiter.tryConsume(id, key, limit, 1, period));
+  }
+
+  @Test
+  void slidingWindowLogShouldUseTheRedisClock() {
+    for (int i = 0; i < limit; i++) {
+      assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, limit, period));
+    }
+    assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, limit, period));
+
+    double score = redisCommands.zRangeWithScores(("sliding_window_log:{" + id + ":" + key + "}").getBytes(), 0, 0)
+        .iterator().next().getScore();
+    assertEquals(redisCommands.time(), score, 1000, "Entries should be logged at the Redis time.");
+  }
+
+  @Test
+  void slidingWindowCounterShouldUseTheRedisClock() {
+    Duration subWindow = Duration.ofDays(1);
+    for (int i = 0; i < limit; i++) {
+      assertTrue(slidingWindowCounterRateLimiter.tryConsume(id, key, limit, subWindow, subWindow));
+    }
+    assertFalse(slidingWindowCounterRateLimiter.tryConsume(id, key, limit, subWindow, subWindow));
+
+    long subWindowNumber = redisCommands.time() / subWindow.toMillis();
+    assertTrue(redisCommands.exists(
+            ("sliding_window_counter:{" + id + ":" + key + "}:" + subWindowNumber).getBytes()),
+        "The sub-window should be chosen by the Redis time.");
+  }
+
+  @Test
+  void compositeShouldUseTheRedisClock() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.TokenBucket(id, key, limit, 1, period),
+        new CompositeLimit.SlidingWindowCounter(id, key, 10, period, Duration.ofSeconds(1)),
+        new CompositeLimit.SlidingWindowLog(id, key, 10, period));
+
+    for (int i = 0; i < limit; i++) {
+      assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    }
+    assertFalse(compositeRateLimiter.tryConsume(id, limits));
+  }
+
+}
@@ -0,0 +1,100 @@
+package dev.ercan.poc.redis.rate.limiting.config;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import redis.embedded.RedisShardedCluster;
+
+/**
+ * Starts a local Redis Cluster of three primaries for the {@code cluster-test} profile.
+ */
+@Configuration
+@Profile("cluster-test")
+public class RedisClusterTestConfig {
+
+  private static final int SHARDS = 3;
+
+  private RedisShardedCluster redisCluster;
+
+  @PostConstruct
+  public void startRedisCluster() throws IOException {
+    List<Integer> ports = findAvailablePorts();
+    var builder = RedisShardedCluster.newRedisCluster().serverPorts(ports);
+    for (int i = 0; i < SHARDS; i++) {
+      builder.shard("shard" + i, 0);
+    }
+    redisCluster = builder.build();
+    redisCluster.start();
+    awaitClusterState(ports);
+    System.setProperty("spring.redis.cluster.nodes", ports.stream()
+        .map(port -> "localhost:" + port)
+        .collect(Collectors.joining(",")));
+  }
+
+  @PreDestroy
+  public void stopRedisCluster() throws IOException {
+    if (redisCluster != null) {
+      redisCluster.stop();
+    }
+  }
+
+  /**
+   * The nodes report the cluster as down until they have agreed on the slot assignment.
+   */
+  private void awaitClusterState(List<Integer> ports) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    for (int port : ports) {
+      RedisClient client = RedisClient.create(RedisURI.create("localhost", port));
+      try (StatefulRedisConnection<String, String> connection = client.connect()) {
+        while (!connection.sync().clusterInfo().contains("cluster_state:ok")) {
+          if (System.nanoTime() - deadline > 0) {
+            throw new IllegalStateException("Redis Cluster node " + port + " did not become ready");
+          }
+          Thread.sleep(50);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(ex);
+      } finally {
+        client.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Cluster nodes also listen on their port plus 10000 for the cluster bus, so that one must be
+   * free as well.
+   */
+  private List<Integer> findAvailablePorts() throws IOException {
+    List<Integer> ports = new ArrayList<>();
+    while (ports.size() < SHARDS) {
+      int port;
+      try (ServerSocket socket = new ServerSocket(0)) {
+        port = socket.getLocalPort();
+      }
+      if (port < 55535 && isAvailable(port + 10000) && !ports.contains(port)) {
+        ports.add(port);
+      }
+    }
+    return ports;
+  }
+
+  private boolean isAvailable(int port) {
+    try (ServerSocket socket = new ServerSocket(port)) {
+      return true;
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+}
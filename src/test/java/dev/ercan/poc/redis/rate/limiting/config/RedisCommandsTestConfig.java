@@ -0,0 +1,23 @@
+package dev.ercan.poc.redis.rate.limiting.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+/**
+ * Plain Redis commands for tests to set up and inspect limiter keys, on a connection of its own
+ * that is closed with the context.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis",
+    matchIfMissing = true)
+public class RedisCommandsTestConfig {
+
+  @Bean(destroyMethod = "close")
+  public RedisCommands redisCommands(RedisConnectionFactory connectionFactory) {
+    return connectionFactory.getConnection().commands();
+  }
+
+}
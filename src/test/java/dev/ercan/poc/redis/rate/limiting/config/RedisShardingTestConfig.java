@@ -0,0 +1,59 @@
+package dev.ercan.poc.redis.rate.limiting.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import redis.embedded.RedisServer;
+
+/**
+ * Starts three independent Redis nodes for the {@code sharding-test} profile.
+ */
+@Configuration
+@Profile("sharding-test")
+public class RedisShardingTestConfig {
+
+  private static final int NODES = 3;
+
+  @Getter
+  private final List<RedisServer> redisServers = new ArrayList<>();
+
+  @Getter
+  private final List<Integer> ports = new ArrayList<>();
+
+  @PostConstruct
+  public void startRedisNodes() throws IOException {
+    for (int i = 0; i < NODES; i++) {
+      int port = findAvailablePort();
+      RedisServer redisServer = new RedisServer(port);
+      redisServer.start();
+      redisServers.add(redisServer);
+      ports.add(port);
+    }
+    System.setProperty("spring.redis.sharding.nodes", ports.stream()
+        .map(port -> "redis://localhost:" + port)
+        .collect(Collectors.joining(",")));
+  }
+
+  @PreDestroy
+  public void stopRedisNodes() throws IOException {
+    for (RedisServer redisServer : redisServers) {
+      if (redisServer.isActive()) {
+        redisServer.stop();
+      }
+    }
+  }
+
+  private int findAvailablePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+}
@@ -0,0 +1,74 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+
+  private static final int KEYS = 100_000;
+
+  @Test
+  void shouldSpreadKeysEvenlyOverNodes() {
+    ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes("a", "b", "c", "d"), 160);
+
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < KEYS; i++) {
+      counts.merge(ring.nodeFor(key(i)), 1, Integer::sum);
+    }
+
+    assertEquals(4, counts.size());
+    counts.values().forEach(count -> assertTrue(Math.abs(count - KEYS / 4) < KEYS / 4 * 0.15,
+        "Every node should own about a quarter of the keys, got " + counts));
+  }
+
+  @Test
+  void shouldOnlyMoveKeysOfRemovedNode() {
+    ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes("a", "b", "c", "d"), 160);
+    ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes("a", "b", "d"), 160);
+
+    Map<String, Integer> movedTo = new HashMap<>();
+    for (int i = 0; i < KEYS; i++) {
+      String owner = before.nodeFor(key(i));
+      if (!owner.equals("c")) {
+        assertEquals(owner, after.nodeFor(key(i)), "Keys of the remaining nodes must not move.");
+      } else {
+        movedTo.merge(after.nodeFor(key(i)), 1, Integer::sum);
+      }
+    }
+
+    assertEquals(3, movedTo.size(), "Keys of a removed node should spread over all other nodes.");
+  }
+
+  @Test
+  void shouldRouteKeysByHashTag() {
+    ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes("a", "b", "c", "d"), 160);
+
+    for (int i = 0; i < 100; i++) {
+      String tag = "{api:10.0.0." + i + "}";
+      String node = ring.nodeFor(("fixed_window:" + tag).getBytes(StandardCharsets.UTF_8));
+      assertSame(node, ring.nodeFor(("token_bucket:" + tag).getBytes(StandardCharsets.UTF_8)));
+      assertSame(node, ring.nodeFor(("sliding_window_counter:" + tag + ":42")
+          .getBytes(StandardCharsets.UTF_8)));
+    }
+  }
+
+  private static byte[] key(int i) {
+    return ("token_bucket:{api:user-" + i + "}").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, String> nodes(String... names) {
+    Map<String, String> nodes = new LinkedHashMap<>();
+    for (String name : names) {
+      nodes.put("redis-" + name + ":6379", name);
+    }
+    return nodes;
+  }
+
+}
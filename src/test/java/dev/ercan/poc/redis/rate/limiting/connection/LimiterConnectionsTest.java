@@ -0,0 +1,142 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.test.context.ActiveProfiles;
+import redis.embedded.RedisServer;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class LimiterConnectionsTest {
+
+  @Autowired
+  private LettuceConnectionFactory connectionFactory;
+
+  @Test
+  void sharedStrategyShouldUseOneProviderForAllLimiters() {
+    try (LimiterConnections connections = create(ConnectionStrategy.SHARED)) {
+      assertSame(connections.forLimiter("token_bucket"), connections.forLimiter("fixed_window"));
+      assertEquals("PONG", connections.forLimiter("token_bucket").execute(RedisClusterCommands::ping));
+    }
+  }
+
+  @Test
+  void dedicatedStrategyShouldUseOneProviderPerLimiter() {
+    try (LimiterConnections connections = create(ConnectionStrategy.DEDICATED)) {
+      assertSame(connections.forLimiter("token_bucket"), connections.forLimiter("token_bucket"));
+      assertNotSame(connections.forLimiter("token_bucket"), connections.forLimiter("fixed_window"));
+      assertEquals("PONG", connections.forLimiter("fixed_window").execute(RedisClusterCommands::ping));
+    }
+  }
+
+  @Test
+  void pooledStrategyShouldServeConcurrentCallers() throws InterruptedException {
+    try (LimiterConnections connections = create(ConnectionStrategy.POOLED)) {
+      int threads = 20;
+      ExecutorService service = Executors.newFixedThreadPool(threads);
+      CountDownLatch latch = new CountDownLatch(threads);
+      AtomicInteger pongCount = new AtomicInteger(0);
+
+      for (int i = 0; i < threads; i++) {
+        service.submit(() -> {
+          if ("PONG".equals(connections.forLimiter("token_bucket").execute(RedisClusterCommands::ping))) {
+            pongCount.incrementAndGet();
+          }
+          latch.countDown();
+        });
+      }
+      latch.await();
+      service.shutdown();
+
+      assertEquals(threads, pongCount.get(), "Every caller should get a pooled connection.");
+    }
+  }
+
+  @Test
+  void sharedProviderShouldReconnectAfterConnectionIsClosed() {
+    try (LimiterConnections connections = create(ConnectionStrategy.SHARED)) {
+      LimiterConnectionProvider provider = connections.forLimiter("token_bucket");
+      assertEquals("PONG", provider.execute(RedisClusterCommands::ping));
+      provider.close();
+      assertEquals("PONG", provider.execute(RedisClusterCommands::ping),
+          "A closed connection should be re-established on the next call.");
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(ConnectionStrategy.class)
+  void shouldStartWhileRedisIsUnreachableAndConnectOnceItIsUp(ConnectionStrategy strategy)
+      throws IOException, InterruptedException {
+    int port = findAvailablePort();
+    RedisClient redisClient = RedisClient.create(RedisURI.create("localhost", port));
+    RedisServer redisServer = new RedisServer(port);
+    try (LimiterConnections connections = LimiterConnections.sharded(Map.of("down", redisClient),
+        properties(strategy), 1, null)) {
+      LimiterConnectionProvider provider = connections.forLimiter("token_bucket");
+      assertThrows(RedisException.class, () -> provider.execute(RedisClusterCommands::ping));
+      assertTrue(provider.executeAsync(commands -> commands.ping()).toCompletableFuture()
+          .isCompletedExceptionally(), "Asynchronous calls should fail through their stage.");
+
+      redisServer.start();
+      assertTrue(awaitPing(provider), "Calls should connect once Redis is reachable.");
+    } finally {
+      redisServer.stop();
+    }
+  }
+
+  /**
+   * Failed connects are retried after a backoff, so the first calls may still fail.
+   */
+  private static boolean awaitPing(LimiterConnectionProvider provider) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (System.currentTimeMillis() < deadline) {
+      try {
+        return "PONG".equals(provider.execute(RedisClusterCommands::ping));
+      } catch (RedisException ex) {
+        Thread.sleep(100);
+      }
+    }
+    return false;
+  }
+
+  private LimiterConnections create(ConnectionStrategy strategy) {
+    return new LimiterConnections(connectionFactory.getRequiredNativeClient(), properties(strategy));
+  }
+
+  private static RateLimiterProperties.Connection properties(ConnectionStrategy strategy) {
+    RateLimiterProperties.Connection properties = new RateLimiterProperties.Connection();
+    properties.setStrategy(strategy);
+    properties.setHealthCheckInterval(Duration.ofSeconds(1));
+    return properties;
+  }
+
+  private static int findAvailablePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest
+@ActiveProfiles("cluster-test")
+class RedisClusterTest {
+
+  @Autowired
+  private FixedWindowRateLimiter fixedWindowRateLimiter;
+
+  @Autowired
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+
+  @Autowired
+  private LeakyBucketRateLimiter leakyBucketRateLimiter;
+
+  @Autowired
+  private SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
+
+  @Autowired
+  private SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+
+  @Autowired
+  private CompositeRateLimiter compositeRateLimiter;
+
+  @Autowired
+  private LimiterConnections limiterConnections;
+
+  @Autowired
+  private LettuceConnectionFactory connectionFactory;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  private final String id = "RedisClusterTest";
+  private final String key = "127.0.0.1";
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    denyCache.clear();
+    Set<byte[]> keys = redisCommands.keys(("*{" + id + ":*").getBytes());
+    if (keys != null) {
+      keys.forEach(redisKey -> redisCommands.del(redisKey));
+    }
+  }
+
+  @Test
+  void shouldUseClusterConnections() {
+    assertTrue(limiterConnections.isCluster());
+  }
+
+  @Test
+  void shouldLimitWithEveryAlgorithm() {
+    Duration window = Duration.ofSeconds(10);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(fixedWindowRateLimiter.tryConsume(id, key, 3, window));
+      assertTrue(tokenBucketRateLimiter.tryConsume(id, key, 3, 1, window));
+      assertTrue(leakyBucketRateLimiter.tryConsume(id, key, 3, 1, window));
+      assertTrue(slidingWindowCounterRateLimiter.tryConsume(id, key, 3, window, Duration.ofSeconds(5)));
+      assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, 3, window));
+    }
+
+    assertFalse(fixedWindowRateLimiter.tryConsumeAsync(id, key, 3, window).toCompletableFuture().join());
+    assertFalse(tokenBucketRateLimiter.tryConsumeReactive(id, key, 3, 1, window).block());
+    assertFalse(leakyBucketRateLimiter.tryConsume(id, key, 3, 1, window));
+    assertFalse(slidingWindowCounterRateLimiter.tryConsume(id, key, 3, window, Duration.ofSeconds(5)));
+    assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, 3, window));
+  }
+
+  @Test
+  void shouldEvaluateCompositeLimitsOfOneKeyInOneScript() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 2, Duration.ofSeconds(10)),
+        new CompositeLimit.TokenBucket(id, key, 5, 1, Duration.ofSeconds(10)),
+        new CompositeLimit.SlidingWindowCounter(id, key, 5, Duration.ofSeconds(10), Duration.ofSeconds(1)),
+        new CompositeLimit.SlidingWindowLog(id, key, 5, Duration.ofSeconds(10)));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertTrue(compositeRateLimiter.tryConsumeAsync(id, limits).toCompletableFuture().join());
+    assertFalse(compositeRateLimiter.tryConsumeReactive(id, limits).block(),
+        "Keys sharing a hash tag should be evaluated together without CROSSSLOT errors.");
+  }
+
+  @Test
+  void shouldEvaluateCompositeLimitsOfDifferentKeysPerSlot() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 10, Duration.ofSeconds(10)),
+        new CompositeLimit.TokenBucket(id, "global", 3, 1, Duration.ofSeconds(10)));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertTrue(compositeRateLimiter.tryConsumeAsync(id, limits).toCompletableFuture().join());
+    assertTrue(compositeRateLimiter.tryConsumeReactive(id, limits).block());
+    assertFalse(compositeRateLimiter.tryConsume(id, limits),
+        "Limits on different slots should be evaluated without CROSSSLOT errors.");
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, "global", 3, 1, Duration.ofSeconds(10)),
+        "Limits on different slots should keep the standalone limiters' keys.");
+  }
+
+  @Test
+  void shouldSpreadKeysOverPrimaries() {
+    for (int i = 0; i < 30; i++) {
+      assertTrue(fixedWindowRateLimiter.tryConsume(id, "10.0.0." + i, 10, Duration.ofSeconds(10)));
+    }
+
+    try (RedisClusterConnection connection = connectionFactory.getClusterConnection()) {
+      for (RedisClusterNode node : connection.clusterGetNodes()) {
+        if (node.isMaster()) {
+          assertFalse(connection.keys(node, ("fixed_window:{" + id + ":*").getBytes()).isEmpty(),
+              "Every primary should own some of the limiter keys.");
+        }
+      }
+    }
+  }
+
+  @Test
+  void shouldRefreshTopology() {
+    ClusterTopologyRefreshOptions refreshOptions = connectionFactory.getClientConfiguration()
+        .getClientOptions()
+        .map(ClusterClientOptions.class::cast)
+        .orElseThrow()
+        .getTopologyRefreshOptions();
+
+    assertTrue(refreshOptions.isPeriodicRefreshEnabled());
+    assertFalse(refreshOptions.getAdaptiveRefreshTriggers().isEmpty(),
+        "Topology changes signalled by MOVED or ASK redirects should trigger a refresh.");
+  }
+
+}
@@ -0,0 +1,215 @@
+package dev.ercan.poc.redis.rate.limiting.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.config.RedisShardingTestConfig;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest
+@ActiveProfiles({"test", "sharding-test"})
+class ShardedRedisTest {
+
+  @Autowired
+  private FixedWindowRateLimiter fixedWindowRateLimiter;
+
+  @Autowired
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+
+  @Autowired
+  private LeakyBucketRateLimiter leakyBucketRateLimiter;
+
+  @Autowired
+  private SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
+
+  @Autowired
+  private SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+
+  @Autowired
+  private CompositeRateLimiter compositeRateLimiter;
+
+  @Autowired
+  private LimiterConnections limiterConnections;
+
+  @Autowired
+  private RedisShardingTestConfig redisNodes;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  private final String id = "ShardedRedisTest";
+  private final Duration window = Duration.ofSeconds(10);
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    denyCache.clear();
+    for (int port : redisNodes.getPorts()) {
+      if (isRunning(port)) {
+        withNode(port, connection -> connection.sync().flushall());
+      }
+    }
+  }
+
+  @Test
+  void shouldUseShardedConnections() {
+    assertTrue(limiterConnections.isSharded());
+    assertFalse(limiterConnections.isCluster());
+  }
+
+  @Test
+  void shouldSpreadKeysOverNodes() {
+    for (int i = 0; i < 30; i++) {
+      assertTrue(fixedWindowRateLimiter.tryConsume(id, "10.0.0." + i, 10, window));
+    }
+
+    int total = 0;
+    for (int port : redisNodes.getPorts()) {
+      int keys = keysOn(port).size();
+      assertTrue(keys > 0, "Every node should own some of the limiter keys.");
+      total += keys;
+    }
+    assertEquals(30, total, "Every key should live on exactly one node.");
+  }
+
+  @Test
+  void shouldLimitWithEveryAlgorithm() {
+    for (int k = 0; k < 10; k++) {
+      String key = "10.0.0." + k;
+      for (int i = 0; i < 2; i++) {
+        assertTrue(fixedWindowRateLimiter.tryConsume(id, key, 2, window));
+        assertTrue(tokenBucketRateLimiter.tryConsumeAsync(id, key, 2, 1, window)
+            .toCompletableFuture().join());
+        assertTrue(leakyBucketRateLimiter.tryConsumeReactive(id, key, 2, 1, window).block());
+        assertTrue(slidingWindowCounterRateLimiter.tryConsume(id, key, 2, window, Duration.ofSeconds(5)));
+        assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, 2, window));
+      }
+      assertFalse(fixedWindowRateLimiter.tryConsume(id, key, 2, window));
+      assertFalse(tokenBucketRateLimiter.tryConsume(id, key, 2, 1, window));
+      assertFalse(leakyBucketRateLimiter.tryConsume(id, key, 2, 1, window));
+      assertFalse(slidingWindowCounterRateLimiter.tryConsume(id, key, 2, window, Duration.ofSeconds(5)));
+      assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, 2, window));
+    }
+  }
+
+  @Test
+  void shouldEvaluateCompositeLimitsOfOneKeyOnOneNode() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, "127.0.0.1", 1, window),
+        new CompositeLimit.SlidingWindowLog(id, "127.0.0.1", 5, window));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertFalse(compositeRateLimiter.tryConsume(id, limits));
+  }
+
+  @Test
+  void shouldEvaluateCompositeLimitsOfKeysOnDifferentNodes() {
+    String otherKey = null;
+    for (int i = 0; otherKey == null; i++) {
+      String candidate = "10.0.0." + i;
+      if (!limiterConnections.isColocated(List.of(key("127.0.0.1"), key(candidate)))) {
+        otherKey = candidate;
+      }
+    }
+
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, "127.0.0.1", 10, window),
+        new CompositeLimit.FixedWindow(id, otherKey, 1, window));
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertFalse(compositeRateLimiter.tryConsume(id, limits));
+    assertFalse(fixedWindowRateLimiter.tryConsume(id, otherKey, 1, window),
+        "Limits on different nodes should keep the standalone limiters' keys.");
+  }
+
+  @Test
+  @DirtiesContext
+  void shouldOnlyMoveKeysOfRemovedNode() throws IOException, InterruptedException {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      keys.add("10.0.0." + i);
+      assertTrue(fixedWindowRateLimiter.tryConsume(id, keys.get(i), 1, window));
+    }
+
+    int removedPort = redisNodes.getPorts().get(0);
+    Set<String> removedKeys = new HashSet<>();
+    for (String redisKey : keysOn(removedPort)) {
+      removedKeys.add(redisKey.substring(redisKey.indexOf(':', redisKey.indexOf('{')) + 1,
+          redisKey.length() - 1));
+    }
+    assertFalse(removedKeys.isEmpty());
+    redisNodes.getRedisServers().get(0).stop();
+
+    String movedKey = removedKeys.iterator().next();
+    long deadline = System.currentTimeMillis() + 30_000;
+    boolean moved = false;
+    while (!moved && System.currentTimeMillis() < deadline) {
+      try {
+        moved = fixedWindowRateLimiter.tryConsume(id, movedKey, 1, window);
+      } catch (RuntimeException ex) {
+        // the node is still on the ring until it failed enough health checks
+      }
+      if (!moved) {
+        Thread.sleep(200);
+      }
+    }
+    assertTrue(moved, "Keys of a removed node should be served by the remaining nodes.");
+
+    for (String key : keys) {
+      if (removedKeys.contains(key)) {
+        continue;
+      }
+      assertFalse(fixedWindowRateLimiter.tryConsume(id, key, 1, window),
+          "Keys of the remaining nodes should keep their state.");
+    }
+  }
+
+  private byte[] key(String key) {
+    return ("fixed_window:{" + id + ":" + key + "}").getBytes();
+  }
+
+  private List<String> keysOn(int port) {
+    List<String> keys = new ArrayList<>();
+    withNode(port, connection -> connection.sync().keys("fixed_window:{" + id + ":*")
+        .forEach(keys::add));
+    return keys;
+  }
+
+  private boolean isRunning(int port) {
+    int index = redisNodes.getPorts().indexOf(port);
+    return redisNodes.getRedisServers().get(index).isActive();
+  }
+
+  private void withNode(int port, Consumer<StatefulRedisConnection<String, String>> action) {
+    RedisClient client = RedisClient.create("redis://localhost:" + port);
+    try (StatefulRedisConnection<String, String> connection = client.connect()) {
+      action.accept(connection);
+    } finally {
+      client.shutdown();
+    }
+  }
+
+}
@@ -1,6 +1,9 @@
 package dev.ercan.poc.redis.rate.limiting.controller;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import org.junit.jupiter.api.Test;
@@ -9,6 +12,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -28,6 +32,40 @@ class RateLimiterControllerTest {
         .andExpect(status().isTooManyRequests());
   }
 
+  @Test
+  void tokenBucketReactive_shouldReturnAcceptedUnderLimitAndTooManyRequestsOverLimit() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      MvcResult result = mockMvc.perform(get("/rate-limiter/token-bucket-reactive"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isAccepted());
+    }
+    MvcResult result = mockMvc.perform(get("/rate-limiter/token-bucket-reactive"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isTooManyRequests());
+  }
+
+  @Test
+  void tokenBucketAsync_shouldReturnAcceptedUnderLimitAndTooManyRequestsOverLimit() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      MvcResult result = mockMvc.perform(get("/rate-limiter/token-bucket-async"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isAccepted());
+    }
+    MvcResult result = mockMvc.perform(get("/rate-limiter/token-bucket-async"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isTooManyRequests())
+        .andExpect(header().string("RateLimit-Remaining", "0"))
+        .andExpect(header().string("Retry-After", "5"));
+  }
+
   @Test
   void leakyBucket_shouldReturnAcceptedUnderLimitAndTooManyRequestsOverLimit() throws Exception {
     for (int i = 0; i < 3; i++) {
@@ -42,10 +80,16 @@ class RateLimiterControllerTest {
   void fixedWindow_shouldReturnAcceptedUnderLimitAndTooManyRequestsOverLimit() throws Exception {
     for (int i = 0; i < 3; i++) {
       mockMvc.perform(get("/rate-limiter/fixed-window"))
-          .andExpect(status().isAccepted());
+          .andExpect(status().isAccepted())
+          .andExpect(header().string("RateLimit-Limit", "3"))
+          .andExpect(header().string("RateLimit-Remaining", String.valueOf(2 - i)))
+          .andExpect(header().exists("RateLimit-Reset"))
+          .andExpect(header().doesNotExist("Retry-After"));
     }
     mockMvc.perform(get("/rate-limiter/fixed-window"))
-        .andExpect(status().isTooManyRequests());
+        .andExpect(status().isTooManyRequests())
+        .andExpect(header().string("RateLimit-Remaining", "0"))
+        .andExpect(header().exists("Retry-After"));
   }
 
   @Test
@@ -68,4 +112,59 @@ class RateLimiterControllerTest {
         .andExpect(status().isTooManyRequests());
   }
 
-}
\ No newline at end of file
+  @Test
+  void fixedWindowWeighted_shouldChargeTheCostOfEachRequest() throws Exception {
+    mockMvc.perform(get("/rate-limiter/fixed-window-weighted").param("cost", "3"))
+        .andExpect(status().isAccepted());
+    mockMvc.perform(get("/rate-limiter/fixed-window-weighted").param("cost", "3"))
+        .andExpect(status().isTooManyRequests());
+    mockMvc.perform(get("/rate-limiter/fixed-window-weighted").param("cost", "2"))
+        .andExpect(status().isAccepted());
+  }
+
+  @Test
+  void composite_shouldReturnTooManyRequestsWhenAnyLimitIsExceeded() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      mockMvc.perform(get("/rate-limiter/composite"))
+          .andExpect(status().isAccepted());
+    }
+    mockMvc.perform(get("/rate-limiter/composite"))
+        .andExpect(status().isTooManyRequests());
+  }
+
+  @Test
+  void concurrency_shouldReturnTooManyRequestsWhileThePermitIsHeld() throws Exception {
+    MvcResult holding = mockMvc.perform(get("/rate-limiter/concurrency").param("holdMillis", "500"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    MvcResult rejected = mockMvc.perform(get("/rate-limiter/concurrency"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(rejected))
+        .andExpect(status().isTooManyRequests());
+
+    mockMvc.perform(asyncDispatch(holding))
+        .andExpect(status().isAccepted())
+        .andExpect(header().string("RateLimit-Remaining", "0"));
+
+    MvcResult released = mockMvc.perform(get("/rate-limiter/concurrency"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(released))
+        .andExpect(status().isAccepted());
+  }
+
+  @Test
+  void route_shouldReturnAcceptedUnderLimitAndTooManyRequestsOverLimit() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      mockMvc.perform(get("/rate-limiter/route"))
+          .andExpect(status().isAccepted())
+          .andExpect(header().string("RateLimit-Remaining", String.valueOf(2 - i)));
+    }
+    mockMvc.perform(get("/rate-limiter/route"))
+        .andExpect(status().isTooManyRequests())
+        .andExpect(header().exists("Retry-After"));
+  }
+
+}
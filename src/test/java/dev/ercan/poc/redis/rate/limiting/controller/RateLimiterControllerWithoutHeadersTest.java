@@ -0,0 +1,49 @@
+package dev.ercan.poc.redis.rate.limiting.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+@SpringBootTest(properties = "rate-limiter.headers.enabled=false")
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class RateLimiterControllerWithoutHeadersTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    redisCommands.del("fixed_window:{testController:127.0.0.1}".getBytes());
+  }
+
+  @Test
+  void fixedWindow_shouldReturnBareTooManyRequestsOverLimit() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      mockMvc.perform(get("/rate-limiter/fixed-window"))
+          .andExpect(status().isAccepted())
+          .andExpect(header().doesNotExist("RateLimit-Remaining"));
+    }
+    for (int i = 0; i < 2; i++) {
+      mockMvc.perform(get("/rate-limiter/fixed-window"))
+          .andExpect(status().isTooManyRequests())
+          .andExpect(header().doesNotExist("RateLimit-Remaining"))
+          .andExpect(header().doesNotExist("Retry-After"));
+    }
+  }
+
+}
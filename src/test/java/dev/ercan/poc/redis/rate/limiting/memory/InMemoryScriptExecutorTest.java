@@ -0,0 +1,246 @@
+package dev.ercan.poc.redis.rate.limiting.memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.connection.LimiterConnections;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeLimit;
+import dev.ercan.poc.redis.rate.limiting.service.CompositeRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.ConcurrencyRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.LeakyBucketRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowCounterRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import io.lettuce.core.ScriptOutputType;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * Runs without the {@code test} profile, so no Redis is started.
+ */
+@SpringBootTest(properties = {
+    "rate-limiter.backend=memory",
+    "rate-limiter.memory.eviction-interval=50ms"
+})
+class InMemoryScriptExecutorTest {
+
+  @Autowired
+  private InMemoryScriptExecutor scriptExecutor;
+
+  @Autowired
+  private FixedWindowRateLimiter fixedWindowRateLimiter;
+
+  @Autowired
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+
+  @Autowired
+  private LeakyBucketRateLimiter leakyBucketRateLimiter;
+
+  @Autowired
+  private SlidingWindowCounterRateLimiter slidingWindowCounterRateLimiter;
+
+  @Autowired
+  private SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+
+  @Autowired
+  private CompositeRateLimiter compositeRateLimiter;
+
+  @Autowired
+  private ConcurrencyRateLimiter concurrencyRateLimiter;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  @Autowired
+  private ApplicationContext applicationContext;
+
+  private final String id = "InMemoryScriptExecutorTest";
+  private final String key = "127.0.0.1";
+  private final Duration window = Duration.ofSeconds(10);
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    denyCache.clear();
+    scriptExecutor.store().clear();
+  }
+
+  @Test
+  void shouldNotCreateRedisConnections() {
+    assertTrue(applicationContext.getBeansOfType(LimiterConnections.class).isEmpty());
+  }
+
+  @Test
+  void shouldLimitWithEveryAlgorithm() {
+    for (int i = 0; i < 3; i++) {
+      assertTrue(fixedWindowRateLimiter.tryConsume(id, key, 3, window));
+      assertTrue(tokenBucketRateLimiter.tryConsumeAsync(id, key, 3, 1, window)
+          .toCompletableFuture().join());
+      assertTrue(leakyBucketRateLimiter.tryConsumeReactive(id, key, 3, 1, window).block());
+      assertTrue(slidingWindowCounterRateLimiter.tryConsume(id, key, 3, window, Duration.ofSeconds(5)));
+      assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, 3, window));
+    }
+
+    assertFalse(fixedWindowRateLimiter.tryConsume(id, key, 3, window));
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, 3, 1, window));
+    assertFalse(leakyBucketRateLimiter.tryConsume(id, key, 3, 1, window));
+    assertFalse(slidingWindowCounterRateLimiter.tryConsume(id, key, 3, window, Duration.ofSeconds(5)));
+    assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, 3, window));
+  }
+
+  @Test
+  void shouldGrantWeightedPermits() {
+    assertTrue(tokenBucketRateLimiter.tryConsume(id, key, 10, 1, window, 7));
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, 10, 1, window, 4),
+        "Requests costing more permits than are left should be rejected.");
+    assertTrue(tokenBucketRateLimiter.tryConsume(id, key, 10, 1, window, 3));
+  }
+
+  @Test
+  void shouldResetWindowsAfterTheyPass() throws InterruptedException {
+    Duration shortWindow = Duration.ofMillis(200);
+    assertTrue(fixedWindowRateLimiter.tryConsume(id, key, 1, shortWindow));
+    assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, 1, shortWindow));
+    assertFalse(fixedWindowRateLimiter.tryConsume(id, key, 1, shortWindow));
+    assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, 1, shortWindow));
+
+    Thread.sleep(shortWindow.toMillis() + 50);
+    denyCache.clear();
+
+    assertTrue(fixedWindowRateLimiter.tryConsume(id, key, 1, shortWindow));
+    assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, 1, shortWindow));
+  }
+
+  @Test
+  void shouldHoldConcurrencyPermitsUntilReleased() {
+    String first = concurrencyRateLimiter.newLeaseId();
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 2, window, first).allowed());
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 2, window,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+    assertFalse(concurrencyRateLimiter.acquire(id, key, 2, window,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+
+    concurrencyRateLimiter.release(id, key, first);
+
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 2, window,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+  }
+
+  @Test
+  void shouldRecordCompositeLimitsOnlyWhenAllAdmit() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 10, window),
+        new CompositeLimit.TokenBucket(id, "global", 2, 1, window),
+        new CompositeLimit.SlidingWindowCounter(id, key, 10, window, Duration.ofSeconds(1)));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertTrue(compositeRateLimiter.tryConsumeAsync(id, limits).toCompletableFuture().join());
+    assertFalse(compositeRateLimiter.tryConsumeReactive(id, limits).block());
+
+    List<CompositeLimit> fixedWindow = List.of(
+        new CompositeLimit.FixedWindow(id, key, 10, window),
+        new CompositeLimit.SlidingWindowLog(id, "global", 100, window));
+    for (int i = 0; i < 8; i++) {
+      assertTrue(compositeRateLimiter.tryConsume(id, fixedWindow),
+          "Rejected composite requests must not be counted against the limits that admitted them.");
+    }
+    assertFalse(compositeRateLimiter.tryConsume(id, fixedWindow));
+  }
+
+  @Test
+  void shouldNotOverAdmitConcurrentRequests() throws InterruptedException {
+    int threads = 16;
+    ExecutorService service = Executors.newFixedThreadPool(threads);
+    CountDownLatch latch = new CountDownLatch(threads);
+    AtomicInteger allowed = new AtomicInteger();
+
+    for (int t = 0; t < threads; t++) {
+      service.submit(() -> {
+        for (int i = 0; i < 1000; i++) {
+          if (slidingWindowLogRateLimiter.tryConsume(id, key, 500, window)) {
+            allowed.incrementAndGet();
+          }
+        }
+        latch.countDown();
+      });
+    }
+    latch.await();
+    service.shutdown();
+
+    assertEquals(500, allowed.get());
+  }
+
+  @Test
+  void shouldEvictIdleKeys() throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      fixedWindowRateLimiter.tryConsume(id, "10.0.0." + i, 10, Duration.ofMillis(100));
+      tokenBucketRateLimiter.tryConsume(id, "10.0.0." + i, 10, 1, Duration.ofMillis(10));
+    }
+    assertEquals(200, scriptExecutor.store().size());
+
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (scriptExecutor.store().size() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(0, scriptExecutor.store().size(), "Entries of idle keys should be evicted.");
+  }
+
+  @Test
+  void shouldMatchScriptsBySourceRatherThanBeanName() {
+    RedisScript<List> fixedWindow = RedisScript.of(
+        new ClassPathResource("scripts/fixed_window.lua"), List.class);
+    List<Long> result = scriptExecutor.execute(id, fixedWindow, ScriptOutputType.MULTI,
+        new byte[][] {ScriptArgs.encode(id)}, new byte[][] {
+            ScriptArgs.constant(10_000), ScriptArgs.constant(1), ScriptArgs.constant(1),
+            ScriptArgs.constant(0)});
+    assertEquals(1, result.get(0), "A script with a known source should run whatever its bean.");
+
+    assertThrows(IllegalArgumentException.class,
+        () -> scriptExecutor.execute(id, RedisScript.of("return 1", Long.class),
+            ScriptOutputType.INTEGER, new byte[0][], new byte[0][]),
+        "A script without an in-memory port should be refused.");
+  }
+
+  @Test
+  void shouldNotPrefilterCoalescedSlidingWindowCounterCalls() {
+    RedisScript<List> slidingWindowCounter = RedisScript.of(
+        new ClassPathResource("scripts/sliding_window_counter.lua"), List.class);
+    byte[][] keys = {ScriptArgs.encode("sliding_window_counter:{" + id + ":" + key + "}")};
+    long now = System.currentTimeMillis();
+    long firstSubWindow = now / 1_000 - 1;
+
+    assertNull(prefilter(slidingWindowCounter, keys, now, 1, false, firstSubWindow));
+    assertNotNull(prefilter(slidingWindowCounter, keys, now, 1, false, firstSubWindow),
+        "A call beyond the local share should be rejected locally.");
+    assertNull(prefilter(slidingWindowCounter, keys, now, 3, true, firstSubWindow),
+        "A coalesced call asks for a partial grant, only Redis may decide it.");
+  }
+
+  private Object prefilter(RedisScript<?> script, byte[][] keys, long now, long permits,
+      boolean partial, long firstSubWindow) {
+    return scriptExecutor.prefilter(id, script, keys, new byte[][] {
+        ScriptArgs.decimal(now), ScriptArgs.constant(window.toMillis()), ScriptArgs.constant(1_000),
+        ScriptArgs.constant(10), ScriptArgs.decimal(permits), ScriptArgs.flag(partial),
+        ScriptArgs.decimal(firstSubWindow)}, limit -> 1);
+  }
+
+}
@@ -0,0 +1,120 @@
+package dev.ercan.poc.redis.rate.limiting.memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.connection.NodeHeartbeat;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
+import dev.ercan.poc.redis.rate.limiting.service.SlidingWindowLogRateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(properties = {
+    "rate-limiter.local-tier.enabled=true",
+    "rate-limiter.local-tier.heartbeat-interval=100ms"
+})
+@ActiveProfiles("test")
+class LocalTierScriptExecutorTest {
+
+  private static final byte[] NODES = "local_tier:nodes".getBytes();
+
+  @Autowired
+  private ScriptExecutor scriptExecutor;
+
+  @Autowired
+  private NodeHeartbeat nodeHeartbeat;
+
+  @Autowired
+  private FixedWindowRateLimiter fixedWindowRateLimiter;
+
+  @Autowired
+  private SlidingWindowLogRateLimiter slidingWindowLogRateLimiter;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  private final String id = "LocalTierScriptExecutorTest";
+  private final String key = "127.0.0.1";
+  private final Duration window = Duration.ofSeconds(10);
+
+  @BeforeEach
+  @AfterEach
+  void setup() throws InterruptedException {
+    denyCache.clear();
+    ((LocalTierScriptExecutor) scriptExecutor).localTier().store().clear();
+    redisCommands.del(("fixed_window:{" + id + ":" + key + "}").getBytes(),
+        ("sliding_window_log:{" + id + ":" + key + "}").getBytes());
+    redisCommands.zRem(NODES, "other-node-1".getBytes(), "other-node-2".getBytes());
+    awaitNodeCount(1);
+  }
+
+  @Test
+  void shouldPutLocalTierInFrontOfRedis() {
+    assertInstanceOf(LocalTierScriptExecutor.class, scriptExecutor);
+  }
+
+  @Test
+  void shouldKeepGlobalLimitExact() {
+    int allowed = 0;
+    for (int i = 0; i < 20; i++) {
+      if (fixedWindowRateLimiter.tryConsume(id, key, 10, window)) {
+        allowed++;
+      }
+    }
+    assertEquals(10, allowed, "The local share of a single node is above the limit, Redis decides.");
+  }
+
+  @Test
+  void shouldRejectBeyondNodeShareWithoutRedis() throws InterruptedException {
+    long future = System.currentTimeMillis() + 60_000;
+    redisCommands.zAdd(NODES, future, "other-node-1".getBytes());
+    redisCommands.zAdd(NODES, future, "other-node-2".getBytes());
+    awaitNodeCount(3);
+
+    double rejectedBefore = localTierRejections();
+    int allowed = 0;
+    for (int i = 0; i < 20; i++) {
+      if (slidingWindowLogRateLimiter.tryConsume(id, key, 10, window)) {
+        allowed++;
+      }
+    }
+
+    // ceil(10 * 1.2 / 3)
+    assertEquals(4, allowed);
+    assertEquals(16, localTierRejections() - rejectedBefore,
+        "Requests beyond the share of the node should be rejected before reaching Redis.");
+    assertEquals(4, redisCommands.zCard(("sliding_window_log:{" + id + ":" + key + "}").getBytes()));
+  }
+
+  private double localTierRejections() {
+    Counter counter = meterRegistry.find("rate.limiter.local.tier.rejections")
+        .tag("algorithm", SlidingWindowLogRateLimiter.LIMITER)
+        .counter();
+    return counter == null ? 0 : counter.count();
+  }
+
+  private void awaitNodeCount(int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (nodeHeartbeat.nodeCount() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(expected, nodeHeartbeat.nodeCount());
+  }
+
+}
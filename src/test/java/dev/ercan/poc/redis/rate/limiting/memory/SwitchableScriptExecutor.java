@@ -0,0 +1,79 @@
+package dev.ercan.poc.redis.rate.limiting.memory;
+
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
+import dev.ercan.poc.redis.rate.limiting.script.RedisScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import org.springframework.boot.test.context.TestComponent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the limiter scripts on the backend a test picks, Redis unless told otherwise, so that the
+ * service tests check the Lua scripts and their in-memory ports against the same expectations.
+ * Import it into a test and call {@link #use} at the start of each backend-parameterized test.
+ */
+@Primary
+@TestComponent
+public class SwitchableScriptExecutor implements ScriptExecutor {
+
+  private final RedisScriptExecutor redisScriptExecutor;
+  private final InMemoryScriptExecutor inMemoryScriptExecutor =
+      new InMemoryScriptExecutor(Duration.ofSeconds(1));
+
+  private volatile LimiterBackend backend = LimiterBackend.REDIS;
+
+  public SwitchableScriptExecutor(RedisScriptExecutor redisScriptExecutor) {
+    this.redisScriptExecutor = redisScriptExecutor;
+  }
+
+  public void use(LimiterBackend backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Switches back to Redis and forgets the in-memory state; Redis keys are left to the test.
+   */
+  public void reset() {
+    backend = LimiterBackend.REDIS;
+    inMemoryScriptExecutor.store().clear();
+  }
+
+  @PreDestroy
+  public void stop() {
+    inMemoryScriptExecutor.stop();
+  }
+
+  @Override
+  public <T> T execute(String limiter, RedisScript<?> script, ScriptOutputType type, byte[][] keys,
+      byte[][] args) {
+    return current().execute(limiter, script, type, keys, args);
+  }
+
+  @Override
+  public <T> CompletionStage<T> executeAsync(String limiter, RedisScript<?> script,
+      ScriptOutputType type, byte[][] keys, byte[][] args) {
+    return current().executeAsync(limiter, script, type, keys, args);
+  }
+
+  @Override
+  public <T> Mono<T> executeReactive(String limiter, RedisScript<?> script, ScriptOutputType type,
+      byte[][] keys, byte[][] args) {
+    return current().executeReactive(limiter, script, type, keys, args);
+  }
+
+  @Override
+  public boolean isColocated(List<byte[]> keys) {
+    return current().isColocated(keys);
+  }
+
+  private ScriptExecutor current() {
+    return backend == LimiterBackend.MEMORY ? inMemoryScriptExecutor : redisScriptExecutor;
+  }
+
+}
@@ -0,0 +1,75 @@
+package dev.ercan.poc.redis.rate.limiting.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+class LimiterMetricsTest {
+
+  @Test
+  void shouldCountDecisionsByOutcomeAndSource() {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    LimiterMetrics metrics = create(registry, 10);
+
+    assertTrue(metrics.decision("token_bucket", "api", true));
+    assertFalse(metrics.decision("token_bucket", "api", false));
+    assertFalse(metrics.localDecision("token_bucket", "api", false));
+    assertFalse(metrics.localDecision("token_bucket", "api", false));
+
+    assertEquals(1, count(registry, "api", "allowed", "redis"));
+    assertEquals(1, count(registry, "api", "rejected", "redis"));
+    assertEquals(2, count(registry, "api", "rejected", "local"));
+  }
+
+  @Test
+  void shouldReportIdsBeyondTheLimitAsOther() {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    LimiterMetrics metrics = create(registry, 2);
+
+    metrics.decision("fixed_window", "first", true);
+    metrics.decision("fixed_window", "second", true);
+    metrics.decision("fixed_window", "third", true);
+    metrics.decision("fixed_window", "fourth", true);
+    metrics.decision("fixed_window", "first", true);
+
+    assertEquals(2, count(registry, "first", "allowed", "redis"));
+    assertEquals(1, count(registry, "second", "allowed", "redis"));
+    assertNull(registry.find("rate.limiter.decisions").tag("id", "third").counter());
+    assertEquals(2, count(registry, LimiterMetrics.OTHER_ID, "allowed", "redis"));
+  }
+
+  @Test
+  void shouldTrackScriptReloadsAndInFlightCalls() {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    LimiterMetrics metrics = create(registry, 10);
+
+    metrics.scriptReload("leaky_bucket");
+    metrics.inFlight("leaky_bucket").incrementAndGet();
+
+    assertEquals(1, registry.get("rate.limiter.script.reload").tag("algorithm", "leaky_bucket")
+        .counter().count());
+    assertEquals(1, registry.get("rate.limiter.inflight").tag("algorithm", "leaky_bucket")
+        .gauge().value());
+  }
+
+  private double count(MeterRegistry registry, String id, String outcome, String source) {
+    return registry.get("rate.limiter.decisions")
+        .tag("id", id)
+        .tag("outcome", outcome)
+        .tag("source", source)
+        .counter().count();
+  }
+
+  private LimiterMetrics create(MeterRegistry registry, int maxIds) {
+    RateLimiterProperties properties = new RateLimiterProperties();
+    properties.getMetrics().setMaxIds(maxIds);
+    return new LimiterMetrics(registry, properties);
+  }
+
+}
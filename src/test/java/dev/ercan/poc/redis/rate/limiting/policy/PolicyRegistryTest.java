@@ -0,0 +1,142 @@
+package dev.ercan.poc.redis.rate.limiting.policy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+@SpringBootTest(properties = {
+    "rate-limiter.redis-policies.enabled=true",
+    "rate-limiter.policies.testController.limit=1",
+    "rate-limiter.policies.testController.window-duration=30s"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class PolicyRegistryTest {
+
+  private static final byte[] POLICIES = "rate_limiter:policies".getBytes();
+
+  @Autowired
+  private PolicyRegistry policyRegistry;
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  @BeforeEach
+  @AfterEach
+  void setup() throws InterruptedException {
+    denyCache.clear();
+    redisCommands.del("fixed_window:{testController:127.0.0.1}".getBytes(),
+        "fixed_window:{testRoute:127.0.0.1}".getBytes());
+    redisCommands.del(POLICIES);
+    redisCommands.publish(POLICIES, "reset".getBytes());
+    await(() -> policyRegistry.policy("testRoute") == LimitPolicy.NONE);
+  }
+
+  @Test
+  void shouldOverrideAnnotatedLimitFromProperties() throws Exception {
+    mockMvc.perform(get("/rate-limiter/fixed-window"))
+        .andExpect(status().isAccepted())
+        .andExpect(header().string("RateLimit-Limit", "1"));
+    mockMvc.perform(get("/rate-limiter/fixed-window"))
+        .andExpect(status().isTooManyRequests());
+  }
+
+  @Test
+  void shouldApplyPoliciesPublishedThroughRedis() throws Exception {
+    redisCommands.hSet(POLICIES, "testRoute".getBytes(), "limit=1".getBytes());
+    redisCommands.publish(POLICIES, "testRoute".getBytes());
+    await(() -> policyRegistry.policy("testRoute").limit() != null);
+
+    mockMvc.perform(get("/rate-limiter/route"))
+        .andExpect(status().isAccepted())
+        .andExpect(header().string("RateLimit-Limit", "1"));
+    mockMvc.perform(get("/rate-limiter/route"))
+        .andExpect(status().isTooManyRequests());
+  }
+
+  @Test
+  void shouldForgetCachedRejectionsOfChangedPolicies() throws Exception {
+    redisCommands.hSet(POLICIES, "testRoute".getBytes(), "limit=1".getBytes());
+    redisCommands.publish(POLICIES, "testRoute".getBytes());
+    await(() -> policyRegistry.policy("testRoute").limit(0) == 1);
+    mockMvc.perform(get("/rate-limiter/route"))
+        .andExpect(status().isAccepted());
+    mockMvc.perform(get("/rate-limiter/route"))
+        .andExpect(status().isTooManyRequests());
+
+    redisCommands.hSet(POLICIES, "testRoute".getBytes(), "limit=2".getBytes());
+    redisCommands.publish(POLICIES, "testRoute".getBytes());
+    await(() -> policyRegistry.policy("testRoute").limit(0) == 2);
+    mockMvc.perform(get("/rate-limiter/route"))
+        .andExpect(status().isAccepted())
+        .andExpect(header().string("RateLimit-Limit", "2"));
+  }
+
+  @Test
+  void shouldLayerRedisPoliciesOverConfiguredOnes() throws InterruptedException {
+    redisCommands.hSet(POLICIES, "testController".getBytes(), "limit=5".getBytes());
+    redisCommands.hSet(POLICIES, "broken".getBytes(), "limit=five".getBytes());
+    redisCommands.hSet(POLICIES, "zero".getBytes(), "limit=0".getBytes());
+    redisCommands.publish(POLICIES, "testController".getBytes());
+    await(() -> policyRegistry.policy("testController").limit(0) == 5);
+
+    LimitPolicy policy = policyRegistry.policy("testController");
+    assertEquals(Duration.ofSeconds(30), policy.windowDuration(Duration.ZERO),
+        "Parameters not set in Redis should keep their configured value.");
+    assertSame(LimitPolicy.NONE, policyRegistry.policy("broken"),
+        "Invalid policies should be skipped.");
+    assertSame(LimitPolicy.NONE, policyRegistry.policy("zero"),
+        "Policies with non-positive parameters should be skipped.");
+
+    redisCommands.hDel(POLICIES, "testController".getBytes());
+    redisCommands.publish(POLICIES, "testController".getBytes());
+    await(() -> policyRegistry.policy("testController").limit(0) == 1);
+  }
+
+  @Test
+  void shouldParsePolicyParameters() {
+    LimitPolicy policy = LimitPolicy.parse("limit=10, sub-window-duration=2s,rate=3 , period=500ms");
+    assertEquals(new LimitPolicy(10L, null, Duration.ofSeconds(2), 3L, Duration.ofMillis(500)),
+        policy);
+  }
+
+  @Test
+  void shouldRejectNonPositiveParameters() {
+    assertThrows(IllegalArgumentException.class, () -> LimitPolicy.parse("limit=0"));
+    assertThrows(IllegalArgumentException.class, () -> LimitPolicy.parse("rate=-1"));
+    assertThrows(IllegalArgumentException.class, () -> LimitPolicy.parse("window-duration=0s"));
+    assertThrows(IllegalArgumentException.class, () -> LimitPolicy.parse("period=-500ms"));
+  }
+
+  private void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+}
@@ -0,0 +1,48 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.service.TokenBucketRateLimiter;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * The embedded Redis predates functions, so the function backend has to fall back to EVALSHA.
+ */
+@SpringBootTest(properties = "rate-limiter.script-backend=function")
+@ActiveProfiles("test")
+class FunctionBackendTest {
+
+  @Autowired
+  private RedisScriptExecutor scriptExecutor;
+
+  @Autowired
+  private TokenBucketRateLimiter tokenBucketRateLimiter;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  private final String id = "FunctionBackendTest";
+  private final String key = "127.0.0.1";
+
+  @AfterEach
+  void cleanup() {
+    redisCommands.del(("token_bucket:{" + id + ":" + key + "}").getBytes());
+  }
+
+  @Test
+  void shouldFallBackToEvalWhenRedisHasNoFunctions() {
+    assertFalse(scriptExecutor.usesFunctions(),
+        "Redis without FUNCTION LOAD should be called with EVALSHA.");
+
+    assertTrue(tokenBucketRateLimiter.tryConsume(id, key, 1, 1, Duration.ofSeconds(10)));
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, 1, 1, Duration.ofSeconds(10)));
+  }
+
+}
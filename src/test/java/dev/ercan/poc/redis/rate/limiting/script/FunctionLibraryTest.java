@@ -0,0 +1,90 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class FunctionLibraryTest {
+
+  /**
+   * Stands in for FUNCTION LOAD, which the embedded Redis does not have: registers the functions
+   * of the library in a table and calls the one named by the first argument.
+   */
+  private static final String LOADER = """
+      local registered = {}
+      local redis = setmetatable({ register_function = function(name, callback)
+        if type(name) == 'table' then
+          name, callback = name.function_name, name.callback
+        end
+        registered[name] = callback
+      end }, { __index = redis })
+      """;
+
+  @Autowired
+  private Map<String, RedisScript<?>> scripts;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  private final String windowKey = "fixed_window:{FunctionLibraryTest:127.0.0.1}";
+
+  @AfterEach
+  void cleanup() {
+    redisCommands.del(windowKey.getBytes());
+  }
+
+  @Test
+  void shouldNameFunctionsAfterTheirScriptBeans() {
+    FunctionLibrary library = new FunctionLibrary(scripts);
+
+    assertEquals("token_bucket_lease", FunctionLibrary.functionName("tokenBucketLeaseRateLimiterScript"));
+    assertEquals("composite", library.functionName(scripts.get("compositeRateLimiterScript")));
+    assertTrue(library.getSource().startsWith("#!lua name=rate_limiter\n"));
+  }
+
+  @Test
+  void shouldVersionTheLibraryByItsScripts() {
+    FunctionLibrary library = new FunctionLibrary(scripts);
+    FunctionLibrary fewerScripts = new FunctionLibrary(
+        Map.of("compositeRateLimiterScript", scripts.get("compositeRateLimiterScript")));
+
+    assertEquals(library.getVersion(), new FunctionLibrary(scripts).getVersion());
+    assertNotEquals(library.getVersion(), fewerScripts.getVersion());
+    assertFalse(library.getSource().contains("replicate_commands"),
+        "Functions may not call redis.replicate_commands().");
+  }
+
+  @Test
+  void shouldRunScriptsAsFunctions() {
+    FunctionLibrary library = new FunctionLibrary(scripts);
+    String body = library.getSource().substring(library.getSource().indexOf('\n'));
+    byte[] script = (LOADER + body
+        + "\nreturn registered[ARGV[1]](KEYS, { unpack(ARGV, 2) })").getBytes();
+
+    List<Object> first = redisCommands.eval(script, ReturnType.MULTI, 1, windowKey.getBytes(),
+        "fixed_window".getBytes(), "10000".getBytes(), "2".getBytes(), "2".getBytes(), "0".getBytes());
+    List<Object> second = redisCommands.eval(script, ReturnType.MULTI, 1, windowKey.getBytes(),
+        "fixed_window".getBytes(), "10000".getBytes(), "2".getBytes(), "1".getBytes(), "0".getBytes());
+    byte[] version = redisCommands.eval(script, ReturnType.VALUE, 0,
+        FunctionLibrary.VERSION_FUNCTION.getBytes());
+
+    assertEquals(2L, first.get(0), "The function should grant the permits like the script does.");
+    assertEquals(0L, second.get(0));
+    assertEquals(library.getVersion(), new String(version));
+  }
+
+}
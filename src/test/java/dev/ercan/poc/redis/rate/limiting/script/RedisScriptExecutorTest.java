@@ -0,0 +1,97 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.service.FixedWindowRateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class RedisScriptExecutorTest {
+
+  @Autowired
+  private FixedWindowRateLimiter fixedWindowRateLimiter;
+
+  @Autowired
+  private List<RedisScript<?>> scripts;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private final String id = "RedisScriptExecutorTest";
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    Set<byte[]> keys = redisCommands.keys(("*{" + id + ":*").getBytes());
+    if (keys != null && !keys.isEmpty()) {
+      redisCommands.del(keys.toArray(byte[][]::new));
+    }
+  }
+
+  @Test
+  void shouldLoadEveryScriptAtStartup() {
+    redisCommands.scriptFlush();
+    fixedWindowRateLimiter.tryConsume(id, "reload", 10, Duration.ofSeconds(10));
+
+    String[] shas = scripts.stream().map(RedisScript::getSha1).toArray(String[]::new);
+    assertTrue(redisCommands.scriptExists(shas).stream().allMatch(Boolean::booleanValue),
+        "Every script should be loaded, not only the one that was missing.");
+  }
+
+  @Test
+  void shouldReloadScriptsOnceForConcurrentNoScriptReplies() {
+    redisCommands.scriptFlush();
+    double loadsBefore = noScriptLoads();
+
+    List<CompletableFuture<Boolean>> requests = IntStream.range(0, 50)
+        .mapToObj(i -> fixedWindowRateLimiter.tryConsumeAsync(id, "key" + i, 10,
+            Duration.ofSeconds(10)).toCompletableFuture())
+        .toList();
+
+    requests.forEach(request -> assertTrue(request.join(),
+        "Requests should succeed while the scripts are reloaded."));
+    assertEquals(1, noScriptLoads() - loadsBefore,
+        "Concurrent NOSCRIPT replies should share a single reload.");
+  }
+
+  @Test
+  void shouldRecoverBlockingCallsFromNoScript() {
+    redisCommands.scriptFlush();
+
+    assertTrue(fixedWindowRateLimiter.tryConsume(id, "blocking", 10, Duration.ofSeconds(10)));
+  }
+
+  @Test
+  void shouldRecoverReactiveCallsFromNoScript() {
+    redisCommands.scriptFlush();
+
+    assertTrue(fixedWindowRateLimiter.tryConsumeReactive(id, "reactive", 10,
+        Duration.ofSeconds(10)).block());
+  }
+
+  private double noScriptLoads() {
+    Counter counter = meterRegistry.find("rate.limiter.script.load")
+        .tags("reason", "noscript", "outcome", "success").counter();
+    return counter == null ? 0 : counter.count();
+  }
+
+}
@@ -0,0 +1,36 @@
+package dev.ercan.poc.redis.rate.limiting.script;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class ScriptArgsTest {
+
+  @Test
+  void shouldEncodeDecimals() {
+    for (long value : new long[] {0, 7, 1023, 1024, 60_000, 1_700_000_000_000L, Long.MAX_VALUE, -42,
+        Long.MIN_VALUE}) {
+      assertArrayEquals(Long.toString(value).getBytes(StandardCharsets.US_ASCII), ScriptArgs.decimal(value));
+      assertArrayEquals(Long.toString(value).getBytes(StandardCharsets.US_ASCII), ScriptArgs.constant(value));
+    }
+  }
+
+  @Test
+  void shouldReuseEncodingsOfRepeatingValues() {
+    assertSame(ScriptArgs.decimal(1), ScriptArgs.decimal(1));
+    assertSame(ScriptArgs.constant(60_000), ScriptArgs.constant(60_000),
+        "Limits and durations should be encoded once.");
+  }
+
+  @Test
+  void shouldEncodeKeys() {
+    byte[] prefix = ScriptArgs.encode("fixed_window:");
+    assertArrayEquals("fixed_window:{id:127.0.0.1}".getBytes(StandardCharsets.UTF_8),
+        ScriptArgs.key(prefix, "id", "127.0.0.1"));
+    assertArrayEquals("fixed_window:{id:kullanıcı}".getBytes(StandardCharsets.UTF_8),
+        ScriptArgs.key(prefix, "id", "kullanıcı"), "Keys outside ASCII should be UTF-8 encoded.");
+  }
+
+}
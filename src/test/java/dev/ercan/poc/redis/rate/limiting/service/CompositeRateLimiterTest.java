@@ -0,0 +1,196 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.memory.SwitchableScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Import(SwitchableScriptExecutor.class)
+class CompositeRateLimiterTest {
+
+  @Autowired
+  private CompositeRateLimiter compositeRateLimiter;
+
+  @Autowired
+  private LeakyBucketRateLimiter leakyBucketRateLimiter;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private SwitchableScriptExecutor scriptBackend;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  @Autowired
+  private ScriptExecutor scriptExecutor;
+
+  @Autowired
+  private RedisScript<List> compositeRateLimiterScript;
+
+  private final String id = "CompositeRateLimiterTest";
+  private final String key = "127.0.0.1";
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    scriptBackend.reset();
+    denyCache.clear();
+    Set<byte[]> keys = redisCommands.keys(("*{" + id + ":*").getBytes());
+    if (keys != null && !keys.isEmpty()) {
+      redisCommands.del(keys.toArray(byte[][]::new));
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAllowRequestsWhileEveryLimitAllows(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 5, Duration.ofSeconds(10)),
+        new CompositeLimit.TokenBucket(id, key, 5, 1, Duration.ofSeconds(10)),
+        new CompositeLimit.LeakyBucket(id, key, 5, 1, Duration.ofSeconds(10)),
+        new CompositeLimit.SlidingWindowCounter(id, key, 5, Duration.ofSeconds(10), Duration.ofSeconds(1)),
+        new CompositeLimit.SlidingWindowLog(id, key, 5, Duration.ofSeconds(10)));
+
+    for (int i = 0; i < 5; i++) {
+      assertTrue(compositeRateLimiter.tryConsume(id, limits),
+          "Requests below every limit must be accepted.");
+    }
+    assertFalse(compositeRateLimiter.tryConsume(id, limits),
+        "Requests should be rejected once the limits are exhausted.");
+  }
+
+  @Test
+  void shouldNotCountRejectedRequestsAgainstOtherLimits() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 10, Duration.ofSeconds(10)),
+        new CompositeLimit.TokenBucket(id, "global", 2, 1, Duration.ofSeconds(10)));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertFalse(compositeRateLimiter.tryConsume(id, limits),
+        "Requests should be rejected when any of the limits is exceeded.");
+    denyCache.clear();
+    assertFalse(compositeRateLimiter.tryConsume(id, limits));
+
+    assertArrayEquals("2".getBytes(), redisCommands.get(("fixed_window:{" + id + ":" + key + "}").getBytes()),
+        "Rejected requests must not be counted against the limits that admitted them.");
+  }
+
+  @Test
+  void shouldKeepLogEntriesOfNodesWithSkewedClocks() {
+    Duration window = Duration.ofSeconds(10);
+    CompositeLimit limit = new CompositeLimit.SlidingWindowLog(id, key, 10, window);
+    long now = System.currentTimeMillis();
+
+    // a node whose clock runs one window ahead logs a time equal to ours modulo the window
+    assertEquals(1L, consumeAt(now + window.toMillis(), limit).get(0));
+    assertEquals(1L, consumeAt(now, limit).get(0));
+    assertEquals(1L, consumeAt(now + window.toMillis() - 1, limit).get(0));
+
+    assertEquals(3L, redisCommands.zCard(SlidingWindowLogRateLimiter.windowKey(id, key)),
+        "Entries logged with different clocks must not overwrite each other.");
+  }
+
+  @Test
+  void shouldUseStandaloneKeysForLimitsOfDifferentKeys() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 10, Duration.ofSeconds(10)),
+        new CompositeLimit.SlidingWindowLog(id, "global", 10, Duration.ofSeconds(10)));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+
+    assertArrayEquals("1".getBytes(), redisCommands.get(("fixed_window:{" + id + ":" + key + "}").getBytes()),
+        "Limits of a composite spanning keys should share the standalone limiters' counters.");
+    assertEquals(1L, redisCommands.zCard(SlidingWindowLogRateLimiter.windowKey(id, "global")));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareStateWithStandaloneLimiters(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < 3; i++) {
+      leakyBucketRateLimiter.tryConsume(id, key, 3, 1, Duration.ofSeconds(10));
+    }
+
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 10, Duration.ofSeconds(10)),
+        new CompositeLimit.LeakyBucket(id, key, 3, 1, Duration.ofSeconds(10)));
+    assertFalse(compositeRateLimiter.tryConsume(id, limits),
+        "A composite limit should see requests recorded by the standalone limiter.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareStateBetweenBlockingAsyncAndReactiveApis(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 3, Duration.ofSeconds(10)),
+        new CompositeLimit.SlidingWindowLog(id, key, 10, Duration.ofSeconds(10)));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits));
+    assertTrue(compositeRateLimiter.tryConsumeAsync(id, limits).toCompletableFuture().join());
+    assertTrue(compositeRateLimiter.tryConsumeReactive(id, limits).block());
+    assertFalse(compositeRateLimiter.tryConsumeAsync(id, limits).toCompletableFuture().join(),
+        "Async requests should be rejected when the limit is exceeded.");
+    assertFalse(compositeRateLimiter.tryConsumeReactive(id, limits).block(),
+        "Reactive requests should be rejected when the limit is exceeded.");
+  }
+
+  @Test
+  void shouldConsumeWeightedPermitsFromEveryLimit() {
+    List<CompositeLimit> limits = List.of(
+        new CompositeLimit.FixedWindow(id, key, 10, Duration.ofSeconds(10)),
+        new CompositeLimit.TokenBucket(id, key, 5, 1, Duration.ofSeconds(10)));
+
+    assertTrue(compositeRateLimiter.tryConsume(id, limits, 4));
+    assertFalse(compositeRateLimiter.tryConsume(id, limits, 2),
+        "Requests costing more permits than a limit has left should be rejected.");
+    assertTrue(compositeRateLimiter.tryConsume(id, limits, 1));
+
+    assertArrayEquals("5".getBytes(), redisCommands.get(("fixed_window:{" + id + ":" + key + "}").getBytes()),
+        "Permits of rejected requests must not be counted.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAllowWhenThereAreNoLimits(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    assertTrue(compositeRateLimiter.tryConsume(id, List.of()));
+  }
+
+  private List<Long> consumeAt(long nowMillis, CompositeLimit limit) {
+    List<byte[]> keys = new ArrayList<>();
+    List<byte[]> args = new ArrayList<>(List.of(ScriptArgs.decimal(nowMillis), ScriptArgs.decimal(1)));
+    limit.appendTo(nowMillis, false, keys, args);
+    return scriptExecutor.execute(CompositeRateLimiter.LIMITER, compositeRateLimiterScript,
+        ScriptOutputType.MULTI, keys.toArray(byte[][]::new), args.toArray(byte[][]::new));
+  }
+
+}
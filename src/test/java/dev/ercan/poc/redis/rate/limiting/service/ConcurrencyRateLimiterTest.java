@@ -0,0 +1,179 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.memory.SwitchableScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Import(SwitchableScriptExecutor.class)
+class ConcurrencyRateLimiterTest {
+
+  @Autowired
+  private ConcurrencyRateLimiter concurrencyRateLimiter;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private SwitchableScriptExecutor scriptBackend;
+
+  private final String id = "ConcurrencyRateLimiterTest";
+  private final String key = "127.0.0.1";
+  private final long limit = 3;
+  private final Duration leaseDuration = Duration.ofSeconds(10);
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    scriptBackend.reset();
+    redisCommands.del(("concurrency:{" + id + ":" + key + "}").getBytes());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsOverLimitWhileLeasesAreHeld(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < limit; i++) {
+      RateLimitDecision decision = concurrencyRateLimiter.acquire(id, key, limit, leaseDuration,
+          concurrencyRateLimiter.newLeaseId());
+      assertTrue(decision.allowed(), "Requests below the limit must be admitted.");
+      assertEquals(limit - i - 1, decision.remaining());
+    }
+
+    RateLimitDecision decision = concurrencyRateLimiter.acquire(id, key, limit, leaseDuration,
+        concurrencyRateLimiter.newLeaseId());
+    assertFalse(decision.allowed(), "Requests should be rejected while all permits are held.");
+    assertEquals(0, decision.remaining());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAdmitAgainAfterRelease(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    String leaseId = concurrencyRateLimiter.newLeaseId();
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 1, leaseDuration, leaseId).allowed());
+    assertFalse(concurrencyRateLimiter.acquire(id, key, 1, leaseDuration,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+
+    concurrencyRateLimiter.release(id, key, leaseId);
+
+    assertTrue(awaitAcquire(1), "A released permit should be available again.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldFreePermitWhenLeaseExpires(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    Duration shortLease = Duration.ofMillis(300);
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 1, shortLease,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+    assertFalse(concurrencyRateLimiter.acquire(id, key, 1, shortLease,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+
+    Thread.sleep(shortLease.toMillis() + 200);
+
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 1, shortLease,
+            concurrencyRateLimiter.newLeaseId()).allowed(),
+        "A lease that was never released should expire and free its permit.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldNotCutTheExpiryOfLongerLeases(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    Duration shortLease = Duration.ofMillis(300);
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 2, leaseDuration,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 2, shortLease,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+
+    Thread.sleep(shortLease.toMillis() + 200);
+
+    assertTrue(concurrencyRateLimiter.acquire(id, key, 2, shortLease,
+        concurrencyRateLimiter.newLeaseId()).allowed(), "The expired short lease should be freed.");
+    assertFalse(concurrencyRateLimiter.acquire(id, key, 2, shortLease,
+            concurrencyRateLimiter.newLeaseId()).allowed(),
+        "A short lease must not expire the longer lease held alongside it.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareLeasesBetweenBlockingAsyncAndReactiveApis(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    assertTrue(concurrencyRateLimiter.acquire(id, key, limit, leaseDuration,
+        concurrencyRateLimiter.newLeaseId()).allowed());
+    assertTrue(concurrencyRateLimiter.acquireAsync(id, key, limit, leaseDuration,
+        concurrencyRateLimiter.newLeaseId()).toCompletableFuture().join().allowed());
+    assertTrue(concurrencyRateLimiter.acquireReactive(id, key, limit, leaseDuration,
+        concurrencyRateLimiter.newLeaseId()).block().allowed());
+
+    assertFalse(concurrencyRateLimiter.acquireReactive(id, key, limit, leaseDuration,
+        concurrencyRateLimiter.newLeaseId()).block().allowed());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldNotExceedLimitUnderConcurrentAcquires(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    int threads = 20;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+    AtomicInteger allowed = new AtomicInteger();
+
+    for (int i = 0; i < threads; i++) {
+      executor.submit(() -> {
+        try {
+          start.await();
+          if (concurrencyRateLimiter.acquire(id, key, limit, leaseDuration,
+              concurrencyRateLimiter.newLeaseId()).allowed()) {
+            allowed.incrementAndGet();
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    start.countDown();
+    done.await();
+    executor.shutdown();
+
+    assertEquals(limit, allowed.get());
+  }
+
+  /**
+   * Releases are not awaited, so acquiring may take a few attempts.
+   */
+  private boolean awaitAcquire(long limit) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 2_000;
+    while (System.currentTimeMillis() < deadline) {
+      if (concurrencyRateLimiter.acquire(id, key, limit, leaseDuration,
+          concurrencyRateLimiter.newLeaseId()).allowed()) {
+        return true;
+      }
+      Thread.sleep(20);
+    }
+    return false;
+  }
+
+}
@@ -4,7 +4,13 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.memory.SwitchableScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,13 +18,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.connection.RedisCommands;
 import org.springframework.test.context.ActiveProfiles;
 
 @SpringBootTest
 @ActiveProfiles("test")
+@Import(SwitchableScriptExecutor.class)
 class FixedWindowRateLimiterTest {
 
   @Autowired
@@ -27,6 +37,12 @@ class FixedWindowRateLimiterTest {
   @Autowired
   private RedisCommands redisCommands;
 
+  @Autowired
+  private SwitchableScriptExecutor scriptBackend;
+
+  @Autowired
+  private DenyCache denyCache;
+
   private final String id = "FixedWindowRateLimiterTest";
   private final String key = "127.0.0.1";
   private final long limit = 5;
@@ -35,19 +51,25 @@ class FixedWindowRateLimiterTest {
   @BeforeEach
   @AfterEach
   void setup() {
-    redisCommands.del(("fixed_window:" + id + ":" + key).getBytes());
+    scriptBackend.reset();
+    denyCache.clear();
+    redisCommands.del(("fixed_window:{" + id + ":" + key + "}").getBytes());
   }
 
-  @Test
-  void shouldAllowRequestsWithinLimit() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAllowRequestsWithinLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       boolean allowed = fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
       assertTrue(allowed, "Requests below the limit must be accepted during the window period.");
     }
   }
 
-  @Test
-  void shouldRejectRequestsOverLimitInSameWindow() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsOverLimitInSameWindow(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
     }
@@ -55,8 +77,10 @@ class FixedWindowRateLimiterTest {
     assertFalse(allowed, "Requests should be rejected when the limit is exceeded.");
   }
 
-  @Test
-  void shouldResetWindowAndAcceptRequestsAgain() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldResetWindowAndAcceptRequestsAgain(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
     }
@@ -67,8 +91,10 @@ class FixedWindowRateLimiterTest {
     assertTrue(allowed, "Request should be accepted when window expire.");
   }
 
-  @Test
-  void shouldHandleMultipleKeysSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleKeysSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherKey = "127.0.0.2";
     for (int i = 0; i < limit; i++) {
       fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
@@ -79,8 +105,10 @@ class FixedWindowRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldHandleMultipleIdsSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleIdsSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherId = "AnotherFixedWindowRateLimiterTest";
     for (int i = 0; i < limit; i++) {
       fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
@@ -91,8 +119,10 @@ class FixedWindowRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldRejectRequestsForZeroOrNegativeLimit() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsForZeroOrNegativeLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
     boolean allowed = fixedWindowRateLimiter.tryConsume(id, key, 0, windowDuration);
     assertFalse(allowed, "Request should be rejected when limit given as zero.");
 
@@ -101,7 +131,67 @@ class FixedWindowRateLimiterTest {
   }
 
   @Test
-  void shouldBeThreadSafeUnderConcurrency() throws InterruptedException {
+  void shouldRejectDeniedKeyLocallyWithoutRedis() {
+    for (int i = 0; i <= limit; i++) {
+      fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
+    }
+    assertTrue(denyCache.isDenied(FixedWindowRateLimiter.windowKey(id, key)), "Rejected key should be cached locally.");
+
+    // Reset the window in Redis only; the local decision must still apply
+    redisCommands.del(("fixed_window:{" + id + ":" + key + "}").getBytes());
+    boolean allowed = fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
+    assertFalse(allowed, "Requests for a locally denied key should be rejected.");
+    assertFalse(redisCommands.exists(("fixed_window:{" + id + ":" + key + "}").getBytes()),
+        "Locally rejected requests should not reach Redis.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareStateBetweenBlockingAsyncAndReactiveApis(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < limit; i++) {
+      boolean allowed = switch (i % 3) {
+        case 0 -> fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration);
+        case 1 -> fixedWindowRateLimiter.tryConsumeAsync(id, key, limit, windowDuration).toCompletableFuture().join();
+        default -> fixedWindowRateLimiter.tryConsumeReactive(id, key, limit, windowDuration).block();
+      };
+      assertTrue(allowed, "Requests below the limit must be accepted by every API variant.");
+    }
+    assertFalse(fixedWindowRateLimiter.tryConsumeAsync(id, key, limit, windowDuration).toCompletableFuture().join(),
+        "Async requests should be rejected when the limit is exceeded.");
+    assertFalse(fixedWindowRateLimiter.tryConsumeReactive(id, key, limit, windowDuration).block(),
+        "Reactive requests should be rejected when the limit is exceeded.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldConsumeWeightedPermitsAllOrNothing(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    assertTrue(fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration, limit - 1));
+    assertFalse(fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration, 2),
+        "Requests costing more permits than are left should be rejected.");
+    assertTrue(fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration, 1),
+        "A rejected weighted request must not consume any permits.");
+    assertFalse(fixedWindowRateLimiter.tryConsume(id, key, limit, windowDuration, 1));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldGrantCoalescedRequestsUpToTheLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    List<CompletableFuture<Boolean>> requests = new ArrayList<>();
+    for (int i = 0; i < limit * 4; i++) {
+      requests.add(fixedWindowRateLimiter.tryConsumeCoalesced(id, key, limit, windowDuration).toCompletableFuture());
+    }
+
+    long allowed = requests.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+    assertEquals(limit, allowed, "Coalesced requests should be granted exactly up to the limit.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldBeThreadSafeUnderConcurrency(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     int threads = 20;
     ExecutorService service = Executors.newFixedThreadPool(threads);
     CountDownLatch latch = new CountDownLatch(threads);
@@ -121,4 +211,26 @@ class FixedWindowRateLimiterTest {
     assertEquals(limit, acceptedCount.get(),
         "The window limit should not be exceeded for parallel requests.");
   }
-}
\ No newline at end of file
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldReportRemainingQuotaAndRetryAfter(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < limit; i++) {
+      RateLimitDecision decision = fixedWindowRateLimiter.decide(id, key, limit, windowDuration, 1);
+      assertTrue(decision.allowed());
+      assertEquals(limit, decision.limit());
+      assertEquals(limit - i - 1, decision.remaining());
+      assertTrue(decision.resetMillis() > 0 && decision.resetMillis() <= windowDuration.toMillis());
+      assertEquals(0, decision.retryAfterMillis());
+    }
+
+    RateLimitDecision rejected = fixedWindowRateLimiter.decide(id, key, limit, windowDuration, 1);
+    assertFalse(rejected.allowed());
+    assertEquals(0, rejected.remaining());
+    assertTrue(rejected.retryAfterMillis() > 0
+            && rejected.retryAfterMillis() <= windowDuration.toMillis(),
+        "A rejected request should be told to retry when the window resets.");
+  }
+
+}
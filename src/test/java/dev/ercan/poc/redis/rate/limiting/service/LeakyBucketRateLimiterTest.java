@@ -4,7 +4,12 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import dev.ercan.poc.redis.rate.limiting.memory.SwitchableScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,13 +17,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.connection.RedisCommands;
 import org.springframework.test.context.ActiveProfiles;
 
 @SpringBootTest
 @ActiveProfiles("test")
+@Import(SwitchableScriptExecutor.class)
 class LeakyBucketRateLimiterTest {
 
   @Autowired
@@ -27,6 +36,9 @@ class LeakyBucketRateLimiterTest {
   @Autowired
   private RedisCommands redisCommands;
 
+  @Autowired
+  private SwitchableScriptExecutor scriptBackend;
+
   private final String id = "LeakyBucketRateLimiterTest";
   private final String key = "127.0.0.1";
   private final long capacity = 5;
@@ -36,19 +48,24 @@ class LeakyBucketRateLimiterTest {
   @BeforeEach
   @AfterEach
   void setup() {
-    redisCommands.del(("leaky_bucket:" + id + ":" + key).getBytes());
+    scriptBackend.reset();
+    redisCommands.del(("leaky_bucket:{" + id + ":" + key + "}").getBytes());
   }
 
-  @Test
-  void shouldAllowRequestsWhenBucketNotFull() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAllowRequestsWhenBucketNotFull(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < capacity; i++) {
       boolean allowed = leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod);
       assertTrue(allowed, "Requests should be accepted when bucket is not full");
     }
   }
 
-  @Test
-  void shouldRejectRequestsWhenBucketFull() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsWhenBucketFull(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < capacity; i++) {
       leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod);
     }
@@ -56,8 +73,10 @@ class LeakyBucketRateLimiterTest {
     assertFalse(allowed, "Requests should be rejected when bucket is full");
   }
 
-  @Test
-  void shouldLeakAndAcceptNewRequestsAfterPeriod() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldLeakAndAcceptNewRequestsAfterPeriod(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     for (int i = 0; i < capacity; i++) {
       leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod);
     }
@@ -68,8 +87,10 @@ class LeakyBucketRateLimiterTest {
     assertTrue(allowed, "Requests should be accepted after leak period.");
   }
 
-  @Test
-  void shouldHandleMultipleKeysSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleKeysSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherKey = "127.0.0.2";
     for (int i = 0; i < capacity; i++) {
       leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod);
@@ -80,8 +101,10 @@ class LeakyBucketRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldHandleMultipleIdsSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleIdsSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherId = "AnotherLeakyBucketRateLimiterTest";
     for (int i = 0; i < capacity; i++) {
       leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod);
@@ -92,8 +115,64 @@ class LeakyBucketRateLimiterTest {
     }
   }
 
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareStateBetweenBlockingAsyncAndReactiveApis(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < capacity; i++) {
+      boolean allowed = switch (i % 3) {
+        case 0 -> leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod);
+        case 1 -> leakyBucketRateLimiter.tryConsumeAsync(id, key, capacity, leakRate, leakPeriod).toCompletableFuture().join();
+        default -> leakyBucketRateLimiter.tryConsumeReactive(id, key, capacity, leakRate, leakPeriod).block();
+      };
+      assertTrue(allowed, "Requests below the limit must be accepted by every API variant.");
+    }
+    assertFalse(leakyBucketRateLimiter.tryConsumeAsync(id, key, capacity, leakRate, leakPeriod).toCompletableFuture().join(),
+        "Async requests should be rejected when the limit is exceeded.");
+    assertFalse(leakyBucketRateLimiter.tryConsumeReactive(id, key, capacity, leakRate, leakPeriod).block(),
+        "Reactive requests should be rejected when the limit is exceeded.");
+  }
+
   @Test
-  void shouldBeThreadSafeUnderConcurrency() throws InterruptedException {
+  void shouldMigrateStateStoredAsString() {
+    byte[] bucketKey = ("leaky_bucket:{" + id + ":" + key + "}").getBytes();
+    redisCommands.set(bucketKey, ((capacity - 1) + ":" + System.currentTimeMillis()).getBytes());
+
+    assertTrue(leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod));
+    assertEquals(1, redisCommands.get(bucketKey)[0], "State should be rewritten in the packed format.");
+    assertFalse(leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod),
+        "Water in the string state should carry over.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldConsumeWeightedPermitsAllOrNothing(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    assertTrue(leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod, capacity - 1));
+    assertFalse(leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod, 2),
+        "Requests costing more permits than are left should be rejected.");
+    assertTrue(leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod, 1),
+        "A rejected weighted request must not consume any permits.");
+    assertFalse(leakyBucketRateLimiter.tryConsume(id, key, capacity, leakRate, leakPeriod, 1));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldGrantCoalescedRequestsUpToTheLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    List<CompletableFuture<Boolean>> requests = new ArrayList<>();
+    for (int i = 0; i < capacity * 4; i++) {
+      requests.add(leakyBucketRateLimiter.tryConsumeCoalesced(id, key, capacity, leakRate, leakPeriod).toCompletableFuture());
+    }
+
+    long allowed = requests.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+    assertEquals(capacity, allowed, "Coalesced requests should be granted exactly up to the limit.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldBeThreadSafeUnderConcurrency(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     int threads = 20;
     ExecutorService service = Executors.newFixedThreadPool(threads);
     CountDownLatch latch = new CountDownLatch(threads);
@@ -113,4 +192,27 @@ class LeakyBucketRateLimiterTest {
     assertEquals(capacity, acceptedCount.get(),
         "The capacity should not be exceeded for parallel requests.");
   }
-}
\ No newline at end of file
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldReportRemainingQuotaAndRetryAfter(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    RateLimitDecision first = leakyBucketRateLimiter.decide(id, key, capacity, leakRate,
+        leakPeriod, 1);
+    assertTrue(first.allowed());
+    assertEquals(capacity, first.limit());
+    assertEquals(capacity - 1, first.remaining());
+    assertTrue(first.resetMillis() > 0 && first.resetMillis() <= leakPeriod.toMillis());
+
+    leakyBucketRateLimiter.decide(id, key, capacity, leakRate, leakPeriod, capacity - 1);
+    RateLimitDecision rejected = leakyBucketRateLimiter.decide(id, key, capacity, leakRate,
+        leakPeriod, 1);
+    assertFalse(rejected.allowed());
+    assertEquals(0, rejected.remaining());
+    assertTrue(rejected.retryAfterMillis() > 0
+        && rejected.retryAfterMillis() <= leakPeriod.toMillis(),
+        "A full bucket has room again after the next leak.");
+    assertTrue(rejected.resetMillis() > (capacity - 1) * leakPeriod.toMillis());
+  }
+
+}
@@ -0,0 +1,161 @@
+package dev.ercan.poc.redis.rate.limiting.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ercan.poc.redis.rate.limiting.config.RateLimiterProperties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+import org.junit.jupiter.api.Test;
+
+class RequestCoalescerTest {
+
+  private final List<Long> requestedPermits = new ArrayList<>();
+  private final List<CompletableFuture<Long>> calls = new ArrayList<>();
+
+  private final LongFunction<CompletionStage<Long>> consume = permits -> {
+    CompletableFuture<Long> call = new CompletableFuture<>();
+    requestedPermits.add(permits);
+    calls.add(call);
+    return call;
+  };
+
+  @Test
+  void shouldBatchRequestsArrivingWhileACallIsInFlight() {
+    RequestCoalescer coalescer = create(100);
+
+    CompletableFuture<Boolean> first = coalescer.acquire("key", consume).toCompletableFuture();
+    List<CompletableFuture<Boolean>> queued = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      queued.add(coalescer.acquire("key", consume).toCompletableFuture());
+    }
+    assertEquals(List.of(1L), requestedPermits, "Only the first request should reach Redis at once.");
+
+    calls.get(0).complete(1L);
+    assertTrue(first.join());
+    assertEquals(List.of(1L, 3L), requestedPermits, "Queued requests should be sent as one call.");
+
+    calls.get(1).complete(2L);
+    assertTrue(queued.get(0).join());
+    assertTrue(queued.get(1).join());
+    assertFalse(queued.get(2).join(), "Permits should be handed out in arrival order.");
+  }
+
+  @Test
+  void shouldLimitBatchSize() {
+    RequestCoalescer coalescer = create(2);
+
+    coalescer.acquire("key", consume);
+    for (int i = 0; i < 3; i++) {
+      coalescer.acquire("key", consume);
+    }
+    calls.get(0).complete(1L);
+    calls.get(1).complete(2L);
+
+    assertEquals(List.of(1L, 2L, 1L), requestedPermits);
+  }
+
+  @Test
+  void shouldNotBatchDifferentKeys() {
+    RequestCoalescer coalescer = create(100);
+
+    coalescer.acquire("key", consume);
+    coalescer.acquire("anotherKey", consume);
+
+    assertEquals(List.of(1L, 1L), requestedPermits);
+  }
+
+  @Test
+  void shouldFailEveryRequestOfAFailedBatch() {
+    RequestCoalescer coalescer = create(100);
+
+    CompletableFuture<Boolean> first = coalescer.acquire("key", consume).toCompletableFuture();
+    CompletableFuture<Boolean> second = coalescer.acquire("key", consume).toCompletableFuture();
+    calls.get(0).complete(1L);
+    calls.get(1).completeExceptionally(new IllegalStateException("Redis is down"));
+
+    assertTrue(first.join());
+    assertThrows(CompletionException.class, second::join);
+
+    coalescer.acquire("key", consume);
+    assertEquals(3, calls.size(), "The key should accept new requests after a failed batch.");
+  }
+
+  @Test
+  void shouldNotGrowTheStackWhenCallsCompleteAtOnce() {
+    RequestCoalescer coalescer = create(1);
+    CompletableFuture<Long> firstCall = new CompletableFuture<>();
+    LongFunction<CompletionStage<Long>> completed = permits ->
+        calls.isEmpty() && calls.add(firstCall) ? firstCall : CompletableFuture.completedFuture(permits);
+
+    List<CompletableFuture<Boolean>> requests = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      requests.add(coalescer.acquire("key", completed).toCompletableFuture());
+    }
+    firstCall.complete(1L);
+
+    CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new)).orTimeout(10, TimeUnit.SECONDS).join();
+    assertTrue(requests.stream().allMatch(CompletableFuture::join));
+  }
+
+  @Test
+  void shouldKeepOneCallInFlightPerKeyUnderConcurrency() throws InterruptedException {
+    RequestCoalescer coalescer = create(100);
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    // completes at once, so batches empty and are removed all the time
+    LongFunction<CompletionStage<Long>> immediate = permits -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      Thread.yield();
+      inFlight.decrementAndGet();
+      return CompletableFuture.completedFuture(permits);
+    };
+
+    int threads = 8;
+    ExecutorService callers = Executors.newFixedThreadPool(threads);
+    Queue<CompletableFuture<Boolean>> requests = new ConcurrentLinkedQueue<>();
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      callers.submit(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < 20_000; i++) {
+            requests.add(coalescer.acquire("key", immediate).toCompletableFuture());
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    start.countDown();
+    done.await();
+    callers.shutdown();
+
+    CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new)).orTimeout(10, TimeUnit.SECONDS).join();
+    assertTrue(requests.stream().allMatch(CompletableFuture::join));
+    assertEquals(1, maxInFlight.get(), "A key should never have two calls in flight.");
+  }
+
+  private RequestCoalescer create(int maxBatchSize) {
+    RateLimiterProperties properties = new RateLimiterProperties();
+    properties.getCoalescing().setMaxBatchSize(maxBatchSize);
+    return new RequestCoalescer(properties);
+  }
+
+}
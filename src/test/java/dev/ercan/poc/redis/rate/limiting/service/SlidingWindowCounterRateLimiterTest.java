@@ -1,11 +1,22 @@
 package dev.ercan.poc.redis.rate.limiting.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import dev.ercan.poc.redis.rate.limiting.memory.SwitchableScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.ScriptOutputType;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -13,13 +24,18 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.test.context.ActiveProfiles;
 
 @SpringBootTest
 @ActiveProfiles("test")
+@Import(SwitchableScriptExecutor.class)
 class SlidingWindowCounterRateLimiterTest {
 
   @Autowired
@@ -28,6 +44,15 @@ class SlidingWindowCounterRateLimiterTest {
   @Autowired
   private RedisCommands redisCommands;
 
+  @Autowired
+  private SwitchableScriptExecutor scriptBackend;
+
+  @Autowired
+  private ScriptExecutor scriptExecutor;
+
+  @Autowired
+  private RedisScript<List> slidingWindowCounterRateLimiterScript;
+
   private final String id = "SlidingWindowCounterRateLimiterTest";
   private final String key = "127.0.0.1";
   private final long limit = 5;
@@ -37,27 +62,32 @@ class SlidingWindowCounterRateLimiterTest {
   @BeforeEach
   @AfterEach
   void setup() {
+    scriptBackend.reset();
     long now = Instant.now().toEpochMilli();
     long currentSubWindowNumber = now / subWindowDuration.toMillis();
     long windowSubWindowCount = windowDuration.toMillis() / subWindowDuration.toMillis();
 
     for (long i = 0; i <= windowSubWindowCount; i++) {
       long subWindowNumber = currentSubWindowNumber - i;
-      String subWindowKey = String.format("sliding_window_counter:%s:%s:%s", id, key, subWindowNumber);
+      String subWindowKey = String.format("sliding_window_counter:{%s:%s}:%s", id, key, subWindowNumber);
       redisCommands.del(subWindowKey.getBytes());
     }
   }
 
-  @Test
-  void shouldAllowRequestsWithinLimit() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAllowRequestsWithinLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       boolean allowed = slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration);
       assertTrue(allowed, "Requests below the limit must be accepted during the window period.");
     }
   }
 
-  @Test
-  void shouldRejectRequestsOverLimitInSameWindow() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsOverLimitInSameWindow(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration);
     }
@@ -65,8 +95,10 @@ class SlidingWindowCounterRateLimiterTest {
     assertFalse(allowed, "Requests should be rejected when the limit is exceeded.");
   }
 
-  @Test
-  void shouldResetWindowAndAcceptRequestsAgain() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldResetWindowAndAcceptRequestsAgain(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration);
     }
@@ -77,8 +109,10 @@ class SlidingWindowCounterRateLimiterTest {
     assertTrue(allowed, "Request should be accepted when window expire.");
   }
 
-  @Test
-  void shouldHandleMultipleKeysSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleKeysSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherKey = "127.0.0.2";
     for (int i = 0; i < limit; i++) {
       slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration);
@@ -89,8 +123,10 @@ class SlidingWindowCounterRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldHandleMultipleIdsSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleIdsSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherId = "AnotherSlidingWindowCounterRateLimiterTest";
     for (int i = 0; i < limit; i++) {
       slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration);
@@ -101,8 +137,10 @@ class SlidingWindowCounterRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldRejectRequestsForZeroOrNegativeLimit() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsForZeroOrNegativeLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
     boolean allowed = slidingWindowCounterRateLimiter.tryConsume(id, key, 0, windowDuration, subWindowDuration);
     assertFalse(allowed, "Request should be rejected when limit given as zero.");
 
@@ -110,8 +148,10 @@ class SlidingWindowCounterRateLimiterTest {
     assertFalse(allowed, "Request should be rejected when limit given as negative.");
   }
 
-  @Test
-  void shouldThrottleBurstRequestsWithWeightedCounter() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldThrottleBurstRequestsWithWeightedCounter(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     Thread.sleep(windowDuration.toMillis() - subWindowDuration.toMillis());
     long burst = limit;
     int accepted = 0;
@@ -123,8 +163,53 @@ class SlidingWindowCounterRateLimiterTest {
     assertTrue(accepted <= limit);
   }
 
-  @Test
-  void shouldBeThreadSafeUnderConcurrency() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareStateBetweenBlockingAsyncAndReactiveApis(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < limit; i++) {
+      boolean allowed = switch (i % 3) {
+        case 0 -> slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration);
+        case 1 -> slidingWindowCounterRateLimiter.tryConsumeAsync(id, key, limit, windowDuration, subWindowDuration).toCompletableFuture().join();
+        default -> slidingWindowCounterRateLimiter.tryConsumeReactive(id, key, limit, windowDuration, subWindowDuration).block();
+      };
+      assertTrue(allowed, "Requests below the limit must be accepted by every API variant.");
+    }
+    assertFalse(slidingWindowCounterRateLimiter.tryConsumeAsync(id, key, limit, windowDuration, subWindowDuration).toCompletableFuture().join(),
+        "Async requests should be rejected when the limit is exceeded.");
+    assertFalse(slidingWindowCounterRateLimiter.tryConsumeReactive(id, key, limit, windowDuration, subWindowDuration).block(),
+        "Reactive requests should be rejected when the limit is exceeded.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldConsumeWeightedPermitsAllOrNothing(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    assertTrue(slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration, limit - 1));
+    assertFalse(slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration, 2),
+        "Requests costing more permits than are left should be rejected.");
+    assertTrue(slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration, 1),
+        "A rejected weighted request must not consume any permits.");
+    assertFalse(slidingWindowCounterRateLimiter.tryConsume(id, key, limit, windowDuration, subWindowDuration, 1));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldGrantCoalescedRequestsUpToTheLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    List<CompletableFuture<Boolean>> requests = new ArrayList<>();
+    for (int i = 0; i < limit * 4; i++) {
+      requests.add(slidingWindowCounterRateLimiter.tryConsumeCoalesced(id, key, limit, windowDuration, subWindowDuration).toCompletableFuture());
+    }
+
+    long allowed = requests.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+    assertEquals(limit, allowed, "Coalesced requests should be granted exactly up to the limit.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldBeThreadSafeUnderConcurrency(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     int threads = 20;
     ExecutorService service = Executors.newFixedThreadPool(threads);
     CountDownLatch latch = new CountDownLatch(threads);
@@ -144,4 +229,66 @@ class SlidingWindowCounterRateLimiterTest {
     assertEquals(limit, acceptedCount.get(),
         "The window limit should not be exceeded for parallel requests.");
   }
-}
\ No newline at end of file
+
+  @Test
+  void shouldCountInTheSubWindowKeysItIsSent() {
+    long now = System.currentTimeMillis();
+    long current = now / subWindowDuration.toMillis();
+
+    assertEquals(1L, countAt(now, current - 1).get(0));
+
+    assertArrayEquals("1".getBytes(),
+        redisCommands.get(("sliding_window_counter:{" + id + ":" + key + "}:" + current).getBytes()));
+  }
+
+  @Test
+  void shouldFailWhenTheCurrentSubWindowWasNotSent() {
+    long now = System.currentTimeMillis();
+    long current = now / subWindowDuration.toMillis();
+
+    assertThrows(RedisCommandExecutionException.class, () -> countAt(now, current + 1),
+        "The script must not touch sub-window keys it was not sent.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldReportRemainingQuotaAndRetryAfter(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < limit; i++) {
+      RateLimitDecision decision = slidingWindowCounterRateLimiter.decide(id, key, limit,
+          windowDuration, subWindowDuration, 1);
+      assertTrue(decision.allowed());
+      assertEquals(limit, decision.limit());
+      assertEquals(limit - i - 1, decision.remaining());
+      assertTrue(decision.resetMillis() > 0);
+    }
+
+    RateLimitDecision rejected = slidingWindowCounterRateLimiter.decide(id, key, limit,
+        windowDuration, subWindowDuration, 1);
+    assertFalse(rejected.allowed());
+    assertEquals(0, rejected.remaining());
+    assertTrue(rejected.retryAfterMillis() > 0
+        && rejected.retryAfterMillis() <= rejected.resetMillis());
+  }
+
+  private List<Long> countAt(long nowMillis, long firstSubWindow) {
+    String windowKey = "sliding_window_counter:{" + id + ":" + key + "}";
+    return scriptExecutor.execute(SlidingWindowCounterRateLimiter.LIMITER,
+        slidingWindowCounterRateLimiterScript, ScriptOutputType.MULTI,
+        new byte[][] {
+            windowKey.getBytes(),
+            (windowKey + ":" + firstSubWindow).getBytes(),
+            (windowKey + ":" + (firstSubWindow + 1)).getBytes()
+        },
+        new byte[][] {
+            ScriptArgs.decimal(nowMillis),
+            ScriptArgs.constant(windowDuration.toMillis()),
+            ScriptArgs.constant(subWindowDuration.toMillis()),
+            ScriptArgs.constant(limit),
+            ScriptArgs.decimal(1),
+            ScriptArgs.flag(false),
+            ScriptArgs.decimal(firstSubWindow)
+        });
+  }
+
+}
@@ -4,7 +4,16 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import dev.ercan.poc.redis.rate.limiting.memory.SwitchableScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptArgs;
+import dev.ercan.poc.redis.rate.limiting.script.ScriptExecutor;
+import io.lettuce.core.ScriptOutputType;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,13 +21,18 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.test.context.ActiveProfiles;
 
 @SpringBootTest
 @ActiveProfiles("test")
+@Import(SwitchableScriptExecutor.class)
 class SlidingWindowLogRateLimiterTest {
 
   @Autowired
@@ -27,6 +41,15 @@ class SlidingWindowLogRateLimiterTest {
   @Autowired
   private RedisCommands redisCommands;
 
+  @Autowired
+  private SwitchableScriptExecutor scriptBackend;
+
+  @Autowired
+  private ScriptExecutor scriptExecutor;
+
+  @Autowired
+  private RedisScript<List> slidingWindowLogRateLimiterScript;
+
   private final String id = "SlidingWindowLogRateLimiterTest";
   private final String key = "127.0.0.1";
   private final long limit = 3;
@@ -35,19 +58,24 @@ class SlidingWindowLogRateLimiterTest {
   @BeforeEach
   @AfterEach
   void setup() {
-    redisCommands.del(("sliding_window_log:" + id + ":" + key).getBytes());
+    scriptBackend.reset();
+    redisCommands.del(("sliding_window_log:{" + id + ":" + key + "}").getBytes());
   }
 
-  @Test
-  void shouldAllowRequestsWithinLimit() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAllowRequestsWithinLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       boolean allowed = slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
       assertTrue(allowed, "Requests below the limit must be accepted during the window period.");
     }
   }
 
-  @Test
-  void shouldRejectRequestsOverLimitInSameWindow() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsOverLimitInSameWindow(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
     }
@@ -55,8 +83,10 @@ class SlidingWindowLogRateLimiterTest {
     assertFalse(allowed, "Requests should be rejected when the limit is exceeded.");
   }
 
-  @Test
-  void shouldResetWindowAndAcceptRequestsAgain() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldResetWindowAndAcceptRequestsAgain(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     for (int i = 0; i < limit; i++) {
       slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
     }
@@ -67,8 +97,10 @@ class SlidingWindowLogRateLimiterTest {
     assertTrue(allowed, "Request should be accepted when window expire.");
   }
 
-  @Test
-  void shouldHandleMultipleKeysSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleKeysSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherKey = "127.0.0.2";
     for (int i = 0; i < limit; i++) {
       slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
@@ -79,8 +111,10 @@ class SlidingWindowLogRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldHandleMultipleIdsSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleIdsSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherId = "AnotherSlidingWindowLogRateLimiterTest";
     for (int i = 0; i < limit; i++) {
       slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
@@ -91,8 +125,10 @@ class SlidingWindowLogRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldRejectRequestsForZeroOrNegativeLimit() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsForZeroOrNegativeLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
     boolean allowed = slidingWindowLogRateLimiter.tryConsume(id, key, 0, windowDuration);
     assertFalse(allowed, "Request should be rejected when limit given as zero.");
 
@@ -106,10 +142,37 @@ class SlidingWindowLogRateLimiterTest {
       slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
     }
 
-    Long logSize = redisCommands.zCard(("sliding_window_log:" + id + ":" + key).getBytes());
+    Long logSize = redisCommands.zCard(("sliding_window_log:{" + id + ":" + key + "}").getBytes());
     assertEquals(limit, logSize, "Only successful requests should be logged.");
   }
 
+  @Test
+  void shouldLogEveryPermitWithACompactMember() {
+    byte[] windowKey = ("sliding_window_log:{" + id + ":" + key + "}").getBytes();
+    assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, 5000, windowDuration, 2500));
+    assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, 5000, windowDuration, 2500));
+
+    Set<byte[]> members = redisCommands.zRange(windowKey, 0, -1);
+    assertEquals(5000, members.size(), "Every permit should be logged as its own entry.");
+    assertTrue(members.stream().allMatch(member -> member.length <= 16),
+        "Members should be a few bytes long.");
+    assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, 5000, windowDuration));
+  }
+
+  @Test
+  void shouldKeepEntriesOfNodesWithSkewedClocks() {
+    long window = windowDuration.toMillis();
+    long now = System.currentTimeMillis();
+
+    // a node whose clock runs one window ahead logs a time equal to ours modulo the window
+    assertEquals(1L, logAt(now + window).get(0));
+    assertEquals(1L, logAt(now).get(0));
+    assertEquals(1L, logAt(now + window - 1).get(0));
+
+    assertEquals(3L, redisCommands.zCard(SlidingWindowLogRateLimiter.windowKey(id, key)),
+        "Entries logged with different clocks must not overwrite each other.");
+  }
+
   @Test
   void shouldRemoveOldRequestsFromLog() throws InterruptedException {
     for (int i = 0; i < limit; i++) {
@@ -117,12 +180,57 @@ class SlidingWindowLogRateLimiterTest {
     }
     Thread.sleep(windowDuration.toMillis() + 200);
     slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
-    Long logSize = redisCommands.zCard(("sliding_window_log:" + id + ":" + key).getBytes());
+    Long logSize = redisCommands.zCard(("sliding_window_log:{" + id + ":" + key + "}").getBytes());
     assertEquals(1, logSize, "Old requests should be cleaned up when they go out of the window.");
   }
 
-  @Test
-  void shouldBeThreadSafeUnderConcurrency() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareStateBetweenBlockingAsyncAndReactiveApis(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < limit; i++) {
+      boolean allowed = switch (i % 3) {
+        case 0 -> slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration);
+        case 1 -> slidingWindowLogRateLimiter.tryConsumeAsync(id, key, limit, windowDuration).toCompletableFuture().join();
+        default -> slidingWindowLogRateLimiter.tryConsumeReactive(id, key, limit, windowDuration).block();
+      };
+      assertTrue(allowed, "Requests below the limit must be accepted by every API variant.");
+    }
+    assertFalse(slidingWindowLogRateLimiter.tryConsumeAsync(id, key, limit, windowDuration).toCompletableFuture().join(),
+        "Async requests should be rejected when the limit is exceeded.");
+    assertFalse(slidingWindowLogRateLimiter.tryConsumeReactive(id, key, limit, windowDuration).block(),
+        "Reactive requests should be rejected when the limit is exceeded.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldConsumeWeightedPermitsAllOrNothing(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration, limit - 1));
+    assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration, 2),
+        "Requests costing more permits than are left should be rejected.");
+    assertTrue(slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration, 1),
+        "A rejected weighted request must not consume any permits.");
+    assertFalse(slidingWindowLogRateLimiter.tryConsume(id, key, limit, windowDuration, 1));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldGrantCoalescedRequestsUpToTheLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    List<CompletableFuture<Boolean>> requests = new ArrayList<>();
+    for (int i = 0; i < limit * 4; i++) {
+      requests.add(slidingWindowLogRateLimiter.tryConsumeCoalesced(id, key, limit, windowDuration).toCompletableFuture());
+    }
+
+    long allowed = requests.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+    assertEquals(limit, allowed, "Coalesced requests should be granted exactly up to the limit.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldBeThreadSafeUnderConcurrency(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     int threads = 20;
     ExecutorService service = Executors.newFixedThreadPool(threads);
     CountDownLatch latch = new CountDownLatch(threads);
@@ -142,4 +250,40 @@ class SlidingWindowLogRateLimiterTest {
     assertEquals(limit, acceptedCount.get(),
         "The window limit should not be exceeded for parallel requests.");
   }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldReportRemainingQuotaAndRetryAfter(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < limit; i++) {
+      RateLimitDecision decision = slidingWindowLogRateLimiter.decide(id, key, limit,
+          windowDuration, 1);
+      assertTrue(decision.allowed());
+      assertEquals(limit, decision.limit());
+      assertEquals(limit - i - 1, decision.remaining());
+      assertTrue(decision.resetMillis() > 0 && decision.resetMillis() <= windowDuration.toMillis());
+    }
+
+    RateLimitDecision rejected = slidingWindowLogRateLimiter.decide(id, key, limit,
+        windowDuration, 1);
+    assertFalse(rejected.allowed());
+    assertEquals(0, rejected.remaining());
+    assertTrue(rejected.retryAfterMillis() > 0
+        && rejected.retryAfterMillis() <= rejected.resetMillis(),
+        "The oldest request leaves the window before the newest one.");
+  }
+
+  private List<Long> logAt(long nowMillis) {
+    return scriptExecutor.execute(SlidingWindowLogRateLimiter.LIMITER,
+        slidingWindowLogRateLimiterScript, ScriptOutputType.MULTI,
+        new byte[][] {SlidingWindowLogRateLimiter.windowKey(id, key)},
+        new byte[][] {
+            ScriptArgs.decimal(nowMillis),
+            ScriptArgs.constant(windowDuration.toMillis()),
+            ScriptArgs.constant(limit),
+            ScriptArgs.decimal(1),
+            ScriptArgs.flag(false)
+        });
+  }
+
 }
@@ -1,10 +1,20 @@
 package dev.ercan.poc.redis.rate.limiting.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import dev.ercan.poc.redis.rate.limiting.memory.SwitchableScriptExecutor;
+import dev.ercan.poc.redis.rate.limiting.script.LimiterBackend;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,13 +22,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.connection.RedisCommands;
 import org.springframework.test.context.ActiveProfiles;
 
 @SpringBootTest
 @ActiveProfiles("test")
+@Import(SwitchableScriptExecutor.class)
 class TokenBucketRateLimiterTest {
 
   @Autowired
@@ -27,6 +41,15 @@ class TokenBucketRateLimiterTest {
   @Autowired
   private RedisCommands redisCommands;
 
+  @Autowired
+  private SwitchableScriptExecutor scriptBackend;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
   private final String id = "TokenBucketRateLimiterTest";
   private final String key = "127.0.0.1";
   private final long capacity = 5;
@@ -36,11 +59,15 @@ class TokenBucketRateLimiterTest {
   @BeforeEach
   @AfterEach
   void setup() {
-    redisCommands.del(("token_bucket:" + id + ":" + key).getBytes());
+    scriptBackend.reset();
+    denyCache.clear();
+    redisCommands.del(("token_bucket:{" + id + ":" + key + "}").getBytes());
   }
 
-  @Test
-  void shouldAllowRequestsWhenTokensAvailable() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldAllowRequestsWhenTokensAvailable(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < capacity; i++) {
       boolean allowed = tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate,
           refillPeriod);
@@ -48,8 +75,10 @@ class TokenBucketRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldRejectRequestsWhenTokensExhausted() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRejectRequestsWhenTokensExhausted(LimiterBackend backend) {
+    scriptBackend.use(backend);
     for (int i = 0; i < capacity; i++) {
       tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
     }
@@ -58,8 +87,10 @@ class TokenBucketRateLimiterTest {
     assertFalse(allowed, "Requests should be rejected while avaliable token not exists.");
   }
 
-  @Test
-  void shouldRefillTokensAfterPeriod() throws InterruptedException {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldRefillTokensAfterPeriod(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     for (int i = 0; i < capacity; i++) {
       tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
     }
@@ -74,8 +105,10 @@ class TokenBucketRateLimiterTest {
     assertTrue(allowed, "Request should be accepted after refill period.");
   }
 
-  @Test
-  void shouldNotExceedCapacityWithBurstRequests() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldNotExceedCapacityWithBurstRequests(LimiterBackend backend) {
+    scriptBackend.use(backend);
     int burst = 10;
     int accepted = 0;
     for (int i = 0; i < burst; i++) {
@@ -86,8 +119,21 @@ class TokenBucketRateLimiterTest {
     assertEquals(capacity, accepted, "The capacity should not be exceeded for burst requests.");
   }
 
-  @Test
-  void shouldNotAllowNegativeOrZeroCapacity() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldLimitWhenTheRefillRateExceedsTheCapacity(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < 2; i++) {
+      assertTrue(tokenBucketRateLimiter.tryConsume(id, key, 2, 5, refillPeriod));
+    }
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, 2, 5, refillPeriod),
+        "A bucket refilling more than its capacity per period should still keep its state.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldNotAllowNegativeOrZeroCapacity(LimiterBackend backend) {
+    scriptBackend.use(backend);
     boolean allowed = tokenBucketRateLimiter.tryConsume(id, key, 0, refillRate, refillPeriod);
     assertFalse(allowed, "Request should be rejected when capacity given as zero.");
 
@@ -95,8 +141,10 @@ class TokenBucketRateLimiterTest {
     assertFalse(allowed, "Request should be rejected when capacity given as negative.");
   }
 
-  @Test
-  void shouldHandleMultipleKeysSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleKeysSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherKey = "127.0.0.2";
     for (int i = 0; i < capacity; i++) {
       tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
@@ -108,8 +156,10 @@ class TokenBucketRateLimiterTest {
     }
   }
 
-  @Test
-  void shouldHandleMultipleIdsSeparately() {
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldHandleMultipleIdsSeparately(LimiterBackend backend) {
+    scriptBackend.use(backend);
     String anotherId = "AnotherTokenBucketRateLimiterTest";
     for (int i = 0; i < capacity; i++) {
       tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
@@ -122,7 +172,231 @@ class TokenBucketRateLimiterTest {
   }
 
   @Test
-  void shouldBeThreadSafeUnderConcurrency() throws InterruptedException {
+  void shouldRejectDeniedKeyLocallyWithoutRedis() {
+    for (int i = 0; i <= capacity; i++) {
+      tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
+    }
+    assertTrue(denyCache.isDenied(TokenBucketRateLimiter.bucketKey(id, key)), "Rejected key should be cached locally.");
+
+    // Reset the bucket in Redis only; the local decision must still apply
+    redisCommands.del(("token_bucket:{" + id + ":" + key + "}").getBytes());
+    boolean allowed = tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
+    assertFalse(allowed, "Requests for a locally denied key should be rejected.");
+    assertFalse(redisCommands.exists(("token_bucket:{" + id + ":" + key + "}").getBytes()),
+        "Locally rejected requests should not reach Redis.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldShareStateBetweenBlockingAsyncAndReactiveApis(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    for (int i = 0; i < capacity; i++) {
+      boolean allowed = switch (i % 3) {
+        case 0 -> tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
+        case 1 -> tokenBucketRateLimiter.tryConsumeAsync(id, key, capacity, refillRate, refillPeriod).toCompletableFuture().join();
+        default -> tokenBucketRateLimiter.tryConsumeReactive(id, key, capacity, refillRate, refillPeriod).block();
+      };
+      assertTrue(allowed, "Requests below the limit must be accepted by every API variant.");
+    }
+    assertFalse(tokenBucketRateLimiter.tryConsumeAsync(id, key, capacity, refillRate, refillPeriod).toCompletableFuture().join(),
+        "Async requests should be rejected when the limit is exceeded.");
+    assertFalse(tokenBucketRateLimiter.tryConsumeReactive(id, key, capacity, refillRate, refillPeriod).block(),
+        "Reactive requests should be rejected when the limit is exceeded.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldNotExceedCapacityInLeasedMode(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    // the limiter keeps its leases across tests, so each backend leases under its own id
+    String leasedId = "LeasedTokenBucketRateLimiterTest" + backend;
+    redisCommands.del(("token_bucket:{" + leasedId + ":" + key + "}").getBytes());
+
+    int accepted = 0;
+    for (int i = 0; i < capacity * 2; i++) {
+      if (tokenBucketRateLimiter.tryConsumeLeased(leasedId, key, capacity, refillRate, refillPeriod, 2)) {
+        accepted++;
+      }
+    }
+    assertEquals(capacity, accepted, "Leasing tokens should not exceed the bucket capacity.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldReturnUnusedLeasedTokensAfterLeaseExpires(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    String leasedId = "ReturningLeasedTokenBucketRateLimiterTest" + backend;
+    redisCommands.del(("token_bucket:{" + leasedId + ":" + key + "}").getBytes());
+
+    // leases 3 tokens, one of them used
+    assertTrue(tokenBucketRateLimiter.tryConsumeLeased(leasedId, key, capacity, refillRate, refillPeriod, 3));
+    Thread.sleep(600);
+    // returns the 2 unused tokens and leases 3 again, one of them used
+    assertTrue(tokenBucketRateLimiter.tryConsumeLeased(leasedId, key, capacity, refillRate, refillPeriod, 3));
+
+    assertTrue(tokenBucketRateLimiter.tryConsume(leasedId, key, capacity, refillRate, refillPeriod),
+        "Unused leased tokens should be returned to the bucket.");
+    assertFalse(tokenBucketRateLimiter.tryConsume(leasedId, key, capacity, refillRate, refillPeriod),
+        "Tokens held by the current lease should not be available to other callers.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldNotExceedCapacityInLeasedModeUnderConcurrency(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    String leasedId = "ConcurrentLeasedTokenBucketRateLimiterTest" + backend;
+    redisCommands.del(("token_bucket:{" + leasedId + ":" + key + "}").getBytes());
+
+    int threads = 20;
+    ExecutorService service = Executors.newFixedThreadPool(threads);
+    CountDownLatch latch = new CountDownLatch(threads);
+    AtomicInteger acceptedCount = new AtomicInteger(0);
+
+    for (int i = 0; i < threads; i++) {
+      service.submit(() -> {
+        if (tokenBucketRateLimiter.tryConsumeLeased(leasedId, key, capacity, refillRate, refillPeriod, 2)) {
+          acceptedCount.incrementAndGet();
+        }
+        latch.countDown();
+      });
+    }
+    latch.await();
+    service.shutdown();
+
+    assertTrue(acceptedCount.get() <= capacity,
+        "The capacity should not be exceeded for parallel requests in leased mode.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldWaitForRenewalInsteadOfCallingRedisPerRequest(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    String leasedId = "WaitingLeasedTokenBucketRateLimiterTest" + backend;
+    redisCommands.del(("token_bucket:{" + leasedId + ":" + key + "}").getBytes());
+
+    int threads = 20;
+    ExecutorService service = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+    AtomicInteger acceptedCount = new AtomicInteger(0);
+
+    for (int i = 0; i < threads; i++) {
+      service.submit(() -> {
+        try {
+          start.await();
+          if (tokenBucketRateLimiter.tryConsumeLeased(leasedId, key, 1000, refillRate, refillPeriod, 100)) {
+            acceptedCount.incrementAndGet();
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    start.countDown();
+    done.await();
+    service.shutdown();
+
+    assertEquals(threads, acceptedCount.get());
+    assertEquals(1, decisions(leasedId, "redis"),
+        "Requests arriving during a renewal should be served from it, not by Redis.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldSweepIdleLeasesAndReturnTheirTokens(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    String leasedId = "IdleLeasedTokenBucketRateLimiterTest" + backend;
+    redisCommands.del(("token_bucket:{" + leasedId + ":" + key + "}").getBytes());
+
+    // leases 3 tokens, one of them used, and then the key sees no more traffic
+    assertTrue(tokenBucketRateLimiter.tryConsumeLeased(leasedId, key, capacity, refillRate, refillPeriod, 3));
+    Thread.sleep(1_500);
+
+    assertEquals(0, tokenBucketRateLimiter.leaseCount(), "Expired leases should be swept.");
+    for (int i = 0; i < capacity - 1; i++) {
+      assertTrue(tokenBucketRateLimiter.tryConsume(leasedId, key, capacity, refillRate, refillPeriod),
+          "Unused tokens of a swept lease should be returned to the bucket.");
+    }
+    assertFalse(tokenBucketRateLimiter.tryConsume(leasedId, key, capacity, refillRate, refillPeriod));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldEndLeasesOfInvalidatedIds(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
+    String leasedId = "InvalidatedLeasedTokenBucketRateLimiterTest" + backend;
+    redisCommands.del(("token_bucket:{" + leasedId + ":" + key + "}").getBytes());
+
+    // leases 3 tokens, one of them used, and then the policy of the id changes
+    assertTrue(tokenBucketRateLimiter.tryConsumeLeased(leasedId, key, capacity, refillRate, refillPeriod, 3));
+    tokenBucketRateLimiter.invalidateLeases(Set.of(leasedId));
+    Thread.sleep(200);
+
+    for (int i = 0; i < capacity - 1; i++) {
+      assertTrue(tokenBucketRateLimiter.tryConsume(leasedId, key, capacity, refillRate, refillPeriod),
+          "Unused tokens of an invalidated lease should be returned to the bucket.");
+    }
+    assertFalse(tokenBucketRateLimiter.tryConsume(leasedId, key, capacity, refillRate, refillPeriod));
+  }
+
+  @Test
+  void shouldMigrateStateStoredAsString() {
+    byte[] bucketKey = ("token_bucket:{" + id + ":" + key + "}").getBytes();
+    redisCommands.set(bucketKey, ("2:" + System.currentTimeMillis()).getBytes());
+
+    assertTrue(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod));
+    assertEquals(1, redisCommands.get(bucketKey)[0], "State should be rewritten in the packed format.");
+    assertTrue(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod));
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod),
+        "Tokens left in the string state should carry over.");
+  }
+
+  @Test
+  void shouldNotWriteStateOnRejection() {
+    byte[] bucketKey = ("token_bucket:{" + id + ":" + key + "}").getBytes();
+    for (int i = 0; i < capacity; i++) {
+      tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod);
+    }
+    byte[] state = redisCommands.get(bucketKey);
+    redisCommands.persist(bucketKey);
+
+    denyCache.clear();
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod));
+    assertArrayEquals(state, redisCommands.get(bucketKey));
+    assertEquals(-1, redisCommands.pTtl(bucketKey), "A rejection should not rewrite the key.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldConsumeWeightedPermitsAllOrNothing(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    assertTrue(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod, capacity - 1));
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod, 2),
+        "Requests costing more permits than are left should be rejected.");
+    assertTrue(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod, 1),
+        "A rejected weighted request must not consume any permits.");
+    assertFalse(tokenBucketRateLimiter.tryConsume(id, key, capacity, refillRate, refillPeriod, 1));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldGrantCoalescedRequestsUpToTheLimit(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    List<CompletableFuture<Boolean>> requests = new ArrayList<>();
+    for (int i = 0; i < capacity * 4; i++) {
+      requests.add(tokenBucketRateLimiter.tryConsumeCoalesced(id, key, capacity, refillRate, refillPeriod).toCompletableFuture());
+    }
+
+    long allowed = requests.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+    assertEquals(capacity, allowed, "Coalesced requests should be granted exactly up to the limit.");
+  }
+
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldBeThreadSafeUnderConcurrency(LimiterBackend backend) throws InterruptedException {
+    scriptBackend.use(backend);
     int threads = 20;
     ExecutorService service = Executors.newFixedThreadPool(threads);
     CountDownLatch latch = new CountDownLatch(threads);
@@ -142,4 +416,36 @@ class TokenBucketRateLimiterTest {
     assertEquals(capacity, acceptedCount.get(), "The capacity should not be exceeded for parallel requests.");
   }
 
-}
\ No newline at end of file
+  @ParameterizedTest
+  @EnumSource(LimiterBackend.class)
+  void shouldReportRemainingQuotaAndRetryAfter(LimiterBackend backend) {
+    scriptBackend.use(backend);
+    RateLimitDecision first = tokenBucketRateLimiter.decide(id, key, capacity, refillRate,
+        refillPeriod, 1);
+    assertTrue(first.allowed());
+    assertEquals(capacity, first.limit());
+    assertEquals(capacity - 1, first.remaining());
+    assertTrue(first.resetMillis() > 0 && first.resetMillis() <= refillPeriod.toMillis(),
+        "A single missing token comes back with the next refill.");
+
+    tokenBucketRateLimiter.decide(id, key, capacity, refillRate, refillPeriod, capacity - 1);
+    RateLimitDecision rejected = tokenBucketRateLimiter.decide(id, key, capacity, refillRate,
+        refillPeriod, 1);
+    assertFalse(rejected.allowed());
+    assertEquals(0, rejected.remaining());
+    assertTrue(rejected.retryAfterMillis() > 0
+        && rejected.retryAfterMillis() <= refillPeriod.toMillis());
+    assertTrue(rejected.resetMillis() > (capacity - 1) * refillPeriod.toMillis(),
+        "An empty bucket is full again after refilling every token.");
+  }
+
+  private double decisions(String decisionId, String source) {
+    Counter counter = meterRegistry.find("rate.limiter.decisions")
+        .tag("algorithm", TokenBucketRateLimiter.LIMITER)
+        .tag("id", decisionId)
+        .tag("source", source)
+        .counter();
+    return counter == null ? 0 : counter.count();
+  }
+
+}
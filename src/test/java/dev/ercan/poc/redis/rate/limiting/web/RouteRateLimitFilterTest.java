@@ -0,0 +1,120 @@
+package dev.ercan.poc.redis.rate.limiting.web;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import dev.ercan.poc.redis.rate.limiting.cache.DenyCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.data.redis.connection.RedisCommands;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+@SpringBootTest(properties = {
+    "rate-limiter.routes[0].patterns=/route-test/window/**",
+    "rate-limiter.routes[0].id=RouteRateLimitFilterTest",
+    "rate-limiter.routes[0].algorithm=sliding-window-log",
+    "rate-limiter.routes[0].limit=2",
+    "rate-limiter.routes[0].window-duration=10s",
+    "rate-limiter.routes[1].patterns=/route-test/keyed/{id}",
+    "rate-limiter.routes[1].methods=post",
+    "rate-limiter.routes[1].id=RouteRateLimitFilterTestKeyed",
+    "rate-limiter.routes[1].key-header=X-Api-Key",
+    "rate-limiter.routes[1].algorithm=token-bucket",
+    "rate-limiter.routes[1].limit=1",
+    "rate-limiter.routes[1].rate=1",
+    "rate-limiter.routes[1].period=10s",
+    "rate-limiter.routes[2].patterns=/route-test/overlap/**",
+    "rate-limiter.routes[2].id=RouteRateLimitFilterTestOuter",
+    "rate-limiter.routes[2].algorithm=fixed-window",
+    "rate-limiter.routes[2].limit=10",
+    "rate-limiter.routes[2].window-duration=10s",
+    "rate-limiter.routes[3].patterns=/route-test/overlap/narrow",
+    "rate-limiter.routes[3].id=RouteRateLimitFilterTestNarrow",
+    "rate-limiter.routes[3].algorithm=sliding-window-log",
+    "rate-limiter.routes[3].limit=1",
+    "rate-limiter.routes[3].window-duration=10s"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class RouteRateLimitFilterTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private RedisCommands redisCommands;
+
+  @Autowired
+  private DenyCache denyCache;
+
+  @BeforeEach
+  @AfterEach
+  void setup() {
+    denyCache.clear();
+    redisCommands.del("sliding_window_log:{RouteRateLimitFilterTest:127.0.0.1}".getBytes(),
+        "token_bucket:{RouteRateLimitFilterTestKeyed:client-a}".getBytes(),
+        "token_bucket:{RouteRateLimitFilterTestKeyed:client-b}".getBytes(),
+        "fixed_window:{RouteRateLimitFilterTestOuter:127.0.0.1}".getBytes(),
+        "sliding_window_log:{RouteRateLimitFilterTestNarrow:127.0.0.1}".getBytes());
+  }
+
+  @Test
+  void shouldRejectOverLimitBeforeReachingAnyHandler() throws Exception {
+    mockMvc.perform(get("/route-test/window/a"))
+        .andExpect(status().isNotFound());
+    mockMvc.perform(get("/route-test/window/b/c"))
+        .andExpect(status().isNotFound());
+    mockMvc.perform(get("/route-test/window/a"))
+        .andExpect(status().isTooManyRequests())
+        .andExpect(header().string("RateLimit-Limit", "2"))
+        .andExpect(header().exists("Retry-After"));
+  }
+
+  @Test
+  void shouldKeyByHeaderAndLimitOnlyConfiguredMethods() throws Exception {
+    mockMvc.perform(post("/route-test/keyed/1").header("X-Api-Key", "client-a"))
+        .andExpect(status().isNotFound());
+    mockMvc.perform(post("/route-test/keyed/2").header("X-Api-Key", "client-a"))
+        .andExpect(status().isTooManyRequests());
+    mockMvc.perform(post("/route-test/keyed/1").header("X-Api-Key", "client-b"))
+        .andExpect(status().isNotFound());
+    mockMvc.perform(get("/route-test/keyed/1").header("X-Api-Key", "client-a"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  void shouldLeaveUnmatchedPathsAlone() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      mockMvc.perform(post("/route-test/keyed/1/details").header("X-Api-Key", "client-a"))
+          .andExpect(status().isNotFound())
+          .andExpect(header().doesNotExist("RateLimit-Limit"));
+    }
+  }
+
+  @Test
+  void shouldNotTakePermitsOfEarlierRoutesWhenALaterRouteRejects() throws Exception {
+    mockMvc.perform(get("/route-test/overlap/narrow"))
+        .andExpect(status().isNotFound());
+    for (int i = 0; i < 3; i++) {
+      mockMvc.perform(get("/route-test/overlap/narrow"))
+          .andExpect(status().isTooManyRequests())
+          .andExpect(header().string("RateLimit-Limit", "1"));
+    }
+
+    assertArrayEquals("1".getBytes(),
+        redisCommands.get("fixed_window:{RouteRateLimitFilterTestOuter:127.0.0.1}".getBytes()),
+        "Requests rejected by the narrow route should not count against the outer one.");
+    mockMvc.perform(get("/route-test/overlap/wide"))
+        .andExpect(status().isNotFound())
+        .andExpect(header().string("RateLimit-Remaining", "8"));
+  }
+
+}